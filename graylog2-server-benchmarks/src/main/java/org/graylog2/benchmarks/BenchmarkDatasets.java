@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks;
+
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.TestIndexSet;
+import org.graylog2.indexer.indexset.IndexSetConfig;
+import org.graylog2.indexer.retention.strategies.DeletionRetentionStrategy;
+import org.graylog2.indexer.retention.strategies.DeletionRetentionStrategyConfig;
+import org.graylog2.indexer.rotation.strategies.MessageCountRotationStrategy;
+import org.graylog2.indexer.rotation.strategies.MessageCountRotationStrategyConfig;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.NodeId;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates reproducible, realistic looking log data for the benchmarks.
+ * <p>
+ * All generators take a {@link Random} so every benchmark run works on the same data set.
+ */
+public final class BenchmarkDatasets {
+    public static final MessageFactory MESSAGE_FACTORY = new TestMessageFactory();
+    public static final NodeId NODE_ID = new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000");
+    public static final String INPUT_ID = "5f0c0aa00000000000000000";
+
+    public static final int HOST_COUNT = 200;
+    public static final String[] APPLICATIONS = {"sshd", "nginx", "cron", "kernel", "postfix", "firewall", "sudo", "dockerd"};
+    public static final String[] FACILITIES = {"kern", "user", "mail", "daemon", "auth", "syslog", "local0", "local7"};
+    public static final String[] HTTP_METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD"};
+    public static final String[] ACTIONS = {"allow", "deny", "drop", "reset"};
+    public static final String[] WORDS = {"connection", "accepted", "failed", "password", "session", "opened", "closed",
+            "user", "root", "timeout", "request", "upstream", "error", "warning", "invalid", "packet", "from", "port"};
+
+    private BenchmarkDatasets() {
+    }
+
+    public static String host(int i) {
+        return "host-" + i + ".example.org";
+    }
+
+    public static String ipAddress(Random random) {
+        return "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + (1 + random.nextInt(254));
+    }
+
+    public static String sentence(Random random, int words) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the text of a typical log line, e.g. an sshd, nginx access log or firewall line.
+     */
+    public static String logLine(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> String.format(Locale.ROOT, "Accepted password for user%d from %s port %d ssh2",
+                    random.nextInt(100), ipAddress(random), 1024 + random.nextInt(60000));
+            case 1 -> String.format(Locale.ROOT, "%s - - \"%s /api/v1/items/%d HTTP/1.1\" %d %d \"-\" \"curl/8.4.0\"",
+                    ipAddress(random), HTTP_METHODS[random.nextInt(HTTP_METHODS.length)], random.nextInt(10_000),
+                    random.nextBoolean() ? 200 : 404, random.nextInt(50_000));
+            case 2 -> String.format(Locale.ROOT, "action=%s src=%s dst=%s proto=tcp dport=%d",
+                    ACTIONS[random.nextInt(ACTIONS.length)], ipAddress(random), ipAddress(random), random.nextInt(65536));
+            default -> sentence(random, 8 + random.nextInt(12));
+        };
+    }
+
+    /**
+     * Returns a decoded message with the fields an average syslog/GELF input produces.
+     */
+    public static Message message(Random random) {
+        final Message message = MESSAGE_FACTORY.createMessage(logLine(random),
+                host(random.nextInt(HOST_COUNT)),
+                new DateTime(1_700_000_000_000L + random.nextInt(86_400_000), DateTimeZone.UTC));
+        message.addField("facility", FACILITIES[random.nextInt(FACILITIES.length)]);
+        message.addField("level", random.nextInt(8));
+        message.addField("application_name", APPLICATIONS[random.nextInt(APPLICATIONS.length)]);
+        message.addField("process_id", 1 + random.nextInt(65535));
+        message.addField("src_ip", ipAddress(random));
+        message.addField("http_method", HTTP_METHODS[random.nextInt(HTTP_METHODS.length)]);
+        message.addField("http_response_code", random.nextBoolean() ? 200 : 500);
+        message.addField("took_ms", random.nextDouble() * 1000);
+        message.addField(Message.FIELD_GL2_SOURCE_INPUT, "5f0c" + random.nextInt(4) + "aa00000000000000000");
+        return message;
+    }
+
+    public static List<Message> messages(Random random, int count) {
+        final List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(message(random));
+        }
+        return messages;
+    }
+
+    public static String gelfPayload(Random random) {
+        return String.format(Locale.ROOT,
+                "{\"version\":\"1.1\",\"host\":\"%s\",\"short_message\":\"%s\",\"timestamp\":%d.%03d," +
+                        "\"level\":%d,\"_application_name\":\"%s\",\"_process_id\":%d,\"_src_ip\":\"%s\"}",
+                host(random.nextInt(HOST_COUNT)), logLine(random).replace("\"", "\\\""),
+                1_700_000_000 + random.nextInt(86_400), random.nextInt(1000), random.nextInt(8),
+                APPLICATIONS[random.nextInt(APPLICATIONS.length)], 1 + random.nextInt(65535), ipAddress(random));
+    }
+
+    public static String syslogPayload(Random random) {
+        return String.format(Locale.ROOT, "<%d>Nov 14 22:%02d:%02d %s %s[%d]: %s",
+                8 + random.nextInt(180), random.nextInt(60), random.nextInt(60), host(random.nextInt(HOST_COUNT)),
+                APPLICATIONS[random.nextInt(APPLICATIONS.length)], 1 + random.nextInt(65535), logLine(random));
+    }
+
+    /**
+     * Returns a raw message as an input on this node would write it into the journal.
+     */
+    public static RawMessage rawMessage(String codecName, String payload) {
+        final RawMessage rawMessage = new RawMessage(payload.getBytes(StandardCharsets.UTF_8));
+        rawMessage.addSourceNode(INPUT_ID, NODE_ID);
+        rawMessage.setCodecName(codecName);
+        rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+        return rawMessage;
+    }
+
+    /**
+     * Returns an index set which is only backed by its configuration.
+     */
+    public static IndexSet indexSet() {
+        return new TestIndexSet(IndexSetConfig.builder()
+                .id("index-set-1")
+                .title("Benchmark index set")
+                .indexPrefix("graylog")
+                .creationDate(ZonedDateTime.now(ZoneOffset.UTC))
+                .shards(1)
+                .replicas(0)
+                .rotationStrategyClass(MessageCountRotationStrategy.class.getCanonicalName())
+                .rotationStrategyConfig(MessageCountRotationStrategyConfig.createDefault())
+                .retentionStrategyClass(DeletionRetentionStrategy.class.getCanonicalName())
+                .retentionStrategyConfig(DeletionRetentionStrategyConfig.createDefault())
+                .indexAnalyzer("standard")
+                .indexTemplateName("template-1")
+                .indexOptimizationMaxNumSegments(1)
+                .indexOptimizationDisabled(false)
+                .build());
+    }
+}
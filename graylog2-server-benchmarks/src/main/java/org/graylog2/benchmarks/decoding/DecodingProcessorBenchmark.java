@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.decoding;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.audit.NullAuditEventSender;
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.inputs.codecs.GelfCodec;
+import org.graylog2.inputs.codecs.RawCodec;
+import org.graylog2.inputs.codecs.ReverseDnsResolver;
+import org.graylog2.inputs.codecs.SyslogCodec;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.buffers.processors.DecodingProcessor;
+import org.graylog2.shared.journal.NoopJournal;
+import org.graylog2.shared.messageq.noop.NoopMessageQueueAcknowledger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Measures {@link DecodingProcessor#onEvent(MessageEvent, long, boolean)} for the GELF, Syslog and Raw codecs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodingProcessorBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"gelf", "syslog", "raw"})
+    public String codec;
+
+    private DecodingProcessor processor;
+    private List<RawMessage> rawMessages;
+    private final MessageEvent event = new MessageEvent();
+    private long sequence = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final org.graylog2.Configuration configuration = new org.graylog2.Configuration();
+        final ServerStatus serverStatus = new ServerStatus(configuration, EnumSet.of(ServerStatus.Capability.SERVER),
+                new EventBus("decoding-benchmark"), NullAuditEventSender::new, BenchmarkDatasets.NODE_ID);
+
+        // The DNS client is only started for syslog inputs with "Force rDNS", the benchmark doesn't send lookups
+        final ReverseDnsResolver reverseDnsResolver = new ReverseDnsResolver(configuration.getReverseDnsServers(),
+                configuration.getReverseDnsTimeout(), configuration.getReverseDnsMaxInFlight(),
+                configuration.getReverseDnsCacheSize(), configuration.getReverseDnsCacheMaxTtl(),
+                configuration.getReverseDnsNegativeCacheTtl(), configuration.isReverseDnsForwardConfirmation(),
+                metricRegistry);
+
+        final Map<String, Codec.Factory<? extends Codec>> codecFactories = Map.of(
+                "gelf", new BenchmarkCodecFactory<>(config -> new GelfCodec(config, null, BenchmarkDatasets.MESSAGE_FACTORY)),
+                "syslog", new BenchmarkCodecFactory<>(config -> new SyslogCodec(config, metricRegistry, BenchmarkDatasets.MESSAGE_FACTORY, reverseDnsResolver)),
+                "raw", new BenchmarkCodecFactory<>(config -> new RawCodec(config, BenchmarkDatasets.MESSAGE_FACTORY)));
+
+        this.processor = new DecodingProcessor(codecFactories, serverStatus, metricRegistry, new NoopJournal(),
+                new NoopMessageQueueAcknowledger(), new EventBus(), metricRegistry.timer("decodeTime"), metricRegistry.timer("parseTime"));
+
+        final Random random = new Random(42);
+        this.rawMessages = new ArrayList<>(MESSAGE_COUNT);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            final String payload = switch (codec) {
+                case "gelf" -> BenchmarkDatasets.gelfPayload(random);
+                case "syslog" -> BenchmarkDatasets.syslogPayload(random);
+                default -> BenchmarkDatasets.logLine(random);
+            };
+            rawMessages.add(BenchmarkDatasets.rawMessage(codec, payload));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws Exception {
+        final long seq = sequence++;
+        event.setRaw(rawMessages.get((int) (seq & (MESSAGE_COUNT - 1))));
+        processor.onEvent(event, seq, true);
+        blackhole.consume(event.getMessage());
+    }
+
+    private record BenchmarkCodecFactory<C extends Codec>(Function<Configuration, C> creator) implements Codec.Factory<C> {
+        @Override
+        public C create(Configuration configuration) {
+            return creator.apply(configuration);
+        }
+
+        @Override
+        public Codec.Config getConfig() {
+            return null;
+        }
+
+        @Override
+        public Codec.Descriptor getDescriptor() {
+            return null;
+        }
+    }
+}
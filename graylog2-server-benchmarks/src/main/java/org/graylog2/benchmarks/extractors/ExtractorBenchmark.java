@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.extractors;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.inputs.extractors.RegexExtractor;
+import org.graylog2.inputs.extractors.SplitAndIndexExtractor;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.inputs.Extractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Extractor#runExtractor(Message)} for the most commonly used extractor types.
+ * <p>
+ * The extractors copy into a target field, so the source messages stay the same between invocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractorBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"regex", "regex_with_condition", "split_and_index"})
+    public String extractorType;
+
+    private Extractor extractor;
+    private List<Message> messages;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        this.extractor = switch (extractorType) {
+            case "regex" -> new RegexExtractor(metricRegistry, "regex", "Regex", 0L, Extractor.CursorStrategy.COPY,
+                    "message", "ssh_user", Map.of("regex_value", "for (user\\d+) from"), "admin",
+                    Collections.emptyList(), Extractor.ConditionType.NONE, null);
+            case "regex_with_condition" -> new RegexExtractor(metricRegistry, "regex", "Regex", 0L,
+                    Extractor.CursorStrategy.COPY, "message", "ssh_user", Map.of("regex_value", "for (user\\d+) from"),
+                    "admin", Collections.emptyList(), Extractor.ConditionType.REGEX, "^Accepted password");
+            case "split_and_index" -> new SplitAndIndexExtractor(metricRegistry, "split", "Split", 0L,
+                    Extractor.CursorStrategy.COPY, "message", "first_word", Map.of("index", 1, "split_by", " "),
+                    "admin", Collections.emptyList(), Extractor.ConditionType.NONE, null);
+            default -> throw new IllegalArgumentException("Unknown extractor type: " + extractorType);
+        };
+        this.messages = BenchmarkDatasets.messages(new Random(42), MESSAGE_COUNT);
+    }
+
+    @Benchmark
+    public Message runExtractor() {
+        final Message message = messages.get(next++ & (MESSAGE_COUNT - 1));
+        extractor.runExtractor(message);
+        return message;
+    }
+}
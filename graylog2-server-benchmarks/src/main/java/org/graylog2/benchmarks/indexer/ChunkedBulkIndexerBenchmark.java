@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.indexer;
+
+import com.codahale.metrics.Meter;
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.ChunkedBulkIndexer;
+import org.graylog2.indexer.messages.IndexingRequest;
+import org.graylog2.indexer.messages.IndexingResults;
+import org.graylog2.indexer.messages.IndexingSuccess;
+import org.graylog2.indexer.messages.SerializationContext;
+import org.graylog2.plugin.Message;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ChunkedBulkIndexer#index(List, ChunkedBulkIndexer.BulkIndex)} with a stub bulk request which
+ * serializes the messages like the real indexer but does not send them anywhere.
+ * <p>
+ * The stub optionally rejects requests above a maximum size, which exercises the chunk splitting of the indexer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkedBulkIndexerBenchmark {
+    @Param({"500"})
+    public int batchSize;
+
+    /**
+     * Maximum size of a single bulk request in bytes, {@code 0} disables the limit.
+     */
+    @Param({"0", "65536"})
+    public int maxRequestBytes;
+
+    private final ChunkedBulkIndexer indexer = new ChunkedBulkIndexer();
+    private final SerializationContext serializationContext = SerializationContext.of(new ObjectMapperProvider().get(), new Meter());
+    private List<IndexingRequest> requests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final IndexSet indexSet = BenchmarkDatasets.indexSet();
+
+        final List<Message> messages = BenchmarkDatasets.messages(new Random(42), batchSize);
+        this.requests = new ArrayList<>(batchSize);
+        for (Message message : messages) {
+            requests.add(IndexingRequest.create(indexSet, message));
+        }
+    }
+
+    @Benchmark
+    public IndexingResults index() throws IOException {
+        return indexer.index(requests, this::bulkIndex);
+    }
+
+    // Mirrors the bulk indexing of the search backends: the chunk is sent in requests of chunk.size messages,
+    // a request which is too large fails with the number of messages indexed before it.
+    private IndexingResults bulkIndex(ChunkedBulkIndexer.Chunk chunk) throws ChunkedBulkIndexer.EntityTooLargeException, IOException {
+        final List<IndexingSuccess> successes = new ArrayList<>(chunk.requests.size() - chunk.offset);
+        int indexed = 0;
+        for (int start = chunk.offset; start < chunk.requests.size(); start += chunk.size) {
+            final List<IndexingRequest> request = chunk.requests.subList(start, Math.min(start + chunk.size, chunk.requests.size()));
+            long requestBytes = 0;
+            for (IndexingRequest indexingRequest : request) {
+                requestBytes += indexingRequest.message().serialize(serializationContext).length;
+            }
+            if (maxRequestBytes > 0 && requestBytes > maxRequestBytes) {
+                throw new ChunkedBulkIndexer.EntityTooLargeException(indexed, IndexingResults.create(successes, Collections.emptyList()));
+            }
+            for (IndexingRequest indexingRequest : request) {
+                successes.add(IndexingSuccess.create(indexingRequest.message(), indexingRequest.indexSet().getWriteIndexAlias()));
+            }
+            indexed += request.size();
+        }
+        return IndexingResults.create(successes, Collections.emptyList());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.journal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.graylog2.audit.NullAuditEventSender;
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.journal.JournalCompression;
+import org.graylog2.shared.journal.LocalKafkaJournal;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a batch of encoded raw messages into the {@link LocalKafkaJournal} and reading it back.
+ * <p>
+ * Every invocation commits the read offset, so old segments can be removed by the retention run after each
+ * iteration and the journal does not grow without bounds.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalKafkaJournalBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({"none", "snappy", "gzip"})
+    public String compression;
+
+    private Path journalDirectory;
+    private ScheduledExecutorService scheduler;
+    private LocalKafkaJournal journal;
+    private List<Journal.Entry> entries;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.journalDirectory = Files.createTempDirectory(Path.of(System.getProperty("java.io.tmpdir")), "journal-benchmark");
+        this.scheduler = Executors.newScheduledThreadPool(1,
+                new ThreadFactoryBuilder().setNameFormat("journal-benchmark-%d").setDaemon(true).build());
+        final ServerStatus serverStatus = new ServerStatus(new org.graylog2.Configuration(),
+                EnumSet.of(ServerStatus.Capability.SERVER), new EventBus("journal-benchmark"),
+                NullAuditEventSender::new, BenchmarkDatasets.NODE_ID);
+        this.journal = new LocalKafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(64L),
+                Duration.standardHours(1),
+                Size.megabytes(256L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                LocalKafkaJournal.THRESHOLD_THROTTLING_DISABLED,
+                new JournalCompression.Converter().convertFrom(compression),
+                new MetricRegistry(),
+                serverStatus);
+        journal.startAsync().awaitRunning();
+
+        final Random random = new Random(42);
+        this.entries = new ArrayList<>(MESSAGE_COUNT);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            final byte[] id = ("message-" + i).getBytes(StandardCharsets.UTF_8);
+            final byte[] payload = BenchmarkDatasets.rawMessage("syslog", BenchmarkDatasets.syslogPayload(random)).encode();
+            entries.add(journal.createEntry(id, payload));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void runRetention() {
+        journal.runRetention();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        journal.stopAsync().awaitTerminated();
+        scheduler.shutdownNow();
+        FileUtils.deleteDirectory(journalDirectory.toFile());
+    }
+
+    @Benchmark
+    public long writeAndRead() {
+        final int from = (next++ * batchSize) % (MESSAGE_COUNT - batchSize);
+        journal.write(entries.subList(from, from + batchSize));
+
+        final List<Journal.JournalReadEntry> read = journal.read(batchSize);
+        final long lastOffset = read.get(read.size() - 1).getOffset();
+        journal.markJournalOffsetCommitted(lastOffset);
+        return lastOffset;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.journal;
+
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.plugin.journal.RawMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding of raw messages for the journal and their decoding when reading them back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RawMessageBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"gelf", "syslog"})
+    public String codec;
+
+    private RawMessage[] rawMessages;
+    private byte[][] encodedMessages;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        this.rawMessages = new RawMessage[MESSAGE_COUNT];
+        this.encodedMessages = new byte[MESSAGE_COUNT][];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            final String payload = "gelf".equals(codec) ? BenchmarkDatasets.gelfPayload(random) : BenchmarkDatasets.syslogPayload(random);
+            rawMessages[i] = BenchmarkDatasets.rawMessage(codec, payload);
+            encodedMessages[i] = rawMessages[i].encode();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return rawMessages[next++ & (MESSAGE_COUNT - 1)].encode();
+    }
+
+    @Benchmark
+    public RawMessage decode() {
+        final int i = next++ & (MESSAGE_COUNT - 1);
+        return RawMessage.decode(encodedMessages[i], i);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.lookup;
+
+import org.apache.commons.net.util.SubnetUtils;
+import org.graylog2.lookup.LongRangeIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the linear subnet scan the IP threat intel adapters used to do with a lookup in a {@link LongRangeIndex}.
+ * The subnet count is in the order of magnitude of the Spamhaus (E)DROP lists.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IpRangeLookupBenchmark {
+    private static final int ADDRESS_COUNT = 1024;
+
+    @Param({"1500"})
+    public int subnetCount;
+
+    private List<SubnetUtils.SubnetInfo> subnets;
+    private LongRangeIndex<SubnetUtils.SubnetInfo> index;
+    private SubnetUtils.SubnetInfo addressParser;
+    private String[] addresses;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        this.subnets = new ArrayList<>(subnetCount);
+        final LongRangeIndex.Builder<SubnetUtils.SubnetInfo> builder = LongRangeIndex.builder();
+        for (int i = 0; i < subnetCount; i++) {
+            final SubnetUtils.SubnetInfo info = new SubnetUtils(address(random.nextInt()) + "/" + (12 + random.nextInt(13))).getInfo();
+            subnets.add(info);
+            builder.add(Integer.toUnsignedLong(info.asInteger(info.getLowAddress())),
+                    Integer.toUnsignedLong(info.asInteger(info.getHighAddress())), info);
+        }
+        this.index = builder.build();
+        this.addressParser = new SubnetUtils("127.0.0.1/32").getInfo();
+
+        // Half of the addresses hit a listed subnet, the other half are random and most likely miss.
+        this.addresses = new String[ADDRESS_COUNT];
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            addresses[i] = i % 2 == 0
+                    ? subnets.get(random.nextInt(subnetCount)).getLowAddress()
+                    : address(random.nextInt());
+        }
+    }
+
+    @Benchmark
+    public SubnetUtils.SubnetInfo linearScan() {
+        final String address = addresses[next++ & (ADDRESS_COUNT - 1)];
+        for (SubnetUtils.SubnetInfo subnet : subnets) {
+            if (subnet.isInRange(address)) {
+                return subnet;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public SubnetUtils.SubnetInfo rangeIndex() {
+        final String address = addresses[next++ & (ADDRESS_COUNT - 1)];
+        return index.get(Integer.toUnsignedLong(addressParser.asInteger(address)));
+    }
+
+    private static String address(int value) {
+        return String.format(Locale.ROOT, "%d.%d.%d.%d",
+                (value >>> 24) & 0xff, (value >>> 16) & 0xff, (value >>> 8) & 0xff, value & 0xff);
+    }
+}
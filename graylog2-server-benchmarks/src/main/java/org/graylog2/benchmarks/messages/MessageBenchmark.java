@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.plugin.Message;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building messages field by field and serializing them for the indexer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"10", "50"})
+    public int fieldCount;
+
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private final Meter invalidTimestampMeter = new Meter();
+    private String[] fieldNames;
+    private Object[] fieldValues;
+    private List<Message> messages;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        this.fieldNames = new String[fieldCount];
+        this.fieldValues = new Object[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fieldNames[i] = "field_" + i;
+            fieldValues[i] = switch (i % 3) {
+                case 0 -> BenchmarkDatasets.sentence(random, 3);
+                case 1 -> random.nextInt(100_000);
+                default -> random.nextDouble();
+            };
+        }
+
+        this.messages = BenchmarkDatasets.messages(random, MESSAGE_COUNT);
+        for (Message message : messages) {
+            for (int i = 0; i < fieldCount; i++) {
+                message.addField(fieldNames[i], fieldValues[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public Message addField() {
+        final Message message = BenchmarkDatasets.MESSAGE_FACTORY.createMessage("benchmark message", "benchmark-host",
+                messages.get(0).getTimestamp());
+        for (int i = 0; i < fieldCount; i++) {
+            message.addField(fieldNames[i], fieldValues[i]);
+        }
+        return message;
+    }
+
+    @Benchmark
+    public void toElasticSearchObject(Blackhole blackhole) {
+        final Message message = messages.get(next++ & (MESSAGE_COUNT - 1));
+        blackhole.consume(message.toElasticSearchObject(objectMapper, invalidTimestampMeter));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.pipeline;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.types.ObjectId;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.db.PipelineDao;
+import org.graylog.plugins.pipelineprocessor.db.RuleDao;
+import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
+import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigService;
+import org.graylog.plugins.pipelineprocessor.db.memory.InMemoryPipelineService;
+import org.graylog.plugins.pipelineprocessor.db.memory.InMemoryPipelineStreamConnectionsService;
+import org.graylog.plugins.pipelineprocessor.db.memory.InMemoryRuleService;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Contains;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Lowercase;
+import org.graylog.plugins.pipelineprocessor.functions.strings.RegexMatch;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog.plugins.pipelineprocessor.processors.ConfigurationStateUpdater;
+import org.graylog.plugins.pipelineprocessor.processors.LookupPrefetcher;
+import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
+import org.graylog.plugins.pipelineprocessor.processors.PipelineResolver;
+import org.graylog.plugins.pipelineprocessor.rest.PipelineConnections;
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.events.ClusterEventBus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.messageq.noop.NoopMessageQueueAcknowledger;
+import org.graylog2.streams.StreamImpl;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PipelineInterpreter#process(org.graylog2.plugin.Messages)} for a single message running through
+ * a large set of pipelines connected to the default stream.
+ * <p>
+ * The messages are reused between invocations. After the first pass every {@code set_field} call overwrites an
+ * existing field, which is also the steady state of a long running node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineInterpreterBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+    private static final int STAGES_PER_PIPELINE = 5;
+
+    @Param({"500"})
+    public int ruleCount;
+
+    @Param({"10"})
+    public int pipelineCount;
+
+    private ScheduledExecutorService scheduler;
+    private PipelineInterpreter interpreter;
+    private List<Message> messages;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        final ClusterEventBus clusterEventBus = new ClusterEventBus("benchmark-cluster-event-bus", MoreExecutors.directExecutor());
+        final InMemoryRuleService ruleService = new InMemoryRuleService(clusterEventBus);
+        final InMemoryPipelineService pipelineService = new InMemoryPipelineService(clusterEventBus);
+        final InMemoryPipelineStreamConnectionsService connectionsService = new InMemoryPipelineStreamConnectionsService(clusterEventBus);
+        final DateTime createdAt = new DateTime(2024, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        final List<String> ruleNames = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            final String name = "rule-" + i;
+            ruleService.save(RuleDao.create(null, name, null, ruleSource(random, name, i), createdAt, null, null, null));
+            ruleNames.add(name);
+        }
+
+        // Distribute the rules evenly over the stages of all pipelines.
+        final int rulesPerStage = Math.max(1, ruleCount / (pipelineCount * STAGES_PER_PIPELINE));
+        final Set<String> pipelineIds = new HashSet<>();
+        int rule = 0;
+        for (int p = 0; p < pipelineCount; p++) {
+            final StringBuilder source = new StringBuilder("pipeline \"pipeline-").append(p).append("\"\n");
+            for (int stage = 0; stage < STAGES_PER_PIPELINE; stage++) {
+                source.append("stage ").append(stage).append(" match either\n");
+                for (int r = 0; r < rulesPerStage && rule < ruleNames.size(); r++) {
+                    source.append("    rule \"").append(ruleNames.get(rule++)).append("\";\n");
+                }
+            }
+            source.append("end\n");
+            final PipelineDao saved = pipelineService.save(PipelineDao.create(null, "pipeline-" + p, null, source.toString(), createdAt, null));
+            pipelineIds.add(saved.id());
+        }
+        connectionsService.save(PipelineConnections.create(null, Stream.DEFAULT_STREAM_ID, pipelineIds));
+
+        final Map<String, Function<?>> functions = Map.of(
+                SetField.NAME, new SetField(),
+                HasField.NAME, new HasField(),
+                StringConversion.NAME, new StringConversion(),
+                LongConversion.NAME, new LongConversion(),
+                Contains.NAME, new Contains(),
+                RegexMatch.NAME, new RegexMatch(),
+                Lowercase.NAME, new Lowercase());
+        final PipelineRuleParser parser = new PipelineRuleParser(new FunctionRegistry(functions));
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final RuleMetricsConfigService ruleMetricsConfigService = new RuleMetricsConfigService(null, clusterEventBus) {
+            @Override
+            public RuleMetricsConfigDto get() {
+                return RuleMetricsConfigDto.createDefault();
+            }
+        };
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("pipeline-benchmark-%d").setDaemon(true).build());
+        final ConfigurationStateUpdater stateUpdater = new ConfigurationStateUpdater(ruleService,
+                pipelineService,
+                connectionsService,
+                parser,
+                (config, ruleParser) -> new PipelineResolver(ruleParser, config),
+                ruleMetricsConfigService,
+                metricRegistry,
+                scheduler,
+                new EventBus("pipeline-benchmark"),
+                (currentPipelines, streamPipelineConnections, ruleMetricsConfig) -> new PipelineInterpreter.State(
+                        currentPipelines, streamPipelineConnections, ruleMetricsConfig, metricRegistry, 1, true));
+        this.interpreter = new PipelineInterpreter(new NoopMessageQueueAcknowledger(), metricRegistry, stateUpdater,
+                LookupPrefetcher.disabled());
+
+        final Stream defaultStream = new StreamImpl(new ObjectId(Stream.DEFAULT_STREAM_ID),
+                Map.of(StreamImpl.FIELD_TITLE, "Default Stream"), Collections.emptyList(), Collections.emptySet(), BenchmarkDatasets.indexSet());
+        this.messages = BenchmarkDatasets.messages(random, MESSAGE_COUNT);
+        messages.forEach(message -> message.addStream(defaultStream));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void process(Blackhole blackhole) {
+        final Message message = messages.get(next++ & (MESSAGE_COUNT - 1));
+        blackhole.consume(interpreter.process(message));
+    }
+
+    private static String ruleSource(Random random, String name, int i) {
+        final String condition = switch (i % 5) {
+            case 0 -> String.format(Locale.ROOT,
+                    "has_field(\"application_name\") && to_string($message.application_name) == \"%s\"",
+                    BenchmarkDatasets.APPLICATIONS[random.nextInt(BenchmarkDatasets.APPLICATIONS.length)]);
+            case 1 -> String.format(Locale.ROOT, "contains(to_string($message.message), \"%s\")",
+                    BenchmarkDatasets.WORDS[random.nextInt(BenchmarkDatasets.WORDS.length)]);
+            case 2 -> String.format(Locale.ROOT,
+                    "regex(\"password for user%d\\\\b\", to_string($message.message)).matches == true",
+                    random.nextInt(100));
+            case 3 -> String.format(Locale.ROOT, "to_long($message.level) > %d", random.nextInt(8));
+            default -> String.format(Locale.ROOT, "lowercase(to_string($message.source)) == \"%s\"",
+                    BenchmarkDatasets.host(random.nextInt(BenchmarkDatasets.HOST_COUNT)));
+        };
+        return "rule \"" + name + "\"\n" +
+                "when " + condition + "\n" +
+                "then\n" +
+                "    set_field(\"matched_" + i + "\", true);\n" +
+                "end\n";
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.streams;
+
+import com.codahale.metrics.MetricRegistry;
+import org.bson.types.ObjectId;
+import org.graylog2.Configuration;
+import org.graylog2.benchmarks.BenchmarkDatasets;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.streams.StreamFaultManager;
+import org.graylog2.streams.StreamImpl;
+import org.graylog2.streams.StreamMetrics;
+import org.graylog2.streams.StreamRouterEngine;
+import org.graylog2.streams.StreamRouterEngineMode;
+import org.graylog2.streams.StreamRuleImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link StreamRouterEngine#match(Message)} with a large number of streams using a realistic rule mix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamRouterEngineBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"1000"})
+    public int streamCount;
+
+    @Param({"linear", "compiled"})
+    public String engineMode;
+
+    private StreamRouterEngine engine;
+    private List<Message> messages;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final StreamMetrics streamMetrics = new StreamMetrics(metricRegistry);
+        // Notifications and stream updates only happen once a stream faults, which the benchmark rules never do.
+        final StreamFaultManager faultManager = new StreamFaultManager(new Configuration(), streamMetrics, null, null);
+
+        final List<Stream> streams = new ArrayList<>(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            streams.add(stream(random));
+        }
+
+        this.engine = new StreamRouterEngine(streams, faultManager, streamMetrics,
+                () -> null, metricRegistry, StreamRouterEngineMode.valueOf(engineMode.toUpperCase(Locale.ROOT)));
+        this.messages = BenchmarkDatasets.messages(random, MESSAGE_COUNT);
+    }
+
+    @Benchmark
+    public void match(Blackhole blackhole) {
+        final Message message = messages.get(next++ & (MESSAGE_COUNT - 1));
+        blackhole.consume(engine.match(message));
+    }
+
+    private static Stream stream(Random random) {
+        final ObjectId streamId = new ObjectId();
+        final int ruleCount = 1 + random.nextInt(3);
+        final List<StreamRule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            rules.add(rule(random, streamId));
+        }
+
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put(StreamImpl.FIELD_TITLE, "Stream " + streamId);
+        fields.put(StreamImpl.FIELD_MATCHING_TYPE, random.nextInt(4) == 0 ? "OR" : "AND");
+        fields.put(StreamImpl.FIELD_DISABLED, false);
+        return new StreamImpl(streamId, fields, rules, Collections.emptySet(), null);
+    }
+
+    private static StreamRule rule(Random random, ObjectId streamId) {
+        final int kind = random.nextInt(100);
+        final StreamRuleType type;
+        final String field;
+        final String value;
+        if (kind < 35) {
+            type = StreamRuleType.EXACT;
+            field = "source";
+            value = BenchmarkDatasets.host(random.nextInt(BenchmarkDatasets.HOST_COUNT));
+        } else if (kind < 55) {
+            type = StreamRuleType.EXACT;
+            field = "application_name";
+            value = BenchmarkDatasets.APPLICATIONS[random.nextInt(BenchmarkDatasets.APPLICATIONS.length)];
+        } else if (kind < 70) {
+            type = StreamRuleType.CONTAINS;
+            field = "message";
+            value = BenchmarkDatasets.WORDS[random.nextInt(BenchmarkDatasets.WORDS.length)];
+        } else if (kind < 80) {
+            type = StreamRuleType.REGEX;
+            field = "message";
+            value = "^(Accepted|Failed) password for user" + random.nextInt(100) + "\\b";
+        } else if (kind < 90) {
+            type = StreamRuleType.GREATER;
+            field = "level";
+            value = String.valueOf(random.nextInt(8));
+        } else if (kind < 95) {
+            type = StreamRuleType.PRESENCE;
+            field = "src_ip";
+            value = null;
+        } else {
+            type = StreamRuleType.MATCH_INPUT;
+            field = Message.FIELD_GL2_SOURCE_INPUT;
+            value = "5f0c" + random.nextInt(4) + "aa00000000000000000";
+        }
+
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put(StreamRuleImpl.FIELD_TYPE, type.toInteger());
+        fields.put(StreamRuleImpl.FIELD_FIELD, field);
+        fields.put(StreamRuleImpl.FIELD_VALUE, value);
+        fields.put(StreamRuleImpl.FIELD_INVERTED, random.nextInt(10) == 0);
+        fields.put(StreamRuleImpl.FIELD_STREAM_ID, streamId);
+        return new StreamRuleImpl(fields);
+    }
+}
@@ -35,6 +35,7 @@ import org.graylog.events.legacy.LegacyAlarmCallbackEventNotification;
 import org.graylog.events.legacy.LegacyAlarmCallbackEventNotificationConfig;
 import org.graylog.events.legacy.V20190722150700_LegacyAlertConditionMigration;
 import org.graylog.events.migrations.V20230629140000_RenameFieldTypeOfEventDefinitionSeries;
+import org.graylog.events.migrations.V20261018150000_AddStreamingAggregationToProcessingOrder;
 import org.graylog.events.notifications.EventNotificationExecutionJob;
 import org.graylog.events.notifications.EventNotificationExecutionMetrics;
 import org.graylog.events.notifications.NotificationGracePeriodService;
@@ -45,6 +46,7 @@ import org.graylog.events.notifications.types.HTTPEventNotificationConfig;
 import org.graylog.events.notifications.types.HTTPEventNotificationConfigV2;
 import org.graylog.events.notifications.types.HTTPEventNotificationV2;
 import org.graylog.events.periodicals.EventNotificationStatusCleanUp;
+import org.graylog.events.periodicals.StreamingAggregationCheckpoints;
 import org.graylog.events.processor.DefaultEventResolver;
 import org.graylog.events.processor.EventProcessorEngine;
 import org.graylog.events.processor.EventProcessorExecutionJob;
@@ -57,6 +59,10 @@ import org.graylog.events.processor.aggregation.AggregationSearch;
 import org.graylog.events.processor.aggregation.PivotAggregationSearch;
 import org.graylog.events.processor.storage.EventStorageHandlerEngine;
 import org.graylog.events.processor.storage.PersistToStreamsStorageHandler;
+import org.graylog.events.processor.streaming.StreamingAggregationEventProcessor;
+import org.graylog.events.processor.streaming.StreamingAggregationEventProcessorConfig;
+import org.graylog.events.processor.streaming.StreamingAggregationEventProcessorParameters;
+import org.graylog.events.processor.streaming.StreamingAggregationMessageProcessor;
 import org.graylog.events.processor.systemnotification.SystemNotificationEventEntityScope;
 import org.graylog.events.processor.systemnotification.SystemNotificationEventProcessor;
 import org.graylog.events.processor.systemnotification.SystemNotificationEventProcessorConfig;
@@ -106,6 +112,9 @@ public class EventsModule extends PluginModule {
         addSystemRestResource(SystemNotificationRenderResource.class);
 
         addPeriodical(EventNotificationStatusCleanUp.class);
+        addPeriodical(StreamingAggregationCheckpoints.class);
+
+        addMessageProcessor(StreamingAggregationMessageProcessor.class, StreamingAggregationMessageProcessor.Descriptor.class);
 
         addEntityFacade(ModelTypes.EVENT_DEFINITION_V1, EventDefinitionFacade.class);
         addEntityFacade(ModelTypes.NOTIFICATION_V1, NotificationFacade.class);
@@ -126,6 +135,11 @@ public class EventsModule extends PluginModule {
                 SystemNotificationEventProcessor.Factory.class,
                 SystemNotificationEventProcessorConfig.class,
                 SystemNotificationEventProcessorParameters.class);
+        addEventProcessor(StreamingAggregationEventProcessorConfig.TYPE_NAME,
+                StreamingAggregationEventProcessor.class,
+                StreamingAggregationEventProcessor.Factory.class,
+                StreamingAggregationEventProcessorConfig.class,
+                StreamingAggregationEventProcessorParameters.class);
 
         addEventStorageHandler(PersistToStreamsStorageHandler.Config.TYPE_NAME,
                 PersistToStreamsStorageHandler.class,
@@ -184,6 +198,7 @@ public class EventsModule extends PluginModule {
         install(new FactoryModuleBuilder().implement(AggregationSearch.class, PivotAggregationSearch.class).build(AggregationSearch.Factory.class));
 
         addMigration(V20230629140000_RenameFieldTypeOfEventDefinitionSeries.class);
+        addMigration(V20261018150000_AddStreamingAggregationToProcessingOrder.class);
 
         serviceBinder().addBinding().to(NotificationSystemEventPublisher.class).in(Scopes.SINGLETON);
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.migrations;
+
+import jakarta.inject.Inject;
+import org.graylog.events.processor.streaming.StreamingAggregationMessageProcessor;
+import org.graylog2.messageprocessors.MessageProcessorsConfig;
+import org.graylog2.migrations.Migration;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Moves the {@link StreamingAggregationMessageProcessor} to the end of the message processing order, so it only sees
+ * messages after stream routing and pipelines. Without an explicit position it would run first, because unknown
+ * processors are sorted before the configured ones.
+ */
+public class V20261018150000_AddStreamingAggregationToProcessingOrder extends Migration {
+    private final ClusterConfigService clusterConfigService;
+    private final Set<String> processorClassNames;
+
+    @Inject
+    public V20261018150000_AddStreamingAggregationToProcessingOrder(ClusterConfigService clusterConfigService,
+                                                                    Set<MessageProcessor.Descriptor> processorDescriptors) {
+        this.clusterConfigService = clusterConfigService;
+        this.processorClassNames = processorDescriptors.stream()
+                .map(MessageProcessor.Descriptor::className)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public ZonedDateTime createdAt() {
+        return ZonedDateTime.parse("2026-10-18T15:00:00Z");
+    }
+
+    @Override
+    public void upgrade() {
+        if (clusterConfigService.get(MigrationCompleted.class) != null) {
+            return;
+        }
+
+        final MessageProcessorsConfig config = clusterConfigService.getOrDefault(MessageProcessorsConfig.class,
+                MessageProcessorsConfig.defaultConfig());
+
+        final String processorName = StreamingAggregationMessageProcessor.class.getCanonicalName();
+        final List<String> order = config.withProcessors(processorClassNames).processorOrder();
+        if (!order.remove(processorName)) {
+            throw new IllegalStateException("StreamingAggregationMessageProcessor not in processor list");
+        }
+        order.add(processorName);
+
+        // Keep the disabled processors, other than the ordering migrations before
+        clusterConfigService.write(config.toBuilder().processorOrder(order).build());
+
+        clusterConfigService.write(new MigrationCompleted());
+    }
+
+    public record MigrationCompleted() {}
+}
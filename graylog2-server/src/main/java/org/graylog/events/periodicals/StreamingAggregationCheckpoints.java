@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.periodicals;
+
+import jakarta.inject.Inject;
+import org.graylog.events.processor.EventDefinitionConfiguration;
+import org.graylog.events.processor.streaming.StreamingAggregationService;
+import org.graylog2.plugin.periodical.Periodical;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the streaming aggregation state of this node to the database and picks up changed event definitions.
+ */
+public class StreamingAggregationCheckpoints extends Periodical {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingAggregationCheckpoints.class);
+
+    private final StreamingAggregationService streamingAggregationService;
+    private final int periodSeconds;
+
+    @Inject
+    public StreamingAggregationCheckpoints(StreamingAggregationService streamingAggregationService,
+                                           EventDefinitionConfiguration configuration) {
+        this.streamingAggregationService = streamingAggregationService;
+        this.periodSeconds = (int) Math.max(1, configuration.getStreamingCheckpointInterval().toSeconds());
+    }
+
+    @Override
+    public boolean runsForever() {
+        return false;
+    }
+
+    @Override
+    public boolean stopOnGracefulShutdown() {
+        return true;
+    }
+
+    @Override
+    public boolean leaderOnly() {
+        return false;
+    }
+
+    @Override
+    public boolean startOnThisNode() {
+        return true;
+    }
+
+    @Override
+    public boolean isDaemon() {
+        return true;
+    }
+
+    @Override
+    public int getInitialDelaySeconds() {
+        return 0;
+    }
+
+    @Override
+    public int getPeriodSeconds() {
+        return periodSeconds;
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOG;
+    }
+
+    @Override
+    public void doRun() {
+        // Checkpoint first, so the state of changed event definitions can be restored from the latest buckets
+        streamingAggregationService.checkpoint();
+        streamingAggregationService.refresh();
+    }
+}
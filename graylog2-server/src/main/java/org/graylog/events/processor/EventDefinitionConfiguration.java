@@ -17,6 +17,8 @@
 package org.graylog.events.processor;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 
 public class EventDefinitionConfiguration {
@@ -24,7 +26,21 @@ public class EventDefinitionConfiguration {
     @Parameter(value = "event_definition_max_event_limit", validators = PositiveIntegerValidator.class)
     private int maxEventLimit = 1000;
 
+    @Parameter(value = "event_definition_search_coalescing_window")
+    private Duration searchCoalescingWindow = Duration.milliseconds(0);
+
+    @Parameter(value = "event_definition_streaming_checkpoint_interval", validators = PositiveDurationValidator.class)
+    private Duration streamingCheckpointInterval = Duration.seconds(5);
+
     public int getMaxEventLimit() {
         return maxEventLimit;
     }
+
+    public Duration getSearchCoalescingWindow() {
+        return searchCoalescingWindow;
+    }
+
+    public Duration getStreamingCheckpointInterval() {
+        return streamingCheckpointInterval;
+    }
 }
@@ -22,7 +22,6 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.primitives.Ints;
 import com.google.inject.assistedinject.Assisted;
 import jakarta.inject.Inject;
 import org.graylog.events.conditions.BooleanNumberConditionsVisitor;
@@ -57,8 +56,6 @@ import org.graylog2.notifications.NotificationService;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageFactory;
 import org.graylog2.plugin.MessageSummary;
-import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
-import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -73,11 +70,9 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import static org.graylog.events.search.MoreSearch.luceneEscape;
 import static org.graylog2.notifications.Notification.Type.EVENT_LIMIT_REACHED;
 
 public class AggregationEventProcessor implements EventProcessor {
@@ -183,42 +178,15 @@ public class AggregationEventProcessor implements EventProcessor {
             }
 
         } else {
-            final AtomicLong msgCount = new AtomicLong(0L);
-            final MoreSearch.ScrollCallback callback = (messages, continueScrolling) -> {
-                final List<MessageSummary> summaries = Lists.newArrayList();
-                for (final ResultMessage resultMessage : messages) {
-                    if (msgCount.incrementAndGet() > limit) {
-                        continueScrolling.set(false);
-                        break;
-                    }
-                    final Message msg = resultMessage.getMessage();
-                    summaries.add(new MessageSummary(resultMessage.getIndex(), msg));
-                }
-                messageConsumer.accept(summaries);
-            };
-
             ElasticsearchQueryString scrollQueryString = ElasticsearchQueryString.of(config.query());
-            scrollQueryString = scrollQueryString.concatenate(groupByQueryString(event));
+            if (!config.groupBy().isEmpty()) {
+                scrollQueryString = scrollQueryString.concatenate(AggregationSourceMessages.groupByQueryString(event.getGroupByFields()));
+            }
             LOG.debug("scrollQueryString: {}", scrollQueryString);
 
-            final TimeRange timeRange = AbsoluteRange.create(event.getTimerangeStart(), event.getTimerangeEnd());
-            moreSearch.scrollQuery(scrollQueryString.queryString(), config.streams(), config.filters(),
-                    config.queryParameters(), timeRange, Math.min(500, Ints.saturatedCast(limit)), callback);
-        }
-    }
-
-    // Return the ES query string for the group by fields specified in event; or empty if none specified.
-    // Search value is escaped and enclosed in quotes.
-    private ElasticsearchQueryString groupByQueryString(Event event) {
-        ElasticsearchQueryString result = ElasticsearchQueryString.empty();
-        if (!config.groupBy().isEmpty()) {
-            for (String key : event.getGroupByFields().keySet()) {
-                String value = event.getGroupByFields().get(key);
-                String query = new StringBuilder(key).append(":\"").append(luceneEscape(value)).append("\"").toString();
-                result = result.concatenate(ElasticsearchQueryString.of(query));
-            }
+            AggregationSourceMessages.scroll(moreSearch, event, scrollQueryString.queryString(), config.streams(),
+                    config.filters(), config.queryParameters(), messageConsumer, limit);
         }
-        return result;
     }
 
     /**
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.plugins.views.search.Filter;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Combines the searches of aggregation event definitions which run at the same time over the same streams into a
+ * single search.
+ * <p>
+ * The job scheduler hands all triggers which are due in one loop iteration to its worker threads at once, so event
+ * definitions which are due at about the same time also search at about the same time. The first search waits for the
+ * configured window for other searches with the same streams, owner and time zone. The search types of all of them
+ * are then run as search types of a single query, which the search backend sends as one multi search request, and
+ * every search gets back the results of its own search types. Every search type keeps the query string and the time
+ * range of its own search, so the searches don't need to cover the same time range. If the combined search fails,
+ * every search runs on its own again, so errors are still reported per event definition.
+ */
+@Singleton
+public class AggregationSearchCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(AggregationSearchCoalescer.class);
+
+    private static final String QUERY_ID = "coalesced-query";
+    static final int MAX_BATCH_SIZE = 50;
+
+    public interface SearchRunner {
+        Map<String, QueryResult> run(Search search) throws EventProcessorException;
+    }
+
+    private final long windowMs;
+    // Batches which are still waiting for searches to join, guarded by "this"
+    private final Map<Key, Batch> openBatches = new HashMap<>();
+
+    private final Histogram batchSize;
+    private final Meter fallbacks;
+
+    @Inject
+    public AggregationSearchCoalescer(@Named("event_definition_search_coalescing_window") Duration window,
+                                      MetricRegistry metricRegistry) {
+        this(window.toMilliseconds(), metricRegistry);
+    }
+
+    AggregationSearchCoalescer(long windowMs, MetricRegistry metricRegistry) {
+        this.windowMs = windowMs;
+        this.batchSize = metricRegistry.histogram(name(AggregationSearchCoalescer.class, "batch-size"));
+        this.fallbacks = metricRegistry.meter(name(AggregationSearchCoalescer.class, "fallbacks"));
+    }
+
+    /**
+     * Runs the given search, possibly together with the searches of other event definitions.
+     *
+     * @param search the search of a single event definition
+     * @param user   the owner of the search
+     * @param runner runs a search and waits for its results
+     * @return the query results of the search, by query ID
+     */
+    public Map<String, QueryResult> execute(Search search, AggregationSearch.User user, SearchRunner runner) throws EventProcessorException {
+        final Optional<Key> key = windowMs > 0 ? Key.of(search, user) : Optional.empty();
+        if (key.isEmpty()) {
+            return runner.run(search);
+        }
+
+        Batch batch;
+        int index;
+        synchronized (this) {
+            batch = openBatches.get(key.get());
+            index = batch == null ? -1 : batch.join(search);
+            if (index < 0) {
+                batch = new Batch();
+                index = batch.join(search);
+                openBatches.put(key.get(), batch);
+            }
+        }
+
+        if (index == 0) {
+            Uninterruptibles.sleepUninterruptibly(windowMs, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                openBatches.remove(key.get(), batch);
+                batch.close();
+            }
+            batch.run(runner);
+        }
+
+        final List<Map<String, QueryResult>> results = batch.results.join();
+        if (results != null) {
+            return results.get(index);
+        }
+        if (batch.size() > 1) {
+            fallbacks.mark();
+        }
+        return runner.run(search);
+    }
+
+    private class Batch {
+        // Guarded by the coalescer until the batch is closed
+        private final List<Search> searches = new ArrayList<>();
+        private boolean closed = false;
+
+        // Completed with the results of every search, or with null if every search has to run on its own
+        private final CompletableFuture<List<Map<String, QueryResult>>> results = new CompletableFuture<>();
+
+        int join(Search search) {
+            if (closed || searches.size() >= MAX_BATCH_SIZE) {
+                return -1;
+            }
+            searches.add(search);
+            return searches.size() - 1;
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        int size() {
+            return searches.size();
+        }
+
+        void run(SearchRunner runner) {
+            List<Map<String, QueryResult>> memberResults = null;
+            try {
+                if (searches.size() > 1) {
+                    batchSize.update(searches.size());
+                    memberResults = runCoalesced(runner);
+                }
+            } catch (Exception e) {
+                LOG.debug("Coalesced search of {} event definitions failed, running them separately.", searches.size(), e);
+            } finally {
+                results.complete(memberResults);
+            }
+        }
+
+        private List<Map<String, QueryResult>> runCoalesced(SearchRunner runner) throws EventProcessorException {
+            final Query first = searches.get(0).queries().iterator().next();
+            final ImmutableSet.Builder<SearchType> searchTypes = ImmutableSet.builder();
+            DateTime from = null;
+            DateTime to = null;
+            for (int i = 0; i < searches.size(); i++) {
+                for (Query query : searches.get(i).queries()) {
+                    final DateTime queryFrom = query.timerange().getFrom();
+                    final DateTime queryTo = query.timerange().getTo();
+                    from = from == null || queryFrom.isBefore(from) ? queryFrom : from;
+                    to = to == null || queryTo.isAfter(to) ? queryTo : to;
+                    for (SearchType searchType : query.searchTypes()) {
+                        searchTypes.add(((Pivot) searchType).toBuilder()
+                                .id(coalescedId(i, query, searchType))
+                                .query(query.query())
+                                .timerange(query.timerange())
+                                .build());
+                    }
+                }
+            }
+            // The search types use the time ranges of their own searches, the query only has to span all of them
+            final Query coalesced = Query.builder()
+                    .id(QUERY_ID)
+                    .timerange(AbsoluteRange.create(from, to))
+                    .filter(first.filter())
+                    .query(ElasticsearchQueryString.empty())
+                    .searchTypes(searchTypes.build())
+                    .build();
+
+            final QueryResult result = runner.run(Search.builder().queries(ImmutableSet.of(coalesced)).build()).get(QUERY_ID);
+            if (result == null || result.state() != QueryResult.State.COMPLETED || (result.errors() != null && !result.errors().isEmpty())) {
+                LOG.debug("Coalesced search of {} event definitions returned errors, running them separately.", searches.size());
+                return null;
+            }
+
+            final List<Map<String, QueryResult>> memberResults = new ArrayList<>(searches.size());
+            for (int i = 0; i < searches.size(); i++) {
+                final ImmutableMap.Builder<String, QueryResult> queryResults = ImmutableMap.builder();
+                for (Query query : searches.get(i).queries()) {
+                    final Map<String, SearchType.Result> searchTypeResults = new HashMap<>();
+                    for (SearchType searchType : query.searchTypes()) {
+                        if (!(result.searchTypes().get(coalescedId(i, query, searchType)) instanceof PivotResult pivotResult)) {
+                            return null;
+                        }
+                        searchTypeResults.put(searchType.id(), withId(pivotResult, searchType.id()));
+                    }
+                    queryResults.put(query.id(), QueryResult.builder()
+                            .query(query)
+                            .searchTypes(searchTypeResults)
+                            .executionStats(result.executionStats())
+                            .build());
+                }
+                memberResults.add(queryResults.build());
+            }
+            return memberResults;
+        }
+    }
+
+    private static String coalescedId(int index, Query query, SearchType searchType) {
+        return index + "/" + query.id() + "/" + searchType.id();
+    }
+
+    private static PivotResult withId(PivotResult result, String id) {
+        final PivotResult.Builder builder = PivotResult.builder()
+                .id(id)
+                .rows(result.rows())
+                .total(result.total())
+                .effectiveTimerange(result.effectiveTimerange());
+        result.name().ifPresent(builder::name);
+        return builder.build();
+    }
+
+    private record Key(Filter filter, String owner, DateTimeZone timezone) {
+        // Only searches whose queries differ in nothing but their query string, time range and search types can be
+        // combined. The query string and time range are moved into the search types.
+        static Optional<Key> of(Search search, AggregationSearch.User user) {
+            if (!search.parameters().isEmpty() || search.queries().isEmpty()) {
+                return Optional.empty();
+            }
+            final Query first = search.queries().iterator().next();
+            for (Query query : search.queries()) {
+                if (query.filter() == null
+                        || !Objects.equals(query.filter(), first.filter())
+                        || !query.filters().isEmpty()
+                        || query.globalOverride().isPresent()) {
+                    return Optional.empty();
+                }
+                for (SearchType searchType : query.searchTypes()) {
+                    // Search types with their own query, time range or streams would lose them when combined
+                    if (!(searchType instanceof Pivot pivot)
+                            || pivot.query().isPresent()
+                            || pivot.timerange().isPresent()
+                            || !pivot.streams().isEmpty()
+                            || pivot.hasStreamCategories()) {
+                        return Optional.empty();
+                    }
+                }
+            }
+            return Optional.of(new Key(first.filter(), user.name(), user.timezone()));
+        }
+    }
+}
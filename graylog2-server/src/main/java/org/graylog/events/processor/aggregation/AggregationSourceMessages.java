@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import org.graylog.events.event.Event;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.events.search.MoreSearch;
+import org.graylog.plugins.views.search.Parameter;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.searchfilters.model.UsedSearchFilter;
+import org.graylog2.indexer.results.ResultMessage;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.graylog.events.search.MoreSearch.luceneEscape;
+
+/**
+ * Loads the messages an aggregation event has been created from. Used by all event processors which aggregate
+ * messages.
+ */
+public final class AggregationSourceMessages {
+    private AggregationSourceMessages() {
+    }
+
+    /**
+     * Returns the query string which matches the group of an event; or empty if there are no group by fields.
+     * Search values are escaped and enclosed in quotes.
+     *
+     * @param groupByFields the group by fields of the event
+     */
+    public static ElasticsearchQueryString groupByQueryString(Map<String, String> groupByFields) {
+        ElasticsearchQueryString result = ElasticsearchQueryString.empty();
+        for (Map.Entry<String, String> entry : groupByFields.entrySet()) {
+            final String query = entry.getKey() + ":\"" + luceneEscape(entry.getValue()) + "\"";
+            result = result.concatenate(ElasticsearchQueryString.of(query));
+        }
+        return result;
+    }
+
+    /**
+     * Scrolls the messages matching the given query within the time range of the event and passes them to the
+     * consumer in batches, until the limit is reached.
+     */
+    public static void scroll(MoreSearch moreSearch,
+                              Event event,
+                              String queryString,
+                              Set<String> streams,
+                              List<UsedSearchFilter> filters,
+                              Set<Parameter> queryParameters,
+                              Consumer<List<MessageSummary>> messageConsumer,
+                              long limit) throws EventProcessorException {
+        if (limit <= 0) {
+            return;
+        }
+        final AtomicLong msgCount = new AtomicLong(0L);
+        final MoreSearch.ScrollCallback callback = (messages, continueScrolling) -> {
+            final List<MessageSummary> summaries = Lists.newArrayList();
+            for (final ResultMessage resultMessage : messages) {
+                if (msgCount.incrementAndGet() > limit) {
+                    continueScrolling.set(false);
+                    break;
+                }
+                summaries.add(new MessageSummary(resultMessage.getIndex(), resultMessage.getMessage()));
+            }
+            messageConsumer.accept(summaries);
+        };
+
+        final TimeRange timeRange = AbsoluteRange.create(event.getTimerangeStart(), event.getTimerangeEnd());
+        moreSearch.scrollQuery(queryString, streams, filters, queryParameters, timeRange,
+                Math.min(500, Ints.saturatedCast(limit)), callback);
+    }
+}
@@ -102,6 +102,7 @@ public class PivotAggregationSearch implements AggregationSearch {
     private final PermittedStreams permittedStreams;
     private final NotificationService notificationService;
     private final QueryStringDecorators queryStringDecorators;
+    private final AggregationSearchCoalescer searchCoalescer;
 
     @Inject
     public PivotAggregationSearch(@Assisted AggregationEventProcessorConfig config,
@@ -115,7 +116,8 @@ public class PivotAggregationSearch implements AggregationSearch {
                                   MoreSearch moreSearch,
                                   PermittedStreams permittedStreams,
                                   NotificationService notificationService,
-                                  QueryStringDecorators queryStringDecorators) {
+                                  QueryStringDecorators queryStringDecorators,
+                                  AggregationSearchCoalescer searchCoalescer) {
         this.config = config;
         this.parameters = parameters;
         this.searchOwner = searchOwner;
@@ -128,6 +130,7 @@ public class PivotAggregationSearch implements AggregationSearch {
         this.permittedStreams = permittedStreams;
         this.notificationService = notificationService;
         this.queryStringDecorators = queryStringDecorators;
+        this.searchCoalescer = searchCoalescer;
     }
 
     private String metricName(SeriesSpec series) {
@@ -136,9 +139,9 @@ public class PivotAggregationSearch implements AggregationSearch {
 
     @Override
     public AggregationResult doSearch() throws EventProcessorException {
-        final SearchJob searchJob = getSearchJob(parameters, searchOwner, config.searchWithinMs(), config.executeEveryMs());
-        final QueryResult queryResult = searchJob.results().get(QUERY_ID);
-        final QueryResult streamQueryResult = searchJob.results().get(STREAMS_QUERY_ID);
+        final Map<String, QueryResult> results = getSearchResults(parameters, searchOwner, config.searchWithinMs(), config.executeEveryMs());
+        final QueryResult queryResult = results.get(QUERY_ID);
+        final QueryResult streamQueryResult = results.get(STREAMS_QUERY_ID);
         final Map<String, SearchType.Result> additionalResults = additionalSearchTypes.stream()
                 .filter(searchType -> queryResult.searchTypes().containsKey(searchType.id()))
                 .map(searchType -> queryResult.searchTypes().get(searchType.id()))
@@ -371,9 +374,8 @@ public class PivotAggregationSearch implements AggregationSearch {
         return results.build();
     }
 
-    private SearchJob getSearchJob(AggregationEventProcessorParameters parameters, User user,
-                                   long searchWithinMs, long executeEveryMs) throws EventProcessorException {
-        final var username = user.name();
+    private Map<String, QueryResult> getSearchResults(AggregationEventProcessorParameters parameters, User user,
+                                                      long searchWithinMs, long executeEveryMs) throws EventProcessorException {
         Search search = Search.builder()
                 .queries(ImmutableSet.of(getAggregationQuery(parameters, searchWithinMs, executeEveryMs), getSourceStreamsQuery(parameters)))
                 .parameters(config.queryParameters())
@@ -382,7 +384,12 @@ public class PivotAggregationSearch implements AggregationSearch {
         // TODO: Once we introduce "EventProcessor owners" this should only load the permitted streams of the
         //       user who created this EventProcessor.
         search = search.addStreamsToQueriesWithoutStreams(() -> permittedStreams.loadAllMessageStreams((streamId) -> true));
-        final SearchJob searchJob = queryEngine.execute(searchJobService.create(search, username, NO_CANCELLATION), Collections.emptySet(), user.timezone());
+        // Definitions with the same streams and time range which are due at the same time can share a single search
+        return searchCoalescer.execute(search, user, s -> getSearchJob(s, user).results());
+    }
+
+    private SearchJob getSearchJob(Search search, User user) throws EventProcessorException {
+        final SearchJob searchJob = queryEngine.executeWithoutQueueLimit(searchJobService.create(search, user.name(), NO_CANCELLATION), Collections.emptySet(), user.timezone());
         try {
             Uninterruptibles.getUninterruptibly(
                     searchJob.getResultFuture(),
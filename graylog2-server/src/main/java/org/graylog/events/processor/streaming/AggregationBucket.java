@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.google.common.primitives.Doubles;
+import org.graylog.plugins.views.search.searchtypes.pivot.HasField;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Cardinality;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.HasOptionalField;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Min;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.plugin.Message;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The series values of one group for one time bucket. Not thread-safe.
+ */
+class AggregationBucket {
+    enum Function {
+        COUNT, SUM, MIN, MAX, CARDINALITY
+    }
+
+    record Series(Function function, @Nullable String field) {
+        static Optional<Series> of(SeriesSpec seriesSpec) {
+            return switch (seriesSpec.type()) {
+                case Count.NAME -> Optional.of(new Series(Function.COUNT, ((HasOptionalField) seriesSpec).field().orElse(null)));
+                case Sum.NAME -> Optional.of(new Series(Function.SUM, ((HasField) seriesSpec).field()));
+                case Min.NAME -> Optional.of(new Series(Function.MIN, ((HasField) seriesSpec).field()));
+                case Max.NAME -> Optional.of(new Series(Function.MAX, ((HasField) seriesSpec).field()));
+                case Cardinality.NAME -> Optional.of(new Series(Function.CARDINALITY, ((HasField) seriesSpec).field()));
+                default -> Optional.empty();
+            };
+        }
+    }
+
+    private final List<Series> series;
+    // Counts, sums, minimums and maximums; NaN if there was no value for a minimum or maximum
+    private final double[] values;
+    // Only set for cardinality series
+    private final HyperLogLog[] sketches;
+
+    AggregationBucket(List<Series> series) {
+        this.series = series;
+        this.values = new double[series.size()];
+        this.sketches = new HyperLogLog[series.size()];
+        for (int i = 0; i < series.size(); i++) {
+            switch (series.get(i).function()) {
+                case MIN, MAX -> values[i] = Double.NaN;
+                case CARDINALITY -> sketches[i] = new HyperLogLog();
+                default -> values[i] = 0;
+            }
+        }
+    }
+
+    void add(Message message) {
+        for (int i = 0; i < series.size(); i++) {
+            final Series s = series.get(i);
+            if (s.function() == Function.COUNT) {
+                if (s.field() == null || message.hasField(s.field())) {
+                    values[i]++;
+                }
+                continue;
+            }
+
+            final Object value = message.getField(s.field());
+            if (value == null) {
+                continue;
+            }
+            if (s.function() == Function.CARDINALITY) {
+                sketches[i].add(value);
+                continue;
+            }
+
+            final Double number = numberOf(value);
+            if (number != null) {
+                addNumber(i, number);
+            }
+        }
+    }
+
+    void merge(AggregationBucket other) {
+        for (int i = 0; i < series.size(); i++) {
+            if (series.get(i).function() == Function.CARDINALITY) {
+                sketches[i].merge(other.sketches[i]);
+            } else if (!Double.isNaN(other.values[i])) {
+                addNumber(i, other.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the series with the given index, NaN if a minimum or maximum has no value.
+     */
+    double value(int index) {
+        if (series.get(index).function() == Function.CARDINALITY) {
+            return sketches[index].estimate();
+        }
+        return values[index];
+    }
+
+    /**
+     * Returns the raw values for checkpoints, with {@code null} for missing minimums and maximums and cardinality
+     * series.
+     */
+    List<Double> rawValues() {
+        final Double[] raw = new Double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            raw[i] = sketches[i] != null || Double.isNaN(values[i]) ? null : values[i];
+        }
+        return Arrays.asList(raw);
+    }
+
+    List<byte[]> rawSketches() {
+        final byte[][] raw = new byte[sketches.length][];
+        for (int i = 0; i < sketches.length; i++) {
+            raw[i] = sketches[i] == null ? new byte[0] : sketches[i].toBytes();
+        }
+        return Arrays.asList(raw);
+    }
+
+    static AggregationBucket fromRaw(List<Series> series, List<Double> rawValues, List<byte[]> rawSketches) {
+        final AggregationBucket bucket = new AggregationBucket(series);
+        for (int i = 0; i < series.size(); i++) {
+            if (bucket.sketches[i] != null) {
+                bucket.sketches[i] = HyperLogLog.fromBytes(rawSketches.get(i));
+            } else if (rawValues.get(i) != null) {
+                bucket.values[i] = rawValues.get(i);
+            }
+        }
+        return bucket;
+    }
+
+    private void addNumber(int index, double number) {
+        switch (series.get(index).function()) {
+            case MIN -> values[index] = Double.isNaN(values[index]) ? number : Math.min(values[index], number);
+            case MAX -> values[index] = Double.isNaN(values[index]) ? number : Math.max(values[index], number);
+            default -> values[index] += number;
+        }
+    }
+
+    @Nullable
+    private static Double numberOf(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        return Doubles.tryParse(value.toString());
+    }
+}
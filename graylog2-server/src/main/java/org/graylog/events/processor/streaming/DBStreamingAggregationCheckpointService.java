@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOptions;
+import jakarta.inject.Inject;
+import org.bson.conversions.Bson;
+import org.graylog2.database.MongoCollections;
+import org.graylog2.database.utils.MongoUtils;
+import org.joda.time.DateTime;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.graylog.events.processor.streaming.StreamingAggregationCheckpoint.FIELD_BUCKET_START;
+import static org.graylog.events.processor.streaming.StreamingAggregationCheckpoint.FIELD_EVENT_DEFINITION_ID;
+import static org.graylog.events.processor.streaming.StreamingAggregationCheckpoint.FIELD_EXPIRES_AT;
+import static org.graylog.events.processor.streaming.StreamingAggregationCheckpoint.FIELD_NODE_ID;
+import static org.graylog.events.processor.streaming.StreamingAggregationWatermark.FIELD_UPDATED_AT;
+
+/**
+ * Stores the time buckets of streaming aggregations per node, so the nodes can merge each other's buckets and
+ * continue after a restart. MongoDB removes buckets once they expire.
+ * <p>
+ * Next to the buckets, every node stores a watermark up to which its checkpoints contain all messages.
+ */
+public class DBStreamingAggregationCheckpointService {
+    private static final String COLLECTION_NAME = "event_processor_streaming_checkpoints";
+    private static final String WATERMARKS_COLLECTION_NAME = "event_processor_streaming_watermarks";
+
+    private final MongoCollection<StreamingAggregationCheckpoint> collection;
+    private final MongoCollection<StreamingAggregationWatermark> watermarks;
+
+    @Inject
+    public DBStreamingAggregationCheckpointService(MongoCollections mongoCollections) {
+        this.collection = mongoCollections.nonEntityCollection(COLLECTION_NAME, StreamingAggregationCheckpoint.class);
+
+        collection.createIndex(Indexes.ascending(FIELD_EVENT_DEFINITION_ID, FIELD_BUCKET_START));
+        collection.createIndex(Indexes.ascending(FIELD_EXPIRES_AT), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+
+        this.watermarks = mongoCollections.nonEntityCollection(WATERMARKS_COLLECTION_NAME, StreamingAggregationWatermark.class);
+        // Removes the watermarks of nodes which left the cluster
+        watermarks.createIndex(Indexes.ascending(FIELD_UPDATED_AT), new IndexOptions().expireAfter(1L, TimeUnit.DAYS));
+        watermarks.createIndex(Indexes.ascending(StreamingAggregationWatermark.FIELD_EVENT_DEFINITION_ID));
+    }
+
+    static String idOf(String eventDefinitionId, String nodeId, long bucketStart, int chunk) {
+        return String.format(Locale.ROOT, "%s-%s-%d-%d", eventDefinitionId, nodeId, bucketStart, chunk);
+    }
+
+    static String watermarkIdOf(String eventDefinitionId, String nodeId) {
+        return String.format(Locale.ROOT, "%s-%s", eventDefinitionId, nodeId);
+    }
+
+    public void save(StreamingAggregationCheckpoint checkpoint) {
+        collection.replaceOne(Filters.eq("_id", checkpoint.id()), checkpoint, new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Returns the buckets of the given event definition starting in the given time range.
+     */
+    public Stream<StreamingAggregationCheckpoint> streamByEventDefinition(String eventDefinitionId, long from, long to) {
+        return MongoUtils.stream(collection.find(Filters.and(
+                Filters.eq(FIELD_EVENT_DEFINITION_ID, eventDefinitionId),
+                Filters.gte(FIELD_BUCKET_START, from),
+                Filters.lt(FIELD_BUCKET_START, to))));
+    }
+
+    public Stream<StreamingAggregationCheckpoint> streamByEventDefinitionAndNode(String eventDefinitionId, String nodeId) {
+        return MongoUtils.stream(collection.find(Filters.and(
+                Filters.eq(FIELD_EVENT_DEFINITION_ID, eventDefinitionId),
+                Filters.eq(FIELD_NODE_ID, nodeId))));
+    }
+
+    /**
+     * Deletes the buckets and watermarks of this node for all event definitions except the given ones.
+     */
+    public long deleteAllExcept(String nodeId, Collection<String> eventDefinitionIds) {
+        watermarks.deleteMany(Filters.and(
+                Filters.eq(StreamingAggregationWatermark.FIELD_NODE_ID, nodeId),
+                Filters.nin(StreamingAggregationWatermark.FIELD_EVENT_DEFINITION_ID, eventDefinitionIds)));
+
+        final Bson filter = Filters.and(
+                Filters.eq(FIELD_NODE_ID, nodeId),
+                Filters.nin(FIELD_EVENT_DEFINITION_ID, eventDefinitionIds));
+        return collection.deleteMany(filter).getDeletedCount();
+    }
+
+    public void saveWatermark(StreamingAggregationWatermark watermark) {
+        watermarks.replaceOne(Filters.eq("_id", watermark.id()), watermark, new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Returns the watermarks of the given event definition of all nodes which checkpointed since the given time.
+     */
+    public Stream<StreamingAggregationWatermark> streamWatermarksUpdatedSince(String eventDefinitionId, DateTime since) {
+        return MongoUtils.stream(watermarks.find(Filters.and(
+                Filters.eq(StreamingAggregationWatermark.FIELD_EVENT_DEFINITION_ID, eventDefinitionId),
+                Filters.gte(FIELD_UPDATED_AT, since))));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct values. Small sets are kept as exact list of value hashes, larger ones are
+ * converted to 1024 HyperLogLog registers, which have a standard error of about 3%.
+ * <p>
+ * Sketches can be merged, so the cardinality of a time range can be computed from the sketches of its buckets.
+ * Instances are not thread-safe.
+ */
+final class HyperLogLog {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    // Size of the serialized sketch with all registers
+    static final int MAX_BYTES = 1 + REGISTERS;
+    // The sparse list never takes more memory than the registers
+    private static final int MAX_SPARSE_SIZE = REGISTERS / Long.BYTES / 2;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private static final byte SPARSE = 0;
+    private static final byte DENSE = 1;
+
+    private long[] sparse = new long[4];
+    private int sparseSize = 0;
+    private byte[] registers = null;
+
+    void add(Object value) {
+        addHash(HASH_FUNCTION.hashString(value.toString(), StandardCharsets.UTF_8).asLong());
+    }
+
+    void addHash(long hash) {
+        if (registers != null) {
+            addToRegisters(hash);
+            return;
+        }
+        for (int i = 0; i < sparseSize; i++) {
+            if (sparse[i] == hash) {
+                return;
+            }
+        }
+        if (sparseSize == MAX_SPARSE_SIZE) {
+            toDense();
+            addToRegisters(hash);
+            return;
+        }
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, sparse.length * 2);
+        }
+        sparse[sparseSize++] = hash;
+    }
+
+    void merge(HyperLogLog other) {
+        if (other.registers == null) {
+            for (int i = 0; i < other.sparseSize; i++) {
+                addHash(other.sparse[i]);
+            }
+            return;
+        }
+        if (registers == null) {
+            toDense();
+        }
+        for (int i = 0; i < REGISTERS; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    long estimate() {
+        if (registers == null) {
+            return sparseSize;
+        }
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // Linear counting is more accurate for small cardinalities
+            return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    byte[] toBytes() {
+        if (registers == null) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1 + Long.BYTES * sparseSize).put(SPARSE);
+            for (int i = 0; i < sparseSize; i++) {
+                buffer.putLong(sparse[i]);
+            }
+            return buffer.array();
+        }
+        return ByteBuffer.allocate(1 + REGISTERS).put(DENSE).put(registers).array();
+    }
+
+    static HyperLogLog fromBytes(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        if (buffer.get() == DENSE) {
+            hyperLogLog.registers = new byte[REGISTERS];
+            buffer.get(hyperLogLog.registers);
+        } else {
+            while (buffer.remaining() >= Long.BYTES) {
+                hyperLogLog.addHash(buffer.getLong());
+            }
+        }
+        return hyperLogLog;
+    }
+
+    private void addToRegisters(long hash) {
+        final int index = (int) (hash >>> (Long.SIZE - PRECISION));
+        // Position of the first 1 bit in the remaining bits, the appended 1 bit limits it if all of them are 0
+        final byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    private void toDense() {
+        registers = new byte[REGISTERS];
+        for (int i = 0; i < sparseSize; i++) {
+            addToRegisters(sparse[i]);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.joda.time.DateTime;
+import org.mongojack.Id;
+
+import java.util.List;
+
+/**
+ * The series values of the groups of a streaming aggregation for one time bucket, as collected by one node. The groups
+ * of a bucket are spread over several chunks, so a checkpoint doesn't exceed the document size limit of MongoDB.
+ */
+public record StreamingAggregationCheckpoint(
+        @Id
+        @JsonProperty(FIELD_ID)
+        String id,
+        @JsonProperty(FIELD_EVENT_DEFINITION_ID)
+        String eventDefinitionId,
+        @JsonProperty(FIELD_NODE_ID)
+        String nodeId,
+        @JsonProperty(FIELD_SIGNATURE)
+        String signature,
+        @JsonProperty(FIELD_BUCKET_START)
+        long bucketStart,
+        @JsonProperty(FIELD_CHUNK)
+        int chunk,
+        @JsonProperty(FIELD_EXPIRES_AT)
+        DateTime expiresAt,
+        @JsonProperty(FIELD_GROUPS)
+        List<Group> groups
+) {
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_EVENT_DEFINITION_ID = "event_definition_id";
+    public static final String FIELD_NODE_ID = "node_id";
+    public static final String FIELD_SIGNATURE = "signature";
+    public static final String FIELD_BUCKET_START = "bucket_start";
+    public static final String FIELD_CHUNK = "chunk";
+    public static final String FIELD_EXPIRES_AT = "expires_at";
+    public static final String FIELD_GROUPS = "groups";
+
+    public record Group(@JsonProperty("key") List<String> key,
+                        @JsonProperty("values") List<Double> values,
+                        @JsonProperty("sketches") List<byte[]> sketches) {
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.assistedinject.Assisted;
+import jakarta.inject.Inject;
+import org.graylog.events.conditions.BooleanNumberConditionsVisitor;
+import org.graylog.events.event.Event;
+import org.graylog.events.event.EventFactory;
+import org.graylog.events.event.EventReplayInfo;
+import org.graylog.events.event.EventWithContext;
+import org.graylog.events.processor.DBEventProcessorStateService;
+import org.graylog.events.processor.EventConsumer;
+import org.graylog.events.processor.EventDefinition;
+import org.graylog.events.processor.EventProcessor;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.events.processor.EventProcessorParameters;
+import org.graylog.events.processor.EventProcessorPreconditionException;
+import org.graylog.events.processor.EventStreamService;
+import org.graylog.events.processor.aggregation.AggregationConditions;
+import org.graylog.events.processor.aggregation.AggregationSourceMessages;
+import org.graylog.events.search.MoreSearch;
+import org.graylog.plugins.views.search.searchtypes.pivot.HasField;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates the conditions of a streaming aggregation against the series values which the nodes collected while
+ * processing messages, instead of running an aggregation search.
+ */
+public class StreamingAggregationEventProcessor implements EventProcessor {
+    public interface Factory extends EventProcessor.Factory<StreamingAggregationEventProcessor> {
+        @Override
+        StreamingAggregationEventProcessor create(EventDefinition eventDefinition);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingAggregationEventProcessor.class);
+
+    private final EventDefinition eventDefinition;
+    private final StreamingAggregationEventProcessorConfig config;
+    private final List<SeriesSpec> series;
+    private final StreamingAggregationService streamingAggregationService;
+    private final DBEventProcessorStateService stateService;
+    private final EventStreamService eventStreamService;
+    private final MoreSearch moreSearch;
+    private final MessageFactory messageFactory;
+
+    @Inject
+    public StreamingAggregationEventProcessor(@Assisted EventDefinition eventDefinition,
+                                              StreamingAggregationService streamingAggregationService,
+                                              DBEventProcessorStateService stateService,
+                                              EventStreamService eventStreamService,
+                                              MoreSearch moreSearch,
+                                              MessageFactory messageFactory) {
+        this.eventDefinition = eventDefinition;
+        this.config = (StreamingAggregationEventProcessorConfig) eventDefinition.config();
+        // Same order as the series values of the aggregation buckets
+        this.series = config.series().stream()
+                .filter(spec -> AggregationBucket.Series.of(spec).isPresent())
+                .toList();
+        this.streamingAggregationService = streamingAggregationService;
+        this.stateService = stateService;
+        this.eventStreamService = eventStreamService;
+        this.moreSearch = moreSearch;
+        this.messageFactory = messageFactory;
+    }
+
+    @Override
+    public void createEvents(EventFactory eventFactory, EventProcessorParameters processorParameters, EventConsumer<List<EventWithContext>> eventsConsumer) throws EventProcessorException {
+        final StreamingAggregationEventProcessorParameters parameters = (StreamingAggregationEventProcessorParameters) processorParameters;
+        final TimeRange timerange = parameters.timerange();
+
+        LOG.debug("Creating events for config={} parameters={}", config, parameters);
+
+        // The buckets of other nodes are only complete once they checkpointed all messages received up to the end
+        // of the time range. Messages might still wait in a journal or process buffer.
+        if (!streamingAggregationService.hasCountedMessagesUpTo(eventDefinition.id(), timerange.getTo())) {
+            final String msg = String.format(Locale.ROOT, "Couldn't run streaming aggregation <%s/%s> for timerange <%s to %s> because required messages haven't been counted by all nodes, yet.",
+                    eventDefinition.title(), eventDefinition.id(), timerange.getFrom(), timerange.getTo());
+            throw new EventProcessorPreconditionException(msg, eventDefinition);
+        }
+
+        final Map<List<String>, AggregationBucket> result = new HashMap<>(streamingAggregationService.aggregate(
+                eventDefinition.id(), config, timerange.getFrom().getMillis(), timerange.getTo().getMillis()));
+
+        // Like an aggregation search without groups, the absence of messages still yields a result. (e.g. count() < 1)
+        if (config.groupBy().isEmpty() && result.isEmpty()) {
+            result.put(Collections.emptyList(), new AggregationBucket(
+                    series.stream().map(spec -> AggregationBucket.Series.of(spec).orElseThrow()).toList()));
+        }
+
+        final ImmutableList.Builder<EventWithContext> eventsWithContext = ImmutableList.builder();
+        for (final Map.Entry<List<String>, AggregationBucket> entry : result.entrySet()) {
+            final Map<String, Double> values = seriesValues(entry.getValue());
+            if (!satisfiesConditions(values)) {
+                LOG.debug("Skipping result <{}> because the conditions <{}> don't match", entry.getKey(), config.conditions());
+                continue;
+            }
+            eventsWithContext.add(eventFromResult(eventFactory, timerange, entry.getKey(), entry.getValue()));
+        }
+
+        final List<EventWithContext> events = eventsWithContext.build();
+        if (!events.isEmpty()) {
+            eventsConsumer.accept(events);
+        }
+
+        // Update the state for this processor! This state will be used for dependency checks between event processors.
+        stateService.setState(eventDefinition.id(), timerange.getFrom(), timerange.getTo());
+    }
+
+    // Series IDs to series values, as referenced in the conditions
+    private Map<String, Double> seriesValues(AggregationBucket bucket) {
+        final Map<String, Double> values = new HashMap<>();
+        for (int i = 0; i < series.size(); i++) {
+            values.put(series.get(i).id(), bucket.value(i));
+        }
+        return values;
+    }
+
+    private boolean satisfiesConditions(Map<String, Double> values) {
+        return config.conditions()
+                .flatMap(AggregationConditions::expression)
+                .map(expr -> expr.accept(new BooleanNumberConditionsVisitor(values)))
+                .orElse(true);
+    }
+
+    private EventWithContext eventFromResult(EventFactory eventFactory, TimeRange timerange, List<String> key, AggregationBucket bucket) {
+        final String keyString = String.join("|", key);
+        final String seriesString = seriesString(bucket);
+        final String eventMessage = key.isEmpty()
+                ? eventDefinition.title() + ": " + seriesString
+                : eventDefinition.title() + ": " + keyString + " - " + seriesString;
+
+        final DateTime eventTime = timerange.getTo();
+        final Event event = eventFactory.createEvent(eventDefinition, eventTime, eventMessage.trim());
+        event.setTimerangeStart(timerange.getFrom());
+        event.setTimerangeEnd(timerange.getTo());
+
+        final Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < config.groupBy().size(); i++) {
+            fields.put(config.groupBy().get(i), key.get(i));
+        }
+        event.setGroupByFields(fields.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().toString())));
+
+        final Set<String> sourceStreams = eventStreamService.buildEventSourceStreams(config.streams(), Collections.emptySet());
+        event.setReplayInfo(EventReplayInfo.builder()
+                .timerangeStart(event.getTimerangeStart())
+                .timerangeEnd(event.getTimerangeEnd())
+                .query(AggregationSourceMessages.groupByQueryString(event.getGroupByFields()).queryString())
+                .streams(sourceStreams)
+                .build());
+        sourceStreams.forEach(event::addSourceStream);
+
+        // Same field names as the aggregation event processor, e.g. aggregation_value_count_source=42
+        for (int i = 0; i < series.size(); i++) {
+            final SeriesSpec spec = series.get(i);
+            final String function = spec.type().toLowerCase(Locale.ROOT);
+            final String field = spec instanceof HasField hasField ? hasField.field() : null;
+            final String fieldName = field == null
+                    ? String.format(Locale.ROOT, "aggregation_value_%s", function)
+                    : String.format(Locale.ROOT, "aggregation_value_%s_%s", function, field);
+            fields.put(fieldName, bucket.value(i));
+        }
+        fields.put("aggregation_key", keyString);
+
+        final Message message = messageFactory.createMessage(eventMessage, "", eventTime);
+        message.addFields(fields);
+
+        LOG.debug("Creating event {}/{} - {} {} ({})", eventDefinition.title(), eventDefinition.id(), key, seriesString, fields);
+
+        return EventWithContext.create(event, message);
+    }
+
+    private String seriesString(AggregationBucket bucket) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < series.size(); i++) {
+            builder.append(String.format(Locale.ROOT, "%s=%s ", series.get(i).literal(), bucket.value(i)));
+        }
+        return builder.toString().trim();
+    }
+
+    @Override
+    public void sourceMessagesForEvent(Event event, Consumer<List<MessageSummary>> messageConsumer, long limit) throws EventProcessorException {
+        AggregationSourceMessages.scroll(moreSearch, event,
+                AggregationSourceMessages.groupByQueryString(event.getGroupByFields()).queryString(),
+                config.streams(), Collections.emptyList(), Collections.emptySet(), messageConsumer, limit);
+    }
+}
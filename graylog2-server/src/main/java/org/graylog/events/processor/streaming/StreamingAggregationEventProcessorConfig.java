@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.MutableGraph;
+import org.graylog.events.contentpack.entities.EventProcessorConfigEntity;
+import org.graylog.events.processor.EventDefinition;
+import org.graylog.events.processor.EventProcessorConfig;
+import org.graylog.events.processor.EventProcessorExecutionJob;
+import org.graylog.events.processor.EventProcessorSchedulerConfig;
+import org.graylog.events.processor.aggregation.AggregationConditions;
+import org.graylog.plugins.views.search.searchtypes.pivot.HasField;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.scheduler.clock.JobSchedulerClock;
+import org.graylog.scheduler.schedule.IntervalJobSchedule;
+import org.graylog2.contentpacks.EntityDescriptorIds;
+import org.graylog2.contentpacks.model.entities.EntityDescriptor;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.rest.ValidationResult;
+import org.graylog2.shared.security.RestPermissions;
+import org.joda.time.DateTime;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Configuration of an aggregation which is computed while messages are processed instead of by searching them.
+ * <p>
+ * Only count, sum, min, max and cardinality series are supported, and messages can only be selected by stream.
+ */
+@AutoValue
+@JsonTypeName(StreamingAggregationEventProcessorConfig.TYPE_NAME)
+@JsonDeserialize(builder = StreamingAggregationEventProcessorConfig.Builder.class)
+public abstract class StreamingAggregationEventProcessorConfig implements EventProcessorConfig {
+    public static final String TYPE_NAME = "streaming-aggregation-v1";
+
+    private static final String FIELD_STREAMS = "streams";
+    private static final String FIELD_GROUP_BY = "group_by";
+    private static final String FIELD_SERIES = "series";
+    private static final String FIELD_CONDITIONS = "conditions";
+    private static final String FIELD_WINDOW_MS = "window_ms";
+    private static final String FIELD_EXECUTE_EVERY_MS = "execute_every_ms";
+
+    @JsonProperty(FIELD_STREAMS)
+    public abstract ImmutableSet<String> streams();
+
+    @JsonProperty(FIELD_GROUP_BY)
+    public abstract List<String> groupBy();
+
+    @JsonProperty(FIELD_SERIES)
+    public abstract List<SeriesSpec> series();
+
+    @JsonProperty(FIELD_CONDITIONS)
+    public abstract Optional<AggregationConditions> conditions();
+
+    @JsonProperty(FIELD_WINDOW_MS)
+    public abstract long windowMs();
+
+    @JsonProperty(FIELD_EXECUTE_EVERY_MS)
+    public abstract long executeEveryMs();
+
+    @Override
+    public Set<String> requiredPermissions() {
+        // When there are no streams the event processor aggregates all messages so we need to require the
+        // generic stream permission.
+        if (streams().isEmpty()) {
+            return Collections.singleton(RestPermissions.STREAMS_READ);
+        }
+        return streams().stream()
+                .map(streamId -> String.join(":", RestPermissions.STREAMS_READ, streamId))
+                .collect(Collectors.toSet());
+    }
+
+    public static Builder builder() {
+        return Builder.create();
+    }
+
+    public abstract Builder toBuilder();
+
+    @Override
+    public Optional<EventProcessorSchedulerConfig> toJobSchedulerConfig(EventDefinition eventDefinition, JobSchedulerClock clock) {
+        final DateTime now = clock.nowUTC();
+
+        final EventProcessorExecutionJob.Config jobDefinitionConfig = EventProcessorExecutionJob.Config.builder()
+                .eventDefinitionId(eventDefinition.id())
+                .processingWindowSize(windowMs())
+                .processingHopSize(executeEveryMs())
+                .parameters(StreamingAggregationEventProcessorParameters.builder()
+                        .timerange(AbsoluteRange.create(now.minus(windowMs()), now))
+                        .build())
+                .build();
+        final IntervalJobSchedule schedule = IntervalJobSchedule.builder()
+                .interval(executeEveryMs())
+                .unit(TimeUnit.MILLISECONDS)
+                .build();
+
+        return Optional.of(EventProcessorSchedulerConfig.create(jobDefinitionConfig, schedule));
+    }
+
+    @AutoValue.Builder
+    public static abstract class Builder implements EventProcessorConfig.Builder<Builder> {
+        @JsonCreator
+        public static Builder create() {
+            return new AutoValue_StreamingAggregationEventProcessorConfig.Builder()
+                    .type(TYPE_NAME)
+                    .streams(ImmutableSet.of())
+                    .groupBy(Collections.emptyList());
+        }
+
+        @JsonProperty(FIELD_STREAMS)
+        public abstract Builder streams(Set<String> streams);
+
+        @JsonProperty(FIELD_GROUP_BY)
+        public abstract Builder groupBy(List<String> groupBy);
+
+        @JsonProperty(FIELD_SERIES)
+        public abstract Builder series(List<SeriesSpec> series);
+
+        @JsonProperty(FIELD_CONDITIONS)
+        public abstract Builder conditions(@Nullable AggregationConditions conditions);
+
+        @JsonProperty(FIELD_WINDOW_MS)
+        public abstract Builder windowMs(long windowMs);
+
+        @JsonProperty(FIELD_EXECUTE_EVERY_MS)
+        public abstract Builder executeEveryMs(long executeEveryMs);
+
+        public abstract StreamingAggregationEventProcessorConfig build();
+    }
+
+    @Override
+    public ValidationResult validate() {
+        final ValidationResult validationResult = new ValidationResult();
+
+        if (windowMs() <= 0) {
+            validationResult.addError(FIELD_WINDOW_MS, "Streaming aggregation window_ms must be greater than 0.");
+        }
+        if (executeEveryMs() <= 0) {
+            validationResult.addError(FIELD_EXECUTE_EVERY_MS, "Streaming aggregation execute_every_ms must be greater than 0.");
+        }
+        if (series().isEmpty()) {
+            validationResult.addError(FIELD_SERIES, "Streaming aggregation must contain series");
+        }
+        if (conditions().isEmpty() || conditions().get().expression().isEmpty()) {
+            validationResult.addError(FIELD_CONDITIONS, "Streaming aggregation must contain conditions");
+        }
+
+        series().forEach(ser -> {
+            if (AggregationBucket.Series.of(ser).isEmpty()) {
+                validationResult.addError(FIELD_SERIES, "Streaming aggregation doesn't support series of type " + ser.type());
+            } else if (ser instanceof HasField hasField && (hasField.field() == null || hasField.field().isEmpty())) {
+                validationResult.addError(FIELD_SERIES, "Streaming aggregation's series of type " + ser.type() + " must contain non-empty value for field");
+            }
+        });
+
+        return validationResult;
+    }
+
+    @Override
+    public boolean isContentPackExportable() {
+        return false;
+    }
+
+    @Override
+    public EventProcessorConfigEntity toContentPackEntity(EntityDescriptorIds entityDescriptorIds) {
+        // Don't export this into content packs
+        return null;
+    }
+
+    @Override
+    public void resolveNativeEntity(EntityDescriptor entityDescriptor, MutableGraph<EntityDescriptor> mutableGraph) {
+    }
+}
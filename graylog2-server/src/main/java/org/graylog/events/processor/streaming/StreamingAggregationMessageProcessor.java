@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import jakarta.inject.Inject;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+
+/**
+ * Feeds processed messages into the streaming aggregation event definitions. It has to run after the stream routing,
+ * so it only sees the final streams and fields of a message.
+ */
+public class StreamingAggregationMessageProcessor implements MessageProcessor {
+    public static class Descriptor implements MessageProcessor.Descriptor {
+        @Override
+        public String name() {
+            return "Streaming Aggregation Processor";
+        }
+
+        @Override
+        public String className() {
+            return StreamingAggregationMessageProcessor.class.getCanonicalName();
+        }
+    }
+
+    private final StreamingAggregationService streamingAggregationService;
+
+    @Inject
+    public StreamingAggregationMessageProcessor(StreamingAggregationService streamingAggregationService) {
+        this.streamingAggregationService = streamingAggregationService;
+    }
+
+    @Override
+    public Messages process(Messages messages) {
+        streamingAggregationService.process(messages);
+        return messages;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.graylog.events.processor.DBEventDefinitionService;
+import org.graylog.events.processor.EventDefinition;
+import org.graylog.events.processor.EventDefinitionConfiguration;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.scheduler.clock.JobSchedulerClock;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.system.NodeId;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the in-memory state of all enabled streaming aggregation event definitions on this node.
+ * <p>
+ * Messages are added to the state while they pass through the processing chain. The state is checkpointed
+ * periodically, so the event processors can merge the buckets of all nodes without running a search. Along with
+ * the buckets of an event definition, every node checkpoints the receive time up to which it added all messages, so
+ * the event processor knows when the buckets of a time range are complete.
+ */
+@Singleton
+public class StreamingAggregationService {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingAggregationService.class);
+    // Nodes which didn't checkpoint for this many intervals are considered gone
+    private static final int ACTIVE_NODE_INTERVALS = 3;
+
+    private final DBEventDefinitionService eventDefinitionService;
+    private final DBStreamingAggregationCheckpointService checkpointService;
+    private final NodeId nodeId;
+    private final JobSchedulerClock clock;
+    private final ProcessingStatusRecorder processingStatusRecorder;
+    private final long checkpointIntervalMs;
+
+    // Replaced as a whole on refresh, so message processing never needs a lock
+    private volatile Map<String, StreamingAggregationState> states = Map.of();
+
+    @Inject
+    public StreamingAggregationService(DBEventDefinitionService eventDefinitionService,
+                                       DBStreamingAggregationCheckpointService checkpointService,
+                                       NodeId nodeId,
+                                       JobSchedulerClock clock,
+                                       ProcessingStatusRecorder processingStatusRecorder,
+                                       EventDefinitionConfiguration configuration) {
+        this.eventDefinitionService = eventDefinitionService;
+        this.checkpointService = checkpointService;
+        this.nodeId = nodeId;
+        this.clock = clock;
+        this.processingStatusRecorder = processingStatusRecorder;
+        this.checkpointIntervalMs = configuration.getStreamingCheckpointInterval().toMilliseconds();
+    }
+
+    public void process(Messages messages) {
+        final Collection<StreamingAggregationState> current = states.values();
+        if (current.isEmpty()) {
+            return;
+        }
+        for (final Message message : messages) {
+            if (message.getFilterOut()) {
+                continue;
+            }
+            for (final StreamingAggregationState state : current) {
+                state.add(message);
+            }
+        }
+    }
+
+    /**
+     * Picks up created, changed and removed streaming aggregation event definitions. The state of new or changed
+     * definitions is restored from the checkpoints of this node if the checkpoints are still compatible.
+     */
+    public synchronized void refresh() {
+        final Map<String, StreamingAggregationState> current = states;
+        final Map<String, StreamingAggregationState> updated = new HashMap<>();
+
+        try (Stream<EventDefinitionDto> definitions = eventDefinitionService.streamAll()) {
+            definitions.filter(definition -> definition.state() == EventDefinition.State.ENABLED)
+                    .filter(definition -> definition.config() instanceof StreamingAggregationEventProcessorConfig)
+                    .forEach(definition -> {
+                        final StreamingAggregationEventProcessorConfig config = (StreamingAggregationEventProcessorConfig) definition.config();
+                        final StreamingAggregationState existing = current.get(definition.id());
+                        if (existing != null && existing.config().equals(config)) {
+                            updated.put(definition.id(), existing);
+                        } else {
+                            updated.put(definition.id(), restore(new StreamingAggregationState(definition.id(), config)));
+                        }
+                    });
+        }
+
+        states = Map.copyOf(updated);
+        checkpointService.deleteAllExcept(nodeId.getNodeId(), updated.keySet());
+    }
+
+    private StreamingAggregationState restore(StreamingAggregationState state) {
+        state.expire(clock.nowUTC().getMillis());
+
+        try (Stream<StreamingAggregationCheckpoint> checkpoints = checkpointService.streamByEventDefinitionAndNode(state.eventDefinitionId(), nodeId.getNodeId())) {
+            checkpoints.filter(checkpoint -> checkpoint.signature().equals(state.signature()))
+                    .forEach(checkpoint -> checkpoint.groups().forEach(group -> state.restore(group.key(), checkpoint.bucketStart(),
+                            AggregationBucket.fromRaw(state.series(), group.values(), group.sketches()))));
+        }
+        LOG.debug("Restored streaming aggregation state for event definition <{}>", state.eventDefinitionId());
+        return state;
+    }
+
+    /**
+     * Expires old buckets and writes all buckets which changed since the last checkpoint. If all buckets of an event
+     * definition could be written, its watermark for this node advances to the receive time of the last message
+     * which passed the processing chain before the checkpoint started.
+     */
+    public synchronized void checkpoint() {
+        final DateTime countedUpTo = countedUpTo();
+        final long now = clock.nowUTC().getMillis();
+
+        for (final StreamingAggregationState state : states.values()) {
+            state.expire(now);
+            boolean complete = true;
+
+            for (final long bucketStart : state.takeChangedBuckets()) {
+                if (bucketStart < state.bucketStart(now - state.retentionMs())) {
+                    continue;
+                }
+                try {
+                    checkpointsOf(state, bucketStart).forEach(checkpointService::save);
+                } catch (Exception e) {
+                    // Retry with the next checkpoint
+                    state.markChanged(bucketStart);
+                    complete = false;
+                    LOG.error("Couldn't checkpoint streaming aggregation for event definition <{}>", state.eventDefinitionId(), e);
+                }
+            }
+
+            final long droppedMessages = state.takeDroppedMessages();
+            if (droppedMessages > 0) {
+                LOG.warn("Streaming aggregation for event definition <{}> ignored {} messages because it reached the limit of {} groups",
+                        state.eventDefinitionId(), droppedMessages, StreamingAggregationState.MAX_GROUPS);
+            }
+
+            if (complete) {
+                try {
+                    checkpointService.saveWatermark(new StreamingAggregationWatermark(
+                            DBStreamingAggregationCheckpointService.watermarkIdOf(state.eventDefinitionId(), nodeId.getNodeId()),
+                            nodeId.getNodeId(), state.eventDefinitionId(), countedUpTo, clock.nowUTC()));
+                } catch (Exception e) {
+                    LOG.error("Couldn't checkpoint streaming aggregation watermark for event definition <{}>", state.eventDefinitionId(), e);
+                }
+            }
+        }
+    }
+
+    // Without messages waiting in the journal or the process buffer, every message received so far has been added.
+    // Otherwise only the messages up to the latest receive time which passed the processing chain.
+    private DateTime countedUpTo() {
+        final DateTime now = clock.nowUTC();
+        if (processingStatusRecorder.getJournalInfoUncommittedEntries() == 0 && processingStatusRecorder.getProcessBufferUsage() == 0) {
+            return now;
+        }
+        final DateTime postProcessingReceiveTime = processingStatusRecorder.getPostProcessingReceiveTime();
+        return postProcessingReceiveTime.isAfter(now) ? now : postProcessingReceiveTime;
+    }
+
+    /**
+     * Checks if the checkpoints of the given event definition of all active nodes contain every message received up
+     * to the given time.
+     * <p>
+     * Like the dependency check of the aggregation event processor, this relies on the receive time of messages.
+     */
+    boolean hasCountedMessagesUpTo(String eventDefinitionId, DateTime to) {
+        final DateTime activeSince = clock.nowUTC().minus(ACTIVE_NODE_INTERVALS * checkpointIntervalMs);
+        try (Stream<StreamingAggregationWatermark> watermarks = checkpointService.streamWatermarksUpdatedSince(eventDefinitionId, activeSince)) {
+            final List<StreamingAggregationWatermark> active = watermarks.toList();
+            if (active.isEmpty()) {
+                return false;
+            }
+            return active.stream().noneMatch(watermark -> watermark.countedUpTo().isBefore(to));
+        }
+    }
+
+    private List<StreamingAggregationCheckpoint> checkpointsOf(StreamingAggregationState state, long bucketStart) {
+        final Map<Integer, List<StreamingAggregationCheckpoint.Group>> chunks = new TreeMap<>();
+        state.bucket(bucketStart).forEach((key, bucket) -> chunks
+                .computeIfAbsent(state.checkpointChunk(key), chunk -> new ArrayList<>())
+                .add(new StreamingAggregationCheckpoint.Group(key, bucket.rawValues(), bucket.rawSketches())));
+
+        // Groups never leave a bucket, so chunks which aren't written are still empty in the database
+        return chunks.entrySet().stream()
+                .map(chunk -> new StreamingAggregationCheckpoint(
+                        DBStreamingAggregationCheckpointService.idOf(state.eventDefinitionId(), nodeId.getNodeId(), bucketStart, chunk.getKey()),
+                        state.eventDefinitionId(),
+                        nodeId.getNodeId(),
+                        state.signature(),
+                        bucketStart,
+                        chunk.getKey(),
+                        new DateTime(bucketStart + state.retentionMs(), DateTimeZone.UTC),
+                        chunk.getValue()))
+                .toList();
+    }
+
+    /**
+     * Returns the series values of every group for the buckets starting in the given time range. The local state of
+     * this node is merged with the latest checkpoints of all other nodes.
+     */
+    Map<List<String>, AggregationBucket> aggregate(String eventDefinitionId, StreamingAggregationEventProcessorConfig config, long from, long to) {
+        final StreamingAggregationState reference = new StreamingAggregationState(eventDefinitionId, config);
+        final StreamingAggregationState local = states.get(eventDefinitionId);
+
+        final Map<List<String>, AggregationBucket> result;
+        if (local != null && local.signature().equals(reference.signature())) {
+            result = local.aggregate(from, to);
+        } else {
+            result = new HashMap<>();
+        }
+
+        try (Stream<StreamingAggregationCheckpoint> checkpoints = checkpointService.streamByEventDefinition(eventDefinitionId, from, to)) {
+            checkpoints.filter(checkpoint -> !checkpoint.nodeId().equals(nodeId.getNodeId()))
+                    .filter(checkpoint -> checkpoint.signature().equals(reference.signature()))
+                    .forEach(checkpoint -> checkpoint.groups().forEach(group -> result
+                            .computeIfAbsent(group.key(), key -> new AggregationBucket(reference.series()))
+                            .merge(AggregationBucket.fromRaw(reference.series(), group.values(), group.sketches()))));
+        }
+        return result;
+    }
+}
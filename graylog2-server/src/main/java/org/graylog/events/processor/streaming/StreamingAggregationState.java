@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import org.graylog2.plugin.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * The aggregation state of one streaming aggregation event definition on this node.
+ * <p>
+ * Every group keeps its series values in time buckets of a tenth of the window, so a window can be evaluated by
+ * merging the buckets which start within it. Window boundaries are therefore rounded to the bucket size. Buckets are
+ * dropped once they are older than the window plus a grace period for evaluations which lag behind, and messages with
+ * older timestamps are ignored.
+ * <p>
+ * The buckets of a group are split into stripes, and every processing thread adds its messages to its own stripe. This
+ * way threads rarely wait for each other, even if all messages go into the same group because there is no grouping.
+ * The stripes are merged for checkpoints and evaluations.
+ */
+class StreamingAggregationState {
+    static final int BUCKETS_PER_WINDOW = 10;
+    static final int MAX_GROUPS = 10_000;
+    private static final long MIN_BUCKET_SIZE_MS = 1000;
+    // Keeps the checkpoints of a bucket well below the 16MB document limit of MongoDB
+    private static final long MAX_CHECKPOINT_BYTES = 4 * 1024 * 1024;
+    // Estimated size of the key and the series values of a group in a checkpoint
+    private static final long GROUP_BYTES = 1024;
+    // Evaluations usually lag behind by a few checkpoint intervals
+    private static final long RETENTION_GRACE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final int STRIPES = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+    private final String eventDefinitionId;
+    private final StreamingAggregationEventProcessorConfig config;
+    private final List<AggregationBucket.Series> series;
+    private final long bucketSizeMs;
+    private final String signature;
+    private final int checkpointChunks;
+
+    private final ConcurrentMap<List<String>, GroupWindow> groups = new ConcurrentHashMap<>();
+    // Start times of the buckets which changed since the last checkpoint
+    private final Set<Long> changedBuckets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private volatile long minTimestamp = Long.MIN_VALUE;
+
+    StreamingAggregationState(String eventDefinitionId, StreamingAggregationEventProcessorConfig config) {
+        this.eventDefinitionId = eventDefinitionId;
+        this.config = config;
+        this.series = config.series().stream()
+                .map(AggregationBucket.Series::of)
+                .flatMap(Optional::stream)
+                .toList();
+        this.bucketSizeMs = Math.max(MIN_BUCKET_SIZE_MS, config.windowMs() / BUCKETS_PER_WINDOW);
+        this.signature = signatureOf(config, series, bucketSizeMs);
+        final long cardinalitySeries = series.stream().filter(s -> s.function() == AggregationBucket.Function.CARDINALITY).count();
+        final long maxBucketBytes = MAX_GROUPS * (GROUP_BYTES + cardinalitySeries * HyperLogLog.MAX_BYTES);
+        this.checkpointChunks = (int) Math.max(1, (maxBucketBytes + MAX_CHECKPOINT_BYTES - 1) / MAX_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Checkpoints can only be restored into states with the same signature.
+     */
+    private static String signatureOf(StreamingAggregationEventProcessorConfig config, List<AggregationBucket.Series> series, long bucketSizeMs) {
+        return String.join(";",
+                "streams=" + config.streams().stream().sorted().collect(Collectors.joining(",")),
+                "group_by=" + String.join(",", config.groupBy()),
+                "series=" + series.stream().map(s -> s.function() + ":" + s.field()).collect(Collectors.joining(",")),
+                "bucket_size=" + bucketSizeMs);
+    }
+
+    String eventDefinitionId() {
+        return eventDefinitionId;
+    }
+
+    StreamingAggregationEventProcessorConfig config() {
+        return config;
+    }
+
+    List<AggregationBucket.Series> series() {
+        return series;
+    }
+
+    String signature() {
+        return signature;
+    }
+
+    /**
+     * Returns the checkpoint chunk of the given group. A group always goes into the same chunk of a bucket, so readers
+     * never see a group twice while the chunks of a bucket are written one after another.
+     */
+    int checkpointChunk(List<String> key) {
+        return Math.floorMod(key.hashCode(), checkpointChunks);
+    }
+
+    long retentionMs() {
+        return config.windowMs() + Math.max(config.executeEveryMs(), RETENTION_GRACE_MS) + bucketSizeMs;
+    }
+
+    void add(Message message) {
+        if (!config.streams().isEmpty() && Collections.disjoint(config.streams(), message.getStreamIds())) {
+            return;
+        }
+        final long timestamp = message.getTimestamp().getMillis();
+        if (timestamp < minTimestamp) {
+            return;
+        }
+        final List<String> key = groupKey(message);
+        if (key == null) {
+            return;
+        }
+
+        final long bucketStart = bucketStart(timestamp);
+        GroupWindow window;
+        do {
+            window = groups.get(key);
+            if (window == null) {
+                window = groups.computeIfAbsent(key, k -> groups.size() >= MAX_GROUPS ? null : new GroupWindow());
+                if (window == null) {
+                    droppedMessages.incrementAndGet();
+                    return;
+                }
+            }
+            // Retry if expire() removed the window in the meantime
+        } while (!window.add(bucketStart, message));
+
+        // Reading first is cheaper than adding a contained element. If the bucket is taken in the meantime, its
+        // checkpoint already contains this message.
+        if (!changedBuckets.contains(bucketStart)) {
+            changedBuckets.add(bucketStart);
+        }
+    }
+
+    /**
+     * Returns the merged series values of every group for the buckets starting in the given time range.
+     */
+    Map<List<String>, AggregationBucket> aggregate(long from, long to) {
+        final Map<List<String>, AggregationBucket> result = new HashMap<>();
+        groups.forEach((key, window) -> window.mergeInto(result, key, from, to));
+        return result;
+    }
+
+    /**
+     * Returns copies of the series values of every group for the bucket with the given start time.
+     */
+    Map<List<String>, AggregationBucket> bucket(long bucketStart) {
+        return aggregate(bucketStart, bucketStart + 1);
+    }
+
+    void restore(List<String> key, long bucketStart, AggregationBucket bucket) {
+        if (bucketStart < minTimestamp) {
+            return;
+        }
+        GroupWindow window;
+        do {
+            window = groups.computeIfAbsent(key, k -> new GroupWindow());
+        } while (!window.merge(bucketStart, bucket));
+    }
+
+    Set<Long> takeChangedBuckets() {
+        final Set<Long> changed = new TreeSet<>(changedBuckets);
+        changedBuckets.removeAll(changed);
+        return changed;
+    }
+
+    void markChanged(long bucketStart) {
+        changedBuckets.add(bucketStart);
+    }
+
+    long takeDroppedMessages() {
+        return droppedMessages.getAndSet(0);
+    }
+
+    /**
+     * Drops all buckets which are too old to be evaluated anymore.
+     */
+    void expire(long now) {
+        minTimestamp = bucketStart(now - retentionMs());
+        final long min = minTimestamp;
+        for (List<String> key : groups.keySet()) {
+            groups.computeIfPresent(key, (k, window) -> window.expire(min) ? null : window);
+        }
+    }
+
+    long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, bucketSizeMs) * bucketSizeMs;
+    }
+
+    private List<String> groupKey(Message message) {
+        if (config.groupBy().isEmpty()) {
+            return List.of();
+        }
+        final List<String> key = new ArrayList<>(config.groupBy().size());
+        for (String field : config.groupBy()) {
+            final Object value = message.getField(field);
+            // Like a terms aggregation, messages without a value for a group field are ignored
+            if (value == null) {
+                return null;
+            }
+            key.add(value.toString());
+        }
+        return key;
+    }
+
+    private class GroupWindow {
+        private final Stripe[] stripes = new Stripe[STRIPES];
+        // Set once the window is empty and removed from the groups, guarded by all stripe locks
+        private volatile boolean removed = false;
+
+        GroupWindow() {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        // Returns false if the window has been removed
+        boolean add(long bucketStart, Message message) {
+            final Stripe stripe = stripes[(int) Math.floorMod(Thread.currentThread().getId(), (long) stripes.length)];
+            stripe.lock.lock();
+            try {
+                if (removed) {
+                    return false;
+                }
+                stripe.bucket(bucketStart).add(message);
+                return true;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        // Returns false if the window has been removed
+        boolean merge(long bucketStart, AggregationBucket bucket) {
+            final Stripe stripe = stripes[0];
+            stripe.lock.lock();
+            try {
+                if (removed) {
+                    return false;
+                }
+                stripe.bucket(bucketStart).merge(bucket);
+                return true;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        void mergeInto(Map<List<String>, AggregationBucket> result, List<String> key, long from, long to) {
+            for (final Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    final Map<Long, AggregationBucket> inRange = stripe.buckets.subMap(from, to);
+                    if (!inRange.isEmpty()) {
+                        final AggregationBucket merged = result.computeIfAbsent(key, k -> new AggregationBucket(series));
+                        inRange.values().forEach(merged::merge);
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+        }
+
+        // Returns true if the window is empty afterwards, it doesn't take any messages anymore then
+        boolean expire(long minTimestamp) {
+            for (final Stripe stripe : stripes) {
+                stripe.lock.lock();
+            }
+            try {
+                boolean empty = true;
+                for (final Stripe stripe : stripes) {
+                    stripe.buckets.headMap(minTimestamp).clear();
+                    empty &= stripe.buckets.isEmpty();
+                }
+                removed = empty;
+                return empty;
+            } finally {
+                for (final Stripe stripe : stripes) {
+                    stripe.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final TreeMap<Long, AggregationBucket> buckets = new TreeMap<>();
+
+        AggregationBucket bucket(long bucketStart) {
+            return buckets.computeIfAbsent(bucketStart, k -> new AggregationBucket(series));
+        }
+    }
+}
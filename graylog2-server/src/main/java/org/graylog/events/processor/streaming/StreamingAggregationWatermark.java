@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.joda.time.DateTime;
+import org.mongojack.Id;
+
+/**
+ * The receive time up to which one node has added all messages to its checkpoints of one streaming aggregation.
+ */
+public record StreamingAggregationWatermark(
+        @Id
+        @JsonProperty(FIELD_ID)
+        String id,
+        @JsonProperty(FIELD_NODE_ID)
+        String nodeId,
+        @JsonProperty(FIELD_EVENT_DEFINITION_ID)
+        String eventDefinitionId,
+        @JsonProperty(FIELD_COUNTED_UP_TO)
+        DateTime countedUpTo,
+        @JsonProperty(FIELD_UPDATED_AT)
+        DateTime updatedAt
+) {
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_NODE_ID = "node_id";
+    public static final String FIELD_EVENT_DEFINITION_ID = "event_definition_id";
+    public static final String FIELD_COUNTED_UP_TO = "counted_up_to";
+    public static final String FIELD_UPDATED_AT = "updated_at";
+}
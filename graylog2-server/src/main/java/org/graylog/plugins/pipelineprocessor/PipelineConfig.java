@@ -17,10 +17,24 @@
 package org.graylog.plugins.pipelineprocessor;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import org.graylog2.plugin.PluginConfigBean;
 
 public class PipelineConfig implements PluginConfigBean {
 
     @Parameter("cached_stageiterators")
     private boolean cachedStageIterators = true;
+
+    @Parameter("compile_pipeline_rules")
+    private boolean compilePipelineRules = false;
+
+    @Parameter("indexed_stage_rules")
+    private boolean indexedStageRules = false;
+
+    @Parameter("prefetch_lookups")
+    private boolean prefetchLookups = false;
+
+    @Parameter(value = "prefetch_lookups_timeout", validators = PositiveDurationValidator.class)
+    private Duration prefetchLookupsTimeout = Duration.seconds(1);
 }
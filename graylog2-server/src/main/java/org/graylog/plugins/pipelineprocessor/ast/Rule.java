@@ -23,6 +23,7 @@ import org.antlr.v4.runtime.CommonToken;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanExpression;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
 import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.codegen.GeneratedRule;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineMetricRegistry;
 
 import javax.annotation.Nullable;
@@ -43,6 +44,7 @@ public abstract class Rule {
     private transient Meter localMatched;
     private transient Meter globalNotMatched;
     private transient Meter localNotMatched;
+    private transient GeneratedRule generatedRule;
 
     @Nullable
     public abstract String id();
@@ -120,13 +122,29 @@ public abstract class Rule {
         }
     }
 
+    /**
+     * Returns the compiled version of this rule, if any.
+     *
+     * @return the compiled rule or {@code null} if the rule has to be interpreted
+     */
+    @Nullable
+    public GeneratedRule generatedRule() {
+        return generatedRule;
+    }
+
+    public void setGeneratedRule(@Nullable GeneratedRule generatedRule) {
+        this.generatedRule = generatedRule;
+    }
+
     /**
      * Creates a copy of this Rule.
      *
      * @return a copy of this rule
      */
     public Rule copy() {
-        return toBuilder().build();
+        final Rule copy = toBuilder().build();
+        copy.setGeneratedRule(generatedRule);
+        return copy;
     }
 
     @AutoValue.Builder
@@ -19,7 +19,9 @@ package org.graylog.plugins.pipelineprocessor.ast;
 import com.codahale.metrics.Meter;
 import com.google.auto.value.AutoValue;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineMetricRegistry;
+import org.graylog.plugins.pipelineprocessor.processors.StageRuleIndex;
 
+import javax.annotation.Nullable;
 import java.util.List;
 
 @AutoValue
@@ -32,6 +34,7 @@ public abstract class Stage implements Comparable<Stage> {
     // not an autovalue property, because it introduces a cycle in hashCode() and we have no way of excluding it
     private transient Pipeline pipeline;
     private transient Meter executed;
+    private transient StageRuleIndex ruleIndex;
 
     public abstract int stage();
 
@@ -47,6 +50,20 @@ public abstract class Stage implements Comparable<Stage> {
         this.rules = rules;
     }
 
+    /**
+     * Returns the guard index over the rules of this stage.
+     *
+     * @return the index or {@code null} if every rule condition has to be evaluated
+     */
+    @Nullable
+    public StageRuleIndex getRuleIndex() {
+        return ruleIndex;
+    }
+
+    public void setRuleIndex(@Nullable StageRuleIndex ruleIndex) {
+        this.ruleIndex = ruleIndex;
+    }
+
     public static Builder builder() {
         return new AutoValue_Stage.Builder();
     }
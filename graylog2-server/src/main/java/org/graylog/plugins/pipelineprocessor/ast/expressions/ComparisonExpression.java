@@ -40,9 +40,13 @@ public class ComparisonExpression extends BinaryExpression implements LogicalExp
 
     @Override
     public boolean evaluateBool(EvaluationContext context) {
+        return evaluateBool(context, this.left.evaluateUnsafe(context), this.right.evaluateUnsafe(context));
+    }
 
-        final Object leftValue = this.left.evaluateUnsafe(context);
-        final Object rightValue = this.right.evaluateUnsafe(context);
+    /**
+     * Compares the already evaluated operands of this expression.
+     */
+    public boolean evaluateBool(EvaluationContext context, Object leftValue, Object rightValue) {
         if (leftValue instanceof DateTime && rightValue instanceof DateTime) {
             return compareDateTimes(operator, (DateTime) leftValue, (DateTime) rightValue);
         }
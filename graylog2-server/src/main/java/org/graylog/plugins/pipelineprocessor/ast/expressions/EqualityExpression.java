@@ -45,8 +45,13 @@ public class EqualityExpression extends BinaryExpression implements LogicalExpre
 
     @Override
     public boolean evaluateBool(EvaluationContext context) {
-        final Object left = this.left.evaluateUnsafe(context);
-        final Object right = this.right.evaluateUnsafe(context);
+        return evaluateBool(context, this.left.evaluateUnsafe(context), this.right.evaluateUnsafe(context));
+    }
+
+    /**
+     * Compares the already evaluated operands of this expression.
+     */
+    public boolean evaluateBool(EvaluationContext context, Object left, Object right) {
         if (left == null) {
             log.warn(context.pipelineErrorMessage("left expression evaluated to null, returning false: " + this.left));
             return false;
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.codegen;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+
+/**
+ * A pipeline {@link org.graylog.plugins.pipelineprocessor.ast.Rule rule} which has been compiled into a JVM class by
+ * the {@link RuleCompiler}.
+ */
+public interface GeneratedRule {
+    /**
+     * Evaluates the rule condition, exactly like {@code rule.when().evaluateBool(context)} would.
+     *
+     * @param context the evaluation context
+     * @return {@code true} if the rule matched
+     */
+    boolean when(EvaluationContext context);
+
+    /**
+     * Executes the rule actions in order, stopping after the first statement that recorded an evaluation error.
+     *
+     * @param context the evaluation context
+     * @return {@code false} if the context has evaluation errors after executing a statement
+     */
+    boolean then(EvaluationContext context);
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.codegen;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.FunctionEvaluationException;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.LocationAwareEvalException;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.AndExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanValuedFunctionWrapper;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ComparisonExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ConstantExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.EqualityExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FieldRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.NotExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.OrExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.VarRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.graylog2.plugin.Message;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.ICONST_1;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFNE;
+import static org.objectweb.asm.Opcodes.IFNULL;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.IXOR;
+import static org.objectweb.asm.Opcodes.NEW;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.PUTSTATIC;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V17;
+
+/**
+ * Compiles parsed pipeline {@link Rule rules} into JVM classes.
+ * <p>
+ * Every rule gets its own hidden class, so each call site in the generated code only ever sees a single expression
+ * node and the JIT can inline the rule body. Logical operators, comparisons, message field and variable access as well
+ * as function calls are emitted as bytecode. Constant operands, the function instances and their (pre-computed)
+ * arguments are bound to static final fields of the generated class. Any other expression is evaluated by calling the
+ * AST node, which keeps the semantics of the {@link org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter}.
+ * <p>
+ * Rules using constructs which cannot be compiled are left to the interpreter.
+ */
+public class RuleCompiler {
+    private static final Logger LOG = LoggerFactory.getLogger(RuleCompiler.class);
+
+    private static final String CLASS_NAME = Type.getInternalName(RuleCompiler.class).replace("RuleCompiler", "CompiledRule");
+    private static final String CONTEXT = Type.getInternalName(EvaluationContext.class);
+    private static final String CONTEXT_DESC = Type.getDescriptor(EvaluationContext.class);
+    private static final String OBJECT = Type.getInternalName(Object.class);
+    private static final String OBJECT_DESC = Type.getDescriptor(Object.class);
+    private static final String EXPRESSION = Type.getInternalName(Expression.class);
+
+    /**
+     * Compiles the given rule.
+     *
+     * @param rule the parsed rule
+     * @return the compiled rule or {@code null} if the rule cannot be compiled and has to be interpreted
+     */
+    @Nullable
+    public GeneratedRule compile(Rule rule) {
+        try {
+            final Generator generator = new Generator();
+            final byte[] bytes = generator.generate(rule);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(bytes, generator.bindings.toArray(), true);
+            final GeneratedRule generatedRule = (GeneratedRule) lookup
+                    .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+            LOG.debug("Compiled rule <{}/{}> into {} bytes of bytecode", rule.name(), rule.id(), bytes.length);
+            return generatedRule;
+        } catch (UnsupportedOperationException e) {
+            LOG.debug("Not compiling rule <{}/{}>: {}", rule.name(), rule.id(), e.getMessage());
+        } catch (Throwable e) {
+            LOG.warn("Unable to compile rule <{}/{}>, falling back to the interpreter.", rule.name(), rule.id(), e);
+        }
+        return null;
+    }
+
+    private static class Generator {
+        private final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // The generated code only merges values which are typed as Object on both paths.
+                return OBJECT;
+            }
+        };
+        private final List<Object> bindings = new ArrayList<>();
+        private final List<String> bindingDescriptors = new ArrayList<>();
+        private int methodCount = 0;
+
+        byte[] generate(Rule rule) {
+            classWriter.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, CLASS_NAME, null, OBJECT,
+                    new String[]{Type.getInternalName(GeneratedRule.class)});
+
+            final MethodVisitor constructor = classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+            constructor.visitCode();
+            constructor.visitVarInsn(ALOAD, 0);
+            constructor.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+            constructor.visitInsn(RETURN);
+            constructor.visitMaxs(0, 0);
+            constructor.visitEnd();
+
+            generateWhen(rule.when());
+            generateThen(rule.then());
+            generateStaticInitializer();
+
+            classWriter.visitEnd();
+            return classWriter.toByteArray();
+        }
+
+        private void generateWhen(LogicalExpression condition) {
+            final Method method = staticMethod("when", "(" + CONTEXT_DESC + ")Z");
+            generateBool(method, condition);
+            method.visitor.visitInsn(IRETURN);
+            method.end();
+            bridge("when", method.name);
+        }
+
+        private void generateThen(Iterable<Statement> statements) {
+            final List<String> statementMethods = new ArrayList<>();
+            for (Statement statement : statements) {
+                statementMethods.add(generateStatement(statement));
+            }
+
+            final Method method = staticMethod("then", "(" + CONTEXT_DESC + ")Z");
+            final MethodVisitor mv = method.visitor;
+            for (String statementMethod : statementMethods) {
+                final Label next = new Label();
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKESTATIC, CLASS_NAME, statementMethod, "(" + CONTEXT_DESC + ")V", false);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT, "hasEvaluationErrors", "()Z", false);
+                mv.visitJumpInsn(IFEQ, next);
+                mv.visitInsn(ICONST_0);
+                mv.visitInsn(IRETURN);
+                mv.visitLabel(next);
+            }
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IRETURN);
+            method.end();
+            bridge("then", method.name);
+        }
+
+        // Each statement gets its own method so its exception handler never encloses the ones of function calls.
+        private String generateStatement(Statement statement) {
+            final Method method = staticMethod("statement", "(" + CONTEXT_DESC + ")V");
+            final MethodVisitor mv = method.visitor;
+            final Label start = new Label();
+            final Label end = new Label();
+            final Label handler = new Label();
+            mv.visitTryCatchBlock(start, end, handler, Type.getInternalName(Exception.class));
+
+            if (statement instanceof FunctionStatement functionStatement) {
+                // FunctionStatement#evaluate: functionExpression.evaluate(context)
+                final Expression expression = functionStatement.getFunctionExpression();
+                mv.visitLabel(start);
+                generateValue(method, expression);
+                mv.visitInsn(POP);
+                mv.visitLabel(end);
+                mv.visitInsn(RETURN);
+
+                mv.visitLabel(handler);
+                generateEvaluationException(method, expression);
+                mv.visitInsn(RETURN);
+            } else if (statement instanceof VarAssignStatement varAssignStatement) {
+                // VarAssignStatement#evaluate: context.define(name, expr.getType(), expr.evaluate(context))
+                final Expression expression = varAssignStatement.getValueExpression();
+                final int result = method.newLocal();
+                final Label define = new Label();
+                mv.visitLabel(start);
+                generateValue(method, expression);
+                mv.visitVarInsn(ASTORE, result);
+                mv.visitLabel(end);
+                mv.visitJumpInsn(GOTO, define);
+
+                mv.visitLabel(handler);
+                generateEvaluationException(method, expression);
+                mv.visitInsn(ACONST_NULL);
+                mv.visitVarInsn(ASTORE, result);
+
+                mv.visitLabel(define);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitLdcInsn(varAssignStatement.getName());
+                getBinding(mv, expression.getType(), Class.class);
+                mv.visitVarInsn(ALOAD, result);
+                mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT, "define",
+                        "(Ljava/lang/String;Ljava/lang/Class;" + OBJECT_DESC + ")V", false);
+                mv.visitInsn(RETURN);
+            } else {
+                throw new UnsupportedOperationException("unsupported statement " + statement.getClass().getSimpleName());
+            }
+            method.end();
+            return method.name;
+        }
+
+        // Expects the caught exception on the stack, like Expression#evaluate reports it.
+        private void generateEvaluationException(Method method, Expression expression) {
+            final MethodVisitor mv = method.visitor;
+            final int exception = method.newLocal();
+            mv.visitVarInsn(ASTORE, exception);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, exception);
+            getBinding(mv, expression, Expression.class);
+            mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT, "onEvaluationException",
+                    "(Ljava/lang/Exception;" + Type.getDescriptor(Expression.class) + ")V", false);
+        }
+
+        /**
+         * Emits code leaving the result of {@code ((LogicalExpression) expression).evaluateBool(context)} on the stack.
+         */
+        private void generateBool(Method method, Expression expression) {
+            final MethodVisitor mv = method.visitor;
+            if (expression instanceof BooleanExpression booleanExpression) {
+                mv.visitInsn(booleanExpression.evaluateBool(null) ? ICONST_1 : ICONST_0);
+            } else if (expression instanceof AndExpression andExpression) {
+                final Label isFalse = new Label();
+                final Label done = new Label();
+                generateBool(method, andExpression.left());
+                mv.visitJumpInsn(IFEQ, isFalse);
+                generateBool(method, andExpression.right());
+                mv.visitJumpInsn(IFEQ, isFalse);
+                mv.visitInsn(ICONST_1);
+                mv.visitJumpInsn(GOTO, done);
+                mv.visitLabel(isFalse);
+                mv.visitInsn(ICONST_0);
+                mv.visitLabel(done);
+            } else if (expression instanceof OrExpression orExpression) {
+                final Label isTrue = new Label();
+                final Label done = new Label();
+                generateBool(method, orExpression.left());
+                mv.visitJumpInsn(IFNE, isTrue);
+                generateBool(method, orExpression.right());
+                mv.visitJumpInsn(IFNE, isTrue);
+                mv.visitInsn(ICONST_0);
+                mv.visitJumpInsn(GOTO, done);
+                mv.visitLabel(isTrue);
+                mv.visitInsn(ICONST_1);
+                mv.visitLabel(done);
+            } else if (expression instanceof NotExpression notExpression) {
+                generateBool(method, notExpression.right());
+                mv.visitInsn(ICONST_1);
+                mv.visitInsn(IXOR);
+            } else if (expression instanceof BooleanValuedFunctionWrapper wrapper) {
+                final int value = method.newLocal();
+                final Label isNull = new Label();
+                final Label done = new Label();
+                generateValue(method, wrapper.expression());
+                mv.visitVarInsn(ASTORE, value);
+                mv.visitVarInsn(ALOAD, value);
+                mv.visitJumpInsn(IFNULL, isNull);
+                mv.visitVarInsn(ALOAD, value);
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(Boolean.class));
+                mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Boolean.class), "booleanValue", "()Z", false);
+                mv.visitJumpInsn(GOTO, done);
+                mv.visitLabel(isNull);
+                mv.visitInsn(ICONST_0);
+                mv.visitLabel(done);
+            } else if (expression instanceof EqualityExpression equalityExpression) {
+                generateComparison(method, equalityExpression, equalityExpression.left(), equalityExpression.right(), EqualityExpression.class);
+            } else if (expression instanceof ComparisonExpression comparisonExpression) {
+                generateComparison(method, comparisonExpression, comparisonExpression.left(), comparisonExpression.right(), ComparisonExpression.class);
+            } else if (expression instanceof LogicalExpression) {
+                getBinding(mv, expression, LogicalExpression.class);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(LogicalExpression.class), "evaluateBool",
+                        "(" + CONTEXT_DESC + ")Z", true);
+            } else {
+                throw new UnsupportedOperationException("non-boolean condition " + expression.getClass().getSimpleName());
+            }
+        }
+
+        private void generateComparison(Method method, Expression expression, Expression left, Expression right, Class<?> type) {
+            final MethodVisitor mv = method.visitor;
+            getBinding(mv, expression, type);
+            mv.visitVarInsn(ALOAD, 0);
+            generateValue(method, left);
+            generateValue(method, right);
+            mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(type), "evaluateBool",
+                    "(" + CONTEXT_DESC + OBJECT_DESC + OBJECT_DESC + ")Z", false);
+        }
+
+        /**
+         * Emits code leaving the result of {@code expression.evaluateUnsafe(context)} on the stack.
+         */
+        private void generateValue(Method method, Expression expression) {
+            final MethodVisitor mv = method.visitor;
+            if (expression instanceof ConstantExpression || expression instanceof FieldRefExpression) {
+                // Constant values are immutable, so a single instance can be shared by all evaluations.
+                generateConstant(mv, expression.evaluateUnsafe());
+            } else if (expression instanceof AndExpression || expression instanceof OrExpression
+                    || expression instanceof NotExpression || expression instanceof BooleanValuedFunctionWrapper
+                    || expression instanceof EqualityExpression || expression instanceof ComparisonExpression) {
+                generateBool(method, expression);
+                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Boolean.class), "valueOf", "(Z)Ljava/lang/Boolean;", false);
+            } else if (expression instanceof MessageRefExpression messageRefExpression) {
+                generateMessageRef(method, messageRefExpression);
+            } else if (expression instanceof VarRefExpression varRefExpression) {
+                generateVarRef(method, varRefExpression);
+            } else if (expression instanceof FunctionExpression functionExpression) {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKESTATIC, CLASS_NAME, generateFunction(functionExpression),
+                        "(" + CONTEXT_DESC + ")" + OBJECT_DESC, false);
+            } else {
+                getBinding(mv, expression, Expression.class);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKEINTERFACE, EXPRESSION, "evaluateUnsafe", "(" + CONTEXT_DESC + ")" + OBJECT_DESC, true);
+            }
+        }
+
+        private void generateConstant(MethodVisitor mv, @Nullable Object value) {
+            if (value == null) {
+                mv.visitInsn(ACONST_NULL);
+            } else if (value instanceof String) {
+                mv.visitLdcInsn(value);
+            } else {
+                getBinding(mv, value, Object.class);
+            }
+        }
+
+        private void generateMessageRef(Method method, MessageRefExpression expression) {
+            final MethodVisitor mv = method.visitor;
+            final Expression fieldExpression = expression.getFieldExpr();
+            if (fieldExpression == expression) {
+                // plain $message reference
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT, "currentMessage", "()" + Type.getDescriptor(Message.class), false);
+                return;
+            }
+
+            final Label isNull = new Label();
+            final Label done = new Label();
+            if (fieldExpression instanceof ConstantExpression || fieldExpression instanceof FieldRefExpression) {
+                final Object fieldName = fieldExpression.evaluateUnsafe();
+                if (fieldName == null) {
+                    mv.visitInsn(ACONST_NULL);
+                    return;
+                }
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT, "currentMessage", "()" + Type.getDescriptor(Message.class), false);
+                mv.visitLdcInsn(fieldName.toString());
+            } else {
+                final int fieldName = method.newLocal();
+                generateValue(method, fieldExpression);
+                mv.visitVarInsn(ASTORE, fieldName);
+                mv.visitVarInsn(ALOAD, fieldName);
+                mv.visitJumpInsn(IFNULL, isNull);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT, "currentMessage", "()" + Type.getDescriptor(Message.class), false);
+                mv.visitVarInsn(ALOAD, fieldName);
+                mv.visitMethodInsn(INVOKEVIRTUAL, OBJECT, "toString", "()Ljava/lang/String;", false);
+            }
+            mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Message.class), "getField",
+                    "(Ljava/lang/String;)" + OBJECT_DESC, false);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(isNull);
+            mv.visitInsn(ACONST_NULL);
+            mv.visitLabel(done);
+        }
+
+        private void generateVarRef(Method method, VarRefExpression expression) {
+            final MethodVisitor mv = method.visitor;
+            final String typedValueClass = Type.getInternalName(EvaluationContext.TypedValue.class);
+            final int typedValue = method.newLocal();
+            final Label missing = new Label();
+            final Label done = new Label();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitLdcInsn(expression.varName());
+            mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT, "get", "(Ljava/lang/String;)L" + typedValueClass + ";", false);
+            mv.visitVarInsn(ASTORE, typedValue);
+            mv.visitVarInsn(ALOAD, typedValue);
+            mv.visitJumpInsn(IFNULL, missing);
+            mv.visitVarInsn(ALOAD, typedValue);
+            mv.visitMethodInsn(INVOKEVIRTUAL, typedValueClass, "getValue", "()" + OBJECT_DESC, false);
+            mv.visitJumpInsn(GOTO, done);
+            // let the expression log the missing variable
+            mv.visitLabel(missing);
+            getBinding(mv, expression, Expression.class);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKEINTERFACE, EXPRESSION, "evaluateUnsafe", "(" + CONTEXT_DESC + ")" + OBJECT_DESC, true);
+            mv.visitLabel(done);
+        }
+
+        // Mirrors FunctionExpression#evaluateUnsafe in a separate method to keep exception handlers from nesting.
+        private String generateFunction(FunctionExpression expression) {
+            final Method method = staticMethod("function", "(" + CONTEXT_DESC + ")" + OBJECT_DESC);
+            final MethodVisitor mv = method.visitor;
+            final Label start = new Label();
+            final Label end = new Label();
+            final Label rethrow = new Label();
+            final Label wrap = new Label();
+            mv.visitTryCatchBlock(start, end, rethrow, Type.getInternalName(LocationAwareEvalException.class));
+            mv.visitTryCatchBlock(start, end, wrap, Type.getInternalName(Exception.class));
+
+            mv.visitLabel(start);
+            getBinding(mv, expression.getFunction().descriptor().returnType(), Class.class);
+            getBinding(mv, expression.getFunction(), Function.class);
+            getBinding(mv, expression.getArgs(), FunctionArgs.class);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(Function.class), "evaluate",
+                    "(" + Type.getDescriptor(FunctionArgs.class) + CONTEXT_DESC + ")" + OBJECT_DESC, true);
+            mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Class.class), "cast", "(" + OBJECT_DESC + ")" + OBJECT_DESC, false);
+            mv.visitLabel(end);
+            mv.visitInsn(ARETURN);
+
+            mv.visitLabel(rethrow);
+            mv.visitInsn(ATHROW);
+
+            mv.visitLabel(wrap);
+            final int exception = method.newLocal();
+            mv.visitVarInsn(ASTORE, exception);
+            mv.visitTypeInsn(NEW, Type.getInternalName(FunctionEvaluationException.class));
+            mv.visitInsn(DUP);
+            getBinding(mv, expression, FunctionExpression.class);
+            mv.visitVarInsn(ALOAD, exception);
+            mv.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(FunctionEvaluationException.class), "<init>",
+                    "(" + Type.getDescriptor(FunctionExpression.class) + "Ljava/lang/Exception;)V", false);
+            mv.visitInsn(ATHROW);
+            method.end();
+            return method.name;
+        }
+
+        /**
+         * Binds the given value to a static final field of the generated class and pushes it on the stack.
+         */
+        private void getBinding(MethodVisitor mv, @Nullable Object value, Class<?> type) {
+            final int index = bindings.size();
+            final String descriptor = Type.getDescriptor(type);
+            bindings.add(value);
+            bindingDescriptors.add(descriptor);
+            classWriter.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "b" + index, descriptor, null, null).visitEnd();
+            mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "b" + index, descriptor);
+        }
+
+        // Initializes the bound fields from the class data passed to Lookup#defineHiddenClassWithClassData.
+        private void generateStaticInitializer() {
+            final MethodVisitor mv = classWriter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+            mv.visitCode();
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(MethodHandles.class), "lookup",
+                    "()" + Type.getDescriptor(MethodHandles.Lookup.class), false);
+            mv.visitLdcInsn("_");
+            mv.visitLdcInsn(Type.getType(Object[].class));
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(MethodHandles.class), "classData",
+                    "(" + Type.getDescriptor(MethodHandles.Lookup.class) + "Ljava/lang/String;Ljava/lang/Class;)" + OBJECT_DESC, false);
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(Object[].class));
+            mv.visitVarInsn(ASTORE, 0);
+            for (int i = 0; i < bindingDescriptors.size(); i++) {
+                final String descriptor = bindingDescriptors.get(i);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitLdcInsn(i);
+                mv.visitInsn(AALOAD);
+                mv.visitTypeInsn(CHECKCAST, Type.getType(descriptor).getInternalName());
+                mv.visitFieldInsn(PUTSTATIC, CLASS_NAME, "b" + i, descriptor);
+            }
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        private Method staticMethod(String prefix, String descriptor) {
+            final String name = prefix + "$" + methodCount++;
+            return new Method(name, classWriter.visitMethod(ACC_PRIVATE | ACC_STATIC, name, descriptor, null, null));
+        }
+
+        // GeneratedRule interface method calling the static implementation method with the context argument.
+        private void bridge(String name, String implementation) {
+            final MethodVisitor mv = classWriter.visitMethod(ACC_PUBLIC, name, "(" + CONTEXT_DESC + ")Z", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitMethodInsn(INVOKESTATIC, CLASS_NAME, implementation, "(" + CONTEXT_DESC + ")Z", false);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+    }
+
+    private static class Method {
+        private final String name;
+        private final MethodVisitor visitor;
+        // local 0 is the evaluation context
+        private int nextLocal = 1;
+
+        private Method(String name, MethodVisitor visitor) {
+            this.name = name;
+            this.visitor = visitor;
+            visitor.visitCode();
+        }
+
+        int newLocal() {
+            return nextLocal++;
+        }
+
+        void end() {
+            visitor.visitMaxs(0, 0);
+            visitor.visitEnd();
+        }
+    }
+}
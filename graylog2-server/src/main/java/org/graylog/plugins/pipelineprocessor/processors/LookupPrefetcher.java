@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.StringExpression;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.Lookup;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupHasValue;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupStringList;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupStringListContains;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupValue;
+import org.graylog2.lookup.LookupTable;
+import org.graylog2.lookup.LookupTableService;
+import org.graylog2.lookup.caches.NullCache;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves the lookup table keys of a batch of messages before the pipeline rules are evaluated.
+ * <p>
+ * A batch consists of the messages which were decoded from one raw message, so prefetching only has an effect for
+ * inputs whose codec decodes multiple messages at once. The process buffer handles one raw message at a time, so
+ * messages of codecs which decode a single message are never prefetched and evaluate their lookups as before.
+ * <p>
+ * Rules which call one of the read-only {@code lookup*()} functions with a constant table name and a key taken from the
+ * message, e.g. {@code lookup_value("geo", $message.src_ip)}, are collected once per interpreter state. Before the
+ * messages decoded from one raw message are processed, all distinct keys of the batch are looked up concurrently, so
+ * the lookups during rule evaluation are answered by the lookup table caches instead of waiting for the data adapter
+ * one message after the other.
+ * <p>
+ * Tables without a cache are skipped because the results would be loaded twice. Keys of messages which don't reach
+ * the lookup during evaluation are resolved nevertheless.
+ */
+public class LookupPrefetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(LookupPrefetcher.class);
+
+    private static final Set<String> PREFETCHABLE_FUNCTIONS = ImmutableSet.of(
+            Lookup.NAME,
+            LookupValue.NAME,
+            LookupStringList.NAME,
+            LookupHasValue.NAME,
+            LookupStringListContains.NAME
+    );
+
+    private static final LookupPrefetcher DISABLED = new LookupPrefetcher(null, false, Duration.milliseconds(0));
+
+    private final LookupTableService lookupTableService;
+    private final boolean enabled;
+    private final long timeoutMillis;
+
+    private volatile Plan plan = new Plan(null, List.of());
+
+    @Inject
+    public LookupPrefetcher(LookupTableService lookupTableService,
+                            @Named("prefetch_lookups") boolean enabled,
+                            @Named("prefetch_lookups_timeout") Duration timeout) {
+        this.lookupTableService = lookupTableService;
+        this.enabled = enabled;
+        this.timeoutMillis = timeout.toMilliseconds();
+    }
+
+    /**
+     * Returns a prefetcher which never looks up anything, for interpreters which aren't part of the processing chain.
+     */
+    public static LookupPrefetcher disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Looks up the keys of all prefetchable lookups in the given messages and waits until they are resolved or the
+     * prefetch timeout has passed.
+     *
+     * @param messages the messages which are about to be processed
+     * @param state    the interpreter state the messages will be processed with
+     */
+    public void prefetch(Collection<Message> messages, PipelineInterpreter.State state) {
+        if (!enabled || messages.isEmpty()) {
+            return;
+        }
+        final List<LookupCall> lookupCalls = planFor(state).lookupCalls();
+        if (lookupCalls.isEmpty()) {
+            return;
+        }
+
+        final Map<String, Set<Object>> keysByTable = new LinkedHashMap<>();
+        for (final Message message : messages) {
+            final EvaluationContext context = new EvaluationContext(message);
+            for (final LookupCall lookupCall : lookupCalls) {
+                final Object key;
+                try {
+                    key = lookupCall.keyExpression().evaluateUnsafe(context);
+                } catch (Exception e) {
+                    // The evaluation of the rule will report the error
+                    continue;
+                }
+                if (key != null) {
+                    keysByTable.computeIfAbsent(lookupCall.tableName(), name -> new LinkedHashSet<>()).add(key);
+                }
+            }
+        }
+
+        final List<CompletableFuture<LookupResult>> pending = new ArrayList<>();
+        keysByTable.forEach((tableName, keys) -> {
+            final LookupTableService.Function table = lookupTableService.newBuilder().lookupTable(tableName).build();
+            final LookupTable lookupTable = table.getTable();
+            if (lookupTable == null || lookupTable.cache() instanceof NullCache) {
+                return;
+            }
+            pending.addAll(table.getAll(keys).values());
+        });
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Rule evaluation waits for the remaining lookups itself
+            LOG.debug("Prefetching {} lookup keys didn't finish within {} ms", pending.size(), timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Cannot happen, lookup futures complete with an error result instead
+            LOG.debug("Prefetching lookup keys failed", e);
+        }
+    }
+
+    private Plan planFor(PipelineInterpreter.State state) {
+        final Plan current = plan;
+        if (current.state() == state) {
+            return current;
+        }
+        final Plan newPlan = new Plan(state, collectLookupCalls(state.getCurrentPipelines().values()));
+        LOG.debug("Prefetching {} lookup table calls for the current pipelines", newPlan.lookupCalls().size());
+        plan = newPlan;
+        return newPlan;
+    }
+
+    static List<LookupCall> collectLookupCalls(Collection<Pipeline> pipelines) {
+        final Set<LookupCall> lookupCalls = new LinkedHashSet<>();
+        for (final Pipeline pipeline : pipelines) {
+            for (final Stage stage : pipeline.stages()) {
+                if (stage.getRules() == null) {
+                    continue;
+                }
+                for (final Rule rule : stage.getRules()) {
+                    if (rule == null) {
+                        continue;
+                    }
+                    collectLookupCalls(rule.when(), lookupCalls);
+                    for (final Statement statement : rule.then()) {
+                        if (statement instanceof FunctionStatement functionStatement) {
+                            collectLookupCalls(functionStatement.getFunctionExpression(), lookupCalls);
+                        } else if (statement instanceof VarAssignStatement varAssignStatement) {
+                            collectLookupCalls(varAssignStatement.getValueExpression(), lookupCalls);
+                        }
+                    }
+                }
+            }
+        }
+        return List.copyOf(lookupCalls);
+    }
+
+    private static void collectLookupCalls(Expression expression, Set<LookupCall> lookupCalls) {
+        if (expression == null) {
+            return;
+        }
+        if (expression instanceof FunctionExpression function
+                && PREFETCHABLE_FUNCTIONS.contains(function.getFunction().descriptor().name())) {
+            final Expression table = function.getArgs().expression("lookup_table");
+            final Expression key = function.getArgs().expression("key");
+            if (table instanceof StringExpression && StageRuleIndex.isKeyExpression(key)) {
+                lookupCalls.add(new LookupCall((String) table.evaluateUnsafe(), key));
+            }
+        }
+        for (final Expression child : expression.children()) {
+            collectLookupCalls(child, lookupCalls);
+        }
+    }
+
+    record LookupCall(String tableName, Expression keyExpression) {
+        // Expressions don't implement equals, calls with the same key source are identified by their text.
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LookupCall other
+                    && tableName.equals(other.tableName)
+                    && keyExpression.toString().equals(other.keyExpression.toString());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tableName.hashCode() + keyExpression.toString().hashCode();
+        }
+    }
+
+    private record Plan(PipelineInterpreter.State state, List<LookupCall> lookupCalls) {
+    }
+}
@@ -38,6 +38,7 @@ import org.graylog.plugins.pipelineprocessor.ast.Rule;
 import org.graylog.plugins.pipelineprocessor.ast.Stage;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
 import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.codegen.GeneratedRule;
 import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.InterpreterListener;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.NoopInterpreterListener;
@@ -64,6 +65,7 @@ import jakarta.inject.Named;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -83,17 +85,20 @@ public class PipelineInterpreter implements MessageProcessor {
     private final Timer executionTime;
     private final MetricRegistry metricRegistry;
     private final ConfigurationStateUpdater stateUpdater;
+    private final LookupPrefetcher lookupPrefetcher;
 
     @Inject
     public PipelineInterpreter(MessageQueueAcknowledger messageQueueAcknowledger,
                                MetricRegistry metricRegistry,
-                               ConfigurationStateUpdater stateUpdater) {
+                               ConfigurationStateUpdater stateUpdater,
+                               LookupPrefetcher lookupPrefetcher) {
 
         this.messageQueueAcknowledger = messageQueueAcknowledger;
         this.filteredOutMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "filteredOutMessages"));
         this.executionTime = metricRegistry.timer(name(PipelineInterpreter.class, "executionTime"));
         this.metricRegistry = metricRegistry;
         this.stateUpdater = stateUpdater;
+        this.lookupPrefetcher = lookupPrefetcher;
     }
 
     /**
@@ -111,6 +116,15 @@ public class PipelineInterpreter implements MessageProcessor {
         }
     }
 
+    /**
+     * Resolves the lookup table keys of all messages decoded from the same raw message at once, so the messages don't
+     * wait for the data adapters one after the other. Only called for codecs which decode multiple messages.
+     */
+    @Override
+    public void prepareBatch(Messages messages) {
+        lookupPrefetcher.prefetch(Lists.newArrayList(messages), stateUpdater.getLatestState());
+    }
+
     /**
      * Evaluates all pipelines that apply to the given messages, based on the current stream routing
      * of the messages.
@@ -315,7 +329,17 @@ public class PipelineInterpreter implements MessageProcessor {
         final List<Rule> rulesToRun = new ArrayList<>(stageRules.size());
         boolean anyRulesMatched = stageRules.isEmpty(); // If there are no rules, we can simply continue to the next stage
         boolean allRulesMatched = true;
-        for (Rule rule : stageRules) {
+        // rules whose guard condition cannot match the message are not evaluated at all
+        final StageRuleIndex ruleIndex = stage.getRuleIndex();
+        final BitSet candidates = ruleIndex == null ? null : ruleIndex.candidates(context);
+        for (int i = 0; i < stageRules.size(); i++) {
+            final Rule rule = stageRules.get(i);
+            if (candidates != null && !candidates.get(i)) {
+                interpreterListener.evaluateRule(rule, pipeline);
+                ruleNotMatched(rule, msgId, pipeline, interpreterListener);
+                allRulesMatched = false;
+                continue;
+            }
             try {
                 final boolean ruleCondition = evaluateRuleCondition(rule, message, msgId, pipeline, context, rulesToRun, interpreterListener);
                 anyRulesMatched |= ruleCondition;
@@ -382,6 +406,14 @@ public class PipelineInterpreter implements MessageProcessor {
         interpreterListener.executeRule(rule, pipeline);
         try {
             log.debug("[{}] rule `{}` matched running actions", msgId, rule.name());
+            final GeneratedRule generatedRule = rule.generatedRule();
+            if (generatedRule != null) {
+                if (!generatedRule.then(context)) {
+                    handleStatementError(message, interpreterListener, pipeline, context, rule);
+                    return false;
+                }
+                return true;
+            }
             for (Statement statement : rule.then()) {
                 if (!evaluateStatement(message, interpreterListener, pipeline, context, rule, statement)) {
                     // statement raised an error, skip the rest of the rule
@@ -401,24 +433,31 @@ public class PipelineInterpreter implements MessageProcessor {
         context.setRule(rule);
         statement.evaluate(context);
         if (context.hasEvaluationErrors()) {
-            // if the last statement resulted in an error, do not continue to execute this rules
-            final EvaluationContext.EvalError lastError = Iterables.getLast(context.evaluationErrors());
-            message.addProcessingError(new Message.ProcessingError(
-                    ProcessingFailureCause.RuleStatementEvaluationError,
-                    String.format(Locale.ENGLISH,
-                            "Error evaluating action for rule <%s/%s> (pipeline <%s/%s>)",
-                            rule.name(), rule.id(), pipeline.name(), pipeline.id()),
-                    lastError.toString()
-            ));
-            interpreterListener.failExecuteRule(rule, pipeline);
-            log.debug("Encountered evaluation error, skipping rest of the rule: {}",
-                    lastError);
-            rule.markFailure();
+            handleStatementError(message, interpreterListener, pipeline, context, rule);
             return false;
         }
         return true;
     }
 
+    private void handleStatementError(Message message,
+                                      InterpreterListener interpreterListener,
+                                      Pipeline pipeline,
+                                      EvaluationContext context, Rule rule) {
+        // if the last statement resulted in an error, do not continue to execute this rules
+        final EvaluationContext.EvalError lastError = Iterables.getLast(context.evaluationErrors());
+        message.addProcessingError(new Message.ProcessingError(
+                ProcessingFailureCause.RuleStatementEvaluationError,
+                String.format(Locale.ENGLISH,
+                        "Error evaluating action for rule <%s/%s> (pipeline <%s/%s>)",
+                        rule.name(), rule.id(), pipeline.name(), pipeline.id()),
+                lastError.toString()
+        ));
+        interpreterListener.failExecuteRule(rule, pipeline);
+        log.debug("Encountered evaluation error, skipping rest of the rule: {}",
+                lastError);
+        rule.markFailure();
+    }
+
     private boolean evaluateRuleCondition(Rule rule,
                                           Message message,
                                           String msgId,
@@ -428,8 +467,9 @@ public class PipelineInterpreter implements MessageProcessor {
         interpreterListener.evaluateRule(rule, pipeline);
         final boolean matched;
         final LogicalExpression logicalExpression = rule.when();
+        final GeneratedRule generatedRule = rule.generatedRule();
         try {
-            matched = logicalExpression.evaluateBool(context);
+            matched = generatedRule != null ? generatedRule.when(context) : logicalExpression.evaluateBool(context);
         } catch (Exception e) {
 
             context.onEvaluationException(e, logicalExpression);
@@ -454,13 +494,17 @@ public class PipelineInterpreter implements MessageProcessor {
             rulesToRun.add(rule);
             return true;
         } else {
-            rule.markNonMatch();
-            interpreterListener.dissatisfyRule(rule, pipeline);
-            log.debug("[{}] rule `{}` does not match", msgId, rule.name());
+            ruleNotMatched(rule, msgId, pipeline, interpreterListener);
         }
         return false;
     }
 
+    private void ruleNotMatched(Rule rule, String msgId, Pipeline pipeline, InterpreterListener interpreterListener) {
+        rule.markNonMatch();
+        interpreterListener.dissatisfyRule(rule, pipeline);
+        log.debug("[{}] rule `{}` does not match", msgId, rule.name());
+    }
+
     public static class Descriptor implements MessageProcessor.Descriptor {
         @Override
         public String name() {
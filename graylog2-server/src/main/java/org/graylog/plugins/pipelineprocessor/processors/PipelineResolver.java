@@ -22,8 +22,10 @@ import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Maps;
 import com.google.inject.assistedinject.Assisted;
 import jakarta.inject.Inject;
+import jakarta.inject.Named;
 import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.codegen.RuleCompiler;
 import org.graylog.plugins.pipelineprocessor.db.PipelineDao;
 import org.graylog.plugins.pipelineprocessor.db.RuleDao;
 import org.graylog.plugins.pipelineprocessor.parser.ParseException;
@@ -65,11 +67,25 @@ public class PipelineResolver {
     private final Supplier<Stream<RuleDao>> ruleDaoSupplier;
     private final Supplier<Stream<PipelineDao>> pipelineDaoSupplier;
     private final Supplier<Stream<PipelineConnections>> pipelineConnectionsSupplier;
+    private final boolean compileRules;
+    private final boolean indexStageRules;
+    private final RuleCompiler ruleCompiler;
+
+    public PipelineResolver(PipelineRuleParser ruleParser,
+                            PipelineResolverConfig config) {
+        this(ruleParser, config, false, true, new RuleCompiler());
+    }
 
     @Inject
     public PipelineResolver(@Assisted PipelineRuleParser ruleParser,
-                            @Assisted PipelineResolverConfig config) {
+                            @Assisted PipelineResolverConfig config,
+                            @Named("compile_pipeline_rules") boolean compileRules,
+                            @Named("indexed_stage_rules") boolean indexStageRules,
+                            RuleCompiler ruleCompiler) {
         this.ruleParser = ruleParser;
+        this.compileRules = compileRules;
+        this.indexStageRules = indexStageRules;
+        this.ruleCompiler = ruleCompiler;
         this.config = config;
         this.ruleDaoSupplier = config.rulesSupplier();
         this.pipelineDaoSupplier = config.pipelinesSupplier();
@@ -119,10 +135,18 @@ public class PipelineResolver {
                     LOG.warn("Ignoring non parseable rule <{}/{}> with errors <{}>", ruleDao.title(), ruleDao.id(), e.getErrors());
                     rule = Rule.alwaysFalse("Failed to parse rule: " + ruleDao.id());
                 }
+                if (compileRules) {
+                    // rules which cannot be compiled stay null and are interpreted
+                    rule.setGeneratedRule(ruleCompiler.compile(rule));
+                }
                 ruleNameMap.put(rule.name(), rule);
             });
         }
 
+        if (compileRules) {
+            LOG.debug("Compiled {} of {} pipeline rules", ruleNameMap.values().stream().filter(rule -> rule.generatedRule() != null).count(), ruleNameMap.size());
+        }
+
         return ruleNameMap;
     }
 
@@ -199,6 +223,7 @@ public class PipelineResolver {
                     })
                     .collect(Collectors.toList());
             stage.setRules(resolvedRules);
+            stage.setRuleIndex(indexStageRules ? StageRuleIndex.create(resolvedRules) : null);
             stage.setPipeline(pipeline);
             stage.registerMetrics(pipelineMetricRegistry, pipeline.id());
         });
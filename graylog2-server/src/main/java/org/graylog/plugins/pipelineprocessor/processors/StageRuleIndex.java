@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.AndExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanValuedFunctionWrapper;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ConstantExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.EqualityExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FieldRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.StringExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog2.plugin.Message;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatch index over the guard conditions of the rules in a pipeline stage.
+ * <p>
+ * A guard is the leftmost conjunct of the top-level {@code AND} chain of a rule condition, so the rule cannot match if
+ * the guard is false. Later conjuncts are not used, their evaluation may depend on the conjuncts before them. Supported guards are {@code has_field("x")} as well as equality of {@code $message.x} or
+ * {@code to_string($message.x)} with a constant. Equality guards sharing the same expression are evaluated once per
+ * message and looked up in a hash of the constants, presence guards are checked once per distinct field.
+ * <p>
+ * The index only ever excludes rules whose condition is guaranteed to be false, rules without a supported guard are
+ * always candidates.
+ */
+public class StageRuleIndex {
+    private final BitSet unguarded;
+    private final Map<String, BitSet> presenceGuards;
+    private final List<EqualityGuards> equalityGuards;
+
+    private StageRuleIndex(BitSet unguarded, Map<String, BitSet> presenceGuards, List<EqualityGuards> equalityGuards) {
+        this.unguarded = unguarded;
+        this.presenceGuards = presenceGuards;
+        this.equalityGuards = equalityGuards;
+    }
+
+    /**
+     * Builds the index for the given stage rules.
+     *
+     * @param rules the resolved rules of a stage, in evaluation order
+     * @return the index or {@code null} if none of the rules has a supported guard
+     */
+    @Nullable
+    public static StageRuleIndex create(List<Rule> rules) {
+        final BitSet unguarded = new BitSet(rules.size());
+        final Map<String, BitSet> presenceGuards = new HashMap<>();
+        final Map<String, EqualityGuards> equalityGuards = new LinkedHashMap<>();
+
+        for (int i = 0; i < rules.size(); i++) {
+            final Guard guard = findGuard(rules.get(i).when());
+            if (guard instanceof EqualityGuard equalityGuard) {
+                equalityGuards.computeIfAbsent(equalityGuard.keyExpression().toString(), key -> new EqualityGuards(equalityGuard.keyExpression()))
+                        .add(equalityGuard.value(), i);
+            } else if (guard instanceof PresenceGuard presenceGuard) {
+                presenceGuards.computeIfAbsent(presenceGuard.field(), field -> new BitSet()).set(i);
+            } else {
+                unguarded.set(i);
+            }
+        }
+
+        if (unguarded.cardinality() == rules.size()) {
+            return null;
+        }
+        return new StageRuleIndex(unguarded, presenceGuards, new ArrayList<>(equalityGuards.values()));
+    }
+
+    /**
+     * Returns the positions of the rules whose condition has to be evaluated for the message of the given context.
+     *
+     * @param context the evaluation context of the stage
+     * @return the rule positions which can match
+     */
+    public BitSet candidates(EvaluationContext context) {
+        final BitSet candidates = (BitSet) unguarded.clone();
+        final Message message = context.currentMessage();
+        for (Map.Entry<String, BitSet> entry : presenceGuards.entrySet()) {
+            if (message.hasField(entry.getKey())) {
+                candidates.or(entry.getValue());
+            }
+        }
+        for (EqualityGuards guards : equalityGuards) {
+            guards.addCandidates(context, candidates);
+        }
+        return candidates;
+    }
+
+    @Nullable
+    private static Guard findGuard(Expression condition) {
+        Expression guard = condition;
+        while (guard instanceof AndExpression and) {
+            guard = and.left();
+        }
+
+        if (guard instanceof EqualityExpression equality && equality.isCheckEquality()) {
+            if (isKeyExpression(equality.left()) && equality.right() instanceof ConstantExpression) {
+                return new EqualityGuard(equality.left(), equality.right().evaluateUnsafe());
+            }
+            if (isKeyExpression(equality.right()) && equality.left() instanceof ConstantExpression) {
+                return new EqualityGuard(equality.right(), equality.left().evaluateUnsafe());
+            }
+        } else if (guard instanceof BooleanValuedFunctionWrapper wrapper
+                && wrapper.expression() instanceof FunctionExpression function
+                && function.getFunction() instanceof HasField) {
+            final FunctionArgs args = function.getArgs();
+            final Expression field = args.expression(HasField.FIELD);
+            if (field instanceof StringExpression && args.getArgs().size() == 1) {
+                return new PresenceGuard((String) field.evaluateUnsafe());
+            }
+        }
+        return null;
+    }
+
+    // Only side effect free expressions which are cheap to evaluate up front can be used as lookup keys.
+    static boolean isKeyExpression(Expression expression) {
+        if (expression instanceof MessageRefExpression messageRef) {
+            final Expression field = messageRef.getFieldExpr();
+            return field instanceof FieldRefExpression || field instanceof StringExpression;
+        }
+        if (expression instanceof FunctionExpression function && function.getFunction() instanceof StringConversion) {
+            final Map<String, Expression> args = function.getArgs().getArgs();
+            final Expression defaultValue = args.get("default");
+            return isKeyExpression(args.get("value")) && (defaultValue == null || defaultValue instanceof StringExpression)
+                    && args.size() <= 2;
+        }
+        return false;
+    }
+
+    private interface Guard {
+    }
+
+    private record EqualityGuard(Expression keyExpression, Object value) implements Guard {
+    }
+
+    private record PresenceGuard(String field) implements Guard {
+    }
+
+    private static class EqualityGuards {
+        private final Expression keyExpression;
+        private final Map<Object, BitSet> rulesByValue = new HashMap<>();
+        private final BitSet allRules = new BitSet();
+
+        EqualityGuards(Expression keyExpression) {
+            this.keyExpression = keyExpression;
+        }
+
+        void add(Object value, int rule) {
+            rulesByValue.computeIfAbsent(value, v -> new BitSet()).set(rule);
+            allRules.set(rule);
+        }
+
+        void addCandidates(EvaluationContext context, BitSet candidates) {
+            final Object value;
+            try {
+                value = keyExpression.evaluateUnsafe(context);
+            } catch (Exception e) {
+                // let the rule conditions report the error
+                candidates.or(allRules);
+                return;
+            }
+            // like EqualityExpression a null value never matches
+            if (value != null) {
+                final BitSet rules = rulesByValue.get(value);
+                if (rules != null) {
+                    candidates.or(rules);
+                }
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog.plugins.pipelineprocessor.ast.Rule;
 import org.graylog.plugins.pipelineprocessor.ast.Stage;
 import org.graylog.plugins.pipelineprocessor.processors.ConfigurationStateUpdater;
+import org.graylog.plugins.pipelineprocessor.processors.LookupPrefetcher;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageFactory;
@@ -67,7 +68,8 @@ public class RuleSimulator {
                 .build();
         stage.setPipeline(pipeline);
         PipelineInterpreter pipelineInterpreter = new PipelineInterpreter(
-                new NoopMessageQueueAcknowledger(), MetricRegistryFactory.create(), configurationStateUpdater);
+                new NoopMessageQueueAcknowledger(), MetricRegistryFactory.create(), configurationStateUpdater,
+                LookupPrefetcher.disabled());
         final PipelineInterpreterTracer pipelineInterpreterTracer = new PipelineInterpreterTracer();
         pipelineInterpreter.evaluateStage(stage, message, message.getId(),
                 new ArrayList<>(), Collections.emptySet(),
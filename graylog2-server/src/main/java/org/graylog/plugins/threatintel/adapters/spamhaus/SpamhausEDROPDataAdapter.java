@@ -30,6 +30,7 @@ import org.apache.commons.net.util.SubnetUtils;
 import org.graylog.autovalue.WithBeanGetter;
 import org.graylog.plugins.threatintel.PluginConfigService;
 import org.graylog.plugins.threatintel.tools.AdapterDisabledException;
+import org.graylog2.lookup.LongRangeIndex;
 import org.graylog2.lookup.adapters.dsvhttp.HTTPFileRetriever;
 import org.graylog2.plugin.lookup.LookupCachePurge;
 import org.graylog2.plugin.lookup.LookupDataAdapter;
@@ -65,7 +66,11 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
     // the current cache-control header says max-age 14400 seconds
     private static final Duration REFRESH_INTERVAL = Duration.standardHours(4);
 
-    private final AtomicReference<Map<String, Map<SubnetUtils.SubnetInfo, String>>> subnets = new AtomicReference<>(Collections.emptyMap());
+    // Only used to parse the IP addresses of lookup keys.
+    private static final SubnetUtils.SubnetInfo ADDRESS_PARSER = new SubnetUtils("127.0.0.1/32").getInfo();
+    private static final LookupResult NEGATIVE_RESULT = LookupResult.single(false);
+
+    private final AtomicReference<Subnets> subnets = new AtomicReference<>(Subnets.EMPTY);
     private final HTTPFileRetriever httpFileRetriever;
     private final PluginConfigService pluginConfigService;
 
@@ -93,7 +98,7 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
                 builder.put(list, subnetMap);
             }
         }
-        this.subnets.set(builder.build());
+        this.subnets.set(Subnets.of(builder.build()));
     }
 
     @Override
@@ -115,7 +120,7 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
             throw new AdapterDisabledException("Spamhaus service is disabled, not refreshing (E)DROP adapter. To enable it please go to System / Configurations.");
         }
         // keep the old results, which will get overridden if we can fetch new lists
-        final Map<String, Map<SubnetUtils.SubnetInfo, String>> result = new HashMap<>(this.subnets.get());
+        final Map<String, Map<SubnetUtils.SubnetInfo, String>> result = new HashMap<>(this.subnets.get().lists());
         boolean hasUpdates = false;
         for (String list : lists) {
             final Map<SubnetUtils.SubnetInfo, String> newList = fetchSubnetsFromEDROPLists(list);
@@ -128,7 +133,7 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
         if (!hasUpdates) {
             return;
         }
-        this.subnets.set(ImmutableMap.copyOf(result));
+        this.subnets.set(Subnets.of(ImmutableMap.copyOf(result)));
         cachePurge.purgeAll();
     }
 
@@ -164,28 +169,53 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
     public LookupResult doGet(Object key) {
         final String ip = String.valueOf(key);
 
-        if (this.subnets.get().isEmpty()) {
+        final Subnets subnets = this.subnets.get();
+        if (subnets.lists().isEmpty()) {
             return LookupResult.empty();
         }
 
-        // TODO potentially use a RangeMap here instead of doing linear searches all the time
-        // We should be able to use ranges of the integer values of lowAddress and highAddress as keys
-        final Optional<Map.Entry<SubnetUtils.SubnetInfo, String>> match;
+        final int address;
         try {
-            match = subnets.get().values()
-                    .stream()
-                    .flatMap(list -> list.entrySet().stream())
-                    .filter(entry -> entry.getKey().isInRange(ip))
-                    .findFirst();
+            address = ADDRESS_PARSER.asInteger(ip);
         } catch (IllegalArgumentException e) {
             // Gracefully handle the case when a blank or invalid IP is supplied.
             LOG.debug("[{}] is an invalid IP address. Lookup aborted. {}", ip, ExceptionUtils.getRootCauseMessage(e));
             return LookupResult.empty();
         }
 
-        return match.map(entry -> LookupResult.multi(true,
-                ImmutableMap.of("sbl_id", entry.getValue(), "subnet", entry.getKey().getCidrSignature())
-        )).orElse(LookupResult.single(false));
+        final LookupResult result = subnets.index().get(Integer.toUnsignedLong(address));
+        return result == null ? NEGATIVE_RESULT : result;
+    }
+
+    /**
+     * The fetched lists and the merged address range index built from them. The index is rebuilt whenever one of
+     * the lists changes, so lookups only need a binary search instead of checking every subnet.
+     */
+    private record Subnets(Map<String, Map<SubnetUtils.SubnetInfo, String>> lists,
+                           LongRangeIndex<LookupResult> index) {
+        static final Subnets EMPTY = new Subnets(Collections.emptyMap(), LongRangeIndex.empty());
+
+        static Subnets of(Map<String, Map<SubnetUtils.SubnetInfo, String>> lists) {
+            final LongRangeIndex.Builder<LookupResult> builder = LongRangeIndex.builder();
+            // Add the subnets in the order of the configured lists, so the first matching list wins on overlaps.
+            for (String list : SpamhausEDROPDataAdapter.lists) {
+                final Map<SubnetUtils.SubnetInfo, String> subnets = lists.get(list);
+                if (subnets == null) {
+                    continue;
+                }
+                subnets.forEach((info, sblId) -> {
+                    // Same semantics as SubnetInfo#isInRange(): the network and broadcast addresses and
+                    // 0.0.0.0 never match.
+                    final long low = Math.max(1L, Integer.toUnsignedLong(info.asInteger(info.getLowAddress())));
+                    final long high = Integer.toUnsignedLong(info.asInteger(info.getHighAddress()));
+                    if (low <= high) {
+                        builder.add(low, high, LookupResult.multi(true,
+                                ImmutableMap.of("sbl_id", sblId, "subnet", info.getCidrSignature())));
+                    }
+                });
+            }
+            return new Subnets(lists, builder.build());
+        }
     }
 
     @Override
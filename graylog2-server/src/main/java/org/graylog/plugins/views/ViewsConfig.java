@@ -17,6 +17,7 @@
 package org.graylog.plugins.views;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import org.graylog2.plugin.PluginConfigBean;
 import org.joda.time.Duration;
 
@@ -24,7 +25,43 @@ public class ViewsConfig implements PluginConfigBean {
     private static final Duration DEFAULT_MAXIMUM_AGE_FOR_SEARCHES = Duration.standardDays(4);
     private static final String PREFIX = "views_";
     private static final String MAX_SEARCH_AGE = PREFIX + "maximum_search_age";
+    private static final String QUERY_ENGINE_THREADS = PREFIX + "query_engine_threads";
+    private static final String QUERY_ENGINE_QUEUE_SIZE = PREFIX + "query_engine_queue_size";
+    private static final String PIVOT_CACHE_ENABLED = PREFIX + "pivot_cache_enabled";
+    private static final String PIVOT_CACHE_MAX_ENTRIES = PREFIX + "pivot_cache_max_entries";
+    private static final String EXPORT_THREADS = PREFIX + "export_threads";
+    private static final String EXPORT_QUEUE_SIZE = PREFIX + "export_queue_size";
+    private static final String EXPORT_SLICES = PREFIX + "export_slices";
 
     @Parameter(MAX_SEARCH_AGE)
     private Duration maxSearchAge = DEFAULT_MAXIMUM_AGE_FOR_SEARCHES;
+
+    // Number of queries of search jobs which are run concurrently
+    @Parameter(value = QUERY_ENGINE_THREADS, validators = PositiveIntegerValidator.class)
+    private int queryEngineThreads = 4;
+
+    // Maximum number of queries waiting for a free query engine thread, further queries fail
+    @Parameter(value = QUERY_ENGINE_QUEUE_SIZE, validators = PositiveIntegerValidator.class)
+    private int queryEngineQueueSize = 1000;
+
+    // Cache the closed time buckets of date histograms, so that refreshing them only searches the newest buckets
+    @Parameter(PIVOT_CACHE_ENABLED)
+    private boolean pivotCacheEnabled = false;
+
+    // Maximum number of date histograms whose buckets are cached
+    @Parameter(value = PIVOT_CACHE_MAX_ENTRIES, validators = PositiveIntegerValidator.class)
+    private int pivotCacheMaxEntries = 1000;
+
+    // Number of message exports which are run concurrently
+    @Parameter(value = EXPORT_THREADS, validators = PositiveIntegerValidator.class)
+    private int exportThreads = 4;
+
+    // Maximum number of message exports waiting for a free export thread, further exports fail
+    @Parameter(value = EXPORT_QUEUE_SIZE, validators = PositiveIntegerValidator.class)
+    private int exportQueueSize = 20;
+
+    // Number of parts of the time range which are fetched in parallel by an export without limit.
+    // Messages of different parts are interleaved in the result. Every running export gets a fetch thread per part.
+    @Parameter(value = EXPORT_SLICES, validators = PositiveIntegerValidator.class)
+    private int exportSlices = 1;
 }
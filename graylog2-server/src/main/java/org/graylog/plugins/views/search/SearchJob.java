@@ -28,10 +28,12 @@ import one.util.streamex.EntryStream;
 import org.graylog.plugins.views.search.errors.SearchError;
 import org.graylog.plugins.views.search.rest.ExecutionInfo;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
 
 @JsonAutoDetect
@@ -52,6 +54,8 @@ public class SearchJob implements ParameterProvider {
 
     private final Map<String, CompletableFuture<QueryResult>> queryResults = Maps.newHashMap();
 
+    private final List<Future<?>> queryTaskFutures = new CopyOnWriteArrayList<>();
+
     private Set<SearchError> errors = Sets.newHashSet();
 
     private final Integer cancelAfterSeconds;
@@ -119,6 +123,14 @@ public class SearchJob implements ParameterProvider {
         queryResults.put(queryId, resultFuture);
     }
 
+    /**
+     * Registers the execution of a query, which is cancelled together with this search job.
+     */
+    @JsonIgnore
+    public void addQueryTaskFuture(Future<?> queryTaskFuture) {
+        queryTaskFutures.add(queryTaskFuture);
+    }
+
     @JsonIgnore
     public void setSearchEngineTaskFuture(final Future<?> searchEngineTaskFuture) {
         this.searchEngineTaskFuture = searchEngineTaskFuture;
@@ -128,6 +140,8 @@ public class SearchJob implements ParameterProvider {
         if (this.searchEngineTaskFuture != null) {
             this.searchEngineTaskFuture.cancel(true);
         }
+        // Queries which haven't been started yet are removed from the query queue
+        queryTaskFutures.forEach(future -> future.cancel(true));
     }
 
     @JsonProperty("results")
@@ -142,7 +156,8 @@ public class SearchJob implements ParameterProvider {
     @JsonProperty("execution")
     public ExecutionInfo execution() {
         final boolean isDone = (resultFuture == null || resultFuture.isDone()) && (searchEngineTaskFuture == null || searchEngineTaskFuture.isDone());
-        final boolean isCancelled = (searchEngineTaskFuture != null && searchEngineTaskFuture.isCancelled()) || (resultFuture != null && resultFuture.isCancelled());
+        final boolean isCancelled = (searchEngineTaskFuture != null && searchEngineTaskFuture.isCancelled()) || (resultFuture != null && resultFuture.isCancelled())
+                || queryTaskFutures.stream().anyMatch(Future::isCancelled);
         return new ExecutionInfo(isDone, isCancelled, !errors.isEmpty());
     }
 
@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog.plugins.views.search.Filter;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.searchfilters.model.UsedSearchFilter;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Min;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog.plugins.views.search.timeranges.DerivedTimeRange;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.IndexSetRegistry;
+import org.graylog2.indexer.indices.Indices;
+import org.graylog2.indexer.indices.events.IndicesClosedEvent;
+import org.graylog2.indexer.indices.events.IndicesDeletedEvent;
+import org.graylog2.indexer.indices.events.IndicesReopenedEvent;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
+import org.graylog2.indexer.searches.IndexRangeStats;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.RelativeRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches the closed buckets of date histogram pivots, so that refreshing a dashboard only searches the part of the
+ * time range which can still change.
+ * <p>
+ * Messages are written to the write indices, so buckets which end before the oldest message in any write index are
+ * considered frozen. For pivots which only group by a fixed interval on the timestamp, these buckets are kept per query
+ * string, filters, streams and pivot definition. Later runs of the same pivot only search the partial bucket at the
+ * start of the time range and everything after the cached buckets, and the rows are merged afterwards. The cache is
+ * cleared whenever index ranges change or indices are deleted, closed or reopened, e.g. by index rotation and retention.
+ */
+@Singleton
+public class PivotResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PivotResultCache.class);
+
+    static final String COUNT_SERIES_ID = "__pivot_cache_count";
+    static final String HEAD_ID_SUFFIX = "__pivot_cache_head";
+
+    private static final Set<String> ROLLUP_SERIES = Set.of(Count.NAME, Sum.NAME, Min.NAME, Max.NAME);
+    private static final DateTimeFormatter BUCKET_KEY_PARSER = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+    private static final String LEAF_ROW = "leaf";
+
+    private final boolean enabled;
+    private final Supplier<Optional<DateTime>> frozenBoundary;
+    private final Cache<Key, Entry> cache;
+    // Incremented on every invalidation, so that results of searches which were planned before don't get cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Meter hits;
+    private final Meter misses;
+
+    @Inject
+    public PivotResultCache(@Named("views_pivot_cache_enabled") boolean enabled,
+                            @Named("views_pivot_cache_max_entries") int maxEntries,
+                            IndexSetRegistry indexSetRegistry,
+                            Indices indices,
+                            EventBus eventBus,
+                            MetricRegistry metricRegistry) {
+        this(enabled, maxEntries,
+                Suppliers.memoizeWithExpiration(() -> oldestWriteIndexMessage(indexSetRegistry, indices), 30, TimeUnit.SECONDS),
+                metricRegistry);
+        eventBus.register(this);
+    }
+
+    PivotResultCache(boolean enabled,
+                     int maxEntries,
+                     Supplier<Optional<DateTime>> frozenBoundary,
+                     MetricRegistry metricRegistry) {
+        this.enabled = enabled;
+        this.frozenBoundary = frozenBoundary;
+        this.cache = Caffeine.newBuilder().maximumSize(maxEntries).build();
+        this.hits = metricRegistry.meter(name(PivotResultCache.class, "hits"));
+        this.misses = metricRegistry.meter(name(PivotResultCache.class, "misses"));
+        metricRegistry.register(name(PivotResultCache.class, "size"), (Gauge<Long>) cache::estimatedSize);
+    }
+
+    /**
+     * Returns the plan for running the given query. The query of the plan has to be run instead of the given one and
+     * its result has to be passed to {@link Plan#merge(QueryResult)}.
+     */
+    public Plan plan(SearchJob searchJob, Query query) {
+        // Parameter values aren't part of the query, and overrides are only used for single widgets
+        if (!enabled || !searchJob.getSearch().parameters().isEmpty() || query.globalOverride().isPresent()) {
+            return new Plan(query, query, List.of());
+        }
+
+        final List<PivotPlan> pivotPlans = new ArrayList<>();
+        final Set<SearchType> searchTypes = new LinkedHashSet<>();
+        for (SearchType searchType : query.searchTypes()) {
+            final Optional<PivotPlan> pivotPlan = searchType instanceof Pivot pivot ? planPivot(query, pivot) : Optional.empty();
+            if (pivotPlan.isPresent()) {
+                pivotPlans.add(pivotPlan.get());
+                searchTypes.addAll(pivotPlan.get().searchTypes());
+            } else {
+                searchTypes.add(searchType);
+            }
+        }
+
+        if (pivotPlans.isEmpty()) {
+            return new Plan(query, query, List.of());
+        }
+        return new Plan(query, query.toBuilder().searchTypes(searchTypes).build(), pivotPlans);
+    }
+
+    @Subscribe
+    public void handleIndexRangesUpdated(IndexRangesUpdatedEvent event) {
+        invalidateAll();
+    }
+
+    @Subscribe
+    public void handleIndicesDeleted(IndicesDeletedEvent event) {
+        invalidateAll();
+    }
+
+    @Subscribe
+    public void handleIndicesClosed(IndicesClosedEvent event) {
+        invalidateAll();
+    }
+
+    @Subscribe
+    public void handleIndicesReopened(IndicesReopenedEvent event) {
+        invalidateAll();
+    }
+
+    void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    private Optional<PivotPlan> planPivot(Query query, Pivot pivot) {
+        final OptionalLong interval = fixedInterval(pivot);
+        final TimeRange timeRange = query.effectiveTimeRange(pivot);
+        if (interval.isEmpty() || (timeRange instanceof RelativeRange relativeRange && relativeRange.isAllMessages())) {
+            return Optional.empty();
+        }
+        final Optional<DateTime> boundary = frozenBoundary.get();
+        if (boundary.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final long intervalMillis = interval.getAsLong();
+        final long from = timeRange.getFrom().getMillis();
+        final long to = timeRange.getTo().getMillis();
+        final long firstBucket = alignUp(from, intervalMillis);
+        final long frozenEnd = alignDown(Math.min(boundary.get().getMillis(), to), intervalMillis);
+        if (frozenEnd <= firstBucket) {
+            return Optional.empty();
+        }
+
+        // The document count of every bucket is needed for the total, so count them ourselves if the pivot doesn't
+        final Optional<String> countId = pivot.series().stream()
+                .filter(series -> series instanceof Count count && count.field().isEmpty())
+                .map(SeriesSpec::id)
+                .findFirst();
+        final Pivot counted = countId.isPresent()
+                ? pivot
+                : pivot.toBuilder()
+                .series(ImmutableList.<SeriesSpec>builder().addAll(pivot.series()).add(Count.builder().id(COUNT_SERIES_ID).build()).build())
+                .build();
+
+        final Key key = Key.of(query, pivot);
+        final long currentGeneration = generation.get();
+        final Entry entry = cache.getIfPresent(key);
+        if (entry == null || firstBucket < entry.from() || firstBucket >= entry.to()) {
+            misses.mark();
+            final Pivot full = counted.toBuilder().timerange(timeRange(from, to)).build();
+            return Optional.of(new PivotPlan(key, currentGeneration, pivot, countId.orElse(COUNT_SERIES_ID),
+                    from, to, intervalMillis, firstBucket, frozenEnd, null, firstBucket, List.of(full)));
+        }
+
+        hits.mark();
+        final long segmentEnd = Math.min(entry.to(), frozenEnd);
+        final List<SearchType> searchTypes = new ArrayList<>();
+        searchTypes.add(counted.toBuilder().timerange(timeRange(segmentEnd, to)).build());
+        if (from < firstBucket) {
+            searchTypes.add(counted.toBuilder().id(pivot.id() + HEAD_ID_SUFFIX).timerange(timeRange(from, firstBucket)).build());
+        }
+        return Optional.of(new PivotPlan(key, currentGeneration, pivot, countId.orElse(COUNT_SERIES_ID),
+                from, to, intervalMillis, firstBucket, frozenEnd, entry, segmentEnd, searchTypes));
+    }
+
+    private void store(PivotPlan plan, Entry entry) {
+        if (entry.to() > entry.from() && generation.get() == plan.generation()) {
+            cache.put(plan.key(), entry);
+        }
+    }
+
+    /**
+     * Returns the bucket size of pivots whose buckets can be cached, i.e. pivots which only group by a fixed interval
+     * on the message timestamp, and whose totals can be computed from the buckets.
+     */
+    static OptionalLong fixedInterval(Pivot pivot) {
+        if (pivot.rowGroups().size() != 1 || !pivot.columnGroups().isEmpty() || !pivot.sort().isEmpty()) {
+            return OptionalLong.empty();
+        }
+        if (!(pivot.rowGroups().get(0) instanceof Time time)
+                || !time.fields().equals(List.of(Message.FIELD_TIMESTAMP))
+                || !(time.interval() instanceof TimeUnitInterval interval)) {
+            return OptionalLong.empty();
+        }
+        if (pivot.rollup() && !pivot.series().stream().allMatch(series -> ROLLUP_SERIES.contains(series.type()))) {
+            return OptionalLong.empty();
+        }
+
+        final Matcher matcher = TimeUnitInterval.TIMEUNIT_PATTERN.matcher(interval.timeunit());
+        if (!matcher.matches()) {
+            return OptionalLong.empty();
+        }
+        final long quantity = Long.parseLong(matcher.group("quantity"));
+        // Weeks, months and years are calendar intervals which don't have a fixed length
+        return switch (matcher.group("unit")) {
+            case "s" -> OptionalLong.of(TimeUnit.SECONDS.toMillis(quantity));
+            case "m" -> OptionalLong.of(TimeUnit.MINUTES.toMillis(quantity));
+            case "h" -> OptionalLong.of(TimeUnit.HOURS.toMillis(quantity));
+            case "d" -> OptionalLong.of(TimeUnit.DAYS.toMillis(quantity));
+            default -> OptionalLong.empty();
+        };
+    }
+
+    private static Optional<DateTime> oldestWriteIndexMessage(IndexSetRegistry indexSetRegistry, Indices indices) {
+        DateTime oldest = null;
+        for (IndexSet indexSet : indexSetRegistry.getAll()) {
+            if (!indexSet.getConfig().isWritable()) {
+                continue;
+            }
+            try {
+                final String writeIndex = indexSet.getActiveWriteIndex();
+                if (writeIndex == null) {
+                    continue;
+                }
+                final IndexRangeStats stats = indices.indexRangeStatsOfIndex(writeIndex);
+                if (stats.min().getMillis() > 0 && (oldest == null || stats.min().isBefore(oldest))) {
+                    oldest = stats.min();
+                }
+            } catch (Exception e) {
+                LOG.debug("Couldn't get oldest message of write index of index set <{}>, not caching pivot buckets.", indexSet.getConfig().id(), e);
+                return Optional.empty();
+            }
+        }
+        return Optional.ofNullable(oldest);
+    }
+
+    private static long alignDown(long millis, long interval) {
+        return Math.floorDiv(millis, interval) * interval;
+    }
+
+    private static long alignUp(long millis, long interval) {
+        return -Math.floorDiv(-millis, interval) * interval;
+    }
+
+    private static AbsoluteRange timeRange(long from, long to) {
+        return AbsoluteRange.create(new DateTime(from, DateTimeZone.UTC), new DateTime(to, DateTimeZone.UTC));
+    }
+
+    public class Plan {
+        private final Query original;
+        private final Query query;
+        private final List<PivotPlan> pivotPlans;
+
+        private Plan(Query original, Query query, List<PivotPlan> pivotPlans) {
+            this.original = original;
+            this.query = query;
+            this.pivotPlans = pivotPlans;
+        }
+
+        public Query query() {
+            return query;
+        }
+
+        /**
+         * Merges the cached buckets into the result of {@link #query()} and caches newly frozen buckets.
+         */
+        public QueryResult merge(QueryResult result) {
+            if (pivotPlans.isEmpty()) {
+                return result;
+            }
+            final Map<String, SearchType.Result> searchTypes = new HashMap<>(result.searchTypes());
+            pivotPlans.forEach(pivotPlan -> pivotPlan.merge(searchTypes));
+            return result.toBuilder()
+                    .query(original)
+                    .searchTypes(searchTypes)
+                    .build();
+        }
+    }
+
+    private class PivotPlan {
+        private final Key key;
+        private final long generation;
+        private final Pivot pivot;
+        private final String countId;
+        private final long from;
+        private final long to;
+        private final long interval;
+        private final long firstBucket;
+        private final long frozenEnd;
+        @Nullable
+        private final Entry cached;
+        private final long segmentEnd;
+        private final List<SearchType> searchTypes;
+
+        private PivotPlan(Key key, long generation, Pivot pivot, String countId, long from, long to, long interval,
+                          long firstBucket, long frozenEnd, @Nullable Entry cached, long segmentEnd, List<SearchType> searchTypes) {
+            this.key = key;
+            this.generation = generation;
+            this.pivot = pivot;
+            this.countId = countId;
+            this.from = from;
+            this.to = to;
+            this.interval = interval;
+            this.firstBucket = firstBucket;
+            this.frozenEnd = frozenEnd;
+            this.cached = cached;
+            this.segmentEnd = segmentEnd;
+            this.searchTypes = searchTypes;
+        }
+
+        Key key() {
+            return key;
+        }
+
+        long generation() {
+            return generation;
+        }
+
+        List<SearchType> searchTypes() {
+            return searchTypes;
+        }
+
+        void merge(Map<String, SearchType.Result> results) {
+            final String headId = pivot.id() + HEAD_ID_SUFFIX;
+            final SearchType.Result head = results.remove(headId);
+            if (!(results.get(pivot.id()) instanceof PivotResult tail)
+                    || (head != null && !(head instanceof PivotResult))) {
+                // The search type failed, the error has been recorded already
+                return;
+            }
+
+            final List<Bucket> tailBuckets = buckets(tail);
+            final List<Bucket> merged = new ArrayList<>();
+            long total = tail.total();
+            if (head instanceof PivotResult headResult) {
+                merged.addAll(buckets(headResult));
+                total += headResult.total();
+            }
+            if (cached != null) {
+                for (Bucket bucket : cached.buckets().subMap(firstBucket, true, segmentEnd, false).values()) {
+                    merged.add(bucket);
+                    total += bucket.count();
+                }
+            }
+            merged.addAll(tailBuckets);
+            final List<PivotResult.Row> rows = withEmptyBuckets(merged);
+
+            if (cached == null) {
+                store(this, new Entry(firstBucket, frozenEnd, frozen(cached, tailBuckets)));
+            } else if (segmentEnd == cached.to() && frozenEnd > segmentEnd) {
+                store(this, new Entry(cached.from(), frozenEnd, frozen(cached, tailBuckets)));
+            }
+
+            if (pivot.rollup()) {
+                final PivotResult.Row.Builder rollupRow = PivotResult.Row.builder().key(ImmutableList.of()).source("non-leaf");
+                pivot.series().forEach(series -> rollupRow.addValue(PivotResult.Value.create(List.of(series.id()), rollup(series, rows), true, "row-inner")));
+                rows.add(rollupRow.build());
+            }
+
+            final PivotResult.Builder result = PivotResult.builder()
+                    .id(pivot.id())
+                    .rows(ImmutableList.copyOf(rows))
+                    .total(total)
+                    .effectiveTimerange(timeRange(from, to));
+            pivot.name().ifPresent(result::name);
+            results.put(pivot.id(), result.build());
+        }
+
+        // Every search only returns the empty buckets between its own first and last bucket, so the ones at the
+        // seams between the head, the cached buckets and the tail have to be added like the search would have
+        private List<PivotResult.Row> withEmptyBuckets(List<Bucket> buckets) {
+            final List<PivotResult.Row> rows = new ArrayList<>();
+            Long next = null;
+            for (Bucket bucket : buckets) {
+                for (long start = next == null ? bucket.start() : next; start < bucket.start(); start += interval) {
+                    rows.add(emptyRow(start));
+                }
+                rows.add(bucket.row());
+                next = bucket.start() + interval;
+            }
+            return rows;
+        }
+
+        private PivotResult.Row emptyRow(long start) {
+            final PivotResult.Row.Builder row = PivotResult.Row.builder()
+                    .key(ImmutableList.of(new DateTime(start, DateTimeZone.UTC).toString()))
+                    .source(LEAF_ROW);
+            pivot.series().forEach(series -> row.addValue(PivotResult.Value.create(List.of(series.id()), emptyValue(series), true, "row-leaf")));
+            return row.build();
+        }
+
+        private NavigableMap<Long, Bucket> frozen(@Nullable Entry cached, List<Bucket> buckets) {
+            final ImmutableSortedMap.Builder<Long, Bucket> frozen = ImmutableSortedMap.naturalOrder();
+            if (cached != null) {
+                frozen.putAll(cached.buckets());
+            }
+            buckets.stream()
+                    .filter(bucket -> bucket.start() >= firstBucket && bucket.start() < frozenEnd)
+                    .filter(bucket -> cached == null || bucket.start() >= cached.to())
+                    .forEach(bucket -> frozen.put(bucket.start(), bucket));
+            return frozen.build();
+        }
+
+        // Returns the leaf rows without the values of the series we added
+        private List<Bucket> buckets(PivotResult result) {
+            return result.rows().stream()
+                    .filter(row -> LEAF_ROW.equals(row.source()) && row.key().size() == 1)
+                    .map(row -> {
+                        final long count = row.values().stream()
+                                .filter(value -> value.key().equals(List.of(countId)) && value.value() instanceof Number)
+                                .mapToLong(value -> ((Number) value.value()).longValue())
+                                .sum();
+                        final PivotResult.Row stripped = PivotResult.Row.builder()
+                                .key(row.key())
+                                .source(row.source())
+                                .values(row.values().stream()
+                                        .filter(value -> !value.key().equals(List.of(COUNT_SERIES_ID)))
+                                        .collect(ImmutableList.toImmutableList()))
+                                .build();
+                        return new Bucket(BUCKET_KEY_PARSER.parseMillis(row.key().get(0)), stripped, count);
+                    })
+                    .toList();
+        }
+    }
+
+    @Nullable
+    private static Object emptyValue(SeriesSpec series) {
+        return switch (series.type()) {
+            case Count.NAME -> 0L;
+            case Sum.NAME -> 0.0;
+            default -> null;
+        };
+    }
+
+    @Nullable
+    private static Object rollup(SeriesSpec series, List<PivotResult.Row> rows) {
+        final List<Number> values = rows.stream()
+                .flatMap(row -> row.values().stream())
+                .filter(value -> value.key().equals(List.of(series.id())) && value.value() instanceof Number)
+                .map(value -> (Number) value.value())
+                .toList();
+        if (Count.NAME.equals(series.type())) {
+            return values.stream().mapToLong(Number::longValue).sum();
+        }
+        final OptionalDouble rollup = switch (series.type()) {
+            case Min.NAME -> values.stream().mapToDouble(Number::doubleValue).min();
+            case Max.NAME -> values.stream().mapToDouble(Number::doubleValue).max();
+            default -> OptionalDouble.of(values.stream().mapToDouble(Number::doubleValue).sum());
+        };
+        return rollup.isPresent() ? rollup.getAsDouble() : null;
+    }
+
+    private record Key(BackendQuery query, @Nullable Filter filter, List<UsedSearchFilter> filters, Set<String> streams, Pivot pivot) {
+        static Key of(Query query, Pivot pivot) {
+            return new Key(query.query(), query.filter(), query.filters(), query.effectiveStreams(pivot),
+                    pivot.toBuilder().id("").name(null).timerange((DerivedTimeRange) null).build());
+        }
+    }
+
+    private record Entry(long from, long to, NavigableMap<Long, Bucket> buckets) {}
+
+    private record Bucket(long start, PivotResult.Row row, long count) {}
+}
@@ -16,7 +16,6 @@
  */
 package org.graylog.plugins.views.search.engine;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.opentelemetry.instrumentation.annotations.WithSpan;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
@@ -39,8 +38,9 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Singleton
@@ -49,18 +49,21 @@ public class QueryEngine {
 
     private final Set<QueryMetadataDecorator> queryMetadataDecorators;
     private final QueryParser queryParser;
-
-    // TODO proper thread pool with tunable settings
-    private final Executor queryPool = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("query-engine-%d").build());
+    private final QueryExecutor queryExecutor;
+    private final PivotResultCache pivotResultCache;
     private final QueryBackend<? extends GeneratedQueryContext> backend;
 
     @Inject
     public QueryEngine(QueryBackend<? extends GeneratedQueryContext> backend,
                        Set<QueryMetadataDecorator> queryMetadataDecorators,
-                       QueryParser queryParser) {
+                       QueryParser queryParser,
+                       QueryExecutor queryExecutor,
+                       PivotResultCache pivotResultCache) {
         this.backend = backend;
         this.queryMetadataDecorators = queryMetadataDecorators;
         this.queryParser = queryParser;
+        this.queryExecutor = queryExecutor;
+        this.pivotResultCache = pivotResultCache;
     }
 
     public QueryMetadata parse(Search search, Query query) {
@@ -85,31 +88,51 @@ public class QueryEngine {
 
     @WithSpan
     public SearchJob execute(SearchJob searchJob, Set<SearchError> validationErrors, DateTimeZone timezone) {
+        return execute(searchJob, validationErrors, timezone, true);
+    }
+
+    /**
+     * Like {@link #execute(SearchJob, Set, DateTimeZone)}, but the queries are never rejected because too many queries
+     * are waiting. Used for the searches of event definitions.
+     */
+    @WithSpan
+    public SearchJob executeWithoutQueueLimit(SearchJob searchJob, Set<SearchError> validationErrors, DateTimeZone timezone) {
+        return execute(searchJob, validationErrors, timezone, false);
+    }
+
+    private SearchJob execute(SearchJob searchJob, Set<SearchError> validationErrors, DateTimeZone timezone, boolean limitQueue) {
         final Set<Query> validQueries = searchJob.getSearch().queries()
                 .stream()
                 .filter(query -> !isQueryWithError(validationErrors, query))
                 .collect(Collectors.toSet());
 
-        validQueries.forEach(query -> searchJob.addQueryResultFuture(query.id(),
-                // generate and run each query, making sure we never let an exception escape
-                // if need be we default to an empty result with a failed state and the wrapped exception
-                CompletableFuture.supplyAsync(() -> prepareAndRun(searchJob, query, validationErrors, timezone), queryPool)
-                        .handle((queryResult, throwable) -> {
-                            if (throwable != null) {
-                                final Throwable cause = throwable.getCause();
-                                final SearchError error;
-                                if (cause instanceof SearchException) {
-                                    error = ((SearchException) cause).error();
-                                } else {
-                                    error = new QueryError(query, cause);
-                                }
-                                LOG.debug("Running query {} failed: {}", query.id(), cause);
-                                searchJob.addError(error);
-                                return QueryResult.failedQueryWithError(query, error);
+        validQueries.forEach(query -> {
+            // generate and run each query, making sure we never let an exception escape
+            // if need be we default to an empty result with a failed state and the wrapped exception
+            final Supplier<QueryResult> run = () -> prepareAndRun(searchJob, query, validationErrors, timezone);
+            final CompletableFuture<QueryResult> queryTask = limitQueue
+                    ? queryExecutor.submit(searchJob, run)
+                    : queryExecutor.submitWithoutQueueLimit(searchJob, run);
+            searchJob.addQueryTaskFuture(queryTask);
+            searchJob.addQueryResultFuture(query.id(), queryTask
+                    .handle((queryResult, throwable) -> {
+                        if (throwable != null) {
+                            final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                            final SearchError error;
+                            if (cause instanceof CancellationException) {
+                                error = new QueryError(query, "Query was cancelled.");
+                            } else if (cause instanceof SearchException) {
+                                error = ((SearchException) cause).error();
+                            } else {
+                                error = new QueryError(query, cause);
                             }
-                            return queryResult;
-                        })
-        ));
+                            LOG.debug("Running query {} failed: {}", query.id(), cause);
+                            searchJob.addError(error);
+                            return QueryResult.failedQueryWithError(query, error);
+                        }
+                        return queryResult;
+                    }));
+        });
 
         LOG.debug("Search job {} executing", searchJob.getId());
         return searchJob.seal();
@@ -120,9 +143,11 @@ public class QueryEngine {
         // with all the results done, we can execute the current query and eventually complete our own result
         // if any of this throws an exception, the handle in #execute will convert it to an error and return a "failed" result instead
         // if the backend already returns a "failed result" then nothing special happens here
-        final GeneratedQueryContext generatedQueryContext = backend.generate(query, validationErrors, timezone);
+        // date histograms with cached buckets only search the remaining time range, the plan merges the cached buckets back in
+        final PivotResultCache.Plan plan = pivotResultCache.plan(searchJob, query);
+        final GeneratedQueryContext generatedQueryContext = backend.generate(plan.query(), validationErrors, timezone);
         LOG.trace("[{}] Generated query {}, running it on backend {}", query.id(), generatedQueryContext, backend);
-        final QueryResult result = backend.run(searchJob, query, generatedQueryContext);
+        final QueryResult result = plan.merge(backend.run(searchJob, plan.query(), generatedQueryContext));
         LOG.debug("[{}] Query returned {}", query.id(), result);
         if (!generatedQueryContext.errors().isEmpty()) {
             generatedQueryContext.errors().forEach(searchJob::addError);
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog2.plugin.Tools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Runs the queries of search jobs on a fixed number of threads.
+ * <p>
+ * Queries which can't run right away wait in a queue per user, and the threads take the next query from the users in
+ * turn. This way a user who starts many searches at once, e.g. by opening a large dashboard, doesn't delay the searches
+ * of all other users. The total number of waiting queries is limited, further queries fail right away. Queries of
+ * event definitions are never rejected, they always had an unbounded queue and their searches must not fail because
+ * users started many searches. Queries which are cancelled while they are waiting are removed from the queue.
+ */
+@Singleton
+public class QueryExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(QueryExecutor.class);
+
+    private final ExecutorService executorService;
+    private final int maxQueueSize;
+
+    // Users with waiting queries in the order in which they get their next query run, guarded by "this"
+    private final Map<String, Deque<QueuedQuery<?>>> queues = new LinkedHashMap<>();
+    private int queueSize = 0;
+
+    private final Timer waitTime;
+    private final Timer runTime;
+    private final Meter rejected;
+
+    @Inject
+    public QueryExecutor(@Named("views_query_engine_threads") int threads,
+                         @Named("views_query_engine_queue_size") int maxQueueSize,
+                         MetricRegistry metricRegistry) {
+        this.executorService = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("query-engine-%d")
+                .setDaemon(true)
+                .setUncaughtExceptionHandler(new Tools.LogUncaughtExceptionHandler(LOG))
+                .build());
+        this.maxQueueSize = maxQueueSize;
+        this.waitTime = metricRegistry.timer(name(QueryExecutor.class, "wait-time"));
+        this.runTime = metricRegistry.timer(name(QueryExecutor.class, "run-time"));
+        this.rejected = metricRegistry.meter(name(QueryExecutor.class, "rejected"));
+        metricRegistry.register(name(QueryExecutor.class, "queue-size"), (Gauge<Integer>) this::queueSize);
+    }
+
+    /**
+     * Runs the given query of the search job. Cancelling the returned future removes the query from the queue if it
+     * hasn't been started yet, running queries are not interrupted.
+     */
+    public <T> CompletableFuture<T> submit(SearchJob searchJob, Supplier<T> query) {
+        return submit(searchJob.getOwner(), query, true);
+    }
+
+    /**
+     * Like {@link #submit(SearchJob, Supplier)}, but the query is queued even if the queue is full.
+     */
+    public <T> CompletableFuture<T> submitWithoutQueueLimit(SearchJob searchJob, Supplier<T> query) {
+        return submit(searchJob.getOwner(), query, false);
+    }
+
+    <T> CompletableFuture<T> submit(String owner, Supplier<T> query) {
+        return submit(owner, query, true);
+    }
+
+    <T> CompletableFuture<T> submit(String owner, Supplier<T> query, boolean limitQueue) {
+        final QueuedQuery<T> queuedQuery = new QueuedQuery<>(owner, query);
+        synchronized (this) {
+            if (limitQueue && queueSize >= maxQueueSize) {
+                rejected.mark();
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Too many queued search queries (" + maxQueueSize + "), please try again later."));
+            }
+            queues.computeIfAbsent(owner, k -> new ArrayDeque<>()).add(queuedQuery);
+            queueSize++;
+        }
+        queuedQuery.future.whenComplete((result, throwable) -> {
+            if (queuedQuery.future.isCancelled()) {
+                remove(queuedQuery);
+            }
+        });
+        // Every submission starts one run, which executes the query that is next in turn, not necessarily this one.
+        executorService.execute(this::runNext);
+        return queuedQuery.future;
+    }
+
+    synchronized int queueSize() {
+        return queueSize;
+    }
+
+    private void runNext() {
+        final QueuedQuery<?> next = poll();
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    private synchronized QueuedQuery<?> poll() {
+        final Iterator<Map.Entry<String, Deque<QueuedQuery<?>>>> iterator = queues.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        final Map.Entry<String, Deque<QueuedQuery<?>>> entry = iterator.next();
+        final QueuedQuery<?> next = entry.getValue().poll();
+        iterator.remove();
+        if (!entry.getValue().isEmpty()) {
+            // Re-inserting moves the user to the end of the line
+            queues.put(entry.getKey(), entry.getValue());
+        }
+        queueSize--;
+        return next;
+    }
+
+    private synchronized void remove(QueuedQuery<?> queuedQuery) {
+        final Deque<QueuedQuery<?>> queue = queues.get(queuedQuery.owner);
+        if (queue != null && queue.remove(queuedQuery)) {
+            queueSize--;
+            if (queue.isEmpty()) {
+                queues.remove(queuedQuery.owner);
+            }
+        }
+    }
+
+    private class QueuedQuery<T> {
+        private final String owner;
+        private final Supplier<T> query;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long queuedAt = System.nanoTime();
+
+        private QueuedQuery(String owner, Supplier<T> query) {
+            this.owner = owner;
+            this.query = query;
+        }
+
+        private void run() {
+            if (future.isDone()) {
+                return;
+            }
+            waitTime.update(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            try (Timer.Context ignored = runTime.time()) {
+                future.complete(query.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
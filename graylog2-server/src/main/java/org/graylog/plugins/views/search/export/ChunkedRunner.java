@@ -16,7 +16,6 @@
  */
 package org.graylog.plugins.views.search.export;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.glassfish.jersey.server.ChunkedOutput;
 import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
@@ -26,8 +25,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 public class ChunkedRunner {
@@ -36,27 +34,32 @@ public class ChunkedRunner {
 
     private final ChunkedOutput<SimpleMessageChunk> output = new ChunkedOutput<>(SimpleMessageChunk.class);
 
-    public static ChunkedOutput<SimpleMessageChunk> runAsync(Consumer<Consumer<SimpleMessageChunk>> call) {
+    public static ChunkedOutput<SimpleMessageChunk> runAsync(Consumer<Consumer<SimpleMessageChunk>> call, ExportExecutor exportExecutor) {
 
         ChunkedRunner r = new ChunkedRunner();
-        r.run(call);
+        r.run(call, exportExecutor);
 
         return r.output;
     }
 
-    private void run(Consumer<Consumer<SimpleMessageChunk>> call) {
-        ExecutorService e = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("chunked-messages-request").build());
-
-        e.submit(() -> {
-            try {
-                call.accept(this::write);
-            } catch (Exception ex) {
-                LOG.error("Error executing runnable", ex);
-                writeExceptionAsChunk(ex);
-            } finally {
-               close();
-            }
-        });
+    private void run(Consumer<Consumer<SimpleMessageChunk>> call, ExportExecutor exportExecutor) {
+        try {
+            exportExecutor.submit(() -> {
+                try {
+                    call.accept(this::write);
+                } catch (Exception ex) {
+                    LOG.error("Error executing runnable", ex);
+                    writeExceptionAsChunk(ex);
+                } finally {
+                    close();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // The output buffers the chunk until the response is sent
+            LOG.warn("Rejected message export: {}", ex.getMessage());
+            write(createErrChunk(ex));
+            close();
+        }
     }
 
     private void writeExceptionAsChunk(Exception ex) {
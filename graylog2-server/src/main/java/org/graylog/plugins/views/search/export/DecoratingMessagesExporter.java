@@ -16,31 +16,227 @@
  */
 package org.graylog.plugins.views.search.export;
 
+import com.google.common.base.Throwables;
 import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Provider;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+/**
+ * Exports messages in a pipeline: the chunks are fetched from the backend and decorated on fetch threads, and written
+ * by the calling thread, so the next chunk is already fetched while the previous one is written to the client.
+ * <p>
+ * If the export is split into slices, the time range is divided into equal parts which are fetched in parallel. The
+ * chunks of the slices are written in the order in which they arrive, so the result is not sorted by timestamp across
+ * slices anymore. Exports with a limit are never split, because the limit refers to the oldest messages of the whole
+ * time range.
+ */
 public class DecoratingMessagesExporter implements MessagesExporter {
-    private final ExportBackend backend;
+    private static final Logger LOG = LoggerFactory.getLogger(DecoratingMessagesExporter.class);
+
+    // Number of chunks every slice may fetch ahead of the chunk which is written to the client
+    private static final int BUFFERED_CHUNKS_PER_SLICE = 2;
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private final Provider<ExportBackend> backendProvider;
     private final ChunkDecorator chunkDecorator;
+    private final ExportExecutor exportExecutor;
+    private final int slices;
 
     @Inject
     public DecoratingMessagesExporter(
-            ExportBackend backend,
-            ChunkDecorator chunkDecorator) {
-        this.backend = backend;
+            Provider<ExportBackend> backendProvider,
+            ChunkDecorator chunkDecorator,
+            ExportExecutor exportExecutor,
+            @Named("views_export_slices") int slices) {
+        this.backendProvider = backendProvider;
         this.chunkDecorator = chunkDecorator;
+        this.exportExecutor = exportExecutor;
+        this.slices = slices;
     }
 
     public void export(ExportMessagesCommand command, Consumer<SimpleMessageChunk> chunkForwarder) {
-        Consumer<SimpleMessageChunk> decoratedForwarder = chunk -> decorate(chunkForwarder, chunk, command);
+        final List<ExportMessagesCommand> sliceCommands = slicesOf(command);
+
+        new Pipeline(command, sliceCommands.size()).run(sliceCommands, chunkForwarder);
+    }
+
+    List<ExportMessagesCommand> slicesOf(ExportMessagesCommand command) {
+        if (slices <= 1 || command.limit().isPresent()) {
+            return List.of(command);
+        }
+
+        final AbsoluteRange timeRange = command.timeRange();
+        final long step = (timeRange.getTo().getMillis() - timeRange.getFrom().getMillis()) / slices;
+        if (step <= 0) {
+            return List.of(command);
+        }
 
-        backend.run(command, decoratedForwarder);
+        // Time range queries include the start and exclude the end, so adjacent slices don't overlap
+        final List<ExportMessagesCommand> sliceCommands = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            final AbsoluteRange slice = AbsoluteRange.create(
+                    timeRange.getFrom().plus(i * step),
+                    i == slices - 1 ? timeRange.getTo() : timeRange.getFrom().plus((i + 1) * step));
+            sliceCommands.add(command.toBuilder().timeRange(slice).build());
+        }
+        return sliceCommands;
     }
 
-    private void decorate(Consumer<SimpleMessageChunk> chunkForwarder, SimpleMessageChunk chunk, ExportMessagesCommand command) {
-        SimpleMessageChunk decoratedChunk = chunkDecorator.decorate(chunk, command);
+    private class Pipeline {
+        private final ExportMessagesCommand command;
+        private final boolean sliced;
+        private final BlockingQueue<Item> queue;
+        private final List<Future<?>> fetches = new ArrayList<>();
+        private final ExportProgress progress;
+        private volatile boolean cancelled = false;
+
+        private Pipeline(ExportMessagesCommand command, int sliceCount) {
+            this.command = command;
+            this.sliced = sliceCount > 1;
+            this.queue = new ArrayBlockingQueue<>(sliceCount * BUFFERED_CHUNKS_PER_SLICE);
+            this.progress = exportExecutor.startProgress(command, sliceCount);
+        }
+
+        private void run(List<ExportMessagesCommand> sliceCommands, Consumer<SimpleMessageChunk> chunkForwarder) {
+            try {
+                sliceCommands.forEach(sliceCommand -> fetches.add(exportExecutor.submitFetch(() -> fetch(sliceCommand))));
+                write(sliceCommands.size(), chunkForwarder);
+            } finally {
+                cancel();
+            }
+        }
+
+        private void fetch(ExportMessagesCommand sliceCommand) {
+            Item result = Item.DONE;
+            try {
+                // Every slice needs its own backend, because the request strategy keeps the search-after state
+                backendProvider.get().run(sliceCommand, chunk -> {
+                    if (!offer(Item.chunk(chunkDecorator.decorate(chunk, command)))) {
+                        throw new CancellationException("Export has been cancelled");
+                    }
+                });
+            } catch (RuntimeException | Error e) {
+                result = Item.failed(e);
+            }
+            offer(result);
+        }
+
+        private void write(int sliceCount, Consumer<SimpleMessageChunk> chunkForwarder) {
+            int finishedSlices = 0;
+            boolean isFirstChunk = true;
+
+            while (finishedSlices < sliceCount) {
+                final Item item = take();
+                if (item == Item.DONE) {
+                    finishedSlices++;
+                    continue;
+                }
+                if (item.failure != null) {
+                    Throwables.throwIfUnchecked(item.failure);
+                    throw new IllegalStateException("Unexpected checked exception in export", item.failure);
+                }
+
+                SimpleMessageChunk chunk = item.chunk;
+                if (sliced) {
+                    // Every slice starts and ends with its own chunks, the whole export only gets one of each
+                    if (chunk.isLastChunk() && chunk.size() == 0) {
+                        continue;
+                    }
+                    chunk = chunk.toBuilder()
+                            .chunkOrder(isFirstChunk ? SimpleMessageChunk.ChunkOrder.FIRST : SimpleMessageChunk.ChunkOrder.INTERMEDIATE)
+                            .build();
+                }
+
+                if (!forward(chunkForwarder, chunk)) {
+                    return;
+                }
+                isFirstChunk = false;
+            }
+
+            if (sliced && !forward(chunkForwarder, lastChunk())) {
+                return;
+            }
+            progress.finished();
+        }
+
+        private boolean forward(Consumer<SimpleMessageChunk> chunkForwarder, SimpleMessageChunk chunk) {
+            try {
+                chunkForwarder.accept(chunk);
+                progress.chunkWritten(chunk);
+                return true;
+            } catch (Exception e) {
+                LOG.warn("Chunk publishing threw exception after {} messages. Stopping export", progress.messages(), e);
+                return false;
+            }
+        }
+
+        private SimpleMessageChunk lastChunk() {
+            return SimpleMessageChunk.builder()
+                    .fieldsInOrder(command.fieldsInOrder())
+                    .messages(new LinkedHashSet<>())
+                    .chunkOrder(SimpleMessageChunk.ChunkOrder.LAST)
+                    .build();
+        }
+
+        private boolean offer(Item item) {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        private Item take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExportException("Interrupted while waiting for the next chunk", e);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            fetches.forEach(fetch -> fetch.cancel(false));
+            queue.clear();
+        }
+    }
+
+    private static class Item {
+        private static final Item DONE = new Item(null, null);
+
+        private final SimpleMessageChunk chunk;
+        private final Throwable failure;
+
+        private Item(SimpleMessageChunk chunk, Throwable failure) {
+            this.chunk = chunk;
+            this.failure = failure;
+        }
+
+        private static Item chunk(SimpleMessageChunk chunk) {
+            return new Item(chunk, null);
+        }
 
-        chunkForwarder.accept(decoratedChunk);
+        private static Item failed(Throwable failure) {
+            return new Item(null, failure);
+        }
     }
 }
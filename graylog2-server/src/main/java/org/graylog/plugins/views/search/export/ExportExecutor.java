@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.export;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog2.plugin.Tools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Runs message exports on threads shared by all export requests.
+ * <p>
+ * Every export occupies one export thread, which writes its chunks to the client. Exports which can't start right away
+ * wait in a bounded queue, further exports are rejected. The searches of an export run on a separate pool of fetch
+ * threads, so a running export never waits for a thread which is taken by another export that waits for it in turn.
+ * The fetch pool has a thread for every slice of every running export, so an export whose client reads slowly only
+ * stalls its own fetches.
+ */
+@Singleton
+public class ExportExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(ExportExecutor.class);
+
+    private final ThreadPoolExecutor exportExecutor;
+    private final ExecutorService fetchExecutor;
+
+    private final Meter exportedMessages;
+    private final Meter rejected;
+    private final Timer exportTime;
+
+    @Inject
+    public ExportExecutor(@Named("views_export_threads") int threads,
+                          @Named("views_export_queue_size") int maxQueueSize,
+                          @Named("views_export_slices") int slices,
+                          MetricRegistry metricRegistry) {
+        this.exportExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(maxQueueSize),
+                threadFactory("message-export-%d"));
+        this.fetchExecutor = Executors.newFixedThreadPool(threads * slices, threadFactory("message-export-fetch-%d"));
+        this.exportedMessages = metricRegistry.meter(name(ExportExecutor.class, "exported-messages"));
+        this.rejected = metricRegistry.meter(name(ExportExecutor.class, "rejected"));
+        this.exportTime = metricRegistry.timer(name(ExportExecutor.class, "export-time"));
+        metricRegistry.register(name(ExportExecutor.class, "running"), (Gauge<Integer>) exportExecutor::getActiveCount);
+        metricRegistry.register(name(ExportExecutor.class, "queue-size"), (Gauge<Integer>) () -> exportExecutor.getQueue().size());
+    }
+
+    private static ThreadFactory threadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .setUncaughtExceptionHandler(new Tools.LogUncaughtExceptionHandler(LOG))
+                .build();
+    }
+
+    /**
+     * Runs the given export on an export thread.
+     *
+     * @throws RejectedExecutionException if too many exports are waiting already
+     */
+    public void submit(Runnable export) {
+        try {
+            exportExecutor.execute(() -> {
+                try (Timer.Context ignored = exportTime.time()) {
+                    export.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.mark();
+            throw new RejectedExecutionException("Too many running message exports, please try again later.", e);
+        }
+    }
+
+    /**
+     * Runs a search of an export on a fetch thread.
+     */
+    Future<?> submitFetch(Runnable fetch) {
+        return fetchExecutor.submit(fetch);
+    }
+
+    ExportProgress startProgress(ExportMessagesCommand command, int slices) {
+        return new ExportProgress(command, slices, exportedMessages);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.export;
+
+import com.codahale.metrics.Meter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the number of messages written by a single export and logs its progress and throughput.
+ * Only used by the thread which writes the chunks of the export.
+ */
+class ExportProgress {
+    private static final Logger LOG = LoggerFactory.getLogger(ExportProgress.class);
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final ExportMessagesCommand command;
+    private final int slices;
+    private final Meter exportedMessages;
+    private final long startedAt = System.nanoTime();
+
+    private long messages = 0;
+    private long chunks = 0;
+    private long lastLoggedAt = startedAt;
+
+    ExportProgress(ExportMessagesCommand command, int slices, Meter exportedMessages) {
+        this.command = command;
+        this.slices = slices;
+        this.exportedMessages = exportedMessages;
+    }
+
+    void chunkWritten(SimpleMessageChunk chunk) {
+        messages += chunk.size();
+        chunks++;
+        exportedMessages.mark(chunk.size());
+
+        final long now = System.nanoTime();
+        if (now - lastLoggedAt >= LOG_INTERVAL_NANOS) {
+            lastLoggedAt = now;
+            LOG.info("Export of time range {} is running for {}s: {} messages in {} chunks ({} messages/s)",
+                    command.timeRange(), seconds(now), messages, chunks, throughput(now));
+        }
+    }
+
+    void finished() {
+        final long now = System.nanoTime();
+        LOG.info("Exported {} messages in {} chunks from time range {} with {} slice(s) in {}s ({} messages/s)",
+                messages, chunks, command.timeRange(), slices, seconds(now), throughput(now));
+    }
+
+    long messages() {
+        return messages;
+    }
+
+    private long seconds(long now) {
+        return TimeUnit.NANOSECONDS.toSeconds(now - startedAt);
+    }
+
+    private long throughput(long now) {
+        final long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - startedAt));
+        return messages * 1000 / millis;
+    }
+}
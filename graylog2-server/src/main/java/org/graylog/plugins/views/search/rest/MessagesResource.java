@@ -39,6 +39,7 @@ import org.graylog.plugins.views.search.export.AuditContext;
 import org.graylog.plugins.views.search.export.AuditingMessagesExporter;
 import org.graylog.plugins.views.search.export.ChunkedRunner;
 import org.graylog.plugins.views.search.export.CommandFactory;
+import org.graylog.plugins.views.search.export.ExportExecutor;
 import org.graylog.plugins.views.search.export.ExportJob;
 import org.graylog.plugins.views.search.export.ExportJobService;
 import org.graylog.plugins.views.search.export.ExportMessagesCommand;
@@ -84,7 +85,7 @@ public class MessagesResource extends RestResource implements PluginRestResource
     private final Function<Collection<String>, Stream<String>> streamCategoryMapper;
 
     //allow mocking
-    Function<Consumer<Consumer<SimpleMessageChunk>>, ChunkedOutput<SimpleMessageChunk>> asyncRunner = ChunkedRunner::runAsync;
+    Function<Consumer<Consumer<SimpleMessageChunk>>, ChunkedOutput<SimpleMessageChunk>> asyncRunner;
     Function<AuditContext, MessagesExporter> messagesExporterFactory;
 
     @Inject
@@ -96,8 +97,9 @@ public class MessagesResource extends RestResource implements PluginRestResource
             @SuppressWarnings("UnstableApiUsage") EventBus eventBus,
             ExportJobService exportJobService,
             QueryValidationService queryValidationService,
-            StreamService streamService) {
-        this(exporter, commandFactory, searchDomain, executionGuard, eventBus, exportJobService, queryValidationService, categories -> streamService.mapCategoriesToIds(categories).stream());
+            StreamService streamService,
+            ExportExecutor exportExecutor) {
+        this(exporter, commandFactory, searchDomain, executionGuard, eventBus, exportJobService, queryValidationService, categories -> streamService.mapCategoriesToIds(categories).stream(), exportExecutor);
     }
 
     MessagesResource(MessagesExporter exporter,
@@ -107,7 +109,8 @@ public class MessagesResource extends RestResource implements PluginRestResource
                      @SuppressWarnings("UnstableApiUsage") EventBus eventBus,
                      ExportJobService exportJobService,
                      QueryValidationService queryValidationService,
-                     Function<Collection<String>, Stream<String>> streamCategoryMapper) {
+                     Function<Collection<String>, Stream<String>> streamCategoryMapper,
+                     ExportExecutor exportExecutor) {
         this.commandFactory = commandFactory;
         this.searchDomain = searchDomain;
         this.executionGuard = executionGuard;
@@ -115,6 +118,7 @@ public class MessagesResource extends RestResource implements PluginRestResource
         this.queryValidationService = queryValidationService;
         this.messagesExporterFactory = context -> new AuditingMessagesExporter(context, eventBus, exporter);
         this.streamCategoryMapper = streamCategoryMapper;
+        this.asyncRunner = call -> ChunkedRunner.runAsync(call, exportExecutor);
     }
 
     @ApiOperation(
@@ -21,11 +21,14 @@ import com.github.joschi.jadconfig.util.Duration;
 import com.google.common.primitives.Ints;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.Indexes;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import one.util.streamex.StreamEx;
@@ -45,12 +48,14 @@ import org.mongojack.DBQuery;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -88,6 +93,7 @@ public class DBJobTriggerService {
     private static final String FIELD_LAST_LOCK_OWNER = JobTriggerDto.FIELD_LOCK + "." + JobTriggerLock.FIELD_LAST_OWNER;
     private static final String FIELD_PROGRESS = JobTriggerDto.FIELD_LOCK + "." + JobTriggerLock.FIELD_PROGRESS;
     private static final String FIELD_LAST_LOCK_TIME = JobTriggerDto.FIELD_LOCK + "." + JobTriggerLock.FIELD_LAST_LOCK_TIME;
+    private static final String FIELD_LOCK_TOKEN = JobTriggerDto.FIELD_LOCK + "." + JobTriggerLock.FIELD_TOKEN;
     private static final String FIELD_NEXT_TIME = JobTriggerDto.FIELD_NEXT_TIME;
     private static final String FIELD_START_TIME = JobTriggerDto.FIELD_START_TIME;
     private static final String FIELD_END_TIME = JobTriggerDto.FIELD_END_TIME;
@@ -102,6 +108,12 @@ public class DBJobTriggerService {
     private static final String FIELD_IS_CANCELLED = JobTriggerDto.FIELD_IS_CANCELLED;
     private static final String FIELD_JOB_DEFINITION_TYPE = JobTriggerDto.FIELD_JOB_DEFINITION_TYPE;
 
+    // Number of candidates to load per trigger we want to lock in a batch. Some candidates might be skipped
+    // because of concurrency limits or get locked by another node in the meantime.
+    private static final int BATCH_CANDIDATE_FACTOR = 2;
+    // We want to lock the triggers with the oldest next time first
+    private static final Bson RUNNABLE_TRIGGER_SORT = ascending(FIELD_NEXT_TIME);
+
     private final String nodeId;
     private final JobSchedulerClock clock;
     private final SchedulerCapabilitiesService schedulerCapabilitiesService;
@@ -359,12 +371,79 @@ public class DBJobTriggerService {
     public Optional<JobTriggerDto> nextRunnableTrigger() {
         final DateTime now = clock.nowUTC();
 
+        // Atomically update, lock and return the next runnable trigger
+        final JobTriggerDto trigger = collection.findOneAndUpdate(runnableTriggerFilter(now), lockUpdate(now),
+                new FindOneAndUpdateOptions().sort(RUNNABLE_TRIGGER_SORT).returnDocument(ReturnDocument.AFTER)
+        );
+
+        return Optional.ofNullable(trigger);
+    }
+
+    /**
+     * Locks and returns up to {@code maxTriggers} runnable triggers in one go. Other than
+     * {@link #nextRunnableTrigger()}, this doesn't need a database round-trip per trigger: the candidates are locked
+     * with a single update and the locked triggers are identified by the node ID and a lock token that is unique
+     * for each call. The caller needs to take care of releasing the trigger locks.
+     * <p>
+     * Triggers of job types with a concurrency limit are only locked up to the limit per call, the rest stays
+     * runnable for later calls or other nodes. The limit itself still needs to be enforced when running the jobs.
+     *
+     * @param maxTriggers       maximum number of triggers to lock
+     * @param concurrencyLimits concurrency limits per job definition type
+     * @return the locked triggers, sorted by their next time
+     */
+    public List<JobTriggerDto> nextRunnableTriggers(int maxTriggers, Map<String, Integer> concurrencyLimits) {
+        if (maxTriggers < 1) {
+            return List.of();
+        }
+        if (maxTriggers == 1) {
+            return nextRunnableTrigger().map(List::of).orElse(List.of());
+        }
+
+        final DateTime now = clock.nowUTC();
+        final Bson filter = runnableTriggerFilter(now);
+
+        final Map<String, Integer> lockedPerType = new HashMap<>();
+        final List<ObjectId> candidateIds = new ArrayList<>(maxTriggers);
+        try (final MongoCursor<JobTriggerDto> candidates = collection.find(filter)
+                .sort(RUNNABLE_TRIGGER_SORT)
+                .limit(maxTriggers * BATCH_CANDIDATE_FACTOR)
+                .cursor()) {
+            while (candidates.hasNext() && candidateIds.size() < maxTriggers) {
+                final JobTriggerDto candidate = candidates.next();
+                final int limit = concurrencyLimits.getOrDefault(candidate.jobDefinitionType(), 0);
+                if (limit > 0 && lockedPerType.merge(candidate.jobDefinitionType(), 1, Integer::sum) > limit) {
+                    continue;
+                }
+                candidateIds.add(getId(candidate));
+            }
+        }
+        if (candidateIds.isEmpty()) {
+            return List.of();
+        }
+
+        // The filter is checked again for every candidate, so triggers which have been locked by another node
+        // since loading the candidates are skipped.
+        final String lockToken = new ObjectId().toHexString();
+        final long lockedTriggers = collection.updateMany(
+                and(in(FIELD_ID, candidateIds), filter),
+                combine(lockUpdate(now), set(FIELD_LOCK_TOKEN, lockToken))
+        ).getModifiedCount();
+        if (lockedTriggers == 0) {
+            return List.of();
+        }
+
+        return stream(collection.find(and(eq(FIELD_LOCK_OWNER, nodeId), eq(FIELD_LOCK_TOKEN, lockToken)))
+                .sort(RUNNABLE_TRIGGER_SORT)).toList();
+    }
+
+    private Bson runnableTriggerFilter(DateTime now) {
         // exclude triggers which require a constraint that is not satisfied by this node
         final var constraintsQuery = not(
                 elemMatch(FIELD_CONSTRAINTS, new Document("$nin", schedulerCapabilitiesService.getNodeCapabilities()))
         );
 
-        final var filter = or(and(
+        return or(and(
                         // We cannot lock a trigger that is already locked by another node
                         eq(FIELD_LOCK_OWNER, null),
                         eq(FIELD_STATUS, JobTriggerStatus.RUNNABLE),
@@ -386,23 +465,16 @@ public class DBJobTriggerService {
                         constraintsQuery,
                         lt(FIELD_LAST_LOCK_TIME, now.minus(lockExpirationDuration.toMilliseconds())))
         );
-        // We want to lock the trigger with the oldest next time
-        final var sort = ascending(FIELD_NEXT_TIME);
+    }
 
-        final var lockUpdate = combine(
+    private Bson lockUpdate(DateTime now) {
+        return combine(
                 set(FIELD_LOCK_OWNER, nodeId),
                 set(FIELD_LAST_LOCK_OWNER, nodeId),
                 set(FIELD_STATUS, JobTriggerStatus.RUNNING),
                 set(FIELD_TRIGGERED_AT, Optional.of(now)),
                 set(FIELD_LAST_LOCK_TIME, now)
         );
-
-        // Atomically update, lock and return the next runnable trigger
-        final JobTriggerDto trigger = collection.findOneAndUpdate(filter, lockUpdate,
-                new FindOneAndUpdateOptions().sort(sort).returnDocument(ReturnDocument.AFTER)
-        );
-
-        return Optional.ofNullable(trigger);
     }
 
     /**
@@ -416,7 +488,35 @@ public class DBJobTriggerService {
         requireNonNull(trigger, "trigger cannot be null");
         requireNonNull(triggerUpdate, "triggerUpdate cannot be null");
 
-        final var filter = and(
+        return collection.updateOne(releaseFilter(trigger), releaseUpdate(trigger, triggerUpdate)).getModifiedCount() == 1;
+    }
+
+    /**
+     * Releases the given locked triggers with a single bulk write. Like with
+     * {@link #releaseTrigger(JobTriggerDto, JobTriggerUpdate)}, triggers are only released if they are owned by the
+     * calling node.
+     *
+     * @param triggers      triggers that should be released
+     * @param triggerUpdate returns the update to apply for each trigger
+     * @return the number of modified triggers
+     */
+    public int releaseTriggers(Collection<JobTriggerDto> triggers, Function<JobTriggerDto, JobTriggerUpdate> triggerUpdate) {
+        requireNonNull(triggers, "triggers cannot be null");
+        requireNonNull(triggerUpdate, "triggerUpdate cannot be null");
+        if (triggers.isEmpty()) {
+            return 0;
+        }
+
+        final List<UpdateOneModel<JobTriggerDto>> updates = triggers.stream()
+                .map(trigger -> new UpdateOneModel<JobTriggerDto>(releaseFilter(trigger),
+                        releaseUpdate(trigger, requireNonNull(triggerUpdate.apply(trigger), "triggerUpdate cannot be null"))))
+                .toList();
+
+        return collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+    }
+
+    private Bson releaseFilter(JobTriggerDto trigger) {
+        return and(
                 // Make sure that the owner still owns the trigger
                 eq(FIELD_LOCK_OWNER, nodeId),
                 idEq(getId(trigger)),
@@ -427,9 +527,12 @@ public class DBJobTriggerService {
                 //       That next status would need to be set on release.
                 eq(FIELD_STATUS, JobTriggerStatus.RUNNING)
         );
+    }
 
+    private Bson releaseUpdate(JobTriggerDto trigger, JobTriggerUpdate triggerUpdate) {
         final List<Bson> updates = new ArrayList<>();
         updates.add(unset(FIELD_LOCK_OWNER));
+        updates.add(unset(FIELD_LOCK_TOKEN));
         // Reset the cancellation status on release to make sure we start uncancelled on the next trigger execution
         updates.add(set(FIELD_IS_CANCELLED, false));
 
@@ -459,7 +562,7 @@ public class DBJobTriggerService {
             updates.add(set(FIELD_LAST_EXECUTION_DURATION, Optional.of(duration.getMillis())));
         });
 
-        return collection.updateOne(filter, combine(updates)).getModifiedCount() == 1;
+        return combine(updates);
     }
 
     /**
@@ -44,8 +44,9 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -180,10 +181,10 @@ public class JobExecutionEngine {
     }
 
     /**
-     * Execute the engine. This will try to lock a trigger and execute the job if there are free slots in the
-     * worker pool and the engine is not shutting down.
+     * Execute the engine. This will try to lock as many triggers as there are free slots in the worker pool and
+     * execute the related jobs if the engine is not shutting down.
      *
-     * @return true if a job trigger has been locked and the related job has been triggered, false otherwise
+     * @return true if at least one job trigger has been locked and the related job has been triggered, false otherwise
      */
     public boolean execute() {
         // Cleanup stale scheduler state *before* processing any triggers for the first time.
@@ -194,20 +195,27 @@ public class JobExecutionEngine {
 
         // We want to avoid a call to the database if there are no free slots in the pool or the engine is shutting down
         if (isRunning.get() && workerPool.hasFreeSlots()) {
-            final Optional<JobTriggerDto> triggerOptional = jobTriggerService.nextRunnableTrigger();
+            final List<JobTriggerDto> triggers = jobTriggerService.nextRunnableTriggers(workerPool.freeSlots(), concurrencyLimits);
 
-            if (triggerOptional.isPresent()) {
-                final JobTriggerDto trigger = triggerOptional.get();
-
-                if (!workerPool.execute(() -> handleTriggerWithConcurrencyLimit(trigger))) {
-                    // The job couldn't be executed so we have to release the trigger again with the same nextTime
-                    jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime()));
-                    executionDenied.mark();
-                    return false;
+            final List<JobTriggerDto> deniedTriggers = new ArrayList<>();
+            for (final JobTriggerDto trigger : triggers) {
+                if (!isRunning.get() || !workerPool.execute(() -> handleTriggerWithConcurrencyLimit(trigger))) {
+                    deniedTriggers.add(trigger);
                 }
+            }
 
+            if (!deniedTriggers.isEmpty()) {
+                // The jobs couldn't be executed so we have to release the triggers again with the same nextTime
+                jobTriggerService.releaseTriggers(deniedTriggers, trigger -> JobTriggerUpdate.withNextTime(trigger.nextTime()));
+                executionDenied.mark(deniedTriggers.size());
+            }
+
+            if (triggers.size() > deniedTriggers.size()) {
                 return true;
             }
+            if (!triggers.isEmpty()) {
+                return false;
+            }
         }
         executionDenied.mark();
         return false;
@@ -35,6 +35,7 @@ public abstract class JobTriggerLock {
     static final String FIELD_LAST_LOCK_TIME = "last_lock_time";
     static final String FIELD_CLOCK = "clock";
     static final String FIELD_PROGRESS = "progress";
+    static final String FIELD_TOKEN = "token";
 
     @JsonProperty(FIELD_OWNER)
     @Nullable
@@ -54,6 +55,14 @@ public abstract class JobTriggerLock {
     @JsonProperty(FIELD_PROGRESS)
     public abstract int progress();
 
+    /**
+     * Identifies the batch in which the trigger has been locked. Only set for triggers locked via
+     * {@link DBJobTriggerService#nextRunnableTriggers(int, java.util.Map)}.
+     */
+    @JsonProperty(FIELD_TOKEN)
+    @Nullable
+    public abstract String token();
+
     public static JobTriggerLock empty() {
         return builder().build();
     }
@@ -88,6 +97,9 @@ public abstract class JobTriggerLock {
         @JsonProperty(FIELD_PROGRESS)
         public abstract Builder progress(int progress);
 
+        @JsonProperty(FIELD_TOKEN)
+        public abstract Builder token(@Nullable String token);
+
         public abstract JobTriggerLock build();
     }
 }
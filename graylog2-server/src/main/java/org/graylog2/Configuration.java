@@ -42,6 +42,8 @@ import org.graylog2.notifications.Notification;
 import org.graylog2.outputs.BatchSizeConfig;
 import org.graylog2.plugin.Tools;
 import org.graylog2.security.realm.RootAccountRealm;
+import org.graylog2.streams.StreamRouterEngineMode;
+import org.graylog2.utilities.BlockingCallExecutionMode;
 import org.graylog2.utilities.IPSubnetConverter;
 import org.graylog2.utilities.IpSubnet;
 import org.joda.time.DateTimeZone;
@@ -96,6 +98,15 @@ public class Configuration extends CaConfiguration {
     @Parameter(value = "outputbuffer_processor_threads_core_pool_size", required = true, validators = PositiveIntegerValidator.class)
     private int outputBufferProcessorThreadsCorePoolSize = 3;
 
+    @Parameter(value = "outputbuffer_processor_batching")
+    private boolean outputBufferProcessorBatching = false;
+
+    @Parameter(value = "outputbuffer_processor_max_batch_size", validators = PositiveIntegerValidator.class)
+    private int outputBufferProcessorMaxBatchSize = 500;
+
+    @Parameter(value = "outputbuffer_processor_isolate_stream_outputs")
+    private boolean outputBufferProcessorIsolateStreamOutputs = false;
+
     @Parameter(value = "node_id_file", validators = NodeIdFileValidator.class)
     private String nodeIdFile = "/etc/graylog/server/node-id";
 
@@ -130,6 +141,36 @@ public class Configuration extends CaConfiguration {
     @Parameter(value = "stream_processing_max_faults", validators = PositiveIntegerValidator.class)
     private int streamProcessingMaxFaults = 3;
 
+    @Parameter(value = "stream_router_engine", converter = StreamRouterEngineMode.Converter.class)
+    private StreamRouterEngineMode streamRouterEngineMode = StreamRouterEngineMode.LINEAR;
+
+    @Parameter(value = "lookup_table_async_concurrency", validators = PositiveIntegerValidator.class)
+    private int lookupTableAsyncConcurrency = 8;
+
+    @Parameter(value = "blocking_call_execution", converter = BlockingCallExecutionMode.Converter.class)
+    private BlockingCallExecutionMode blockingCallExecutionMode = BlockingCallExecutionMode.PLATFORM;
+
+    @Parameter(value = "reverse_dns_servers")
+    private String reverseDnsServers = "";
+
+    @Parameter(value = "reverse_dns_timeout", validators = PositiveDurationValidator.class)
+    private Duration reverseDnsTimeout = Duration.milliseconds(500);
+
+    @Parameter(value = "reverse_dns_max_in_flight", validators = PositiveIntegerValidator.class)
+    private int reverseDnsMaxInFlight = 256;
+
+    @Parameter(value = "reverse_dns_cache_size", validators = PositiveIntegerValidator.class)
+    private int reverseDnsCacheSize = 10000;
+
+    @Parameter(value = "reverse_dns_cache_max_ttl", validators = PositiveDurationValidator.class)
+    private Duration reverseDnsCacheMaxTtl = Duration.hours(1);
+
+    @Parameter(value = "reverse_dns_negative_cache_ttl", validators = PositiveDurationValidator.class)
+    private Duration reverseDnsNegativeCacheTtl = Duration.minutes(5);
+
+    @Parameter(value = "reverse_dns_forward_confirmation")
+    private boolean reverseDnsForwardConfirmation = true;
+
     @Parameter(value = "output_module_timeout", validators = PositiveLongValidator.class)
     private long outputModuleTimeout = 10000;
 
@@ -340,6 +381,18 @@ public class Configuration extends CaConfiguration {
         return outputBufferProcessorThreadsCorePoolSize;
     }
 
+    public boolean isOutputBufferProcessorBatching() {
+        return outputBufferProcessorBatching;
+    }
+
+    public int getOutputBufferProcessorMaxBatchSize() {
+        return outputBufferProcessorMaxBatchSize;
+    }
+
+    public boolean isOutputBufferProcessorIsolateStreamOutputs() {
+        return outputBufferProcessorIsolateStreamOutputs;
+    }
+
     public boolean isCloud() {
         return isCloud;
     }
@@ -400,6 +453,46 @@ public class Configuration extends CaConfiguration {
         return streamProcessingMaxFaults;
     }
 
+    public StreamRouterEngineMode getStreamRouterEngineMode() {
+        return streamRouterEngineMode;
+    }
+
+    public int getLookupTableAsyncConcurrency() {
+        return lookupTableAsyncConcurrency;
+    }
+
+    public BlockingCallExecutionMode getBlockingCallExecutionMode() {
+        return blockingCallExecutionMode;
+    }
+
+    public String getReverseDnsServers() {
+        return reverseDnsServers;
+    }
+
+    public Duration getReverseDnsTimeout() {
+        return reverseDnsTimeout;
+    }
+
+    public int getReverseDnsMaxInFlight() {
+        return reverseDnsMaxInFlight;
+    }
+
+    public int getReverseDnsCacheSize() {
+        return reverseDnsCacheSize;
+    }
+
+    public Duration getReverseDnsCacheMaxTtl() {
+        return reverseDnsCacheMaxTtl;
+    }
+
+    public Duration getReverseDnsNegativeCacheTtl() {
+        return reverseDnsNegativeCacheTtl;
+    }
+
+    public boolean isReverseDnsForwardConfirmation() {
+        return reverseDnsForwardConfirmation;
+    }
+
     public long getOutputModuleTimeout() {
         return outputModuleTimeout;
     }
@@ -28,6 +28,7 @@ import com.lmax.disruptor.dsl.ProducerType;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import jakarta.inject.Singleton;
+import org.graylog2.buffers.processors.BatchingOutputBufferHandler;
 import org.graylog2.buffers.processors.OutputBufferProcessor;
 import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.plugin.Message;
@@ -55,7 +56,9 @@ public class OutputBuffer extends Buffer {
                         OutputBufferProcessor.Factory processorFactory,
                         @Named("outputbuffer_processors") int processorCount,
                         @Named("ring_size") int ringSize,
-                        @Named("processor_wait_strategy") String waitStrategyName) {
+                        @Named("processor_wait_strategy") String waitStrategyName,
+                        @Named("outputbuffer_processor_batching") boolean batching,
+                        @Named("outputbuffer_processor_max_batch_size") int maxBatchSize) {
         this.ringBufferSize = ringSize;
         this.incomingMessages = metricRegistry.meter(name(OutputBuffer.class, "incomingMessages"));
 
@@ -78,9 +81,13 @@ public class OutputBuffer extends Buffer {
         );
         disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler(LOG));
 
-        final EventHandler<MessageEvent>[] processors = new PartitioningWorkHandler[processorCount];
+        final EventHandler<MessageEvent>[] processors = new EventHandler[processorCount];
         for (int i = 0; i < processorCount; i++) {
-            processors[i] = new PartitioningWorkHandler<>(processorFactory.create(i), i, processorCount);
+            if (batching) {
+                processors[i] = new BatchingOutputBufferHandler(processorFactory.create(i), i, processorCount, maxBatchSize);
+            } else {
+                processors[i] = new PartitioningWorkHandler<>(processorFactory.create(i), i, processorCount);
+            }
         }
 
         disruptor.handleEventsWith(processors);
@@ -88,8 +95,9 @@ public class OutputBuffer extends Buffer {
         ringBuffer = disruptor.start();
 
         LOG.info("Initialized OutputBuffer with ring size <{}> and wait strategy <{}>, " +
-                        "running {} parallel buffer processors.",
-                ringBufferSize, waitStrategy.getClass().getSimpleName(), processorCount);
+                        "running {} parallel buffer processors{}.",
+                ringBufferSize, waitStrategy.getClass().getSimpleName(), processorCount,
+                batching ? " writing batches of up to " + maxBatchSize + " messages" : "");
     }
 
     private ThreadFactory threadFactory(final MetricRegistry metricRegistry) {
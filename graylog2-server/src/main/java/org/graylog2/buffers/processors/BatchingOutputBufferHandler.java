@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.buffers.processors;
+
+import com.lmax.disruptor.EventHandler;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.shared.buffers.PartitioningWorkHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An event handler which collects the messages of its partition of the output buffer and hands them to an
+ * {@link OutputBufferProcessor} in batches.
+ * <p>
+ * A batch is written when the disruptor signals the end of the currently available events or when it reaches the
+ * maximum batch size. Partitioning works like in {@link PartitioningWorkHandler}.
+ */
+public class BatchingOutputBufferHandler implements EventHandler<MessageEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingOutputBufferHandler.class);
+
+    private final OutputBufferProcessor processor;
+    private final long ordinal;
+    private final long numberOfConsumers;
+    private final int maxBatchSize;
+    private List<Message> batch;
+
+    /**
+     * @param processor         the processor which writes the batches to the outputs
+     * @param ordinal           The ordinal number of this consumer in the range [0, numberOfConsumers). Each event
+     *                          handlers need to have a distinct ordinal number.
+     * @param numberOfConsumers The total number of consumers.
+     * @param maxBatchSize      the maximum number of messages which are written in one batch
+     */
+    public BatchingOutputBufferHandler(OutputBufferProcessor processor, long ordinal, long numberOfConsumers, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+        }
+        this.processor = processor;
+        this.ordinal = ordinal;
+        this.numberOfConsumers = numberOfConsumers;
+        this.maxBatchSize = maxBatchSize;
+        this.batch = new ArrayList<>();
+    }
+
+    @Override
+    public void onEvent(MessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+        if ((sequence % numberOfConsumers) == ordinal) {
+            final Message message = event.getMessage();
+            if (message == null) {
+                LOG.debug("Skipping null message.");
+            } else {
+                batch.add(message);
+            }
+            event.clearMessages();
+        }
+        // The end of a batch is signalled on the last available event, which might belong to another partition.
+        if (endOfBatch || batch.size() >= maxBatchSize) {
+            flush();
+        }
+    }
+
+    private void flush() throws Exception {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Outputs might keep a reference to the written list, so it is handed over instead of being reused.
+        final List<Message> messages = batch;
+        batch = new ArrayList<>();
+        processor.onBatch(messages);
+    }
+
+    @Override
+    public void onStart() {
+        processor.onStart();
+    }
+
+    @Override
+    public void onShutdown() {
+        processor.onShutdown();
+    }
+}
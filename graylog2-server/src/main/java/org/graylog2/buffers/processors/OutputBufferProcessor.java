@@ -37,15 +37,21 @@ import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.buffers.MessageEvent;
 import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.shared.buffers.WorkHandler;
+import org.graylog2.utilities.BlockingCallExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -58,8 +64,12 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
 
     private static final String INCOMING_MESSAGES_METRICNAME = name(OutputBufferProcessor.class, "incomingMessages");
     private static final String PROCESS_TIME_METRICNAME = name(OutputBufferProcessor.class, "processTime");
+    private static final String BATCH_PROCESS_TIME_METRICNAME = name(OutputBufferProcessor.class, "batchProcessTime");
 
     private final ExecutorService executor;
+    private final boolean isolateStreamOutputs;
+    private final int streamOutputConcurrency;
+    private final int streamOutputQueueSize;
 
     private final Configuration configuration;
     private final ServerStatus serverStatus;
@@ -67,6 +77,7 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
     private final Meter incomingMessages;
     private final Counter outputThroughput;
     private final Timer processTime;
+    private final Timer batchProcessTime;
 
     private final OutputRouter outputRouter;
     private final MessageOutput defaultMessageOutput;
@@ -87,10 +98,15 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
 
         final int corePoolSize = configuration.getOutputBufferProcessorThreadsCorePoolSize();
         this.executor = executorService(globalMetricRegistry, corePoolSize);
+        this.isolateStreamOutputs = configuration.isOutputBufferProcessorIsolateStreamOutputs();
+        // Writes to the same stream output share their limits across all buffer processors
+        this.streamOutputConcurrency = corePoolSize * configuration.getOutputBufferProcessors();
+        this.streamOutputQueueSize = configuration.getRingSize();
 
         this.incomingMessages = globalMetricRegistry.meter(INCOMING_MESSAGES_METRICNAME);
         this.outputThroughput = globalMetricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT);
         this.processTime = globalMetricRegistry.timer(PROCESS_TIME_METRICNAME);
+        this.batchProcessTime = globalMetricRegistry.timer(BATCH_PROCESS_TIME_METRICNAME);
     }
 
     private ExecutorService executorService(final MetricRegistry globalRegistry, final int corePoolSize) {
@@ -140,6 +156,12 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
      * outputs to finish their work. <b>This might lead to increased memory usage!</b>
      * </p>
      * <p>
+     * If stream outputs are isolated, every stream output is written by its own bounded executor, see
+     * {@link org.graylog2.outputs.OutputRegistry#getExecutorForOutput}, so a slow output doesn't occupy the threads
+     * which write to the other outputs. Once the queue of a slow output is full, submitting further writes blocks
+     * until there is space again.
+     * </p>
+     * <p>
      * The default output, however, is allowed to block and is not subject to time limiting. This is important because it
      * can exert back pressure on the processing pipeline this way, making sure we don't run into excessive heap usage.
      * </p>
@@ -193,11 +215,97 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         event.clearMessages();
     }
 
+    /**
+     * Writes a batch of messages to their outputs, see {@link #onEvent(MessageEvent)} for the semantics.
+     * <p>
+     * The messages are grouped by output and every output receives a single {@link MessageOutput#write(List)} call
+     * per batch instead of one call per message. The stream output timeout applies to the whole batch.
+     * The {@code processTime} timer still gets one value per message, the write time of whole batches is reported by
+     * {@code batchProcessTime}.
+     * </p>
+     *
+     * @param messages the messages to write to outputs
+     * @throws Exception
+     */
+    public void onBatch(List<Message> messages) throws Exception {
+        if (messages.isEmpty()) {
+            return;
+        }
+        incomingMessages.mark(messages.size());
+        LOG.trace("Processing batch of {} messages from OutputBuffer.", messages.size());
+
+        final Map<MessageOutput, List<Message>> streamOutputBatches = new LinkedHashMap<>();
+        for (final Message msg : messages) {
+            final Set<MessageOutput> messageOutputs = outputRouter.getStreamOutputsForMessage(msg);
+            msg.recordCounter(serverStatus, "matched-outputs", messageOutputs.size());
+            for (final MessageOutput output : messageOutputs) {
+                streamOutputBatches.computeIfAbsent(output, k -> new ArrayList<>()).add(msg);
+            }
+        }
+
+        final Future<?> defaultOutputCompletion = processMessages(messages, defaultMessageOutput, new CountDownLatch(0));
+
+        final CountDownLatch streamOutputsDoneSignal = new CountDownLatch(streamOutputBatches.size());
+        for (final Map.Entry<MessageOutput, List<Message>> entry : streamOutputBatches.entrySet()) {
+            processMessages(entry.getValue(), entry.getKey(), streamOutputsDoneSignal);
+        }
+
+        if (!streamOutputsDoneSignal.await(configuration.getOutputModuleTimeout(), TimeUnit.MILLISECONDS)) {
+            LOG.warn("Timeout reached. Not waiting any longer for stream output writer threads to complete.");
+        }
+
+        // Block until the default output has finished to exert back pressure, just like for single messages.
+        if (defaultOutputCompletion != null) {
+            Uninterruptibles.getUninterruptibly(defaultOutputCompletion);
+        } else {
+            LOG.error("The default output future was null, this is a bug!");
+        }
+
+        for (final Message msg : messages) {
+            if (msg.hasRecordings()) {
+                LOG.debug("Message event trace: {}", msg.recordingsAsString());
+            }
+        }
+
+        outputThroughput.inc(messages.size());
+
+        LOG.debug("Wrote batch of {} messages to all outputs. Finished handling.", messages.size());
+    }
+
     private Future<?> processMessage(final Message msg, final MessageOutput defaultMessageOutput) {
         return processMessage(msg, defaultMessageOutput, new CountDownLatch(0));
     }
 
     private Future<?> processMessage(final Message msg, final MessageOutput output, final CountDownLatch doneSignal) {
+        if (LOG.isTraceEnabled() && output != null) {
+            LOG.trace("Message id for [{}]: <{}>", output.getClass(), msg.getId());
+        }
+        return submitWrite(output, doneSignal, () -> {
+            try (Timer.Context ignored = processTime.time()) {
+                output.write(msg);
+            }
+        });
+    }
+
+    private Future<?> processMessages(final List<Message> messages, final MessageOutput output, final CountDownLatch doneSignal) {
+        if (LOG.isTraceEnabled() && output != null) {
+            LOG.trace("Writing {} messages to [{}]", messages.size(), output.getClass());
+        }
+        return submitWrite(output, doneSignal, () -> {
+            // Keep processTime per message, the time of the whole batch write is distributed evenly across its messages
+            final Timer.Context timerContext = batchProcessTime.time();
+            try {
+                output.write(messages);
+            } finally {
+                final long elapsedNanosPerMessage = timerContext.stop() / messages.size();
+                for (int i = 0; i < messages.size(); i++) {
+                    processTime.update(elapsedNanosPerMessage, TimeUnit.NANOSECONDS);
+                }
+            }
+        });
+    }
+
+    private Future<?> submitWrite(final MessageOutput output, final CountDownLatch doneSignal, final OutputWrite write) {
         if (output == null) {
             LOG.error("Output was null!");
             doneSignal.countDown();
@@ -212,21 +320,26 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         Future<?> future = null;
         try {
             LOG.debug("Writing message to [{}].", output.getClass());
-            if (LOG.isTraceEnabled()) {
-                LOG.trace("Message id for [{}]: <{}>", output.getClass(), msg.getId());
-            }
-            future = executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    try (Timer.Context ignored = processTime.time()) {
-                        output.write(msg);
-                    } catch (Exception e) {
-                        LOG.error("Error in output [" + output.getClass() + "].", e);
-                    } finally {
-                        doneSignal.countDown();
-                    }
+            final FutureTask<?> task = new FutureTask<>(() -> {
+                try {
+                    write.run();
+                } catch (Exception e) {
+                    LOG.error("Error in output [" + output.getClass() + "].", e);
+                } finally {
+                    doneSignal.countDown();
                 }
-            });
+            }, null);
+            final Optional<BlockingCallExecutor.Bounded> isolatedExecutor = isolatedExecutorFor(output);
+            if (isolatedExecutor.isPresent()) {
+                isolatedExecutor.get().executeWaiting(task);
+            } else {
+                executor.execute(task);
+            }
+            future = task;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting to write to output [{}].", output.getClass());
+            doneSignal.countDown();
         } catch (Exception e) {
             LOG.error("Could not write message batch to output [" + output.getClass() + "].", e);
             doneSignal.countDown();
@@ -234,6 +347,17 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         return future;
     }
 
+    private Optional<BlockingCallExecutor.Bounded> isolatedExecutorFor(MessageOutput output) {
+        if (!isolateStreamOutputs || output == defaultMessageOutput) {
+            return Optional.empty();
+        }
+        return outputRouter.getExecutorForStreamOutput(output, streamOutputConcurrency, streamOutputQueueSize);
+    }
+
+    private interface OutputWrite {
+        void run() throws Exception;
+    }
+
     public interface Factory {
         OutputBufferProcessor create(@Assisted int ordinal);
     }
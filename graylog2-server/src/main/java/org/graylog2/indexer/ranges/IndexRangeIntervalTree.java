@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Immutable interval tree over a snapshot of {@link IndexRange index ranges}.
+ * <p>
+ * The ranges are kept in an array sorted by their begin timestamp which is treated as an implicit balanced binary
+ * search tree. Every node stores the maximum end timestamp of its subtree, so overlap queries can prune whole
+ * subtrees and run in O(log n + k).
+ * <p>
+ * Ranges which haven't been calculated yet (begin &lt;= 0 &lt;= end) are returned for every query, like the
+ * MongoDB query in {@link MongoIndexRangeService#find(org.joda.time.DateTime, org.joda.time.DateTime)} does.
+ */
+class IndexRangeIntervalTree {
+    private final IndexRange[] ranges;
+    private final long[] begins;
+    private final long[] ends;
+    private final long[] maxEnds;
+    private final List<IndexRange> unknownRanges;
+
+    private IndexRangeIntervalTree(IndexRange[] ranges, List<IndexRange> unknownRanges) {
+        this.ranges = ranges;
+        this.begins = new long[ranges.length];
+        this.ends = new long[ranges.length];
+        this.maxEnds = new long[ranges.length];
+        this.unknownRanges = unknownRanges;
+
+        for (int i = 0; i < ranges.length; i++) {
+            begins[i] = ranges[i].begin().getMillis();
+            ends[i] = ranges[i].end().getMillis();
+        }
+        computeMaxEnds(0, ranges.length);
+    }
+
+    static IndexRangeIntervalTree create(Collection<? extends IndexRange> indexRanges) {
+        final List<IndexRange> knownRanges = new ArrayList<>(indexRanges.size());
+        final ImmutableList.Builder<IndexRange> unknownRanges = ImmutableList.builder();
+        for (IndexRange indexRange : indexRanges) {
+            if (isUnknown(indexRange)) {
+                unknownRanges.add(indexRange);
+            } else {
+                knownRanges.add(indexRange);
+            }
+        }
+
+        final IndexRange[] sorted = knownRanges.toArray(new IndexRange[0]);
+        Arrays.sort(sorted, Comparator.comparingLong((IndexRange range) -> range.begin().getMillis()));
+        return new IndexRangeIntervalTree(sorted, unknownRanges.build());
+    }
+
+    private static boolean isUnknown(IndexRange indexRange) {
+        return indexRange.begin().getMillis() <= 0L && indexRange.end().getMillis() >= 0L;
+    }
+
+    /**
+     * Returns all index ranges overlapping the closed interval {@code [begin, end]} (in epoch milliseconds) plus all
+     * ranges which haven't been calculated yet.
+     */
+    SortedSet<IndexRange> find(long begin, long end) {
+        final ImmutableSortedSet.Builder<IndexRange> result = ImmutableSortedSet.orderedBy(IndexRange.COMPARATOR);
+        result.addAll(unknownRanges);
+        collect(0, ranges.length, begin, end, result);
+        return result.build();
+    }
+
+    int size() {
+        return ranges.length + unknownRanges.size();
+    }
+
+    private long computeMaxEnds(int from, int to) {
+        if (from >= to) {
+            return Long.MIN_VALUE;
+        }
+        final int mid = (from + to) >>> 1;
+        final long maxEnd = Math.max(ends[mid], Math.max(computeMaxEnds(from, mid), computeMaxEnds(mid + 1, to)));
+        maxEnds[mid] = maxEnd;
+        return maxEnd;
+    }
+
+    private void collect(int from, int to, long begin, long end, ImmutableSortedSet.Builder<IndexRange> result) {
+        if (from >= to) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        // Nothing in this subtree ends after the start of the query interval.
+        if (maxEnds[mid] < begin) {
+            return;
+        }
+
+        collect(from, mid, begin, end, result);
+
+        // Everything right of this node begins after the end of the query interval.
+        if (begins[mid] > end) {
+            return;
+        }
+        if (ends[mid] >= begin) {
+            result.add(ranges[mid]);
+        }
+        collect(mid + 1, to, begin, end, result);
+    }
+}
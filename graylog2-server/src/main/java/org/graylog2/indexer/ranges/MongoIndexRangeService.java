@@ -34,11 +34,13 @@ import org.graylog2.audit.AuditEventSender;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoConnection;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.events.ClusterEventBus;
 import org.graylog2.indexer.IndexSetRegistry;
 import org.graylog2.indexer.indices.Indices;
 import org.graylog2.indexer.indices.events.IndicesClosedEvent;
 import org.graylog2.indexer.indices.events.IndicesDeletedEvent;
 import org.graylog2.indexer.indices.events.IndicesReopenedEvent;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
 import org.graylog2.indexer.searches.IndexRangeStats;
 import org.graylog2.plugin.system.NodeId;
 import org.joda.time.DateTime;
@@ -54,6 +56,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_CREATE;
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_DELETE;
@@ -63,12 +66,17 @@ import static org.graylog2.indexer.indices.Indices.checkIfHealthy;
 public class MongoIndexRangeService implements IndexRangeService {
     private static final Logger LOG = LoggerFactory.getLogger(MongoIndexRangeService.class);
     private static final String COLLECTION_NAME = "index_ranges";
+    // Upper bound for serving index ranges from memory in case a cluster event got lost.
+    private static final long CACHED_RANGES_MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(1);
 
     private final Indices indices;
     private final IndexSetRegistry indexSetRegistry;
     private final AuditEventSender auditEventSender;
     private final NodeId nodeId;
+    private final ClusterEventBus clusterEventBus;
     private final JacksonDBCollection<MongoIndexRange, ObjectId> collection;
+    private final AtomicLong rangesVersion = new AtomicLong();
+    private volatile CachedRanges cachedRanges;
 
     @Inject
     public MongoIndexRangeService(MongoConnection mongoConnection,
@@ -77,11 +85,13 @@ public class MongoIndexRangeService implements IndexRangeService {
                                   IndexSetRegistry indexSetRegistry,
                                   AuditEventSender auditEventSender,
                                   NodeId nodeId,
-                                  EventBus eventBus) {
+                                  EventBus eventBus,
+                                  ClusterEventBus clusterEventBus) {
         this.indices = indices;
         this.indexSetRegistry = indexSetRegistry;
         this.auditEventSender = auditEventSender;
         this.nodeId = nodeId;
+        this.clusterEventBus = clusterEventBus;
         this.collection = JacksonDBCollection.wrap(
                 mongoConnection.getDatabase().getCollection(COLLECTION_NAME),
                 MongoIndexRange.class,
@@ -112,22 +122,34 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public SortedSet<IndexRange> find(DateTime begin, DateTime end) {
-        final DBQuery.Query query = DBQuery.or(
-                DBQuery.and(
-                        DBQuery.notExists("start"),  // "start" has been used by the old index ranges in MongoDB
-                        DBQuery.lessThanEquals(IndexRange.FIELD_BEGIN, end.getMillis()),
-                        DBQuery.greaterThanEquals(IndexRange.FIELD_END, begin.getMillis())
-                ),
-                DBQuery.and(
-                        DBQuery.notExists("start"),  // "start" has been used by the old index ranges in MongoDB
-                        DBQuery.lessThanEquals(IndexRange.FIELD_BEGIN, 0L),
-                        DBQuery.greaterThanEquals(IndexRange.FIELD_END, 0L)
-                )
-        );
-
-        try (DBCursor<MongoIndexRange> indexRanges = collection.find(query)) {
-            return ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, (Iterator<? extends IndexRange>) indexRanges);
+        return currentRanges().find(begin.getMillis(), end.getMillis());
+    }
+
+    /**
+     * Returns the in-memory snapshot of all index ranges, loading it from MongoDB if it has been invalidated or
+     * became too old.
+     */
+    private IndexRangeIntervalTree currentRanges() {
+        final long version = rangesVersion.get();
+        final CachedRanges cached = cachedRanges;
+        if (cached != null && cached.version == version && System.nanoTime() - cached.loadedAt < CACHED_RANGES_MAX_AGE_NANOS) {
+            return cached.tree;
         }
+
+        // A concurrent invalidation bumps the version, so a snapshot loaded before it will never be served.
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(findAll());
+        cachedRanges = new CachedRanges(version, System.nanoTime(), tree);
+        LOG.debug("Loaded {} index ranges into memory.", tree.size());
+        return tree;
+    }
+
+    private void invalidateRanges() {
+        rangesVersion.incrementAndGet();
+    }
+
+    private void rangesUpdated(String... indices) {
+        invalidateRanges();
+        clusterEventBus.post(IndexRangesUpdatedEvent.create(indices));
     }
 
     @Override
@@ -167,25 +189,45 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public WriteResult<MongoIndexRange, ObjectId> save(IndexRange indexRange) {
-        remove(indexRange.indexName());
+        removeRange(indexRange.indexName());
         final WriteResult<MongoIndexRange, ObjectId> save = collection.save(MongoIndexRange.create(indexRange));
+        rangesUpdated(indexRange.indexName());
         return save;
     }
 
     @Override
     public boolean renameIndex(String from, String to) {
-        return collection.updateMulti(
+        final boolean renamed = collection.updateMulti(
                         DBQuery.is(IndexRange.FIELD_INDEX_NAME, from),
                         DBUpdate.set(IndexRange.FIELD_INDEX_NAME, to))
                 .getN() > 0;
+        if (renamed) {
+            rangesUpdated(from, to);
+        }
+        return renamed;
     }
 
     @Override
     public boolean remove(String index) {
+        final boolean removed = removeRange(index);
+        if (removed) {
+            rangesUpdated(index);
+        }
+        return removed;
+    }
+
+    private boolean removeRange(String index) {
         final WriteResult<MongoIndexRange, ObjectId> remove = collection.remove(DBQuery.in(IndexRange.FIELD_INDEX_NAME, index));
         return remove.getN() > 0;
     }
 
+    @Subscribe
+    @AllowConcurrentEvents
+    public void handleIndexRangesUpdated(IndexRangesUpdatedEvent event) {
+        LOG.debug("Index ranges of {} have been updated. Invalidating in-memory index ranges.", event.indices());
+        invalidateRanges();
+    }
+
     @Subscribe
     @AllowConcurrentEvents
     public void handleIndexDeletion(IndicesDeletedEvent event) {
@@ -238,4 +280,16 @@ public class MongoIndexRangeService implements IndexRangeService {
             save(indexRange);
         }
     }
+
+    private static class CachedRanges {
+        private final long version;
+        private final long loadedAt;
+        private final IndexRangeIntervalTree tree;
+
+        private CachedRanges(long version, long loadedAt, IndexRangeIntervalTree tree) {
+            this.version = version;
+            this.loadedAt = loadedAt;
+            this.tree = tree;
+        }
+    }
 }
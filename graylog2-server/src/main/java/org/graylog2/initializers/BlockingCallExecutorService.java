@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.initializers;
+
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.graylog2.lookup.LookupTableService;
+import org.graylog2.utilities.BlockingCallExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Stops the threads of the {@link BlockingCallExecutor} once all of its users are done. Stream outputs write messages
+ * until the {@link BufferSynchronizerService} has emptied the buffers, data adapters run lookups until the
+ * {@link LookupTableService} has stopped.
+ */
+@Singleton
+public class BlockingCallExecutorService extends AbstractIdleService {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockingCallExecutorService.class);
+
+    private final BlockingCallExecutor blockingCallExecutor;
+    private final AtomicInteger runningUsers;
+
+    @Inject
+    public BlockingCallExecutorService(final BlockingCallExecutor blockingCallExecutor,
+                                       final BufferSynchronizerService bufferSynchronizerService,
+                                       final LookupTableService lookupTableService,
+                                       final MetricRegistry metricRegistry) {
+        this.blockingCallExecutor = blockingCallExecutor;
+        this.runningUsers = new AtomicInteger(2);
+
+        final InstrumentedExecutorService executorService = new InstrumentedExecutorService(
+                Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("blocking-call-executor-service-%d").build()),
+                metricRegistry,
+                name(this.getClass(), "executor-service"));
+        final Listener listener = new Listener() {
+            @Override
+            public void terminated(State from) {
+                userStopped();
+            }
+
+            @Override
+            public void failed(State from, Throwable failure) {
+                userStopped();
+            }
+        };
+        bufferSynchronizerService.addListener(listener, executorService);
+        lookupTableService.addListener(listener, executorService);
+    }
+
+    private void userStopped() {
+        if (runningUsers.decrementAndGet() > 0) {
+            return;
+        }
+        LOG.debug("Stopping blocking call executor");
+        try {
+            blockingCallExecutor.shutdown(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        // The executor is ready to use once it has been created.
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        // The executor is stopped when its users have stopped. See constructor.
+    }
+}
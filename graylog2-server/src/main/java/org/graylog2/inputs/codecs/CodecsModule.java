@@ -36,6 +36,9 @@ public class CodecsModule extends Graylog2Module {
         // Aggregators must be singletons because codecs are instantiated in DecodingProcessor per message!
         bind(GelfChunkAggregator.class).in(Scopes.SINGLETON);
 
+        // Stops the DNS client of the "Force rDNS" option on shutdown
+        serviceBinder().addBinding().to(ReverseDnsResolver.class).in(Scopes.SINGLETON);
+
         installCodec(mapBinder, RawCodec.class);
         installCodec(mapBinder, SyslogCodec.class);
         installCodec(mapBinder, RandomHttpMessageCodec.class);
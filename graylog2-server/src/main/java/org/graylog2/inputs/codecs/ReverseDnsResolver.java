@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.AbstractIdleService;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.graylog2.lookup.adapters.dnslookup.ADnsAnswer;
+import org.graylog2.lookup.adapters.dnslookup.DnsClient;
+import org.graylog2.lookup.adapters.dnslookup.PtrDnsAnswer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Resolves the host names of message senders for the "Force rDNS" option of syslog inputs.
+ * <p>
+ * The PTR lookups are sent with the asynchronous {@link DnsClient} and their results are cached for the TTL of the PTR
+ * record. IP addresses without host name and failed lookups are cached as well, so an unreachable DNS server doesn't
+ * get queried for every message. Concurrent lookups of the same IP address share a single DNS query.
+ * <p>
+ * With forward confirmation, a host name is only used if one of its A or AAAA records points back to the IP address,
+ * which is what {@link InetAddress#getCanonicalHostName()} did for the previous synchronous lookups. Host names that
+ * fail the confirmation are cached like IP addresses without host name.
+ * <p>
+ * The calling thread waits for at most the configured timeout and falls back to the IP address afterwards. The lookup
+ * keeps running in the background and its result is cached for the next message from the same sender. The number
+ * of concurrent lookups is limited, when the limit is reached the IP address is used without a lookup.
+ * <p>
+ * The DNS client is only started once the first sender has to be resolved, and stopped when the service shuts down.
+ */
+@Singleton
+public class ReverseDnsResolver extends AbstractIdleService {
+    private static final Logger LOG = LoggerFactory.getLogger(ReverseDnsResolver.class);
+
+    // Lookups may take longer than message processing waits for them, their results are still cached.
+    private static final long DNS_QUERY_TIMEOUT_MILLIS = 5000;
+
+    @FunctionalInterface
+    interface PtrLookup {
+        CompletableFuture<PtrDnsAnswer> lookup(String ipAddress);
+
+        default CompletableFuture<List<String>> forwardLookup(String hostName, boolean ipv6) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException("Forward lookups are not supported"));
+        }
+
+        default void stop() {
+        }
+    }
+
+    private final Supplier<PtrLookup> ptrLookupFactory;
+    // Created on first use
+    private volatile PtrLookup ptrLookup;
+    private volatile boolean stopped = false;
+    private final long timeoutNanos;
+    private final int maxInFlight;
+    private final long maxTtlNanos;
+    private final long negativeTtlNanos;
+    private final boolean forwardConfirmation;
+
+    private final Cache<String, ResolvedName> cache;
+    private final ConcurrentMap<String, CompletableFuture<ResolvedName>> inFlight = new ConcurrentHashMap<>();
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter timeouts;
+    private final Meter skipped;
+    private final Meter failures;
+    private final Meter unconfirmed;
+    private final Timer lookupTime;
+
+    @Inject
+    public ReverseDnsResolver(@Named("reverse_dns_servers") String dnsServers,
+                              @Named("reverse_dns_timeout") Duration timeout,
+                              @Named("reverse_dns_max_in_flight") int maxInFlight,
+                              @Named("reverse_dns_cache_size") int cacheSize,
+                              @Named("reverse_dns_cache_max_ttl") Duration maxTtl,
+                              @Named("reverse_dns_negative_cache_ttl") Duration negativeTtl,
+                              @Named("reverse_dns_forward_confirmation") boolean forwardConfirmation,
+                              MetricRegistry metricRegistry) {
+        this(() -> {
+                    final DnsClient dnsClient = new DnsClient(DNS_QUERY_TIMEOUT_MILLIS);
+                    dnsClient.start(dnsServers);
+                    return new PtrLookup() {
+                        @Override
+                        public CompletableFuture<PtrDnsAnswer> lookup(String ipAddress) {
+                            return dnsClient.reverseLookupAsync(ipAddress);
+                        }
+
+                        @Override
+                        public CompletableFuture<List<String>> forwardLookup(String hostName, boolean ipv6) {
+                            return dnsClient.resolveIpAddressesForHostnameAsync(hostName, ipv6)
+                                    .thenApply(answers -> answers.stream().map(ADnsAnswer::ipAddress).toList());
+                        }
+
+                        @Override
+                        public void stop() {
+                            dnsClient.stop();
+                        }
+                    };
+                },
+                timeout.toMilliseconds(), maxInFlight, cacheSize, maxTtl.toMilliseconds(), negativeTtl.toMilliseconds(),
+                forwardConfirmation, metricRegistry, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    ReverseDnsResolver(Supplier<PtrLookup> ptrLookupFactory,
+                       long timeoutMillis,
+                       int maxInFlight,
+                       int cacheSize,
+                       long maxTtlMillis,
+                       long negativeTtlMillis,
+                       boolean forwardConfirmation,
+                       MetricRegistry metricRegistry,
+                       Ticker ticker) {
+        this.ptrLookupFactory = ptrLookupFactory;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxInFlight = maxInFlight;
+        this.maxTtlNanos = TimeUnit.MILLISECONDS.toNanos(maxTtlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.forwardConfirmation = forwardConfirmation;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(new ResolvedNameExpiry())
+                .ticker(ticker)
+                .build();
+
+        this.hits = metricRegistry.meter(name(ReverseDnsResolver.class, "hits"));
+        this.misses = metricRegistry.meter(name(ReverseDnsResolver.class, "misses"));
+        this.timeouts = metricRegistry.meter(name(ReverseDnsResolver.class, "timeouts"));
+        this.skipped = metricRegistry.meter(name(ReverseDnsResolver.class, "skipped"));
+        this.failures = metricRegistry.meter(name(ReverseDnsResolver.class, "failures"));
+        this.unconfirmed = metricRegistry.meter(name(ReverseDnsResolver.class, "unconfirmed"));
+        this.lookupTime = metricRegistry.timer(name(ReverseDnsResolver.class, "lookupTime"));
+        metricRegistry.register(name(ReverseDnsResolver.class, "hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getOneMinuteRate(), hits.getOneMinuteRate() + misses.getOneMinuteRate());
+            }
+        });
+        metricRegistry.register(name(ReverseDnsResolver.class, "cacheSize"), (Gauge<Long>) cache::estimatedSize);
+        metricRegistry.register(name(ReverseDnsResolver.class, "inFlight"), (Gauge<Integer>) inFlight::size);
+    }
+
+    /**
+     * Returns the host name of the given address, or its textual IP address if it has no host name or couldn't be
+     * resolved in time.
+     */
+    public String resolve(InetAddress address) {
+        final String ipAddress = InetAddresses.toAddrString(address);
+        final ResolvedName cached = cache.getIfPresent(ipAddress);
+        if (cached != null) {
+            hits.mark();
+            return cached.hostNameOr(ipAddress);
+        }
+        misses.mark();
+
+        final CompletableFuture<ResolvedName> lookup = lookup(ipAddress);
+        if (lookup == null) {
+            skipped.mark();
+            return ipAddress;
+        }
+        try {
+            return lookup.get(timeoutNanos, TimeUnit.NANOSECONDS).hostNameOr(ipAddress);
+        } catch (TimeoutException e) {
+            timeouts.mark();
+            LOG.debug("Reverse DNS lookup of <{}> didn't complete in time, using IP address.", ipAddress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Lookups complete normally, failures are cached as addresses without host name
+            LOG.debug("Reverse DNS lookup of <{}> failed.", ipAddress, e);
+        }
+        return ipAddress;
+    }
+
+    @Nullable
+    private CompletableFuture<ResolvedName> lookup(String ipAddress) {
+        final CompletableFuture<ResolvedName> running = inFlight.get(ipAddress);
+        if (running != null) {
+            return running;
+        }
+        if (inFlight.size() >= maxInFlight) {
+            return null;
+        }
+        final CompletableFuture<ResolvedName> future = new CompletableFuture<>();
+        final CompletableFuture<ResolvedName> concurrent = inFlight.putIfAbsent(ipAddress, future);
+        if (concurrent != null) {
+            return concurrent;
+        }
+
+        final Timer.Context timerContext = lookupTime.time();
+        CompletableFuture<PtrDnsAnswer> answer;
+        try {
+            answer = ptrLookup().lookup(ipAddress);
+        } catch (Exception e) {
+            answer = CompletableFuture.failedFuture(e);
+        }
+        answer.thenCompose(ptrAnswer -> toResolvedName(ipAddress, ptrAnswer)).whenComplete((result, throwable) -> {
+            timerContext.stop();
+            final ResolvedName resolvedName;
+            if (throwable != null) {
+                failures.mark();
+                LOG.debug("Reverse DNS lookup of <{}> failed.", ipAddress, throwable);
+                resolvedName = new ResolvedName(null, negativeTtlNanos);
+            } else {
+                resolvedName = result;
+            }
+            // Cache the result before removing the lookup, so there is no window in which the address gets queried again
+            cache.put(ipAddress, resolvedName);
+            inFlight.remove(ipAddress, future);
+            future.complete(resolvedName);
+        });
+        return future;
+    }
+
+    private CompletableFuture<ResolvedName> toResolvedName(String ipAddress, @Nullable PtrDnsAnswer ptrAnswer) {
+        if (ptrAnswer == null || isNullOrEmpty(ptrAnswer.fullDomain())) {
+            return CompletableFuture.completedFuture(new ResolvedName(null, negativeTtlNanos));
+        }
+        final String hostName = stripTrailingDot(ptrAnswer.fullDomain());
+        final ResolvedName resolvedName = new ResolvedName(hostName,
+                Math.min(TimeUnit.SECONDS.toNanos(ptrAnswer.dnsTTL()), maxTtlNanos));
+        if (!forwardConfirmation) {
+            return CompletableFuture.completedFuture(resolvedName);
+        }
+
+        final boolean ipv6 = InetAddresses.forString(ipAddress) instanceof Inet6Address;
+        return ptrLookup().forwardLookup(hostName, ipv6).thenApply(addresses -> {
+            if (addresses.stream().anyMatch(address -> isSameAddress(ipAddress, address))) {
+                return resolvedName;
+            }
+            unconfirmed.mark();
+            LOG.debug("Host name <{}> of <{}> doesn't resolve back to the IP address, using IP address.", hostName, ipAddress);
+            return new ResolvedName(null, negativeTtlNanos);
+        });
+    }
+
+    private static boolean isSameAddress(String ipAddress, String address) {
+        return InetAddresses.isInetAddress(address)
+                && ipAddress.equals(InetAddresses.toAddrString(InetAddresses.forString(address)));
+    }
+
+    private PtrLookup ptrLookup() {
+        PtrLookup lookup = ptrLookup;
+        if (lookup == null) {
+            synchronized (this) {
+                if (stopped) {
+                    throw new IllegalStateException("Reverse DNS resolver has been stopped");
+                }
+                lookup = ptrLookup;
+                if (lookup == null) {
+                    lookup = ptrLookupFactory.get();
+                    ptrLookup = lookup;
+                }
+            }
+        }
+        return lookup;
+    }
+
+    @Override
+    protected void startUp() {
+        // The DNS client is started lazily
+    }
+
+    @Override
+    protected synchronized void shutDown() {
+        stopped = true;
+        if (ptrLookup != null) {
+            ptrLookup.stop();
+        }
+    }
+
+    private static String stripTrailingDot(String hostName) {
+        return hostName.endsWith(".") ? hostName.substring(0, hostName.length() - 1) : hostName;
+    }
+
+    private record ResolvedName(@Nullable String hostName, long ttlNanos) {
+        String hostNameOr(String ipAddress) {
+            return hostName == null ? ipAddress : hostName;
+        }
+    }
+
+    private static class ResolvedNameExpiry implements Expiry<String, ResolvedName> {
+        @Override
+        public long expireAfterCreate(@NonNull String key, @NonNull ResolvedName value, long currentTime) {
+            return value.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(@NonNull String key, @NonNull ResolvedName value, long currentTime, long currentDuration) {
+            return value.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterRead(@NonNull String key, @NonNull ResolvedName value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
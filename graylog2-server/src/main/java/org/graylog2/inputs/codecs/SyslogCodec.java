@@ -54,7 +54,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -80,13 +79,16 @@ public class SyslogCodec extends AbstractCodec {
     private final Timer resolveTime;
     private final Timer decodeTime;
     private final MessageFactory messageFactory;
+    private final ReverseDnsResolver reverseDnsResolver;
 
     @AssistedInject
-    public SyslogCodec(@Assisted Configuration configuration, MetricRegistry metricRegistry, MessageFactory messageFactory) {
+    public SyslogCodec(@Assisted Configuration configuration, MetricRegistry metricRegistry, MessageFactory messageFactory,
+                       ReverseDnsResolver reverseDnsResolver) {
         super(configuration);
         this.resolveTime = metricRegistry.timer(name(SyslogCodec.class, "resolveTime"));
         this.decodeTime = metricRegistry.timer(name(SyslogCodec.class, "decodeTime"));
         this.messageFactory = messageFactory;
+        this.reverseDnsResolver = reverseDnsResolver;
     }
 
     @Nullable
@@ -204,9 +206,7 @@ public class SyslogCodec extends AbstractCodec {
     private String parseHost(SyslogServerEventIF msg, InetAddress remoteAddress) {
         if (remoteAddress != null && configuration.getBoolean(CK_FORCE_RDNS)) {
             try (Timer.Context ignored = this.resolveTime.time()) {
-                return Tools.rdnsLookup(remoteAddress);
-            } catch (UnknownHostException e) {
-                LOG.warn("Reverse DNS lookup failed. Falling back to parsed hostname.", e);
+                return reverseDnsResolver.resolve(remoteAddress);
             }
         }
 
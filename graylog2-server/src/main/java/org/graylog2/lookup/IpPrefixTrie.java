@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable radix (Patricia) trie over IPv4 and IPv6 network prefixes which answers longest-prefix matches for
+ * single addresses.
+ * <p>
+ * A lookup visits at most one node per prefix length, so it takes at most 32 steps for IPv4 and 128 steps for
+ * IPv6 addresses, independent of the number of prefixes. IPv4 and IPv6 prefixes are kept apart, an IPv4 address
+ * never matches an IPv6 prefix and vice versa.
+ * <p>
+ * Instances are created with a {@link Builder} and are safe to share between threads.
+ *
+ * @param <V> the type of the values associated with the prefixes
+ */
+public class IpPrefixTrie<V> {
+    private static final IpPrefixTrie<?> EMPTY = new IpPrefixTrie<>(Table.EMPTY, Table.EMPTY);
+
+    private final Table ipv4;
+    private final Table ipv6;
+
+    private IpPrefixTrie(Table ipv4, Table ipv6) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> IpPrefixTrie<V> empty() {
+        return (IpPrefixTrie<V>) EMPTY;
+    }
+
+    public static <V> Builder<V> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Returns the value of the longest prefix which contains the given address.
+     *
+     * @param address the address to look up
+     * @return the value of the most specific matching prefix or {@code null} if no prefix contains the address
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V longestPrefixMatch(InetAddress address) {
+        final byte[] bytes = requireNonNull(address, "address").getAddress();
+        if (bytes.length == 4) {
+            return (V) ipv4.longestPrefixMatch(((long) Ints.fromByteArray(bytes)) << 32, 0L);
+        }
+        return (V) ipv6.longestPrefixMatch(Longs.fromByteArray(bytes), Longs.fromBytes(bytes[8], bytes[9],
+                bytes[10], bytes[11], bytes[12], bytes[13], bytes[14], bytes[15]));
+    }
+
+    /**
+     * Returns the number of distinct prefixes in this trie.
+     *
+     * @return the number of prefixes
+     */
+    public int size() {
+        return ipv4.size + ipv6.size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public static class Builder<V> {
+        private final MutableNode ipv4Root = new MutableNode();
+        private final MutableNode ipv6Root = new MutableNode();
+        private int ipv4Size = 0;
+        private int ipv6Size = 0;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a network prefix. Host bits of the address beyond the prefix length are ignored.
+         * If the same prefix is added more than once, the value which has been added first is kept.
+         *
+         * @param address      an address of the network
+         * @param prefixLength the length of the network prefix, 0 to 32 for IPv4 and 0 to 128 for IPv6 addresses
+         * @param value        the value to return for addresses in the network
+         * @return this builder
+         * @throws IllegalArgumentException if the prefix length is out of range for the address family
+         */
+        public Builder<V> put(InetAddress address, int prefixLength, V value) {
+            requireNonNull(address, "address");
+            requireNonNull(value, "value");
+            final byte[] bytes = address.getAddress();
+            final int width = bytes.length * 8;
+            if (prefixLength < 0 || prefixLength > width) {
+                throw new IllegalArgumentException("Invalid prefix length " + prefixLength + " for address " + address.getHostAddress());
+            }
+
+            MutableNode node = bytes.length == 4 ? ipv4Root : ipv6Root;
+            for (int i = 0; i < prefixLength; i++) {
+                final int bit = (bytes[i >>> 3] >>> (7 - (i & 7))) & 1;
+                if (node.children[bit] == null) {
+                    node.children[bit] = new MutableNode();
+                }
+                node = node.children[bit];
+            }
+            if (node.value == null) {
+                node.value = value;
+                if (bytes.length == 4) {
+                    ipv4Size++;
+                } else {
+                    ipv6Size++;
+                }
+            }
+            return this;
+        }
+
+        public IpPrefixTrie<V> build() {
+            if (ipv4Size == 0 && ipv6Size == 0) {
+                return empty();
+            }
+            return new IpPrefixTrie<>(Table.compile(ipv4Root, ipv4Size, 32), Table.compile(ipv6Root, ipv6Size, 128));
+        }
+    }
+
+    private static class MutableNode {
+        private final MutableNode[] children = new MutableNode[2];
+        private Object value;
+    }
+
+    /**
+     * Path compressed trie stored in parallel arrays. Prefixes are left aligned in two longs, IPv4 prefixes only
+     * use the upper 32 bits of {@code prefixHigh}.
+     */
+    private static class Table {
+        private static final int NONE = -1;
+        private static final Table EMPTY = new Table(0, 0, new long[0], new long[0], new int[0], new int[0], new int[0], new Object[0]);
+
+        private final int size;
+        private final int width;
+        private final long[] prefixHigh;
+        private final long[] prefixLow;
+        private final int[] prefixLength;
+        private final int[] zero;
+        private final int[] one;
+        private final Object[] values;
+
+        private Table(int size, int width, long[] prefixHigh, long[] prefixLow, int[] prefixLength, int[] zero, int[] one, Object[] values) {
+            this.size = size;
+            this.width = width;
+            this.prefixHigh = prefixHigh;
+            this.prefixLow = prefixLow;
+            this.prefixLength = prefixLength;
+            this.zero = zero;
+            this.one = one;
+            this.values = values;
+        }
+
+        static Table compile(MutableNode root, int size, int width) {
+            if (size == 0) {
+                return EMPTY;
+            }
+            final Compiler compiler = new Compiler();
+            compiler.add(root, 0L, 0L, 0);
+            final int nodes = compiler.values.size();
+            return new Table(size, width,
+                    Arrays.copyOf(compiler.prefixHigh, nodes),
+                    Arrays.copyOf(compiler.prefixLow, nodes),
+                    Arrays.copyOf(compiler.prefixLength, nodes),
+                    Arrays.copyOf(compiler.zero, nodes),
+                    Arrays.copyOf(compiler.one, nodes),
+                    compiler.values.toArray());
+        }
+
+        @Nullable
+        Object longestPrefixMatch(long high, long low) {
+            Object result = null;
+            int node = values.length == 0 ? NONE : 0;
+            while (node != NONE) {
+                final int length = prefixLength[node];
+                if (!matches(high, low, prefixHigh[node], prefixLow[node], length)) {
+                    break;
+                }
+                if (values[node] != null) {
+                    result = values[node];
+                }
+                if (length == width) {
+                    break;
+                }
+                node = bit(high, low, length) == 0 ? zero[node] : one[node];
+            }
+            return result;
+        }
+
+        private static boolean matches(long high, long low, long prefixHigh, long prefixLow, int length) {
+            if (length == 0) {
+                return true;
+            }
+            if (length <= 64) {
+                return ((high ^ prefixHigh) & (-1L << (64 - length))) == 0;
+            }
+            return high == prefixHigh && ((low ^ prefixLow) & (-1L << (128 - length))) == 0;
+        }
+
+        private static int bit(long high, long low, int position) {
+            return (int) (position < 64 ? high >>> (63 - position) : low >>> (127 - position)) & 1;
+        }
+    }
+
+    private static class Compiler {
+        private long[] prefixHigh = new long[16];
+        private long[] prefixLow = new long[16];
+        private int[] prefixLength = new int[16];
+        private int[] zero = new int[16];
+        private int[] one = new int[16];
+        private final List<Object> values = new ArrayList<>();
+
+        // Only nodes with a value or with two children are kept, chains of nodes in between are collapsed into
+        // the prefix of the next kept node.
+        int add(MutableNode start, long high, long low, int depth) {
+            MutableNode node = start;
+            while (node.value == null && (node.children[0] == null) != (node.children[1] == null)) {
+                final int bit = node.children[0] != null ? 0 : 1;
+                if (bit == 1) {
+                    if (depth < 64) {
+                        high |= 1L << (63 - depth);
+                    } else {
+                        low |= 1L << (127 - depth);
+                    }
+                }
+                node = node.children[bit];
+                depth++;
+            }
+
+            final int index = values.size();
+            values.add(node.value);
+            ensureCapacity(index + 1);
+            prefixHigh[index] = high;
+            prefixLow[index] = low;
+            prefixLength[index] = depth;
+            // The recursive calls may grow the arrays, so only store the child indices once they return.
+            final int zeroChild = node.children[0] == null ? Table.NONE : add(node.children[0], high, low, depth + 1);
+            final int oneChild;
+            if (node.children[1] == null) {
+                oneChild = Table.NONE;
+            } else if (depth < 64) {
+                oneChild = add(node.children[1], high | 1L << (63 - depth), low, depth + 1);
+            } else {
+                oneChild = add(node.children[1], high, low | 1L << (127 - depth), depth + 1);
+            }
+            zero[index] = zeroChild;
+            one[index] = oneChild;
+            return index;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > prefixHigh.length) {
+                final int newLength = Math.max(capacity, prefixHigh.length * 2);
+                prefixHigh = Arrays.copyOf(prefixHigh, newLength);
+                prefixLow = Arrays.copyOf(prefixLow, newLength);
+                prefixLength = Arrays.copyOf(prefixLength, newLength);
+                zero = Arrays.copyOf(zero, newLength);
+                one = Arrays.copyOf(one, newLength);
+            }
+        }
+    }
+}
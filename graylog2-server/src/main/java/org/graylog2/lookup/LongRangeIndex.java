@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Immutable index of closed {@code long} ranges which finds the range containing a key with a binary search.
+ * <p>
+ * The ranges are merged into sorted, non-overlapping segments when the index is built. If ranges overlap, the
+ * range which has been added first wins for the overlapping part. IPv4 address ranges can be indexed by using
+ * the unsigned numeric value of the addresses as keys.
+ * <p>
+ * Instances are created with a {@link Builder} and are safe to share between threads.
+ *
+ * @param <V> the type of the values associated with the ranges
+ */
+public class LongRangeIndex<V> {
+    private static final LongRangeIndex<?> EMPTY = new LongRangeIndex<>(new long[0], new long[0], new Object[0]);
+
+    private final long[] starts;
+    private final long[] ends;
+    private final Object[] values;
+
+    private LongRangeIndex(long[] starts, long[] ends, Object[] values) {
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> LongRangeIndex<V> empty() {
+        return (LongRangeIndex<V>) EMPTY;
+    }
+
+    public static <V> Builder<V> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Returns the value of the range containing the given key.
+     *
+     * @param key the key to look up
+     * @return the value of the matching range or {@code null} if no range contains the key
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = Arrays.binarySearch(starts, key);
+        if (index < 0) {
+            // The segment starting right before the key is the only one which can contain it.
+            index = -index - 2;
+            if (index < 0) {
+                return null;
+            }
+        }
+        return key <= ends[index] ? (V) values[index] : null;
+    }
+
+    /**
+     * Returns the number of non-overlapping segments in this index.
+     *
+     * @return the number of segments
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    public static class Builder<V> {
+        private final List<Range<V>> ranges = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds the closed range from {@code start} to {@code end}. Parts of the range which are already covered by
+         * previously added ranges are ignored.
+         *
+         * @param start the first key of the range
+         * @param end   the last key of the range, inclusive
+         * @param value the value to return for keys in the range
+         * @return this builder
+         * @throws IllegalArgumentException if {@code end} is smaller than {@code start}
+         */
+        public Builder<V> add(long start, long end, V value) {
+            if (end < start) {
+                throw new IllegalArgumentException("Invalid range [" + start + ", " + end + "]");
+            }
+            ranges.add(new Range<>(start, end, Objects.requireNonNull(value, "value")));
+            return this;
+        }
+
+        public LongRangeIndex<V> build() {
+            if (ranges.isEmpty()) {
+                return empty();
+            }
+
+            // Only the gaps between already covered segments are filled, so earlier ranges take precedence.
+            final TreeMap<Long, Range<V>> segments = new TreeMap<>();
+            for (Range<V> range : ranges) {
+                long cursor = range.start();
+                final Map.Entry<Long, Range<V>> floor = segments.floorEntry(cursor);
+                if (floor != null && floor.getValue().end() >= cursor) {
+                    if (floor.getValue().end() >= range.end()) {
+                        continue;
+                    }
+                    cursor = floor.getValue().end() + 1;
+                }
+                final List<Range<V>> covered = new ArrayList<>(segments.subMap(cursor, true, range.end(), true).values());
+                boolean filled = false;
+                for (Range<V> segment : covered) {
+                    if (cursor < segment.start()) {
+                        segments.put(cursor, new Range<>(cursor, segment.start() - 1, range.value()));
+                    }
+                    if (segment.end() >= range.end()) {
+                        filled = true;
+                        break;
+                    }
+                    cursor = segment.end() + 1;
+                }
+                if (!filled) {
+                    segments.put(cursor, new Range<>(cursor, range.end(), range.value()));
+                }
+            }
+
+            final long[] starts = new long[segments.size()];
+            final long[] ends = new long[segments.size()];
+            final Object[] values = new Object[segments.size()];
+            int count = 0;
+            for (Range<V> segment : segments.values()) {
+                // Merge adjacent segments with the same value.
+                if (count > 0 && ends[count - 1] + 1 == segment.start() && Objects.equals(values[count - 1], segment.value())) {
+                    ends[count - 1] = segment.end();
+                    continue;
+                }
+                starts[count] = segment.start();
+                ends[count] = segment.end();
+                values[count] = segment.value();
+                count++;
+            }
+            return new LongRangeIndex<>(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), Arrays.copyOf(values, count));
+        }
+    }
+
+    private record Range<V>(long start, long end, V value) {
+    }
+}
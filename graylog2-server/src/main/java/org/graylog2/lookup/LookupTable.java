@@ -86,6 +86,13 @@ public abstract class LookupTable {
         return result;
     }
 
+    /**
+     * Checks whether the cache already holds a result for the given key, including empty results, without loading it.
+     */
+    public boolean isCached(@Nonnull Object key) {
+        return cache().getIfPresent(LookupCacheKey.create(dataAdapter(), key)) != null;
+    }
+
     public LookupResult setValue(@Nonnull Object key, @Nonnull Object value) {
         final LookupResult result = dataAdapter().setValue(key, value);
         cache().purge(LookupCacheKey.create(dataAdapter(), key));
@@ -16,6 +16,7 @@
  */
 package org.graylog2.lookup;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
@@ -34,9 +35,11 @@ import org.graylog2.lookup.events.DataAdaptersUpdated;
 import org.graylog2.lookup.events.LookupTablesDeleted;
 import org.graylog2.lookup.events.LookupTablesUpdated;
 import org.graylog2.plugin.lookup.LookupCache;
+import org.graylog2.plugin.lookup.LookupCacheKey;
 import org.graylog2.plugin.lookup.LookupDataAdapter;
 import org.graylog2.plugin.lookup.LookupResult;
 import org.graylog2.system.SystemEntity;
+import org.graylog2.utilities.BlockingCallExecutor;
 import org.graylog2.utilities.LoggingServiceListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,15 +53,18 @@ import jakarta.inject.Singleton;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -78,6 +84,8 @@ import static org.graylog2.utilities.ObjectUtils.objectId;
 @Singleton
 public class LookupTableService extends AbstractIdleService {
     private static final Logger LOG = LoggerFactory.getLogger(LookupTableService.class);
+    // Keys which wait for a data adapter, more keys fail right away instead of piling up behind a slow data adapter
+    private static final int ASYNC_LOOKUP_QUEUE_SIZE = 10_000;
 
     private final LookupTableConfigService configService;
     private final Map<String, LookupCache.Factory> cacheFactories;
@@ -87,6 +95,8 @@ public class LookupTableService extends AbstractIdleService {
     private final ScheduledExecutorService scheduler;
     private final EventBus eventBus;
     private final LookupDataAdapterRefreshService adapterRefreshService;
+    private final BlockingCallExecutor blockingCallExecutor;
+    private final int asyncLookupConcurrency;
 
     private final ConcurrentMap<String, LookupTable> liveTables = new ConcurrentHashMap<>();
 
@@ -96,6 +106,9 @@ public class LookupTableService extends AbstractIdleService {
     private final ConcurrentMap<String, LookupCache> idToCache = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, LookupCache> liveCaches = new ConcurrentHashMap<>();
 
+    // Asynchronous lookups which are currently being resolved, concurrent requests for the same key share the future
+    private final ConcurrentMap<AsyncLookupKey, CompletableFuture<LookupResult>> inFlightLookups = new ConcurrentHashMap<>();
+
     @Inject
     public LookupTableService(LookupTableConfigService configService,
                               Map<String, LookupCache.Factory> cacheFactories,
@@ -103,6 +116,8 @@ public class LookupTableService extends AbstractIdleService {
                               Map<String, LookupDataAdapter.Factory2> adapterFactories2,
                               @SystemEntity Map<String, LookupDataAdapter.Factory2> systemAdapterFactories,
                               @Named("daemonScheduler") ScheduledExecutorService scheduler,
+                              BlockingCallExecutor blockingCallExecutor,
+                              @Named("lookup_table_async_concurrency") int asyncLookupConcurrency,
                               EventBus eventBus) {
         this.configService = configService;
         this.cacheFactories = cacheFactories;
@@ -112,6 +127,8 @@ public class LookupTableService extends AbstractIdleService {
         this.scheduler = scheduler;
         this.eventBus = eventBus;
         this.adapterRefreshService = new LookupDataAdapterRefreshService(scheduler, liveTables);
+        this.blockingCallExecutor = blockingCallExecutor;
+        this.asyncLookupConcurrency = asyncLookupConcurrency;
     }
 
     protected LookupTableConfigService getConfigService() {
@@ -302,6 +319,7 @@ public class LookupTableService extends AbstractIdleService {
                 .filter(Objects::nonNull)
                 .forEach(dataAdapter -> {
                     liveAdapters.remove(dataAdapter.name());
+                    blockingCallExecutor.remove(asyncLookupExecutorName(dataAdapter));
                     dataAdapter.stopAsync();
                 }), 0, TimeUnit.SECONDS);
     }
@@ -558,6 +576,44 @@ public class LookupTableService extends AbstractIdleService {
         return lookupTable;
     }
 
+    /**
+     * Resolves the given key in the background. Keys which are already cached are resolved right away, and concurrent
+     * requests for a key which is currently being loaded share the same data adapter call. The number of concurrent
+     * data adapter calls is limited per data adapter, so a slow data adapter doesn't delay the lookups of other tables.
+     */
+    CompletableFuture<LookupResult> lookupAsync(LookupTable lookupTable, Object key) {
+        if (lookupTable.isCached(key)) {
+            return CompletableFuture.completedFuture(lookupTable.lookup(key));
+        }
+
+        final AsyncLookupKey lookupKey = new AsyncLookupKey(lookupTable.name(), LookupCacheKey.create(lookupTable.dataAdapter(), key));
+        final CompletableFuture<LookupResult> future = new CompletableFuture<>();
+        final CompletableFuture<LookupResult> inFlight = inFlightLookups.putIfAbsent(lookupKey, future);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        try {
+            blockingCallExecutor.bounded(asyncLookupExecutorName(lookupTable.dataAdapter()), asyncLookupConcurrency, ASYNC_LOOKUP_QUEUE_SIZE).execute(() -> {
+                try {
+                    future.complete(lookupTable.lookup(key));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlightLookups.remove(lookupKey, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlightLookups.remove(lookupKey, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static String asyncLookupExecutorName(LookupDataAdapter dataAdapter) {
+        return MetricRegistry.name(LookupTableService.class, "async-lookups", dataAdapter.name());
+    }
+
     public boolean hasTable(String name) {
         // Do a quick check in the live tables first
         if (liveTables.containsKey(name)) {
@@ -594,6 +650,9 @@ public class LookupTableService extends AbstractIdleService {
     }
 
 
+    private record AsyncLookupKey(String tableName, LookupCacheKey cacheKey) {
+    }
+
     public static class Builder {
         private final LookupTableService lookupTableService;
 
@@ -632,8 +691,45 @@ public class LookupTableService extends AbstractIdleService {
                 return LookupResult.withError();
             }
 
-            final LookupResult result = lookupTable.lookup(key);
+            return normalize(lookupTable.lookup(key));
+        }
+
+        /**
+         * Looks up all given keys without blocking the calling thread. Keys which are not cached yet are loaded by the
+         * lookup table service's thread pool, so one slow data adapter call doesn't delay the other keys.
+         *
+         * @param keys the keys to look up, {@code null} keys are ignored
+         * @return the pending lookup result for each key, futures never complete exceptionally
+         */
+        public Map<Object, CompletableFuture<LookupResult>> getAll(@Nonnull Collection<Object> keys) {
+            final LookupTable lookupTable = lookupTableService.getTable(lookupTableName);
+            final Map<Object, CompletableFuture<LookupResult>> results = new LinkedHashMap<>(keys.size());
+            for (final Object key : keys) {
+                if (key == null || results.containsKey(key)) {
+                    continue;
+                }
+                if (lookupTable == null) {
+                    results.put(key, CompletableFuture.completedFuture(LookupResult.withError()));
+                    continue;
+                }
+                results.put(key, lookupTableService.lookupAsync(lookupTable, key)
+                        .handle((result, throwable) -> {
+                            if (throwable instanceof RejectedExecutionException) {
+                                // Reported by the metrics of the executor, the data adapter is already busy
+                                LOG.debug("Couldn't look up key <{}> in lookup table <{}>: {}", key, lookupTableName, throwable.getMessage());
+                                return LookupResult.withError(throwable.getMessage());
+                            }
+                            if (throwable != null) {
+                                LOG.warn("Couldn't look up key <{}> in lookup table <{}>", key, lookupTableName, throwable);
+                                return LookupResult.withError(getRootCauseMessage(throwable));
+                            }
+                            return normalize(result);
+                        }));
+            }
+            return results;
+        }
 
+        private static LookupResult normalize(@Nullable LookupResult result) {
             if (result == null) {
                 return LookupResult.empty();
             }
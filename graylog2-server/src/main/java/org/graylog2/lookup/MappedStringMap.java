@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Immutable map of strings which is stored in a memory-mapped file instead of the Java heap.
+ * <p>
+ * The file contains the UTF-8 encoded entries followed by an open addressing hash table with linear probing. Each
+ * hash table slot stores the file offset of an entry together with a few bits of its hash, so most probes don't need
+ * to look at the entry itself. Keys are compared with the encoded entries in place, a lookup only allocates the
+ * returned value.
+ * <p>
+ * Instances are created with a {@link Builder}, which streams the entries to the file, and are safe to share between
+ * threads. {@link #close()} deletes the file, the mapping itself stays readable until the instance is garbage
+ * collected, so concurrent readers of a replaced map are not affected.
+ */
+public class MappedStringMap implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedStringMap.class);
+
+    private static final int MAGIC = 0x474c534d;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    // key length + 1 (padding is zero), value length, hash
+    private static final int ENTRY_HEADER_SIZE = 16;
+    // Entries never span two mapped segments, so every entry can be read from a single buffer.
+    private static final int DEFAULT_SEGMENT_SHIFT = 30;
+    private static final int HASH_TAG_SHIFT = 40;
+    private static final long OFFSET_MASK = (1L << HASH_TAG_SHIFT) - 1;
+
+    private final Path file;
+    private final MappedByteBuffer[] segments;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final long size;
+    private final long slotMask;
+    private final long slotsOffset;
+
+    private MappedStringMap(Path file, MappedByteBuffer[] segments, int segmentShift, long size, long slotCount, long slotsOffset) {
+        this.file = file;
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        this.size = size;
+        this.slotMask = slotCount - 1;
+        this.slotsOffset = slotsOffset;
+    }
+
+    /**
+     * Creates a builder which writes the map to the given file. An existing file is replaced.
+     */
+    public static Builder builder(Path file) throws IOException {
+        return new Builder(file, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    @VisibleForTesting
+    static Builder builder(Path file, int segmentShift) throws IOException {
+        return new Builder(file, segmentShift);
+    }
+
+    /**
+     * Maps a file which has been written by a {@link Builder}.
+     */
+    public static MappedStringMap open(Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Truncated header in " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unsupported file format: " + file);
+            }
+            final int segmentShift = header.getInt();
+            header.getInt();
+            final long size = header.getLong();
+            final long slotCount = header.getLong();
+            final long slotsOffset = header.getLong();
+
+            final MappedByteBuffer[] segments = map(channel, slotsOffset + slotCount * Long.BYTES, segmentShift, FileChannel.MapMode.READ_ONLY);
+            return new MappedStringMap(file, segments, segmentShift, size, slotCount, slotsOffset);
+        }
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, long length, int segmentShift, FileChannel.MapMode mode) throws IOException {
+        final long segmentSize = 1L << segmentShift;
+        final MappedByteBuffer[] segments = new MappedByteBuffer[Math.toIntExact((length + segmentSize - 1) >>> segmentShift)];
+        for (int i = 0; i < segments.length; i++) {
+            final long start = (long) i << segmentShift;
+            segments[i] = channel.map(mode, start, Math.min(segmentSize, length - start));
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the value for the given key.
+     *
+     * @param key the key to look up
+     * @return the value or {@code null} if the map doesn't contain the key
+     */
+    @Nullable
+    public String get(String key) {
+        final long hash = hash(key);
+        final long tag = hash >>> HASH_TAG_SHIFT;
+        for (long slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            final long entry = getLong(slotsOffset + slot * Long.BYTES);
+            if (entry == 0) {
+                return null;
+            }
+            if ((entry >>> HASH_TAG_SHIFT) != tag) {
+                continue;
+            }
+            final long offset = (entry & OFFSET_MASK) - 1;
+            final ByteBuffer segment = segments[(int) (offset >>> segmentShift)];
+            final int position = (int) (offset & segmentMask);
+            final int keyLength = segment.getInt(position) - 1;
+            if (segment.getLong(position + 8) == hash && keyEquals(segment, position + ENTRY_HEADER_SIZE, keyLength, key)) {
+                final byte[] value = new byte[segment.getInt(position + 4)];
+                segment.get(position + ENTRY_HEADER_SIZE + keyLength, value);
+                return new String(value, UTF_8);
+            }
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Deletes the backing file. Lookups keep working until the instance is garbage collected.
+     */
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete lookup data file {}", file, e);
+        }
+    }
+
+    private long getLong(long offset) {
+        return segments[(int) (offset >>> segmentShift)].getLong((int) (offset & segmentMask));
+    }
+
+    // Compares the key with its UTF-8 encoding without encoding it into a new array. Unpaired surrogates are encoded
+    // as '?' just like String#getBytes does.
+    private static boolean keyEquals(ByteBuffer buffer, int position, int length, String key) {
+        final int end = position + length;
+        int p = position;
+        for (int i = 0; i < key.length(); i++) {
+            int c = key.charAt(i);
+            if (Character.isSurrogate((char) c)) {
+                if (Character.isHighSurrogate((char) c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+                    c = Character.toCodePoint((char) c, key.charAt(++i));
+                } else {
+                    c = '?';
+                }
+            }
+            if (c < 0x80) {
+                if (p >= end || buffer.get(p++) != (byte) c) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if (p + 2 > end
+                        || buffer.get(p++) != (byte) (0xc0 | (c >> 6))
+                        || buffer.get(p++) != (byte) (0x80 | (c & 0x3f))) {
+                    return false;
+                }
+            } else if (c < 0x10000) {
+                if (p + 3 > end
+                        || buffer.get(p++) != (byte) (0xe0 | (c >> 12))
+                        || buffer.get(p++) != (byte) (0x80 | ((c >> 6) & 0x3f))
+                        || buffer.get(p++) != (byte) (0x80 | (c & 0x3f))) {
+                    return false;
+                }
+            } else if (p + 4 > end
+                    || buffer.get(p++) != (byte) (0xf0 | (c >> 18))
+                    || buffer.get(p++) != (byte) (0x80 | ((c >> 12) & 0x3f))
+                    || buffer.get(p++) != (byte) (0x80 | ((c >> 6) & 0x3f))
+                    || buffer.get(p++) != (byte) (0x80 | (c & 0x3f))) {
+                return false;
+            }
+        }
+        return p == end;
+    }
+
+    // Computed over the UTF-16 code units, so lookups don't have to encode the key.
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L ^ key.length();
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Writes the entries of a {@link MappedStringMap} to a file. The entries are streamed to the file as they are
+     * added, the hash table is built in the mapped file when {@link #build()} is called. Keys must be unique.
+     */
+    public static class Builder implements Closeable {
+        private final Path file;
+        private final int segmentShift;
+        private final long segmentSize;
+        private final DataOutputStream out;
+        private long position = HEADER_SIZE;
+        private long size = 0;
+        private boolean built = false;
+
+        private Builder(Path file, int segmentShift) throws IOException {
+            if ((1L << segmentShift) < HEADER_SIZE) {
+                throw new IllegalArgumentException("Segment size is smaller than the header");
+            }
+            this.file = file;
+            this.segmentShift = segmentShift;
+            this.segmentSize = 1L << segmentShift;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        public Builder put(String key, String value) throws IOException {
+            final byte[] keyBytes = key.getBytes(UTF_8);
+            final byte[] valueBytes = value.getBytes(UTF_8);
+            final long length = (long) ENTRY_HEADER_SIZE + keyBytes.length + valueBytes.length;
+            if (length > segmentSize) {
+                throw new IllegalArgumentException("Entry for key <" + key + "> is too large");
+            }
+            final long remaining = segmentSize - (position & (segmentSize - 1));
+            if (length > remaining) {
+                out.write(new byte[(int) remaining]);
+                position += remaining;
+            }
+            if (position >= OFFSET_MASK) {
+                throw new IllegalStateException("Too much data for file " + file);
+            }
+
+            out.writeInt(keyBytes.length + 1);
+            out.writeInt(valueBytes.length);
+            out.writeLong(hash(key));
+            out.write(keyBytes);
+            out.write(valueBytes);
+            position += length;
+            size++;
+            return this;
+        }
+
+        public MappedStringMap build() throws IOException {
+            out.close();
+            built = true;
+            try {
+                buildHashTable();
+                return open(file);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+
+        /**
+         * Discards the written entries if the map hasn't been built.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!built) {
+                out.close();
+                Files.deleteIfExists(file);
+            }
+        }
+
+        private void buildHashTable() throws IOException {
+            // A load factor of at most 2/3 keeps the probe sequences short.
+            final long slotCount = Long.highestOneBit(Math.max(2, size + size / 2)) << 1;
+            // The segment size is a multiple of 8, so aligned slots never span two segments.
+            final long slotsOffset = (position + 7) & ~7L;
+
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putInt(segmentShift)
+                        .putInt(0)
+                        .putLong(size)
+                        .putLong(slotCount)
+                        .putLong(slotsOffset)
+                        .flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+
+                // Mapping the region grows the file, the slots are initially zero (empty).
+                final MappedByteBuffer[] segments = map(channel, slotsOffset + slotCount * Long.BYTES, segmentShift, FileChannel.MapMode.READ_WRITE);
+                final MappedStringMap map = new MappedStringMap(file, segments, segmentShift, size, slotCount, slotsOffset);
+
+                long offset = HEADER_SIZE;
+                while (offset < position) {
+                    final ByteBuffer segment = segments[(int) (offset >>> segmentShift)];
+                    final int entryPosition = (int) (offset & (segmentSize - 1));
+                    final long remaining = segmentSize - entryPosition;
+                    if (remaining < ENTRY_HEADER_SIZE || segment.getInt(entryPosition) == 0) {
+                        // Padding up to the next segment
+                        offset += remaining;
+                        continue;
+                    }
+                    final int keyLength = segment.getInt(entryPosition) - 1;
+                    final int valueLength = segment.getInt(entryPosition + 4);
+                    map.insert(offset, segment.getLong(entryPosition + 8), segment, entryPosition + ENTRY_HEADER_SIZE, keyLength);
+                    offset += ENTRY_HEADER_SIZE + keyLength + valueLength;
+                }
+            }
+        }
+    }
+
+    private void insert(long offset, long hash, ByteBuffer keySegment, int keyPosition, int keyLength) {
+        final long tag = hash >>> HASH_TAG_SHIFT;
+        for (long slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            final long slotOffset = slotsOffset + slot * Long.BYTES;
+            final long entry = getLong(slotOffset);
+            if (entry == 0) {
+                segments[(int) (slotOffset >>> segmentShift)].putLong((int) (slotOffset & segmentMask), (tag << HASH_TAG_SHIFT) | (offset + 1));
+                return;
+            }
+            if ((entry >>> HASH_TAG_SHIFT) == tag) {
+                final long otherOffset = (entry & OFFSET_MASK) - 1;
+                final ByteBuffer otherSegment = segments[(int) (otherOffset >>> segmentShift)];
+                final int otherPosition = (int) (otherOffset & segmentMask);
+                if (otherSegment.getLong(otherPosition + 8) == hash
+                        && otherSegment.getInt(otherPosition) - 1 == keyLength
+                        && otherSegment.slice(otherPosition + ENTRY_HEADER_SIZE, keyLength).equals(keySegment.slice(keyPosition, keyLength))) {
+                    final byte[] key = new byte[keyLength];
+                    keySegment.get(keyPosition, key);
+                    throw new IllegalArgumentException("Multiple entries with same key: " + new String(key, UTF_8));
+                }
+            }
+        }
+    }
+}
@@ -34,6 +34,8 @@ import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog.autovalue.WithBeanGetter;
 import org.graylog2.lookup.AllowedAuxiliaryPathChecker;
+import org.graylog2.lookup.IpPrefixTrie;
+import org.graylog2.lookup.MappedStringMap;
 import org.graylog2.plugin.lookup.LookupCachePurge;
 import org.graylog2.plugin.lookup.LookupDataAdapter;
 import org.graylog2.plugin.lookup.LookupDataAdapterConfiguration;
@@ -45,7 +47,10 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
 import jakarta.inject.Inject;
+import jakarta.inject.Named;
 
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
@@ -58,6 +63,7 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -86,8 +92,9 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
 
     private final Config config;
     private final AllowedAuxiliaryPathChecker pathChecker;
-    private final AtomicReference<Map<String, String>> lookupRef = new AtomicReference<>(ImmutableMap.of());
+    private final AtomicReference<LookupData> lookupRef = new AtomicReference<>(LookupData.EMPTY);
     private final String name;
+    private final Path storageDir;
 
     private FileInfo fileInfo = FileInfo.empty();
 
@@ -96,11 +103,13 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
                               @Assisted("name") String name,
                               @Assisted LookupDataAdapterConfiguration config,
                               MetricRegistry metricRegistry,
-                              AllowedAuxiliaryPathChecker pathChecker) {
+                              AllowedAuxiliaryPathChecker pathChecker,
+                              @Named("data_dir") Path dataDir) {
         super(id, name, config, metricRegistry);
         this.name = name;
         this.config = (Config) config;
         this.pathChecker = pathChecker;
+        this.storageDir = dataDir.resolve("lookup-tables");
     }
 
     @Override
@@ -116,9 +125,11 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             throw new IllegalStateException("Check interval setting cannot be smaller than 1");
         }
 
+        deleteStaleStorageFiles();
+
         // Set file info before parsing the data for the first time
         fileInfo = getNewFileInfo();
-        lookupRef.set(parseCSVFile());
+        replaceLookupData(loadLookupData());
     }
 
     @Override
@@ -152,7 +163,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             }
 
             LOG.debug("CSV file {} has changed, updating data", config.path());
-            lookupRef.set(parseCSVFile());
+            replaceLookupData(loadLookupData());
             cachePurge.purgeAll();
             // If the file has been moved, then moved back, the fileInfo might have been disconnected.
             // In this case, create a new fileInfo.
@@ -164,10 +175,56 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
         }
     }
 
-    private Map<String, String> parseCSVFile() throws IOException {
+    private LookupData loadLookupData() throws IOException {
+        if (config.isOffHeapStorage() && !config.isCidrLookup()) {
+            return loadMappedLookupData();
+        }
+        final ImmutableMap.Builder<String, String> newLookupBuilder = ImmutableMap.builder();
+        parseCSVFile(newLookupBuilder::put);
+        return buildLookupData(newLookupBuilder.build());
+    }
+
+    // Streams the entries into a memory-mapped file, so neither the parsed entries nor the lookup data are kept on heap.
+    private LookupData loadMappedLookupData() throws IOException {
+        Files.createDirectories(storageDir);
+        final Path file = storageDir.resolve(f("%s-%s-%d.map", NAME, id(), System.nanoTime()));
+        try (final MappedStringMap.Builder builder = MappedStringMap.builder(file)) {
+            parseCSVFile(builder::put);
+            final MappedStringMap entries = builder.build();
+            LOG.debug("Stored {} entries of CSV file {} in {}", entries.size(), config.path(), file);
+            return new LookupData(ImmutableMap.of(), IpPrefixTrie.empty(), entries);
+        } catch (IllegalArgumentException e) {
+            // Duplicate keys are only detected when the hash table is built
+            LOG.error("Couldn't store entries of CSV file {}", config.path(), e);
+            setError(e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void replaceLookupData(LookupData lookupData) {
+        final LookupData previous = lookupRef.getAndSet(lookupData);
+        if (previous.mappedEntries() != null) {
+            // Lookups which still use the previous data keep working, the mapping is released on garbage collection.
+            previous.mappedEntries().close();
+        }
+    }
+
+    private void deleteStaleStorageFiles() {
+        if (!Files.isDirectory(storageDir)) {
+            return;
+        }
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(storageDir, f("%s-%s-*.map", NAME, id()))) {
+            for (final Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete stale lookup data files of data adapter <{}> in {}", name, storageDir, e);
+        }
+    }
+
+    private void parseCSVFile(EntryConsumer entryConsumer) throws IOException {
         final InputStream inputStream = Files.newInputStream(Paths.get(config.path()));
         final InputStreamReader fileReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-        final ImmutableMap.Builder<String, String> newLookupBuilder = ImmutableMap.builder();
 
         try (final CSVReader csvReader = new CSVReader(fileReader, config.separatorAsChar(), config.quotecharAsChar())) {
             int line = 0;
@@ -218,19 +275,19 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
 
                     if (!config.isCidrLookup()) {
                         if (config.isCaseInsensitiveLookup()) {
-                            newLookupBuilder.put(key.toLowerCase(Locale.ENGLISH), value);
+                            entryConsumer.accept(key.toLowerCase(Locale.ENGLISH), value);
                         } else {
-                            newLookupBuilder.put(key, value);
+                            entryConsumer.accept(key, value);
                         }
                     } else {
                         Optional<IpSubnet> optSubnet = ReservedIpChecker.stringToSubnet(key);
                         if (optSubnet.isPresent()) {
-                            newLookupBuilder.put(key, value);
+                            entryConsumer.accept(key, value);
                         } else {
                             // If key in a CIDR lookup adapter is not already a valid CIDR range, check if it is an IP
                             String cidr = ipAddressToCIDR(key);
                             if (cidr != null) {
-                                newLookupBuilder.put(cidr, value);
+                                entryConsumer.accept(cidr, value);
                             }
                         }
                     }
@@ -242,8 +299,30 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             setError(e);
             throw new IllegalStateException(e);
         }
+    }
+
+    private LookupData buildLookupData(Map<String, String> entries) {
+        if (!config.isCidrLookup()) {
+            return new LookupData(entries, IpPrefixTrie.empty(), null);
+        }
 
-        return newLookupBuilder.build();
+        // Ranges are added in file order, so the first of several equal ranges wins like before.
+        final IpPrefixTrie.Builder<String> cidrTrie = IpPrefixTrie.builder();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            final Optional<IpSubnet> optSubnet = ReservedIpChecker.stringToSubnet(entry.getKey());
+            if (optSubnet.isEmpty()) {
+                LOG.debug("CIDR range '{}' in data adapter '{}' is not a valid subnet, skipping this key in lookup.", entry, name);
+                continue;
+            }
+            final IpSubnet subnet = optSubnet.get();
+            try {
+                cidrTrie.put(InetAddresses.forString(subnet.getNetworkAddress()), subnet.getPrefixLength(), entry.getValue());
+            } catch (IllegalArgumentException e) {
+                LOG.debug("CIDR range '{}' in data adapter '{}' is not a valid subnet, skipping this key in lookup.", entry, name);
+            }
+        }
+        // The plain entries are not needed for CIDR lookups.
+        return new LookupData(ImmutableMap.of(), cidrTrie.build(), null);
     }
 
     private String ipAddressToCIDR(String ip) {
@@ -268,6 +347,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
     @Override
     public void doStop() throws Exception {
         LOG.debug("Stopping CSV data adapter for file: {}", config.path());
+        replaceLookupData(LookupData.EMPTY);
     }
 
     @Override
@@ -276,7 +356,10 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             return getResultForCIDRRange(key);
         }
         final String stringKey = config.isCaseInsensitiveLookup() ? String.valueOf(key).toLowerCase(Locale.ENGLISH) : String.valueOf(key);
-        final String value = lookupRef.get().get(stringKey);
+        final LookupData lookupData = lookupRef.get();
+        final String value = lookupData.mappedEntries() != null
+                ? lookupData.mappedEntries().get(stringKey)
+                : lookupData.entries().get(stringKey);
 
         if (value == null) {
             return getEmptyResult();
@@ -286,30 +369,17 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
     }
 
     public LookupResult getResultForCIDRRange(Object ip) {
-        LookupResult result = getEmptyResult();
+        final InetAddress address;
         try {
             // Convert directly to InetAddress to avoid long timeouts using name service lookups
-            InetAddress address = InetAddresses.forString(String.valueOf(ip));
-            int longestMatch = 0;
-            for (Map.Entry<String, String> entry : lookupRef.get().entrySet()) {
-                String range = entry.getKey();
-                Optional<IpSubnet> optSubnet = ReservedIpChecker.stringToSubnet(range);
-                if (optSubnet.isEmpty()) {
-                    LOG.debug("CIDR range '{}' in data adapter '{}' is not a valid subnet, skipping this key in lookup.", entry, name);
-                } else {
-                    IpSubnet subnet = optSubnet.get();
-                    if (subnet.contains(address) && (result.isEmpty() || longestMatch < subnet.getPrefixLength())) {
-                        longestMatch = subnet.getPrefixLength();
-                        result = LookupResult.single(entry.getValue());
-                    }
-                }
-            }
+            address = InetAddresses.forString(String.valueOf(ip));
         } catch (IllegalArgumentException e) {
             LOG.debug("Attempted to do a CIDR range lookup on invalid IP '{}'", ip);
             return getErrorResult();
         }
 
-        return result;
+        final String value = lookupRef.get().cidrTrie().longestPrefixMatch(address);
+        return value == null ? getEmptyResult() : LookupResult.single(value);
     }
 
     @Override
@@ -317,6 +387,16 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
 
     }
 
+    private record LookupData(Map<String, String> entries, IpPrefixTrie<String> cidrTrie,
+                              @Nullable MappedStringMap mappedEntries) {
+        private static final LookupData EMPTY = new LookupData(ImmutableMap.of(), IpPrefixTrie.empty(), null);
+    }
+
+    @FunctionalInterface
+    private interface EntryConsumer {
+        void accept(String key, String value) throws IOException;
+    }
+
     public interface Factory extends LookupDataAdapter.Factory<CSVFileDataAdapter> {
         @Override
         CSVFileDataAdapter create(@Assisted("id") String id,
@@ -344,6 +424,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
                     .checkInterval(60)
                     .caseInsensitiveLookup(false)
                     .cidrLookup(false)
+                    .offHeapStorage(false)
                     .build();
         }
     }
@@ -406,6 +487,9 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
         @JsonProperty("cidr_lookup")
         public abstract Optional<Boolean> cidrLookup();
 
+        @JsonProperty("off_heap_storage")
+        public abstract Optional<Boolean> offHeapStorage();
+
         public boolean isCaseInsensitiveLookup() {
             return caseInsensitiveLookup().isPresent() && caseInsensitiveLookup().get();
         }
@@ -414,6 +498,10 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             return cidrLookup().isPresent() && cidrLookup().get();
         }
 
+        public boolean isOffHeapStorage() {
+            return offHeapStorage().isPresent() && offHeapStorage().get();
+        }
+
         public static Builder builder() {
             return new AutoValue_CSVFileDataAdapter_Config.Builder();
         }
@@ -474,6 +562,9 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             @JsonProperty("cidr_lookup")
             public abstract Builder cidrLookup(Boolean cidrLookup);
 
+            @JsonProperty("off_heap_storage")
+            public abstract Builder offHeapStorage(Boolean offHeapStorage);
+
             public abstract Config build();
         }
     }
@@ -24,6 +24,7 @@ import com.google.common.net.HostAndPort;
 import com.google.common.net.InetAddresses;
 import com.google.common.net.InternetDomainName;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
 import io.netty.handler.codec.dns.DefaultDnsPtrRecord;
 import io.netty.handler.codec.dns.DefaultDnsQuestion;
 import io.netty.handler.codec.dns.DefaultDnsRawRecord;
@@ -33,6 +34,7 @@ import io.netty.handler.codec.dns.DnsRecordType;
 import io.netty.handler.codec.dns.DnsResponse;
 import io.netty.handler.codec.dns.DnsSection;
 import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.util.concurrent.FutureListener;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog2.lookup.adapters.dnslookup.DnsResolverPool.ResolverLease;
 import org.graylog2.shared.utilities.ExceptionUtils;
@@ -42,11 +44,13 @@ import org.slf4j.LoggerFactory;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -172,6 +176,50 @@ public class DnsClient {
         }
     }
 
+    /**
+     * Resolves the IPv4 or IPv6 addresses of the given host name like {@link #resolveIPv4AddressForHostname(String, boolean)}
+     * and {@link #resolveIPv6AddressForHostname(String, boolean)}, but doesn't wait for the response.
+     */
+    public CompletableFuture<List<ADnsAnswer>> resolveIpAddressesForHostnameAsync(String hostName, boolean ipv6) {
+        final DnsRecordType dnsRecordType = ipv6 ? DnsRecordType.AAAA : DnsRecordType.A;
+        LOG.debug("Attempting to asynchronously resolve [{}] records for [{}]", dnsRecordType, hostName);
+
+        if (resolverPool.isStopped()) {
+            return CompletableFuture.failedFuture(new DnsClientNotRunningException());
+        }
+        try {
+            validateHostName(hostName);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        final CompletableFuture<List<ADnsAnswer>> answer = new CompletableFuture<>();
+        final ResolverLease resolverLease = resolverPool.takeLease();
+        try {
+            resolverLease.getResolver().resolveAll(new DefaultDnsQuestion(hostName, dnsRecordType))
+                    .addListener((FutureListener<List<DnsRecord>>) future -> {
+                        try {
+                            if (future.isSuccess()) {
+                                answer.complete(future.getNow().stream()
+                                        .map(dnsRecord -> decodeDnsRecord(dnsRecord, false))
+                                        .filter(Objects::nonNull)
+                                        .collect(Collectors.toList()));
+                            } else {
+                                answer.completeExceptionally(future.cause());
+                            }
+                        } catch (Exception e) {
+                            answer.completeExceptionally(e);
+                        } finally {
+                            resolverPool.returnLease(resolverLease);
+                        }
+                    });
+        } catch (Exception e) {
+            resolverPool.returnLease(resolverLease);
+            answer.completeExceptionally(e);
+        }
+        return answer;
+    }
+
     /**
      * Picks out the IP address and TTL from the answer response for each record.
      */
@@ -239,32 +287,7 @@ public class DnsClient {
         final ResolverLease resolverLease = resolverPool.takeLease();
         try {
             content = resolverLease.getResolver().query(new DefaultDnsQuestion(inverseAddressFormat, DnsRecordType.PTR)).get(requestTimeout, TimeUnit.MILLISECONDS).content();
-            for (int i = 0; i < content.count(DnsSection.ANSWER); i++) {
-
-                // Return the first PTR record, because there should be only one as per
-                // http://tools.ietf.org/html/rfc1035#section-3.5
-                final DnsRecord dnsRecord = content.recordAt(DnsSection.ANSWER, i);
-                if (dnsRecord instanceof DefaultDnsPtrRecord) {
-
-                    final DefaultDnsPtrRecord ptrRecord = (DefaultDnsPtrRecord) dnsRecord;
-                    final PtrDnsAnswer.Builder dnsAnswerBuilder = PtrDnsAnswer.builder();
-
-                    final String hostname = ptrRecord.hostname();
-                    LOG.trace("PTR record retrieved with hostname [{}]", hostname);
-
-                    try {
-                        parseReverseLookupDomain(dnsAnswerBuilder, hostname);
-                    } catch (IllegalArgumentException e) {
-                        LOG.debug("Reverse lookup of [{}] was partially successful. The DNS server returned [{}], " +
-                                  "which is an invalid host name. The \"domain\" field will be left blank.",
-                                  ipAddress, hostname);
-                        dnsAnswerBuilder.domain("");
-                    }
-
-                    return dnsAnswerBuilder.dnsTTL(ptrRecord.timeToLive())
-                                           .build();
-                }
-            }
+            return parsePtrAnswer(ipAddress, content);
         } catch (TimeoutException e) {
             throw new ExecutionException("Resolver future didn't return a result in " + requestTimeout + " ms", e);
         } finally {
@@ -274,6 +297,84 @@ public class DnsClient {
             }
             resolverPool.returnLease(resolverLease);
         }
+    }
+
+    /**
+     * Performs a reverse lookup like {@link #reverseLookup(String)}, but doesn't wait for the response. The returned
+     * future is completed with {@code null} if there is no PTR record for the IP address.
+     */
+    public CompletableFuture<PtrDnsAnswer> reverseLookupAsync(String ipAddress) {
+
+        LOG.debug("Attempting to perform asynchronous reverse lookup for IP address [{}]", ipAddress);
+
+        if (resolverPool.isStopped()) {
+            return CompletableFuture.failedFuture(new DnsClientNotRunningException());
+        }
+
+        final String inverseAddressFormat;
+        try {
+            inverseAddressFormat = getInverseAddressFormat(ipAddress);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        final CompletableFuture<PtrDnsAnswer> answer = new CompletableFuture<>();
+        final ResolverLease resolverLease = resolverPool.takeLease();
+        try {
+            resolverLease.getResolver().query(new DefaultDnsQuestion(inverseAddressFormat, DnsRecordType.PTR))
+                    .addListener((FutureListener<AddressedEnvelope<DnsResponse, InetSocketAddress>>) future -> {
+                        try {
+                            if (future.isSuccess()) {
+                                final DnsResponse content = future.getNow().content();
+                                try {
+                                    answer.complete(parsePtrAnswer(ipAddress, content));
+                                } finally {
+                                    // Must manually release references on content object since the DnsResponse class extends ReferenceCounted
+                                    content.release();
+                                }
+                            } else {
+                                answer.completeExceptionally(future.cause());
+                            }
+                        } catch (Exception e) {
+                            answer.completeExceptionally(e);
+                        } finally {
+                            resolverPool.returnLease(resolverLease);
+                        }
+                    });
+        } catch (Exception e) {
+            resolverPool.returnLease(resolverLease);
+            answer.completeExceptionally(e);
+        }
+        return answer;
+    }
+
+    private static PtrDnsAnswer parsePtrAnswer(String ipAddress, DnsResponse content) {
+        for (int i = 0; i < content.count(DnsSection.ANSWER); i++) {
+
+            // Return the first PTR record, because there should be only one as per
+            // http://tools.ietf.org/html/rfc1035#section-3.5
+            final DnsRecord dnsRecord = content.recordAt(DnsSection.ANSWER, i);
+            if (dnsRecord instanceof DefaultDnsPtrRecord) {
+
+                final DefaultDnsPtrRecord ptrRecord = (DefaultDnsPtrRecord) dnsRecord;
+                final PtrDnsAnswer.Builder dnsAnswerBuilder = PtrDnsAnswer.builder();
+
+                final String hostname = ptrRecord.hostname();
+                LOG.trace("PTR record retrieved with hostname [{}]", hostname);
+
+                try {
+                    parseReverseLookupDomain(dnsAnswerBuilder, hostname);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Reverse lookup of [{}] was partially successful. The DNS server returned [{}], " +
+                              "which is an invalid host name. The \"domain\" field will be left blank.",
+                              ipAddress, hostname);
+                    dnsAnswerBuilder.domain("");
+                }
+
+                return dnsAnswerBuilder.dnsTTL(ptrRecord.timeToLive())
+                                       .build();
+            }
+        }
 
         return null;
     }
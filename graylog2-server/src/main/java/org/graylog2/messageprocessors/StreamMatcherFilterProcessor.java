@@ -30,6 +30,7 @@ import org.slf4j.LoggerFactory;
 import jakarta.inject.Inject;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -62,27 +63,41 @@ public class StreamMatcherFilterProcessor implements MessageProcessor {
         this.streamRouter = streamRouter;
     }
 
-    private void route(Message msg) {
-        List<Stream> streams = streamRouter.route(msg);
-        msg.addStreams(streams);
-
-        LOG.debug("Routed message <{}> to {} streams.", msg.getId(), streams.size());
-
-    }
-
     @Override
     public Messages process(Messages messages) {
-        for (Message msg : messages) {
-            // Keep the old metric name for backwards compatibility
-            final String timerName = name("org.graylog2.filters.StreamMatcherFilter", "executionTime");
-            final Timer timer = metricRegistry.timer(timerName);
-            final Timer.Context timerContext = timer.time();
+        // Keep the old metric name for backwards compatibility
+        final String timerName = name("org.graylog2.filters.StreamMatcherFilter", "executionTime");
+        final Timer timer = metricRegistry.timer(timerName);
+
+        // A single message doesn't benefit from batch routing
+        if (messages instanceof Message msg) {
+            if (!msg.getFilterOut()) {
+                final Timer.Context timerContext = timer.time();
+                route(msg, streamRouter.route(msg));
+                msg.recordTiming(serverStatus, timerName, timerContext.stop());
+            }
+            return messages;
+        }
 
-            route(msg);
+        // The messages are routed as a batch, so the elapsed time gets distributed evenly across the messages.
+        final long start = System.nanoTime();
+        final List<List<Stream>> routes = streamRouter.route(messages);
+        final long elapsedNanos = System.nanoTime() - start;
+        final long elapsedNanosPerMessage = routes.isEmpty() ? 0 : elapsedNanos / routes.size();
 
-            final long elapsedNanos = timerContext.stop();
-            msg.recordTiming(serverStatus, timerName, elapsedNanos);
+        int i = 0;
+        for (Message msg : messages) {
+            route(msg, routes.get(i++));
+
+            timer.update(elapsedNanosPerMessage, TimeUnit.NANOSECONDS);
+            msg.recordTiming(serverStatus, timerName, elapsedNanosPerMessage);
         }
         return messages;
     }
+
+    private void route(Message msg, List<Stream> streams) {
+        msg.addStreams(streams);
+
+        LOG.debug("Routed message <{}> to {} streams.", msg.getId(), streams.size());
+    }
 }
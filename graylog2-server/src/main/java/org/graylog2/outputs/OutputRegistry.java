@@ -40,6 +40,7 @@ import org.graylog2.plugin.utilities.ratelimitedlog.RateLimitedLogFactory;
 import org.graylog2.streams.OutputService;
 import org.graylog2.streams.StreamService;
 import org.graylog2.streams.events.StreamsChangedEvent;
+import org.graylog2.utilities.BlockingCallExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,19 +52,27 @@ import jakarta.inject.Singleton;
 
 import java.time.Duration;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 @Singleton
 public class OutputRegistry {
     private static final Logger LOG = LoggerFactory.getLogger(OutputRegistry.class);
     private static final Logger RATE_LIMITED_LOG = RateLimitedLogFactory.createRateLimitedLog(LOG, 1, Duration.ofSeconds(5));
 
     private final Cache<String, MessageOutput> runningMessageOutputs;
+    // IDs of the running outputs, to find the executors of the outputs
+    private final ConcurrentMap<MessageOutput, String> runningOutputIds = new ConcurrentHashMap<>();
+    private final BlockingCallExecutor blockingCallExecutor;
     private final MessageOutput defaultMessageOutput;
     private final OutputService outputService;
     private final NotificationService notificationService;
@@ -82,6 +91,7 @@ public class OutputRegistry {
                           NodeId nodeId,
                           EventBus eventBus,
                           StreamService streamService,
+                          BlockingCallExecutor blockingCallExecutor,
                           @Named("output_fault_count_threshold") long faultCountThreshold,
                           @Named("output_fault_penalty_seconds") long faultPenaltySeconds) {
         this.defaultMessageOutput = defaultMessageOutput;
@@ -90,6 +100,7 @@ public class OutputRegistry {
         this.nodeId = nodeId;
         this.messageOutputFactory = messageOutputFactory;
         this.streamService = streamService;
+        this.blockingCallExecutor = blockingCallExecutor;
         this.runningMessageOutputs = CacheBuilder.newBuilder().build();
         this.faultCountThreshold = faultCountThreshold;
         this.faultPenaltySeconds = faultPenaltySeconds;
@@ -194,7 +205,9 @@ public class OutputRegistry {
                 final Stream dbStream = streamService.load(stream.getId());
                 if (dbStream.getOutputs().stream().map(Output::getId).anyMatch(id::equalsIgnoreCase)) {
                     final Output output = outputService.load(id);
-                    return launchOutput(output, stream);
+                    final MessageOutput messageOutput = launchOutput(output, stream);
+                    runningOutputIds.put(messageOutput, id);
+                    return messageOutput;
                 }
                 throw new IllegalArgumentException("Output not assigned to stream");
             }
@@ -226,6 +239,33 @@ public class OutputRegistry {
                 .build();
     }
 
+    /**
+     * Returns the executor which writes to the given stream output. Every running output has its own executor, so a
+     * slow output only delays its own writes. The executor is removed when the output is stopped.
+     *
+     * @param messageOutput  a running stream output
+     * @param maxConcurrency maximum number of concurrent writes to the output
+     * @param maxQueued      maximum number of writes waiting for the output
+     * @return the executor of the output, or an empty optional if the output isn't running
+     */
+    public Optional<BlockingCallExecutor.Bounded> getExecutorForOutput(MessageOutput messageOutput, int maxConcurrency, int maxQueued) {
+        final String outputId = runningOutputIds.get(messageOutput);
+        if (outputId == null) {
+            return Optional.empty();
+        }
+        final BlockingCallExecutor.Bounded executor = blockingCallExecutor.bounded(outputExecutorName(outputId), maxConcurrency, maxQueued);
+        // The output might have been stopped in the meantime, don't leave its executor behind
+        if (!runningOutputIds.containsKey(messageOutput)) {
+            blockingCallExecutor.remove(outputExecutorName(outputId));
+            return Optional.empty();
+        }
+        return Optional.of(executor);
+    }
+
+    private static String outputExecutorName(String outputId) {
+        return name(OutputRegistry.class, "stream-outputs", outputId);
+    }
+
     public void removeOutput(Output output) {
         removeOutput(output.getId());
     }
@@ -234,6 +274,8 @@ public class OutputRegistry {
         final MessageOutput messageOutput = runningMessageOutputs.getIfPresent(outputId);
         if (messageOutput != null) {
             messageOutput.stop();
+            runningOutputIds.remove(messageOutput);
+            blockingCallExecutor.remove(outputExecutorName(outputId));
         }
 
         runningMessageOutputs.invalidate(outputId);
@@ -20,10 +20,12 @@ import org.graylog2.plugin.Message;
 import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.plugin.streams.Output;
 import org.graylog2.plugin.streams.Stream;
+import org.graylog2.utilities.BlockingCallExecutor;
 
 import jakarta.inject.Inject;
 
 import java.util.HashSet;
+import java.util.Optional;
 import java.util.Set;
 
 public class OutputRouter {
@@ -65,4 +67,11 @@ public class OutputRouter {
 
         return result;
     }
+
+    /**
+     * See {@link OutputRegistry#getExecutorForOutput(MessageOutput, int, int)}.
+     */
+    public Optional<BlockingCallExecutor.Bounded> getExecutorForStreamOutput(MessageOutput messageOutput, int maxConcurrency, int maxQueued) {
+        return outputRegistry.getExecutorForOutput(messageOutput, maxConcurrency, maxQueued);
+    }
 }
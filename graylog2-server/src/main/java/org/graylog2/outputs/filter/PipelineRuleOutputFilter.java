@@ -25,6 +25,7 @@ import com.google.common.eventbus.Subscribe;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import jakarta.inject.Singleton;
+import org.graylog.plugins.pipelineprocessor.processors.LookupPrefetcher;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.NoopInterpreterListener;
 import org.graylog2.indexer.messages.ImmutableMessage;
@@ -71,7 +72,8 @@ public class PipelineRuleOutputFilter implements OutputFilter {
         // TODO: We probably want to extract the actual pipeline interpreter out of the PipelineInterpreter which
         //       is actually a MessageProcessor. That would make it more reusable.
         // We can pass a null value for the stateUpdater because we don't use functions that use it.
-        this.pipelineInterpreter = new PipelineInterpreter(new NoopMessageQueueAcknowledger(), new MetricRegistry(), null);
+        this.pipelineInterpreter = new PipelineInterpreter(new NoopMessageQueueAcknowledger(), new MetricRegistry(), null,
+                LookupPrefetcher.disabled());
 
         this.executionTime = metricRegistry.timer(name(getClass(), "executionTime"));
 
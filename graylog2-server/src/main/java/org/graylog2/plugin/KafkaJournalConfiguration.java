@@ -17,9 +17,11 @@
 package org.graylog2.plugin;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import com.github.joschi.jadconfig.util.Size;
 import org.graylog2.bindings.NamedBindingOverride;
 import org.graylog2.configuration.PathConfiguration;
+import org.graylog2.shared.journal.JournalCompression;
 import org.joda.time.Duration;
 
 import java.nio.file.Path;
@@ -53,6 +55,15 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     @Parameter("message_journal_flush_age")
     private Duration messageJournalFlushAge = Duration.standardMinutes(1L);
 
+    @Parameter(value = "message_journal_decoder_threads", validator = PositiveIntegerValidator.class)
+    private int messageJournalDecoderThreads = 1;
+
+    @Parameter(value = "message_journal_compression", converter = JournalCompression.Converter.class)
+    private JournalCompression messageJournalCompression = JournalCompression.NONE;
+
+    @Parameter("message_journal_codec_config_references")
+    private boolean messageJournalCodecConfigReferences = false;
+
     @NamedBindingOverride(value = MESSAGE_JOURNAL_DIR)
     public Path getMessageJournalDir() {
         return Optional.ofNullable(messageJournalDir).orElse(getDataDir().resolve("journal"));
@@ -81,4 +92,16 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     public Duration getMessageJournalFlushAge() {
         return messageJournalFlushAge;
     }
+
+    public int getMessageJournalDecoderThreads() {
+        return messageJournalDecoderThreads;
+    }
+
+    public JournalCompression getMessageJournalCompression() {
+        return messageJournalCompression;
+    }
+
+    public boolean isMessageJournalCodecConfigReferences() {
+        return messageJournalCodecConfigReferences;
+    }
 }
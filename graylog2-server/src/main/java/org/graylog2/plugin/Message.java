@@ -30,7 +30,6 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Ints;
 import org.apache.commons.lang3.StringUtils;
@@ -59,7 +58,6 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -306,9 +304,9 @@ public class Message implements Messages, Indexable, Acknowledgeable {
     @Deprecated
     public static final Function<Message, String> ID_FUNCTION = new MessageIdFunction();
 
-    private final Map<String, Object> fields = Maps.newHashMap();
-    private Set<Stream> streams = Sets.newHashSet();
-    private Set<IndexSet> indexSets = Sets.newHashSet();
+    private final MessageFields fields = new MessageFields();
+    private Set<Stream> streams = new ArraySet<>();
+    private final Set<IndexSet> indexSets = new ArraySet<>();
     private String sourceInputId;
 
     // Used for drools to filter out messages.
@@ -332,42 +330,10 @@ public class Message implements Messages, Indexable, Acknowledgeable {
      */
     private Map<String, Object> metadata;
 
-    private com.codahale.metrics.Counter sizeCounter = new com.codahale.metrics.Counter();
+    private long size = 0;
 
     private List<ProcessingError> processingErrors;
 
-    private static final IdentityHashMap<Class<?>, Integer> classSizes = Maps.newIdentityHashMap();
-
-    static {
-        classSizes.put(byte.class, 1);
-        classSizes.put(Byte.class, 1);
-
-        classSizes.put(char.class, 2);
-        classSizes.put(Character.class, 2);
-
-        classSizes.put(short.class, 2);
-        classSizes.put(Short.class, 2);
-
-        classSizes.put(boolean.class, 4);
-        classSizes.put(Boolean.class, 4);
-
-        classSizes.put(int.class, 4);
-        classSizes.put(Integer.class, 4);
-
-        classSizes.put(float.class, 4);
-        classSizes.put(Float.class, 4);
-
-        classSizes.put(long.class, 8);
-        classSizes.put(Long.class, 8);
-
-        classSizes.put(double.class, 8);
-        classSizes.put(Double.class, 8);
-
-        classSizes.put(DateTime.class, 8);
-        classSizes.put(Date.class, 8);
-        classSizes.put(ZonedDateTime.class, 8);
-    }
-
     // Intentionally package-private to enforce MessageFactory usage.
     Message(final String message, final String source, final DateTime timestamp) {
         fields.put(FIELD_ID, new UUID().toString());
@@ -422,13 +388,11 @@ public class Message implements Messages, Indexable, Acknowledgeable {
     public Map<String, Object> toElasticSearchObject(ObjectMapper objectMapper, @Nonnull final Meter invalidTimestampMeter) {
         final Map<String, Object> obj = Maps.newHashMapWithExpectedSize(REQUIRED_FIELDS.size() + fields.size());
 
-        for (Map.Entry<String, Object> entry : fields.entrySet()) {
-            final String key = entry.getKey();
+        fields.forEach((key, value) -> {
             if (key.equals(FIELD_ID)) {
-                continue;
+                return;
             }
 
-            final Object value = entry.getValue();
             // Elasticsearch does not allow "." characters in keys since version 2.0.
             // See: https://www.elastic.co/guide/en/elasticsearch/reference/2.0/breaking_20_mapping_changes.html#_field_names_may_not_contain_dots
             if (key.contains(".")) {
@@ -455,7 +419,7 @@ public class Message implements Messages, Indexable, Acknowledgeable {
                 }
                 obj.put(key, value);
             }
-        }
+        });
 
         obj.put(FIELD_MESSAGE, getMessage());
         obj.put(FIELD_SOURCE, getSource());
@@ -613,43 +577,54 @@ public class Message implements Messages, Indexable, Acknowledgeable {
         }
         long newValueSize = 0;
         long oldValueSize = 0;
-        final long oldSize = sizeCounter.getCount();
+        final long oldSize = size;
         final int keyLength = fieldName.length();
         // if the field is being removed, also subtract the name's length
         if (newValue == null) {
-            sizeCounter.dec(keyLength);
+            size -= keyLength;
         } else {
             newValueSize = sizeForValue(newValue);
-            sizeCounter.inc(newValueSize);
+            size += newValueSize;
         }
         // if the field is new, also count its name's length
         if (previousValue == null) {
-            sizeCounter.inc(keyLength);
+            size += keyLength;
         } else {
             oldValueSize = sizeForValue(previousValue);
-            sizeCounter.dec(oldValueSize);
+            size -= oldValueSize;
         }
         if (LOG.isTraceEnabled()) {
-            final long newSize = sizeCounter.getCount();
+            final long newSize = size;
             LOG.trace("[Message size update][{}] key {}/{}, new/old/change: {}/{}/{} total: {}",
                     getId(), fieldName, keyLength, newValueSize, oldValueSize, newSize - oldSize, newSize);
         }
     }
 
     static long sizeForValue(@Nonnull Object value) {
-        long valueSize;
         if (value instanceof CharSequence) {
-            valueSize = ((CharSequence) value).length();
-        } else {
-            final Integer classSize = classSizes.get(value.getClass());
-            valueSize = classSize == null ? 0 : classSize;
+            return ((CharSequence) value).length();
+        }
+        // Only exact classes are accounted, subclasses of these types count as zero bytes.
+        final Class<?> valueClass = value.getClass();
+        if (valueClass == Long.class || valueClass == Double.class || valueClass == DateTime.class
+                || valueClass == Date.class || valueClass == ZonedDateTime.class) {
+            return 8;
+        }
+        if (valueClass == Integer.class || valueClass == Boolean.class || valueClass == Float.class) {
+            return 4;
+        }
+        if (valueClass == Short.class || valueClass == Character.class) {
+            return 2;
+        }
+        if (valueClass == Byte.class) {
+            return 1;
         }
-        return valueSize;
+        return 0;
     }
 
     @Override
     public long getSize() {
-        return sizeCounter.getCount();
+        return size;
     }
 
     public static boolean validKey(final String key) {
@@ -707,7 +682,8 @@ public class Message implements Messages, Indexable, Acknowledgeable {
 
     @Deprecated
     public void setStreams(final List<Stream> streams) {
-        this.streams = Sets.newHashSet(streams);
+        this.streams = new ArraySet<>();
+        this.streams.addAll(streams);
     }
 
     /**
@@ -727,9 +703,9 @@ public class Message implements Messages, Indexable, Acknowledgeable {
     public void addStream(Stream stream) {
         indexSets.add(stream.getIndexSet());
         if (streams.add(stream)) {
-            sizeCounter.inc(8);
+            size += 8;
             if (LOG.isTraceEnabled()) {
-                LOG.trace("[Message size update][{}] stream added: {}", getId(), sizeCounter.getCount());
+                LOG.trace("[Message size update][{}] stream added: {}", getId(), size);
             }
         }
     }
@@ -759,9 +735,9 @@ public class Message implements Messages, Indexable, Acknowledgeable {
             for (Stream s : streams) {
                 indexSets.add(s.getIndexSet());
             }
-            sizeCounter.dec(8);
+            size -= 8;
             if (LOG.isTraceEnabled()) {
-                LOG.trace("[Message size update][{}] stream removed: {}", getId(), sizeCounter.getCount());
+                LOG.trace("[Message size update][{}] stream removed: {}", getId(), size);
             }
         }
 
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact field storage for {@link Message}.
+ * <p>
+ * Well-known fields which nearly every message has are stored in fixed slots, so they neither need hashing nor
+ * map entries. All other fields are kept in insertion order in parallel arrays which are scanned by their cached
+ * hash codes. Messages with many fields additionally get an open addressing index over these arrays.
+ * <p>
+ * This class is not thread-safe, just like the {@link java.util.HashMap} it replaces. The map views don't support
+ * modifications.
+ */
+final class MessageFields extends AbstractMap<String, Object> {
+    private static final String[] SLOT_NAMES = {
+            Message.FIELD_ID,
+            Message.FIELD_MESSAGE,
+            Message.FIELD_FULL_MESSAGE,
+            Message.FIELD_SOURCE,
+            Message.FIELD_TIMESTAMP,
+            Message.FIELD_LEVEL,
+            Message.FIELD_STREAMS,
+            Message.FIELD_GL2_MESSAGE_ID,
+            Message.FIELD_GL2_SOURCE_INPUT,
+            Message.FIELD_GL2_SOURCE_NODE,
+            Message.FIELD_GL2_REMOTE_IP,
+            Message.FIELD_GL2_REMOTE_PORT,
+            Message.FIELD_GL2_REMOTE_HOSTNAME,
+            Message.FIELD_GL2_RECEIVE_TIMESTAMP,
+            Message.FIELD_GL2_PROCESSING_TIMESTAMP,
+            Message.FIELD_GL2_PROCESSING_DURATION_MS,
+            Message.FIELD_GL2_PROCESSING_ERROR,
+            Message.FIELD_GL2_ACCOUNTED_MESSAGE_SIZE
+    };
+    private static final int NO_SLOT = -1;
+    // Marks a present field with a null value, because a null slot means the field is absent.
+    private static final Object NULL_VALUE = new Object();
+    // Fields beyond this number get an index instead of being found with a linear scan.
+    private static final int INDEX_THRESHOLD = 16;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Object[] slots = new Object[SLOT_NAMES.length];
+    private int slotCount = 0;
+
+    private String[] names;
+    private int[] hashes;
+    private Object[] values;
+    private int tailSize = 0;
+    // Positions + 1 of the fields in the arrays above, by hash code. Only used for messages with many fields.
+    private int[] index;
+
+    private int modCount = 0;
+
+    private static int slot(String key) {
+        return switch (key) {
+            case Message.FIELD_ID -> 0;
+            case Message.FIELD_MESSAGE -> 1;
+            case Message.FIELD_FULL_MESSAGE -> 2;
+            case Message.FIELD_SOURCE -> 3;
+            case Message.FIELD_TIMESTAMP -> 4;
+            case Message.FIELD_LEVEL -> 5;
+            case Message.FIELD_STREAMS -> 6;
+            case Message.FIELD_GL2_MESSAGE_ID -> 7;
+            case Message.FIELD_GL2_SOURCE_INPUT -> 8;
+            case Message.FIELD_GL2_SOURCE_NODE -> 9;
+            case Message.FIELD_GL2_REMOTE_IP -> 10;
+            case Message.FIELD_GL2_REMOTE_PORT -> 11;
+            case Message.FIELD_GL2_REMOTE_HOSTNAME -> 12;
+            case Message.FIELD_GL2_RECEIVE_TIMESTAMP -> 13;
+            case Message.FIELD_GL2_PROCESSING_TIMESTAMP -> 14;
+            case Message.FIELD_GL2_PROCESSING_DURATION_MS -> 15;
+            case Message.FIELD_GL2_PROCESSING_ERROR -> 16;
+            case Message.FIELD_GL2_ACCOUNTED_MESSAGE_SIZE -> 17;
+            default -> NO_SLOT;
+        };
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL_VALUE ? null : value;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public int size() {
+        return slotCount + tailSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String name)) {
+            return false;
+        }
+        final int slot = slot(name);
+        return slot == NO_SLOT ? find(name, name.hashCode()) >= 0 : slots[slot] != null;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof String name)) {
+            return null;
+        }
+        final int slot = slot(name);
+        if (slot != NO_SLOT) {
+            return unmask(slots[slot]);
+        }
+        final int position = find(name, name.hashCode());
+        return position < 0 ? null : unmask(values[position]);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        final int slot = slot(key);
+        if (slot != NO_SLOT) {
+            final Object previous = slots[slot];
+            if (previous == null) {
+                slotCount++;
+                modCount++;
+            }
+            slots[slot] = mask(value);
+            return unmask(previous);
+        }
+
+        final int hash = key.hashCode();
+        final int position = find(key, hash);
+        if (position >= 0) {
+            final Object previous = values[position];
+            values[position] = mask(value);
+            return unmask(previous);
+        }
+
+        ensureCapacity(tailSize + 1);
+        names[tailSize] = key;
+        hashes[tailSize] = hash;
+        values[tailSize] = mask(value);
+        tailSize++;
+        modCount++;
+        if (index != null) {
+            insertIntoIndex(tailSize - 1);
+        } else if (tailSize > INDEX_THRESHOLD) {
+            rebuildIndex();
+        }
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!(key instanceof String name)) {
+            return null;
+        }
+        final int slot = slot(name);
+        if (slot != NO_SLOT) {
+            final Object previous = slots[slot];
+            if (previous != null) {
+                slots[slot] = null;
+                slotCount--;
+                modCount++;
+            }
+            return unmask(previous);
+        }
+
+        final int position = find(name, name.hashCode());
+        if (position < 0) {
+            return null;
+        }
+        final Object previous = values[position];
+        // Keep the insertion order of the remaining fields.
+        final int moved = tailSize - position - 1;
+        System.arraycopy(names, position + 1, names, position, moved);
+        System.arraycopy(hashes, position + 1, hashes, position, moved);
+        System.arraycopy(values, position + 1, values, position, moved);
+        tailSize--;
+        names[tailSize] = null;
+        values[tailSize] = null;
+        modCount++;
+        if (index != null) {
+            rebuildIndex();
+        }
+        return unmask(previous);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(slots, null);
+        slotCount = 0;
+        names = null;
+        hashes = null;
+        values = null;
+        tailSize = 0;
+        index = null;
+        modCount++;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        final int expectedModCount = modCount;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                action.accept(SLOT_NAMES[i], unmask(slots[i]));
+            }
+        }
+        for (int i = 0; i < tailSize; i++) {
+            action.accept(names[i], unmask(values[i]));
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new FieldIterator<>() {
+                    @Override
+                    String current(int slot, int position) {
+                        return slot != NO_SLOT ? SLOT_NAMES[slot] : names[position];
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return MessageFields.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new FieldIterator<>() {
+                    @Override
+                    Entry<String, Object> current(int slot, int position) {
+                        return slot != NO_SLOT
+                                ? new SimpleImmutableEntry<>(SLOT_NAMES[slot], unmask(slots[slot]))
+                                : new SimpleImmutableEntry<>(names[position], unmask(values[position]));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MessageFields.this.size();
+            }
+        };
+    }
+
+    private int find(String key, int hash) {
+        if (index != null) {
+            final int mask = index.length - 1;
+            for (int i = spread(hash) & mask; index[i] != 0; i = (i + 1) & mask) {
+                final int position = index[i] - 1;
+                if (hashes[position] == hash && key.equals(names[position])) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < tailSize; i++) {
+            if (hashes[i] == hash && key.equals(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (names == null) {
+            final int initial = Math.max(INITIAL_CAPACITY, capacity);
+            names = new String[initial];
+            hashes = new int[initial];
+            values = new Object[initial];
+        } else if (capacity > names.length) {
+            final int newLength = Math.max(capacity, names.length * 2);
+            names = Arrays.copyOf(names, newLength);
+            hashes = Arrays.copyOf(hashes, newLength);
+            values = Arrays.copyOf(values, newLength);
+            if (index != null) {
+                rebuildIndex();
+            }
+        }
+    }
+
+    private void rebuildIndex() {
+        if (tailSize <= INDEX_THRESHOLD) {
+            index = null;
+            return;
+        }
+        // Keep the load factor of the table at or below 0.5.
+        index = new int[Integer.highestOneBit(names.length * 2 - 1) << 1];
+        for (int position = 0; position < tailSize; position++) {
+            insertIntoIndex(position);
+        }
+    }
+
+    private void insertIntoIndex(int position) {
+        final int mask = index.length - 1;
+        int i = spread(hashes[position]) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = position + 1;
+    }
+
+    private abstract class FieldIterator<T> implements Iterator<T> {
+        private final int expectedModCount = modCount;
+        private int nextSlot = -1;
+        private int nextPosition = -1;
+
+        FieldIterator() {
+            advance();
+        }
+
+        abstract T current(int slot, int position);
+
+        private void advance() {
+            if (nextPosition < 0) {
+                nextSlot++;
+                while (nextSlot < slots.length && slots[nextSlot] == null) {
+                    nextSlot++;
+                }
+                if (nextSlot < slots.length) {
+                    return;
+                }
+                nextSlot = NO_SLOT;
+            }
+            nextPosition++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSlot != NO_SLOT || nextPosition < tailSize;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final T current = current(nextSlot, nextPosition);
+            advance();
+            return current;
+        }
+    }
+}
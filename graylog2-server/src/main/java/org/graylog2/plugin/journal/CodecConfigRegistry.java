@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.journal;
+
+import org.graylog2.plugin.configuration.Configuration;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps codec configurations, so that {@link RawMessage raw messages} written to the journal only have to carry a
+ * compact reference to the configuration of their input instead of the serialized configuration itself.
+ */
+public interface CodecConfigRegistry {
+    /**
+     * Returned by {@link #register(Configuration)} if the configuration could not be registered.
+     */
+    int NO_ID = 0;
+
+    /**
+     * Returns the ID of the given codec configuration and registers it if it isn't known yet. A new registration is
+     * durable when this method returns, so that it can be resolved when reading the journal after a restart.
+     *
+     * @param codecConfig the codec configuration
+     * @return the ID of the configuration or {@link #NO_ID} if it could not be registered
+     */
+    int register(Configuration codecConfig);
+
+    /**
+     * @param id the ID of a registered codec configuration
+     * @return the codec configuration or {@code null} if the ID is unknown
+     */
+    @Nullable
+    Configuration resolve(int id);
+}
@@ -2640,6 +2640,24 @@ public final class JournalMessages {
      */
     com.google.protobuf.ByteString
         getConfigBytes();
+
+    // optional uint32 config_id = 3;
+    /**
+     * <code>optional uint32 config_id = 3;</code>
+     *
+     * <pre>
+     * reference to a codec configuration in the codec config registry of the journal, used instead of config
+     * </pre>
+     */
+    boolean hasConfigId();
+    /**
+     * <code>optional uint32 config_id = 3;</code>
+     *
+     * <pre>
+     * reference to a codec configuration in the codec config registry of the journal, used instead of config
+     * </pre>
+     */
+    int getConfigId();
   }
   /**
    * Protobuf type {@code org.graylog2.plugin.journal.CodecInfo}
@@ -2702,6 +2720,11 @@ public final class JournalMessages {
               config_ = input.readBytes();
               break;
             }
+            case 24: {
+              bitField0_ |= 0x00000004;
+              configId_ = input.readUInt32();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -2843,9 +2866,34 @@ public final class JournalMessages {
       }
     }
 
+    // optional uint32 config_id = 3;
+    public static final int CONFIG_ID_FIELD_NUMBER = 3;
+    private int configId_;
+    /**
+     * <code>optional uint32 config_id = 3;</code>
+     *
+     * <pre>
+     * reference to a codec configuration in the codec config registry of the journal, used instead of config
+     * </pre>
+     */
+    public boolean hasConfigId() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional uint32 config_id = 3;</code>
+     *
+     * <pre>
+     * reference to a codec configuration in the codec config registry of the journal, used instead of config
+     * </pre>
+     */
+    public int getConfigId() {
+      return configId_;
+    }
+
     private void initFields() {
       name_ = "";
       config_ = "";
+      configId_ = 0;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -2865,6 +2913,9 @@ public final class JournalMessages {
       if (((bitField0_ & 0x00000002) == 0x00000002)) {
         output.writeBytes(2, getConfigBytes());
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeUInt32(3, configId_);
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -2882,6 +2933,10 @@ public final class JournalMessages {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(2, getConfigBytes());
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(3, configId_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -3002,6 +3057,8 @@ public final class JournalMessages {
         bitField0_ = (bitField0_ & ~0x00000001);
         config_ = "";
         bitField0_ = (bitField0_ & ~0x00000002);
+        configId_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000004);
         return this;
       }
 
@@ -3038,6 +3095,10 @@ public final class JournalMessages {
           to_bitField0_ |= 0x00000002;
         }
         result.config_ = config_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.configId_ = configId_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -3064,6 +3125,9 @@ public final class JournalMessages {
           config_ = other.config_;
           onChanged();
         }
+        if (other.hasConfigId()) {
+          setConfigId(other.getConfigId());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -3269,6 +3333,55 @@ public final class JournalMessages {
         return this;
       }
 
+      // optional uint32 config_id = 3;
+      private int configId_ ;
+      /**
+       * <code>optional uint32 config_id = 3;</code>
+       *
+       * <pre>
+       * reference to a codec configuration in the codec config registry of the journal, used instead of config
+       * </pre>
+       */
+      public boolean hasConfigId() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional uint32 config_id = 3;</code>
+       *
+       * <pre>
+       * reference to a codec configuration in the codec config registry of the journal, used instead of config
+       * </pre>
+       */
+      public int getConfigId() {
+        return configId_;
+      }
+      /**
+       * <code>optional uint32 config_id = 3;</code>
+       *
+       * <pre>
+       * reference to a codec configuration in the codec config registry of the journal, used instead of config
+       * </pre>
+       */
+      public Builder setConfigId(int value) {
+        bitField0_ |= 0x00000004;
+        configId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint32 config_id = 3;</code>
+       *
+       * <pre>
+       * reference to a codec configuration in the codec config registry of the journal, used instead of config
+       * </pre>
+       */
+      public Builder clearConfigId() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        configId_ = 0;
+        onChanged();
+        return this;
+      }
+
       // @@protoc_insertion_point(builder_scope:org.graylog2.plugin.journal.CodecInfo)
     }
 
@@ -4119,13 +4232,13 @@ public final class JournalMessages {
       "org.graylog2.plugin.journal.RemoteAddres" +
       "s\022\017\n\007payload\030\010 \001(\014\022\023\n\013sequence_nr\030\t \001(\r\"",
       "@\n\rRemoteAddress\022\017\n\007address\030\001 \001(\014\022\014\n\004por" +
-      "t\030\002 \001(\r\022\020\n\010resolved\030\003 \001(\t\")\n\tCodecInfo\022\014" +
-      "\n\004name\030\001 \001(\t\022\016\n\006config\030\002 \001(\t\"\215\001\n\nSourceN" +
-      "ode\022\n\n\002id\030\001 \001(\t\022B\n\004type\030\002 \001(\0162,.org.gray" +
-      "log2.plugin.journal.SourceNode.Type:\006SER" +
-      "VER\022\020\n\010input_id\030\003 \001(\t\"\035\n\004Type\022\n\n\006SERVER\020" +
-      "\000\022\t\n\005RADIO\020\001B.\n\033org.graylog2.plugin.jour" +
-      "nalB\017JournalMessages"
+      "t\030\002 \001(\r\022\020\n\010resolved\030\003 \001(\t\"<\n\tCodecInfo\022\014" +
+      "\n\004name\030\001 \001(\t\022\016\n\006config\030\002 \001(\t\022\021\n\tconfig_i" +
+      "d\030\003 \001(\r\"\215\001\n\nSourceNode\022\n\n\002id\030\001 \001(\t\022B\n\004ty" +
+      "pe\030\002 \001(\0162,.org.graylog2.plugin.journal.S" +
+      "ourceNode.Type:\006SERVER\022\020\n\010input_id\030\003 \001(\t" +
+      "\"\035\n\004Type\022\n\n\006SERVER\020\000\022\t\n\005RADIO\020\001B.\n\033org.g" +
+      "raylog2.plugin.journalB\017JournalMessages"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -4149,7 +4262,7 @@ public final class JournalMessages {
           internal_static_org_graylog2_plugin_journal_CodecInfo_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_org_graylog2_plugin_journal_CodecInfo_descriptor,
-              new java.lang.String[] { "Name", "Config", });
+              new java.lang.String[] { "Name", "Config", "ConfigId", });
           internal_static_org_graylog2_plugin_journal_SourceNode_descriptor =
             getDescriptor().getMessageTypes().get(3);
           internal_static_org_graylog2_plugin_journal_SourceNode_fieldAccessorTable = new
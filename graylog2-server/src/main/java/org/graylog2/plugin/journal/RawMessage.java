@@ -61,6 +61,11 @@ import static org.graylog2.plugin.journal.JournalMessages.JournalMessage;
  */
 public class RawMessage implements Serializable {
     public static final byte CURRENT_VERSION = 1;
+    /**
+     * Version of messages which reference their codec configuration in a {@link CodecConfigRegistry} instead of
+     * embedding it.
+     */
+    public static final byte CODEC_CONFIG_REFERENCE_VERSION = 2;
 
     private static final Logger log = LoggerFactory.getLogger(RawMessage.class);
 
@@ -122,11 +127,15 @@ public class RawMessage implements Serializable {
     }
 
     public RawMessage(JournalMessage journalMessage, Object messageQueueId) {
+        this(journalMessage, messageQueueId, Configuration.deserializeFromJson(journalMessage.getCodec().getConfig()));
+    }
+
+    private RawMessage(JournalMessage journalMessage, Object messageQueueId, Configuration codecConfig) {
         this.messageQueueId = messageQueueId;
         sequenceNr = journalMessage.getSequenceNr();
         id = new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
         msgBuilder = JournalMessage.newBuilder(journalMessage);
-        codecConfig = Configuration.deserializeFromJson(journalMessage.getCodec().getConfig());
+        this.codecConfig = codecConfig;
     }
 
     @Nullable
@@ -149,12 +158,37 @@ public class RawMessage implements Serializable {
 
     @Nullable
     public static RawMessage decode(final byte[] buffer, final long journalOffset) {
+        return decode(buffer, journalOffset, null);
+    }
+
+    /**
+     * Decodes a message read from the journal.
+     *
+     * @param buffer              the encoded message
+     * @param journalOffset       the journal offset of the message
+     * @param codecConfigRegistry the registry to resolve referenced codec configurations from, may be {@code null}
+     *                            if the journal only contains messages with embedded codec configurations
+     * @return the decoded message or {@code null} if the message couldn't be decoded
+     */
+    @Nullable
+    public static RawMessage decode(final byte[] buffer, final long journalOffset,
+                                    @Nullable final CodecConfigRegistry codecConfigRegistry) {
         try {
             final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
 
             // TODO validate message based on field contents and version number
 
-            return new RawMessage(journalMessage, journalOffset);
+            final JournalMessages.CodecInfo codec = journalMessage.getCodec();
+            if (!codec.hasConfigId()) {
+                return new RawMessage(journalMessage, journalOffset);
+            }
+            final Configuration codecConfig = codecConfigRegistry == null ? null : codecConfigRegistry.resolve(codec.getConfigId());
+            if (codecConfig == null) {
+                log.error("Cannot resolve codec configuration <{}> of raw message at offset {}, ignoring this message.",
+                        codec.getConfigId(), journalOffset);
+                return null;
+            }
+            return new RawMessage(journalMessage, journalOffset, codecConfig);
         } catch (IOException e) {
             log.error("Cannot read raw message from journal, ignoring this message.", e);
             return null;
@@ -162,13 +196,32 @@ public class RawMessage implements Serializable {
     }
 
     public byte[] encode() {
+        return encode(null);
+    }
+
+    /**
+     * Encodes the message for the journal.
+     *
+     * @param codecConfigRegistry if not {@code null}, the codec configuration is registered there and the message only
+     *                            references it, otherwise the serialized configuration is embedded in the message
+     * @return the encoded message or {@code null} if required fields are missing
+     */
+    public byte[] encode(@Nullable CodecConfigRegistry codecConfigRegistry) {
         try {
             final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
             final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(codec);
 
-            final String codecConfigJson = codecConfig.serializeToJson();
-            if (codecConfigJson != null) {
-                builder.setConfig(codecConfigJson);
+            final int codecConfigId = codecConfigRegistry == null ? CodecConfigRegistry.NO_ID : codecConfigRegistry.register(codecConfig);
+            if (codecConfigId != CodecConfigRegistry.NO_ID) {
+                msgBuilder.setVersion(CODEC_CONFIG_REFERENCE_VERSION);
+                builder.clearConfig().setConfigId(codecConfigId);
+            } else {
+                msgBuilder.setVersion(CURRENT_VERSION);
+                builder.clearConfigId();
+                final String codecConfigJson = codecConfig.serializeToJson();
+                if (codecConfigJson != null) {
+                    builder.setConfig(codecConfigJson);
+                }
             }
             msgBuilder.setCodec(builder.build());
 
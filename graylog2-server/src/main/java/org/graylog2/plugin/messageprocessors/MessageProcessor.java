@@ -25,4 +25,14 @@ public interface MessageProcessor {
     }
 
     Messages process(Messages messages);
+
+    /**
+     * Called with all messages which were decoded from the same raw message, before they are processed one by one.
+     * Processors can use it to prepare work which can be shared between the messages, like warming up caches. It isn't
+     * called for raw messages which decode into a single message.
+     *
+     * @param messages the messages which are about to be processed
+     */
+    default void prepareBatch(Messages messages) {
+    }
 }
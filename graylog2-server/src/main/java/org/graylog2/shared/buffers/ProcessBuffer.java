@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -116,6 +117,27 @@ public class ProcessBuffer extends Buffer {
         afterInsert(1);
     }
 
+    /**
+     * Inserts the given messages, claiming ring buffer slots for many messages at once.
+     *
+     * @param rawMessages the messages to insert
+     */
+    public void insertBlocking(@Nonnull List<RawMessage> rawMessages) {
+        int inserted = 0;
+        while (inserted < rawMessages.size()) {
+            // We can't claim more slots than the ring buffer has.
+            final int n = Math.min(rawMessages.size() - inserted, ringBufferSize);
+            final long hi = ringBuffer.next(n);
+            final long lo = hi - (n - 1);
+            for (long sequence = lo; sequence <= hi; sequence++) {
+                ringBuffer.get(sequence).setRaw(rawMessages.get(inserted + (int) (sequence - lo)));
+            }
+            ringBuffer.publish(lo, hi);
+            afterInsert(n);
+            inserted += n;
+        }
+    }
+
     @Override
     protected void afterInsert(int n) {
         incomingMessages.mark(n);
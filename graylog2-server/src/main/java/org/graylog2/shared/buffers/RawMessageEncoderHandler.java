@@ -18,26 +18,36 @@ package org.graylog2.shared.buffers;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import org.graylog2.plugin.journal.CodecConfigRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import jakarta.inject.Inject;
+import javax.annotation.Nullable;
+import java.util.Optional;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
 public class RawMessageEncoderHandler implements WorkHandler<RawMessageEvent> {
     private static final Logger log = LoggerFactory.getLogger(RawMessageEncoderHandler.class);
     private final Meter incomingMessages;
+    @Nullable
+    private final CodecConfigRegistry codecConfigRegistry;
 
     @Inject
-    public RawMessageEncoderHandler(MetricRegistry metricRegistry) {
+    public RawMessageEncoderHandler(MetricRegistry metricRegistry,
+                                    @Named("message_journal_codec_config_references") boolean codecConfigReferences,
+                                    Optional<CodecConfigRegistry> codecConfigRegistry) {
         incomingMessages = metricRegistry.meter(name(RawMessageEncoderHandler.class, "incomingMessages"));
+        // Without a registry for the active journal the codec configuration is embedded in every message
+        this.codecConfigRegistry = codecConfigReferences ? codecConfigRegistry.orElse(null) : null;
     }
 
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
         incomingMessages.mark();
-        event.setEncodedRawMessage(event.getRawMessage().encode());
+        event.setEncodedRawMessage(event.getRawMessage().encode(codecConfigRegistry));
         event.setMessageIdBytes(event.getRawMessage().getIdBytes());
 
         if (log.isTraceEnabled()) {
@@ -17,11 +17,14 @@
 package org.graylog2.shared.buffers.processors;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.net.InetAddresses;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -31,6 +34,8 @@ import org.graylog2.plugin.Message;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.events.inputs.IOStateChangedEvent;
+import org.graylog2.plugin.inputs.MessageInput;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.inputs.codecs.MultiMessageCodec;
 import org.graylog2.plugin.journal.RawMessage;
@@ -45,6 +50,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -52,6 +59,8 @@ import static com.codahale.metrics.MetricRegistry.name;
 
 public class DecodingProcessor implements EventHandler<MessageEvent> {
     private static final Logger LOG = LoggerFactory.getLogger(DecodingProcessor.class);
+    // Cache key for raw messages without a server source node, the map doesn't allow null keys.
+    private static final String NO_INPUT = "";
 
     private final Timer decodeTime;
     private final Counter decodedTrafficCounter;
@@ -66,6 +75,9 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     private final Journal journal;
     private final MessageQueueAcknowledger acknowledger;
     private final Timer parseTime;
+    // Each decoding processor is only used by a single buffer processor thread, the map is only concurrent because
+    // entries are removed by the event bus.
+    private final Map<String, DecodeContext> decodeContexts = new ConcurrentHashMap<>();
 
     @AssistedInject
     public DecodingProcessor(Map<String, Codec.Factory<? extends Codec>> codecFactory,
@@ -73,6 +85,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
                              final MetricRegistry metricRegistry,
                              final Journal journal,
                              MessageQueueAcknowledger acknowledger,
+                             EventBus eventBus,
                              @Assisted("decodeTime") Timer decodeTime,
                              @Assisted("parseTime") Timer parseTime) {
         this.codecFactory = codecFactory;
@@ -85,6 +98,16 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         this.parseTime = parseTime;
         this.decodeTime = decodeTime;
         decodedTrafficCounter = metricRegistry.counter(GlobalMetricNames.DECODED_TRAFFIC);
+
+        eventBus.register(this);
+    }
+
+    @Subscribe
+    public void inputStateChanged(IOStateChangedEvent<?> event) {
+        // Restarted or updated inputs get a new codec instance, just like the input itself.
+        if (event.changedState().getStoppable() instanceof MessageInput input) {
+            decodeContexts.remove(input.getId());
+        }
     }
 
     @Override
@@ -132,15 +155,13 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             inputIdOnCurrentNode = null;
         }
 
-        final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
-        if (factory == null) {
+        final DecodeContext decodeContext = decodeContext(raw, inputIdOnCurrentNode);
+        if (decodeContext == null) {
             LOG.warn("Couldn't find factory for codec <{}>, skipping message {} on input <{}>.",
                     raw.getCodecName(), raw, inputIdOnCurrentNode);
             return;
         }
-
-        final Codec codec = factory.create(raw.getCodecConfig());
-        final String baseMetricName = name(codec.getClass(), inputIdOnCurrentNode);
+        final Codec codec = decodeContext.codec;
 
         Message message = null;
         Collection<Message> messages = null;
@@ -157,19 +178,19 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             }
         } catch (RuntimeException e) {
             LOG.error("Unable to decode raw message {} on input <{}>.", raw, inputIdOnCurrentNode);
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            decodeContext.failures.mark();
             throw e;
         } finally {
             decodeTime = decodeTimeCtx.stop();
         }
 
         if (message != null) {
-            event.setMessage(postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, message, decodeTime));
+            event.setMessage(postProcessMessage(raw, decodeContext, message, decodeTime));
         } else if (messages != null && !messages.isEmpty()) {
             final List<Message> processedMessages = Lists.newArrayListWithCapacity(messages.size());
 
             for (final Message msg : messages) {
-                final Message processedMessage = postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, msg, decodeTime);
+                final Message processedMessage = postProcessMessage(raw, decodeContext, msg, decodeTime);
 
                 if (processedMessage != null) {
                     processedMessages.add(processedMessage);
@@ -181,13 +202,35 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     }
 
     @Nullable
-    private Message postProcessMessage(RawMessage raw, Codec codec, String inputIdOnCurrentNode, String baseMetricName, Message message, long decodeTime) {
+    private DecodeContext decodeContext(RawMessage raw, @Nullable String inputIdOnCurrentNode) {
+        final String key = inputIdOnCurrentNode == null ? NO_INPUT : inputIdOnCurrentNode;
+        final Map<String, Object> codecConfig = raw.getCodecConfig() == null ? null : raw.getCodecConfig().getSource();
+        final DecodeContext cached = decodeContexts.get(key);
+        if (cached != null && cached.matches(raw.getCodecName(), codecConfig)) {
+            return cached;
+        }
+
+        final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
+        if (factory == null) {
+            return null;
+        }
+        // A different codec or configuration replaces the cached context of the input.
+        final DecodeContext decodeContext = new DecodeContext(inputIdOnCurrentNode, raw.getCodecName(), codecConfig,
+                factory.create(raw.getCodecConfig()), metricRegistry);
+        decodeContexts.put(key, decodeContext);
+        return decodeContext;
+    }
+
+    @Nullable
+    private Message postProcessMessage(RawMessage raw, DecodeContext decodeContext, Message message, long decodeTime) {
+        final Codec codec = decodeContext.codec;
+        final String inputIdOnCurrentNode = decodeContext.inputId;
         if (message == null) {
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            decodeContext.failures.mark();
             return null;
         }
         if (!message.isComplete()) {
-            metricRegistry.meter(name(baseMetricName, "incomplete")).mark();
+            decodeContext.incomplete.mark();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Dropping incomplete message {} on input <{}>. Parsed fields: [{}]",
                         raw, inputIdOnCurrentNode, message.getFields());
@@ -201,7 +244,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             message.setSequenceNr(raw.getSequenceNr());
         }
         message.recordTiming(serverStatus, "parse", decodeTime);
-        metricRegistry.timer(name(baseMetricName, "parseTime")).update(decodeTime, TimeUnit.NANOSECONDS);
+        decodeContext.parseTime.update(decodeTime, TimeUnit.NANOSECONDS);
 
         for (final RawMessage.SourceNode node : raw.getSourceNodes()) {
             switch (node.type) {
@@ -266,8 +309,43 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             message.setReceiveTime(raw.getTimestamp());
         }
 
-        metricRegistry.meter(name(baseMetricName, "processedMessages")).mark();
+        decodeContext.processedMessages.mark();
         decodedTrafficCounter.inc(message.getSize());
         return message;
     }
+
+    /**
+     * The codec of an input together with its metrics, so they don't have to be created and looked up for every
+     * message.
+     */
+    private static class DecodeContext {
+        @Nullable
+        private final String inputId;
+        private final String codecName;
+        @Nullable
+        private final Map<String, Object> codecConfig;
+        private final Codec codec;
+        private final Meter failures;
+        private final Meter incomplete;
+        private final Meter processedMessages;
+        private final Timer parseTime;
+
+        DecodeContext(@Nullable String inputId, String codecName, @Nullable Map<String, Object> codecConfig, Codec codec,
+                      MetricRegistry metricRegistry) {
+            this.inputId = inputId;
+            this.codecName = codecName;
+            this.codecConfig = codecConfig;
+            this.codec = codec;
+
+            final String baseMetricName = name(codec.getClass(), inputId);
+            this.failures = metricRegistry.meter(name(baseMetricName, "failures"));
+            this.incomplete = metricRegistry.meter(name(baseMetricName, "incomplete"));
+            this.processedMessages = metricRegistry.meter(name(baseMetricName, "processedMessages"));
+            this.parseTime = metricRegistry.timer(name(baseMetricName, "parseTime"));
+        }
+
+        boolean matches(String codecName, @Nullable Map<String, Object> codecConfig) {
+            return this.codecName.equals(codecName) && Objects.equals(this.codecConfig, codecConfig);
+        }
+    }
 }
@@ -26,6 +26,7 @@ import org.graylog.failure.FailureSubmissionService;
 import org.graylog2.buffers.OutputBuffer;
 import org.graylog2.messageprocessors.OrderedMessageProcessors;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
 import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.buffers.MessageEvent;
@@ -112,6 +113,9 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
                     return;
                 }
 
+                if (messageList.size() > 1) {
+                    prepareBatch(messageList);
+                }
                 for (final Message message : messageList) {
                     dispatchMessage(message);
                 }
@@ -121,6 +125,18 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
     }
 
+    private void prepareBatch(Collection<Message> messageList) {
+        final Messages batch = new MessageCollection(messageList);
+        for (MessageProcessor messageProcessor : orderedMessageProcessors) {
+            try {
+                messageProcessor.prepareBatch(batch);
+            } catch (Exception e) {
+                // Only an optimization, the messages are processed nevertheless
+                LOG.debug("Unable to prepare batch of {} messages in <{}>", messageList.size(), messageProcessor.getClass().getName(), e);
+            }
+        }
+    }
+
     public Optional<Message> getCurrentMessage() {
         return Optional.ofNullable(currentMessage);
     }
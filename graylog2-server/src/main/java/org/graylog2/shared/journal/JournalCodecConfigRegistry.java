@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.MapMaker;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.CodecConfigRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link CodecConfigRegistry} which persists the codec configurations in a file in the journal directory.
+ * <p>
+ * Each line of the file contains the ID and the serialized configuration, separated by a tab. Lines are only ever
+ * appended, so IDs stay valid as long as the file exists beside the journal segments referencing them.
+ */
+@Singleton
+public class JournalCodecConfigRegistry implements CodecConfigRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalCodecConfigRegistry.class);
+
+    static final String FILE_NAME = "graylog2-codec-configs";
+
+    private final Path file;
+    // Inputs pass the same configuration instance with every message, so it only has to be serialized once.
+    // Weak keys are compared by identity.
+    private final ConcurrentMap<Configuration, Integer> idsByInstance = new MapMaker().weakKeys().makeMap();
+    private final ConcurrentMap<Integer, Configuration> configsById = new ConcurrentHashMap<>();
+    // guarded by this
+    private final Map<String, Integer> idsByJson = new HashMap<>();
+    private int nextId = 1;
+    private boolean needsLineBreak = false;
+
+    @Inject
+    public JournalCodecConfigRegistry(@Named("message_journal_dir") Path journalDirectory) {
+        this.file = journalDirectory.resolve(FILE_NAME);
+        load();
+    }
+
+    @Override
+    public int register(Configuration codecConfig) {
+        final Integer id = idsByInstance.get(codecConfig);
+        if (id != null) {
+            return id;
+        }
+        final int registered = register(Strings.nullToEmpty(codecConfig.serializeToJson()));
+        // Failed registrations are remembered as well, the messages of that configuration embed it instead.
+        idsByInstance.put(codecConfig, registered);
+        return registered;
+    }
+
+    private synchronized int register(String json) {
+        final Integer existing = idsByJson.get(json);
+        if (existing != null) {
+            return existing;
+        }
+        final int id = nextId;
+        try {
+            append(id, json);
+        } catch (IOException e) {
+            LOG.error("Cannot write codec configuration to {}, embedding it in the journal messages instead.", file, e);
+            return NO_ID;
+        }
+        nextId++;
+        idsByJson.put(json, id);
+        configsById.put(id, Configuration.deserializeFromJson(json));
+        return id;
+    }
+
+    @Nullable
+    @Override
+    public Configuration resolve(int id) {
+        return configsById.get(id);
+    }
+
+    private void append(int id, String json) throws IOException {
+        final String line = (needsLineBreak ? "\n" : "") + id + '\t' + json + '\n';
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // Messages referencing the ID are written to the journal right after this
+            channel.force(true);
+        }
+        needsLineBreak = false;
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        final String content;
+        try {
+            content = Files.readString(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read codec configurations from " + file, e);
+        }
+        // A crash might have left an incomplete line behind
+        needsLineBreak = !content.isEmpty() && !content.endsWith("\n");
+        for (String line : content.split("\n")) {
+            final int separator = line.indexOf('\t');
+            final Integer id = separator > 0 ? parseId(line.substring(0, separator)) : null;
+            if (id == null) {
+                if (!line.isEmpty()) {
+                    LOG.warn("Ignoring malformed codec configuration entry in {}: {}", file, line);
+                }
+                continue;
+            }
+            final String json = line.substring(separator + 1);
+            idsByJson.putIfAbsent(json, id);
+            configsById.put(id, Configuration.deserializeFromJson(json));
+            nextId = Math.max(nextId, id + 1);
+        }
+        LOG.debug("Loaded {} codec configurations from {}", configsById.size(), file);
+    }
+
+    @Nullable
+    private static Integer parseId(String id) {
+        try {
+            final int parsed = Integer.parseInt(id);
+            return parsed > NO_ID ? parsed : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
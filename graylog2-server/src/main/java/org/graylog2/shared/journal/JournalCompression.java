@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.github.joschi.jadconfig.ParameterException;
+import org.graylog.shaded.kafka09.message.CompressionCodec;
+import org.graylog.shaded.kafka09.message.GZIPCompressionCodec$;
+import org.graylog.shaded.kafka09.message.NoCompressionCodec$;
+import org.graylog.shaded.kafka09.message.SnappyCompressionCodec$;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Compression of the message batches written to the {@link LocalKafkaJournal}.
+ * <p>
+ * The codec of a compressed message set is stored in its message attributes, and the Kafka 0.9 log only knows the
+ * codec ids of none, gzip, snappy and lz4. Any other id, e.g. the one of zstd, is rejected with an
+ * {@code UnknownCodecException} when the message set is appended or read, so zstd can't be offered although zstd-jni
+ * is on the classpath. The lz4 codec of Kafka 0.9 doesn't work with the lz4-java version on the classpath.
+ */
+public enum JournalCompression {
+    /**
+     * Messages are written uncompressed.
+     */
+    NONE(NoCompressionCodec$.MODULE$),
+    /**
+     * Fast compression with a moderate ratio.
+     */
+    SNAPPY(SnappyCompressionCodec$.MODULE$),
+    /**
+     * Slower compression with a better ratio than {@link #SNAPPY}.
+     */
+    GZIP(GZIPCompressionCodec$.MODULE$);
+
+    private final CompressionCodec codec;
+
+    JournalCompression(CompressionCodec codec) {
+        this.codec = codec;
+    }
+
+    CompressionCodec codec() {
+        return codec;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<JournalCompression> {
+        @Override
+        public JournalCompression convertFrom(String value) {
+            try {
+                return JournalCompression.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse journal compression <" + value + ">. Valid compressions are: " +
+                        Arrays.stream(JournalCompression.values()).map(JournalCompression::toString)
+                                .collect(Collectors.toList()) + ".");
+            }
+        }
+
+        @Override
+        public String convertTo(JournalCompression value) {
+            return value.toString();
+        }
+    }
+}
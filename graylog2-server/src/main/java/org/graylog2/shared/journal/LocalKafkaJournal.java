@@ -46,6 +46,7 @@ import org.graylog.shaded.kafka09.message.ByteBufferMessageSet;
 import org.graylog.shaded.kafka09.message.Message;
 import org.graylog.shaded.kafka09.message.MessageAndOffset;
 import org.graylog.shaded.kafka09.message.MessageSet;
+import org.graylog.shaded.kafka09.message.NoCompressionCodec$;
 import org.graylog.shaded.kafka09.scala.Option;
 import org.graylog.shaded.kafka09.scala.collection.Iterator;
 import org.graylog.shaded.kafka09.scala.collection.JavaConversions;
@@ -91,6 +92,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.concurrent.TimeUnit.DAYS;
@@ -119,6 +121,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     public static final String GAUGE_UNCOMMITTED_MESSAGES = "uncommittedMessages";
     private static final String TIMER_WRITE_TIME = "writeTime";
     private static final String TIMER_READ_TIME = "readTime";
+    private static final String TIMER_COMPRESS_TIME = "compressTime";
+    private static final String TIMER_DECOMPRESS_TIME = "decompressTime";
+    private static final String GAUGE_COMPRESSION_RATIO = "compressionRatio";
     private static final String METRIC_NAME_SIZE = "size";
     private static final String METRIC_NAME_LOG_END_OFFSET = "logEndOffset";
     private static final String METRIC_NAME_NUMBER_OF_SEGMENTS = "numberOfSegments";
@@ -155,6 +160,8 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private final Timer writeTime;
 
     private final Timer readTime;
+    private final Timer compressTime;
+    private final Timer decompressTime;
     private final KafkaScheduler kafkaScheduler;
     private final Meter writtenMessages;
     private final Meter readMessages;
@@ -168,6 +175,11 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private final int maxMessageSize;
     private final long maxRetentionSize;
     private final String metricPrefix;
+    private final JournalCompression compression;
+    private final int maxCompressedBatchSize;
+    private final Object compressedAppendLock = new Object();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
 
     private long nextReadOffset = 0L;
     private ScheduledFuture<?> checkpointFlusherFuture;
@@ -190,16 +202,19 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              @Named("message_journal_flush_interval") long flushInterval,
                              @Named("message_journal_flush_age") Duration flushAge,
                              @Named("lb_throttle_threshold_percentage") int throttleThresholdPercentage,
+                             @Named("message_journal_compression") JournalCompression compression,
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus) {
 
         this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
-                throttleThresholdPercentage, metricRegistry, serverStatus, LocalKafkaJournal.class.getName());
+                throttleThresholdPercentage, compression, metricRegistry, serverStatus, LocalKafkaJournal.class.getName());
     }
 
     /**
      * @param throttleThresholdPercentage The journal utilization percent at which throttling will be triggered.
      *                                    Expressed as an integer between 1 and 100. The value -1 disables throttling.
+     * @param compression                 The compression of the message sets written to the journal. Compressed and
+     *                                    uncompressed message sets can always be read, regardless of this setting.
      */
     public LocalKafkaJournal(Path journalDirectory,
                              ScheduledExecutorService scheduler,
@@ -210,6 +225,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              long flushInterval,
                              Duration flushAge,
                              int throttleThresholdPercentage,
+                             JournalCompression compression,
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus,
                              String metricPrefix) {
@@ -229,6 +245,10 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         this.maxRetentionSize = retentionSize.toBytes();
         this.metricPrefix = metricPrefix;
         this.metricRegistry = metricRegistry;
+        this.compression = compression;
+        // Compressed message sets must stay well below the maximum message size, even if the data doesn't compress,
+        // and small enough to be returned completely by a single read.
+        this.maxCompressedBatchSize = Ints.saturatedCast(Math.min(Size.megabytes(1L).toBytes(), maxSegmentSize / 2));
 
         // Set up metrics
         this.writtenMessages = metricRegistry.meter(name(this.metricPrefix, METER_WRITTEN_MESSAGES));
@@ -237,6 +257,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         registerUncommittedGauge(metricRegistry, name(this.metricPrefix, GAUGE_UNCOMMITTED_MESSAGES));
         this.writeTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_WRITE_TIME)); // the registerHdrTimer helper doesn't throw on existing metrics
         this.readTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_READ_TIME)); // the registerHdrTimer helper doesn't throw on existing metrics
+        this.compressTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_COMPRESS_TIME));
+        this.decompressTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_DECOMPRESS_TIME));
+        registerCompressionRatioGauge(metricRegistry, name(this.metricPrefix, GAUGE_COMPRESSION_RATIO));
 
         final Map<String, Object> config = ImmutableMap.<String, Object>builder()
                 // segmentSize: The soft maximum for the size of a segment file in the log
@@ -444,6 +467,18 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    private void registerCompressionRatioGauge(MetricRegistry metricRegistry, String name) {
+        try {
+            metricRegistry.register(name,
+                    (Gauge<Double>) () -> {
+                        final long compressed = compressedBytes.sum();
+                        return compressed == 0 ? 1.0d : (double) uncompressedBytes.sum() / compressed;
+                    });
+        } catch (IllegalArgumentException ignored) {
+            // already registered, we'll ignore that.
+        }
+    }
+
     public int getPurgedSegmentsInLastRetention() {
         return purgedSegmentsInLastRetention.get();
     }
@@ -461,6 +496,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         this.metricRegistry.remove(name(metricPrefix, GAUGE_UNCOMMITTED_MESSAGES));
         this.metricRegistry.remove(name(metricPrefix, TIMER_WRITE_TIME));
         this.metricRegistry.remove(name(metricPrefix, TIMER_READ_TIME));
+        this.metricRegistry.remove(name(metricPrefix, TIMER_COMPRESS_TIME));
+        this.metricRegistry.remove(name(metricPrefix, TIMER_DECOMPRESS_TIME));
+        this.metricRegistry.remove(name(metricPrefix, GAUGE_COMPRESSION_RATIO));
         this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_SIZE));
         this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_LOG_END_OFFSET));
         this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_NUMBER_OF_SEGMENTS));
@@ -567,6 +605,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
             LOG.debug("No messages to flush, not trying to write an empty message set.");
             return -1L;
         }
+        if (compression != JournalCompression.NONE) {
+            return flushCompressedMessages(messages, payloadSize);
+        }
 
         final ByteBufferMessageSet messageSet = new ByteBufferMessageSet(JavaConversions.asScalaBuffer(messages).toSeq());
 
@@ -586,6 +627,46 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return lastWriteOffset;
     }
 
+    private long flushCompressedMessages(List<Message> messages, long payloadSize) {
+        long lastWriteOffset = -1L;
+        int batchStart = 0;
+        long batchSize = 0L;
+        for (int i = 0; i < messages.size(); i++) {
+            final int messageSize = MessageSet.entrySize(messages.get(i));
+            if (i > batchStart && batchSize + messageSize > maxCompressedBatchSize) {
+                lastWriteOffset = appendCompressed(messages.subList(batchStart, i), batchSize);
+                batchStart = i;
+                batchSize = 0L;
+            }
+            batchSize += messageSize;
+        }
+        lastWriteOffset = appendCompressed(messages.subList(batchStart, messages.size()), batchSize);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Wrote {} {} compressed messages to journal (payload {} bytes), last log position {}",
+                    messages.size(), compression, payloadSize, lastWriteOffset);
+        }
+        writtenMessages.mark(messages.size());
+
+        return lastWriteOffset;
+    }
+
+    private long appendCompressed(List<Message> messages, long messagesSize) {
+        // Kafka would decompress and compress the message set again to assign the offsets, so they are assigned
+        // here. That requires that no other message set gets appended in between.
+        synchronized (compressedAppendLock) {
+            final ByteBufferMessageSet messageSet;
+            try (Timer.Context ignored = compressTime.time()) {
+                messageSet = new ByteBufferMessageSet(compression.codec(), new AtomicLong(kafkaLog.logEndOffset()),
+                        JavaConversions.asScalaBuffer(messages).toSeq());
+            }
+            final LogAppendInfo appendInfo = kafkaLog.append(messageSet, false);
+            uncompressedBytes.add(messagesSize);
+            compressedBytes.add(messageSet.sizeInBytes());
+            return appendInfo.lastOffset();
+        }
+    }
+
     /**
      * Writes a single message to the journal and returns the new write position
      *
@@ -679,32 +760,45 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                     maximumCount, readOffset, maxOffset);
 
             // TODO benchmark and make read-ahead strategy configurable for performance tuning
+            // The read isn't limited to the max offset, because Kafka would exclude a compressed message set which
+            // contains the max offset. The iteration below stops at the max offset instead, the message sets are
+            // read lazily from the segment.
             final MessageSet messageSet = kafkaLog.read(readOffset,
                     5 * 1024 * 1024,
-                    Option.<Object>apply(maxOffset)).messageSet();
+                    Option.empty()).messageSet();
 
             final Iterator<MessageAndOffset> iterator = messageSet.iterator();
             long firstOffset = Long.MIN_VALUE;
             long lastOffset = Long.MIN_VALUE;
             long totalBytes = 0;
-            while (iterator.hasNext()) {
-                final MessageAndOffset messageAndOffset = iterator.next();
+            boolean reachedMaxOffset = false;
+            while (!reachedMaxOffset && iterator.hasNext()) {
+                for (final MessageAndOffset messageAndOffset : decompress(iterator.next())) {
+                    if (messageAndOffset.offset() >= maxOffset) {
+                        reachedMaxOffset = true;
+                        break;
+                    }
+                    // a compressed message set can start before the read offset
+                    if (messageAndOffset.offset() < readOffset) {
+                        continue;
+                    }
 
-                if (firstOffset == Long.MIN_VALUE) {
-                    firstOffset = messageAndOffset.offset();
-                }
-                // always remember the last seen offset for debug purposes below
-                lastOffset = messageAndOffset.offset();
+                    if (firstOffset == Long.MIN_VALUE) {
+                        firstOffset = messageAndOffset.offset();
+                    }
+                    // always remember the last seen offset for debug purposes below
+                    lastOffset = messageAndOffset.offset();
 
-                final byte[] payloadBytes = ByteBufferUtils.readBytes(messageAndOffset.message().payload());
-                if (LOG.isTraceEnabled()) {
-                    final byte[] keyBytes = ByteBufferUtils.readBytes(messageAndOffset.message().key());
-                    LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(payloadBytes));
+                    final byte[] payloadBytes = ByteBufferUtils.readBytes(messageAndOffset.message().payload());
+                    if (LOG.isTraceEnabled()) {
+                        final byte[] keyBytes = ByteBufferUtils.readBytes(messageAndOffset.message().key());
+                        LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(payloadBytes));
+                    }
+                    totalBytes += payloadBytes.length;
+                    messages.add(new JournalReadEntry(payloadBytes, messageAndOffset.offset()));
+                    // remember where to read from
+                    nextReadOffset = messageAndOffset.nextOffset();
                 }
-                totalBytes += payloadBytes.length;
-                messages.add(new JournalReadEntry(payloadBytes, messageAndOffset.offset()));
-                // remember where to read from
-                nextReadOffset = messageAndOffset.nextOffset();
             }
             if (messages.isEmpty()) {
                 LOG.debug("No messages available to read for offset interval [{}, {}).", readOffset, maxOffset);
@@ -740,6 +834,20 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return messages;
     }
 
+    private List<MessageAndOffset> decompress(MessageAndOffset messageAndOffset) {
+        if (messageAndOffset.message().compressionCodec() == NoCompressionCodec$.MODULE$) {
+            return Collections.singletonList(messageAndOffset);
+        }
+        final List<MessageAndOffset> messages = new ArrayList<>();
+        try (Timer.Context ignored = decompressTime.time()) {
+            final Iterator<MessageAndOffset> iterator = ByteBufferMessageSet.deepIterator(messageAndOffset.message());
+            while (iterator.hasNext()) {
+                messages.add(iterator.next());
+            }
+        }
+        return messages;
+    }
+
     /**
      * Upon fully processing, and persistently storing, a batch of messages, the system should mark the message with the
      * highest offset as committed. A background job will write the last position to disk periodically.
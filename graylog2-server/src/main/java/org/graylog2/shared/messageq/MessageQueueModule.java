@@ -17,8 +17,11 @@
 package org.graylog2.shared.messageq;
 
 import com.google.inject.Scopes;
+import com.google.inject.multibindings.OptionalBinder;
 import org.graylog2.Configuration;
 import org.graylog2.plugin.PluginModule;
+import org.graylog2.plugin.journal.CodecConfigRegistry;
+import org.graylog2.shared.journal.JournalCodecConfigRegistry;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.journal.LocalKafkaJournal;
 import org.graylog2.shared.journal.LocalKafkaJournalModule;
@@ -42,6 +45,9 @@ public class MessageQueueModule extends PluginModule {
 
     @Override
     protected void configure() {
+        final OptionalBinder<CodecConfigRegistry> codecConfigRegistryBinder =
+                OptionalBinder.newOptionalBinder(binder(), CodecConfigRegistry.class);
+
         switch (configuration.getMessageJournalMode()) {
             case NOOP_JOURNAL_MODE:
                 bindMessageQueueImplementation(NoopMessageQueueReader.class, NoopMessageQueueWriter.class,
@@ -58,6 +64,7 @@ public class MessageQueueModule extends PluginModule {
 
         if (configuration.getMessageJournalMode().equals(DISK_JOURNAL_MODE)) {
             install(new LocalKafkaJournalModule());
+            codecConfigRegistryBinder.setBinding().to(JournalCodecConfigRegistry.class);
             serviceBinder().addBinding().to(LocalKafkaJournal.class).in(Scopes.SINGLETON);
         } else {
             binder().bind(Journal.class).to(NoopJournal.class).in(Scopes.SINGLETON);
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.messageq.localkafka;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.plugin.journal.CodecConfigRegistry;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.journal.Journal;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes entries read from the journal into {@link RawMessage raw messages}. With more than one thread, larger
+ * batches are split into contiguous chunks which are decoded in parallel.
+ */
+class JournalEntryDecoder implements AutoCloseable {
+    // Smaller batches are decoded in the calling thread, the hand-off would cost more than it saves.
+    static final int MIN_ENTRIES_PER_THREAD = 64;
+
+    private final int threads;
+    @Nullable
+    private final CodecConfigRegistry codecConfigRegistry;
+    @Nullable
+    private final ExecutorService executor;
+
+    JournalEntryDecoder(int threads, @Nullable CodecConfigRegistry codecConfigRegistry) {
+        this.threads = threads;
+        this.codecConfigRegistry = codecConfigRegistry;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("journal-decoder-%d")
+                .setDaemon(true)
+                .build()) : null;
+    }
+
+    /**
+     * Decodes the given journal entries.
+     *
+     * @param entries the journal entries
+     * @return the decoded messages in the order of the entries, {@code null} for entries which couldn't be decoded
+     * @throws InterruptedException if the calling thread has been interrupted while waiting for the decoder threads
+     */
+    RawMessage[] decode(List<Journal.JournalReadEntry> entries) throws InterruptedException {
+        final RawMessage[] decoded = new RawMessage[entries.size()];
+        final int chunks = Math.min(threads, entries.size() / MIN_ENTRIES_PER_THREAD);
+        if (executor == null || chunks < 2) {
+            decode(entries, decoded, 0, entries.size());
+            return decoded;
+        }
+
+        final int chunkSize = (entries.size() + chunks - 1) / chunks;
+        final List<Future<?>> futures = new ArrayList<>(chunks);
+        for (int from = 0; from < entries.size(); from += chunkSize) {
+            final int start = from;
+            final int end = Math.min(from + chunkSize, entries.size());
+            futures.add(executor.submit(() -> decode(entries, decoded, start, end)));
+        }
+        try {
+            // Future#get() makes the decoded messages of each chunk visible to the calling thread
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Couldn't decode journal entries", e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return decoded;
+    }
+
+    private void decode(List<Journal.JournalReadEntry> entries, RawMessage[] decoded, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final Journal.JournalReadEntry entry = entries.get(i);
+            decoded[i] = RawMessage.decode(entry.getPayload(), entry.getOffset(), codecConfigRegistry);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
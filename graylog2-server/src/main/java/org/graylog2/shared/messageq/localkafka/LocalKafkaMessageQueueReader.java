@@ -22,6 +22,7 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.Uninterruptibles;
+import org.graylog2.plugin.journal.CodecConfigRegistry;
 import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.shared.buffers.ProcessBuffer;
 import org.graylog2.shared.journal.Journal;
@@ -35,6 +36,7 @@ import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 
@@ -52,6 +54,9 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
     private final Metrics readerMetrics;
     private Histogram requestedReadCount;
     private final Counter readBlocked;
+    private final int decoderThreads;
+    private final CodecConfigRegistry codecConfigRegistry;
+    private JournalEntryDecoder decoder;
     private Thread executionThread;
 
     @Inject
@@ -60,7 +65,9 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                                         @Named("JournalSignal") Semaphore journalFilled,
                                         MetricRegistry metricRegistry,
                                         EventBus eventBus,
-                                        MessageQueueReader.Metrics readerMetrics) {
+                                        MessageQueueReader.Metrics readerMetrics,
+                                        @Named("message_journal_decoder_threads") int decoderThreads,
+                                        CodecConfigRegistry codecConfigRegistry) {
 
         super(eventBus);
 
@@ -71,16 +78,20 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
         readBlocked = metricRegistry.counter(name(this.getClass(), "readBlocked"));
         readMessages = metricRegistry.meter(name(this.getClass(), "readMessages"));
         this.readerMetrics = readerMetrics;
+        this.decoderThreads = decoderThreads;
+        this.codecConfigRegistry = codecConfigRegistry;
     }
 
     @Override
     protected void startUp() throws Exception {
         super.startUp();
         executionThread = Thread.currentThread();
+        decoder = new JournalEntryDecoder(decoderThreads, codecConfigRegistry);
     }
 
     @Override
     protected void shutDown() throws Exception {
+        decoder.close();
         super.shutDown();
     }
 
@@ -126,22 +137,41 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                 readMessages.mark(encodedRawMessages.size());
                 readerMetrics.readMessages().mark(encodedRawMessages.size());
                 log.debug("Processing {} messages from journal.", encodedRawMessages.size());
-                for (final Journal.JournalReadEntry encodedRawMessage : encodedRawMessages) {
-                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayload(),
-                            encodedRawMessage.getOffset());
-                    readerMetrics.readBytes().mark(encodedRawMessage.getPayload().length);
-                    if (rawMessage == null) {
+                final RawMessage[] rawMessages;
+                try {
+                    rawMessages = decoder.decode(encodedRawMessages);
+                } catch (InterruptedException ignored) {
+                    // We are shutting down. The messages haven't been committed, so they will be read again.
+                    continue;
+                }
+                final List<RawMessage> batch = new ArrayList<>(rawMessages.length);
+                long readBytes = 0;
+                for (int i = 0; i < rawMessages.length; i++) {
+                    final Journal.JournalReadEntry encodedRawMessage = encodedRawMessages.get(i);
+                    readBytes += encodedRawMessage.getPayload().length;
+                    if (rawMessages[i] == null) {
                         // never insert null objects into the ringbuffer, as that is useless
                         log.error("Found null raw message!");
+                        // insert the preceding messages first to commit the offsets in the same order as before
+                        insertBatch(batch);
                         journal.markJournalOffsetCommitted(encodedRawMessage.getOffset());
                         continue;
                     }
-                    processBuffer.insertBlocking(rawMessage);
+                    batch.add(rawMessages[i]);
                 }
+                readerMetrics.readBytes().mark(readBytes);
+                insertBatch(batch);
             }
         }
         log.info("Stopping.");
     }
 
+    private void insertBatch(List<RawMessage> batch) {
+        if (!batch.isEmpty()) {
+            processBuffer.insertBlocking(batch);
+            batch.clear();
+        }
+    }
+
 
 }
@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.utilities.AhoCorasickAutomaton;
+import org.graylog2.utilities.InterruptibleCharSequence;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.graylog2.plugin.Tools.getDouble;
+
+/**
+ * Compiled form of the stream rules of a {@link StreamRouterEngine}.
+ * <p>
+ * Rules are grouped by the message field they look at, so every field is fetched and converted to a string only
+ * once per message. Within a field group
+ * <ul>
+ *     <li>all {@link StreamRuleType#EXACT EXACT} and {@link StreamRuleType#MATCH_INPUT MATCH_INPUT} rules are
+ *     resolved with a single lookup in a precomputed value table,</li>
+ *     <li>all {@link StreamRuleType#PRESENCE PRESENCE} rules are resolved from a precomputed table for the three
+ *     possible field states,</li>
+ *     <li>all {@link StreamRuleType#CONTAINS CONTAINS} rules and {@link StreamRuleType#REGEX REGEX} rules without
+ *     meta characters are resolved in one pass of an {@link AhoCorasickAutomaton},</li>
+ *     <li>the remaining regular expressions are evaluated last, and only for streams which are still undecided.</li>
+ * </ul>
+ * The state of a stream is kept in a single bit set: an {@link Stream.MatchingType#OR OR} stream is decided as soon
+ * as one of its rules matches, an {@link Stream.MatchingType#AND AND} stream as soon as one of its rules fails.
+ * Rules which cannot be compiled (for example because of a missing value) are evaluated one by one like in the
+ * linear engine.
+ * <p>
+ * The set of matching streams is always the same as the one computed by the linear engine. Unlike the linear
+ * engine, per-rule execution timers are only updated for rules which are still evaluated one by one.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ */
+class CompiledStreamMatcher {
+    private static final Pattern REGEX_META_CHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+    private final Stream[] streams;
+    // Streams with AND matching which have at least one rule and OR streams.
+    private final BitSet andStreams;
+    private final BitSet orStreams;
+    // Streams which are decided without looking at the message, e.g. by ALWAYS_MATCH rules.
+    private final BitSet constantDecisions;
+    private final FieldGroup[] fieldGroups;
+    private final List<CompiledRule> fallbackRules;
+    private final long streamProcessingTimeout;
+
+    CompiledStreamMatcher(List<Stream> streams,
+                          List<StreamRouterEngine.Rule> rules,
+                          long streamProcessingTimeout) {
+        this.streamProcessingTimeout = streamProcessingTimeout;
+        this.streams = streams.toArray(new Stream[0]);
+        this.andStreams = new BitSet(this.streams.length);
+        this.orStreams = new BitSet(this.streams.length);
+        this.constantDecisions = new BitSet(this.streams.length);
+
+        final Map<Stream, Integer> streamIndices = new IdentityHashMap<>();
+        for (int i = 0; i < this.streams.length; i++) {
+            streamIndices.putIfAbsent(this.streams[i], i);
+        }
+
+        final Map<String, FieldGroup.Builder> groupBuilders = new LinkedHashMap<>();
+        final List<CompiledRule> fallback = new ArrayList<>();
+
+        for (StreamRouterEngine.Rule rule : rules) {
+            final Integer index = streamIndices.get(rule.getStream());
+            if (index == null) {
+                continue;
+            }
+            final CompiledRule compiledRule = new CompiledRule(rule, index);
+            if (compiledRule.isAnd) {
+                andStreams.set(index);
+            } else {
+                orStreams.set(index);
+            }
+
+            final StreamRule streamRule = rule.getStreamRule();
+            final StreamRuleType type = streamRule.getType();
+            if (type == StreamRuleType.ALWAYS_MATCH) {
+                // See AlwaysMatcher: the rule never matches if it is inverted.
+                if (compiledRule.decidesOn(!compiledRule.inverted)) {
+                    constantDecisions.set(index);
+                }
+                continue;
+            }
+            if (streamRule.getInverted() == null) {
+                fallback.add(compiledRule);
+                continue;
+            }
+            if ((type == StreamRuleType.GREATER || type == StreamRuleType.SMALLER) && getDouble(streamRule.getValue()) == null) {
+                // A non-numeric threshold never matches, regardless of the message.
+                if (compiledRule.decidesOn(false)) {
+                    constantDecisions.set(index);
+                }
+                continue;
+            }
+
+            final String field = type == StreamRuleType.MATCH_INPUT ? Message.FIELD_GL2_SOURCE_INPUT : streamRule.getField();
+            if (field == null) {
+                fallback.add(compiledRule);
+                continue;
+            }
+            final FieldGroup.Builder builder = groupBuilders.computeIfAbsent(field, FieldGroup.Builder::new);
+            if (!builder.add(compiledRule)) {
+                fallback.add(compiledRule);
+            }
+        }
+
+        this.fieldGroups = groupBuilders.values().stream()
+                .map(builder -> builder.build(this.streams.length))
+                .toArray(FieldGroup[]::new);
+        this.fallbackRules = ImmutableList.copyOf(fallback);
+    }
+
+    /**
+     * Returns the streams matching the given message, in the order of the stream list given to the constructor.
+     *
+     * @param message the message
+     * @return the matching streams
+     */
+    List<Stream> match(Message message) {
+        final BitSet decided = (BitSet) constantDecisions.clone();
+        final String[] values = new String[fieldGroups.length];
+        final boolean[] broken = new boolean[fieldGroups.length];
+
+        for (int i = 0; i < fieldGroups.length; i++) {
+            final FieldGroup group = fieldGroups[i];
+            final Object value = message.getField(group.field);
+            try {
+                values[i] = value == null || !group.needsString ? null : value.toString();
+                group.evaluate(value, values[i], decided);
+            } catch (Exception e) {
+                // Evaluate the rules one by one so errors get recorded exactly like in the linear engine.
+                broken[i] = true;
+                for (CompiledRule rule : group.rules) {
+                    rule.evaluate(message, decided, streamProcessingTimeout);
+                }
+            }
+        }
+
+        for (CompiledRule rule : fallbackRules) {
+            rule.evaluate(message, decided, streamProcessingTimeout);
+        }
+
+        for (int i = 0; i < fieldGroups.length; i++) {
+            if (!broken[i]) {
+                fieldGroups[i].evaluateRegexRules(message, values[i], decided, streamProcessingTimeout);
+            }
+        }
+
+        final List<Stream> result = new ArrayList<>();
+        for (int i = 0; i < streams.length; i++) {
+            if (andStreams.get(i) ? !decided.get(i) : (orStreams.get(i) && decided.get(i))) {
+                result.add(streams[i]);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isLiteral(@Nullable String regex) {
+        return regex != null && !REGEX_META_CHARACTERS.matcher(regex).find();
+    }
+
+    private static class CompiledRule {
+        private final StreamRouterEngine.Rule rule;
+        private final int streamIndex;
+        private final boolean isAnd;
+        private final boolean inverted;
+
+        CompiledRule(StreamRouterEngine.Rule rule, int streamIndex) {
+            this.rule = rule;
+            this.streamIndex = streamIndex;
+            this.isAnd = rule.getMatchingType() == Stream.MatchingType.AND;
+            this.inverted = Boolean.TRUE.equals(rule.getStreamRule().getInverted());
+        }
+
+        /**
+         * An AND stream is decided by the first failing rule, an OR stream by the first matching rule.
+         */
+        boolean decidesOn(boolean matched) {
+            return isAnd != matched;
+        }
+
+        void decide(boolean matched, BitSet decided) {
+            if (decidesOn(matched)) {
+                decided.set(streamIndex);
+            }
+        }
+
+        void evaluate(Message message, BitSet decided, long timeout) {
+            if (decided.get(streamIndex)) {
+                return;
+            }
+            final StreamRule streamRule = rule.getStreamRule();
+            final StreamRuleType type = streamRule.getType();
+            final boolean matched;
+            if ((type == StreamRuleType.GREATER || type == StreamRuleType.SMALLER) && !message.hasField(streamRule.getField())) {
+                matched = false;
+            } else if (type == StreamRuleType.REGEX) {
+                matched = rule.matchWithTimeOut(message, timeout, TimeUnit.MILLISECONDS) != null;
+            } else {
+                matched = rule.match(message) != null;
+            }
+            decide(matched, decided);
+        }
+    }
+
+    /**
+     * Decisions for all rules of one kind depending on the value of the field.
+     */
+    private static class ValueTable {
+        private final Map<String, BitSet> byValue;
+        // Decisions for a missing field or a value none of the rules is looking for.
+        private final BitSet otherValue;
+
+        ValueTable(Map<String, BitSet> byValue, BitSet otherValue) {
+            this.byValue = byValue;
+            this.otherValue = otherValue;
+        }
+
+        /**
+         * Precomputes the decided streams for every distinct rule value and for any other value or a missing field.
+         *
+         * @param rules       the rules comparing the field value with their rule value
+         * @param valueGroups empty map used to group the rules by value, determines how values are compared
+         * @param lookup      empty map receiving the decisions per value, must compare values like {@code valueGroups}
+         * @param streamCount the number of streams
+         */
+        static ValueTable build(List<CompiledRule> rules,
+                                Map<String, List<CompiledRule>> valueGroups,
+                                Map<String, BitSet> lookup,
+                                int streamCount) {
+            final BitSet otherValue = new BitSet(streamCount);
+            final int[] otherValueDeciders = new int[streamCount];
+            for (CompiledRule rule : rules) {
+                if (rule.decidesOn(rule.inverted)) {
+                    otherValue.set(rule.streamIndex);
+                    otherValueDeciders[rule.streamIndex]++;
+                }
+                final String value = rule.rule.getStreamRule().getValue();
+                if (value != null) {
+                    valueGroups.computeIfAbsent(value, k -> new ArrayList<>()).add(rule);
+                }
+            }
+
+            // Only the rules with the same value flip their result, so start from the "other value" decisions and
+            // correct the streams of those rules.
+            for (Map.Entry<String, List<CompiledRule>> entry : valueGroups.entrySet()) {
+                final BitSet decisions = (BitSet) otherValue.clone();
+                final Map<Integer, Integer> remainingDeciders = new HashMap<>();
+                for (CompiledRule rule : entry.getValue()) {
+                    if (rule.decidesOn(rule.inverted)) {
+                        final int remaining = remainingDeciders.getOrDefault(rule.streamIndex, otherValueDeciders[rule.streamIndex]) - 1;
+                        remainingDeciders.put(rule.streamIndex, remaining);
+                        if (remaining == 0) {
+                            decisions.clear(rule.streamIndex);
+                        }
+                    }
+                }
+                for (CompiledRule rule : entry.getValue()) {
+                    if (rule.decidesOn(!rule.inverted)) {
+                        decisions.set(rule.streamIndex);
+                    }
+                }
+                lookup.put(entry.getKey(), decisions);
+            }
+
+            return new ValueTable(lookup, otherValue);
+        }
+
+        void evaluate(@Nullable String value, BitSet decided) {
+            if (value == null) {
+                decided.or(otherValue);
+                return;
+            }
+            final BitSet decisions = byValue.get(value.trim());
+            decided.or(decisions == null ? otherValue : decisions);
+        }
+    }
+
+    private static class NumericRule {
+        private final CompiledRule rule;
+        private final boolean greater;
+        private final double threshold;
+
+        NumericRule(CompiledRule rule, boolean greater, double threshold) {
+            this.rule = rule;
+            this.greater = greater;
+            this.threshold = threshold;
+        }
+    }
+
+    private static class RegexRule {
+        private final CompiledRule rule;
+        private final Pattern pattern;
+
+        RegexRule(CompiledRule rule, Pattern pattern) {
+            this.rule = rule;
+            this.pattern = pattern;
+        }
+
+        void evaluate(Message message, @Nullable String value, BitSet decided, long timeout) {
+            if (decided.get(rule.streamIndex)) {
+                return;
+            }
+            if (value == null) {
+                rule.decide(rule.inverted, decided);
+                return;
+            }
+            final Stream stream = rule.rule.getStream();
+            final Stream matched = rule.rule.matchWithTimeOut(message,
+                    deadlineNanos -> rule.inverted ^ pattern.matcher(new InterruptibleCharSequence(value, deadlineNanos)).find() ? stream : null,
+                    timeout, TimeUnit.MILLISECONDS);
+            rule.decide(matched != null, decided);
+        }
+    }
+
+    private static class FieldGroup {
+        private final String field;
+        // All rules of this group, used to re-evaluate them one by one if the field value cannot be converted.
+        private final List<CompiledRule> rules;
+        @Nullable
+        private final ValueTable exact;
+        @Nullable
+        private final ValueTable input;
+        @Nullable
+        private final BitSet[] presence;
+        private final NumericRule[] numericRules;
+        @Nullable
+        private final AhoCorasickAutomaton automaton;
+        private final CompiledRule[] literalRules;
+        private final int[] literalPatterns;
+        private final RegexRule[] regexRules;
+        private final boolean needsString;
+
+        private FieldGroup(String field,
+                           List<CompiledRule> rules,
+                           @Nullable ValueTable exact,
+                           @Nullable ValueTable input,
+                           @Nullable BitSet[] presence,
+                           NumericRule[] numericRules,
+                           @Nullable AhoCorasickAutomaton automaton,
+                           CompiledRule[] literalRules,
+                           int[] literalPatterns,
+                           RegexRule[] regexRules) {
+            this.field = field;
+            this.rules = rules;
+            this.exact = exact;
+            this.input = input;
+            this.presence = presence;
+            this.numericRules = numericRules;
+            this.automaton = automaton;
+            this.literalRules = literalRules;
+            this.literalPatterns = literalPatterns;
+            this.regexRules = regexRules;
+            this.needsString = exact != null || input != null || automaton != null || regexRules.length > 0;
+        }
+
+        void evaluate(@Nullable Object value, @Nullable String stringValue, BitSet decided) {
+            if (presence != null) {
+                final int state;
+                if (value == null) {
+                    state = 0;
+                } else if (value instanceof String && ((String) value).trim().isEmpty()) {
+                    state = 1;
+                } else {
+                    state = 2;
+                }
+                decided.or(presence[state]);
+            }
+            if (exact != null) {
+                exact.evaluate(stringValue, decided);
+            }
+            if (input != null) {
+                input.evaluate(stringValue, decided);
+            }
+            if (numericRules.length > 0) {
+                final Double number = getDouble(value);
+                for (NumericRule numericRule : numericRules) {
+                    final CompiledRule rule = numericRule.rule;
+                    if (number == null) {
+                        rule.decide(false, decided);
+                    } else {
+                        final boolean result = numericRule.greater ? number > numericRule.threshold : number < numericRule.threshold;
+                        rule.decide(rule.inverted ^ result, decided);
+                    }
+                }
+            }
+            if (automaton != null) {
+                if (stringValue == null) {
+                    for (CompiledRule rule : literalRules) {
+                        rule.decide(rule.inverted, decided);
+                    }
+                } else if (hasUndecided(literalRules, decided)) {
+                    final BitSet found = automaton.findAll(stringValue);
+                    for (int i = 0; i < literalRules.length; i++) {
+                        final CompiledRule rule = literalRules[i];
+                        rule.decide(rule.inverted ^ found.get(literalPatterns[i]), decided);
+                    }
+                }
+            }
+        }
+
+        void evaluateRegexRules(Message message, @Nullable String stringValue, BitSet decided, long timeout) {
+            for (RegexRule regexRule : regexRules) {
+                regexRule.evaluate(message, stringValue, decided, timeout);
+            }
+        }
+
+        private static boolean hasUndecided(CompiledRule[] rules, BitSet decided) {
+            for (CompiledRule rule : rules) {
+                if (!decided.get(rule.streamIndex)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static class Builder {
+            private final String field;
+            private final List<CompiledRule> rules = new ArrayList<>();
+            private final List<CompiledRule> exactRules = new ArrayList<>();
+            private final List<CompiledRule> inputRules = new ArrayList<>();
+            private final List<CompiledRule> presenceRules = new ArrayList<>();
+            private final List<NumericRule> numericRules = new ArrayList<>();
+            private final List<CompiledRule> literalRules = new ArrayList<>();
+            private final List<String> literalValues = new ArrayList<>();
+            private final List<RegexRule> regexRules = new ArrayList<>();
+
+            Builder(String field) {
+                this.field = field;
+            }
+
+            /**
+             * Adds the given rule to the group.
+             *
+             * @return {@code false} if the rule cannot be compiled and has to be evaluated one by one
+             */
+            boolean add(CompiledRule rule) {
+                final StreamRule streamRule = rule.rule.getStreamRule();
+                switch (streamRule.getType()) {
+                    case EXACT:
+                        exactRules.add(rule);
+                        break;
+                    case MATCH_INPUT:
+                        inputRules.add(rule);
+                        break;
+                    case PRESENCE:
+                        presenceRules.add(rule);
+                        break;
+                    case GREATER:
+                    case SMALLER:
+                        final Double threshold = getDouble(streamRule.getValue());
+                        if (threshold == null) {
+                            return false;
+                        }
+                        numericRules.add(new NumericRule(rule, streamRule.getType() == StreamRuleType.GREATER, threshold));
+                        break;
+                    case CONTAINS:
+                        if (streamRule.getValue() == null) {
+                            return false;
+                        }
+                        literalRules.add(rule);
+                        literalValues.add(streamRule.getValue());
+                        break;
+                    case REGEX:
+                        if (isLiteral(streamRule.getValue())) {
+                            literalRules.add(rule);
+                            literalValues.add(streamRule.getValue());
+                        } else {
+                            final Pattern pattern;
+                            try {
+                                pattern = Pattern.compile(Objects.requireNonNull(streamRule.getValue()), Pattern.DOTALL);
+                            } catch (Exception e) {
+                                return false;
+                            }
+                            regexRules.add(new RegexRule(rule, pattern));
+                        }
+                        break;
+                    default:
+                        return false;
+                }
+                rules.add(rule);
+                return true;
+            }
+
+            FieldGroup build(int streamCount) {
+                final BitSet[] presence;
+                if (presenceRules.isEmpty()) {
+                    presence = null;
+                } else {
+                    // Field states: missing, blank string, present
+                    presence = new BitSet[]{new BitSet(streamCount), new BitSet(streamCount), new BitSet(streamCount)};
+                    for (CompiledRule rule : presenceRules) {
+                        if (rule.decidesOn(rule.inverted)) {
+                            presence[0].set(rule.streamIndex);
+                            presence[1].set(rule.streamIndex);
+                        }
+                        if (rule.decidesOn(!rule.inverted)) {
+                            presence[2].set(rule.streamIndex);
+                        }
+                    }
+                }
+
+                final Map<String, Integer> patternIndices = new HashMap<>();
+                final int[] literalPatterns = new int[literalValues.size()];
+                for (int i = 0; i < literalValues.size(); i++) {
+                    literalPatterns[i] = patternIndices.computeIfAbsent(literalValues.get(i), k -> patternIndices.size());
+                }
+                final List<String> patterns = new ArrayList<>(patternIndices.keySet());
+                patternIndices.forEach((pattern, index) -> patterns.set(index, pattern));
+
+                return new FieldGroup(
+                        field,
+                        ImmutableList.copyOf(rules),
+                        exactRules.isEmpty() ? null : ValueTable.build(exactRules, new HashMap<>(), new HashMap<>(), streamCount),
+                        inputRules.isEmpty() ? null : ValueTable.build(inputRules, new TreeMap<>(String.CASE_INSENSITIVE_ORDER),
+                                new TreeMap<>(String.CASE_INSENSITIVE_ORDER), streamCount),
+                        presence,
+                        numericRules.toArray(new NumericRule[0]),
+                        patterns.isEmpty() ? null : new AhoCorasickAutomaton(patterns),
+                        literalRules.toArray(new CompiledRule[0]),
+                        literalPatterns,
+                        regexRules.toArray(new RegexRule[0]));
+            }
+        }
+    }
+}
@@ -18,10 +18,10 @@ package org.graylog2.streams;
 
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog2.indexer.indexset.events.IndexSetCreatedEvent;
 import org.graylog2.indexer.indexset.events.IndexSetDeletedEvent;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.streams.events.StreamsChangedEvent;
@@ -32,10 +32,7 @@ import jakarta.inject.Inject;
 import jakarta.inject.Named;
 
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -59,7 +56,7 @@ public class StreamRouter {
         this.serverStatus = serverStatus;
         this.scheduler = scheduler;
 
-        this.engineUpdater = new StreamRouterEngineUpdater(routerEngine, routerEngineFactory, streamService, executorService());
+        this.engineUpdater = new StreamRouterEngineUpdater(routerEngine, routerEngineFactory, streamService);
         this.routerEngine.set(engineUpdater.getNewEngine());
 
         // TODO: This class needs lifecycle management to avoid leaking objects in the EventBus
@@ -88,14 +85,6 @@ public class StreamRouter {
         scheduler.submit(engineUpdater);
     }
 
-    private ExecutorService executorService() {
-        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                .setNameFormat("stream-router-%d")
-                .setDaemon(true)
-                .build();
-        return Executors.newCachedThreadPool(threadFactory);
-    }
-
     public List<Stream> route(final Message msg) {
         final StreamRouterEngine engine = routerEngine.get();
 
@@ -104,20 +93,35 @@ public class StreamRouter {
         return engine.match(msg);
     }
 
+    /**
+     * Routes all messages of the batch with the same router engine.
+     *
+     * @param messages the messages to route
+     * @return the matching streams per message, in the iteration order of the messages
+     * @see StreamRouterEngine#matchBatch(Messages)
+     */
+    public List<List<Stream>> route(final Messages messages) {
+        final StreamRouterEngine engine = routerEngine.get();
+
+        final int streamCount = engine.getStreams().size();
+        for (final Message msg : messages) {
+            msg.recordCounter(serverStatus, "streams-evaluated", streamCount);
+        }
+
+        return engine.matchBatch(messages);
+    }
+
     private static class StreamRouterEngineUpdater implements Runnable {
         private final AtomicReference<StreamRouterEngine> routerEngine;
         private final StreamRouterEngine.Factory engineFactory;
         private final StreamService streamService;
-        private final ExecutorService executorService;
 
         public StreamRouterEngineUpdater(AtomicReference<StreamRouterEngine> routerEngine,
                                          StreamRouterEngine.Factory engineFactory,
-                                         StreamService streamService,
-                                         ExecutorService executorService) {
+                                         StreamService streamService) {
             this.routerEngine = routerEngine;
             this.engineFactory = engineFactory;
             this.streamService = streamService;
-            this.executorService = executorService;
         }
 
         @Override
@@ -138,7 +142,7 @@ public class StreamRouter {
         }
 
         private StreamRouterEngine getNewEngine() {
-            return engineFactory.create(streamService.loadAllEnabled(), executorService);
+            return engineFactory.create(streamService.loadAllEnabled());
         }
     }
 }
@@ -23,14 +23,15 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
+import com.google.common.math.LongMath;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
 import com.google.inject.assistedinject.Assisted;
 import jakarta.inject.Inject;
+import jakarta.inject.Named;
 import jakarta.inject.Provider;
 import org.graylog.failure.ProcessingFailureCause;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.streams.DefaultStream;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.streams.StreamRule;
@@ -41,13 +42,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static org.graylog2.shared.utilities.StringUtils.f;
@@ -65,29 +69,31 @@ public class StreamRouterEngine {
     private final List<Stream> streams;
     private final StreamFaultManager streamFaultManager;
     private final StreamMetrics streamMetrics;
-    private final TimeLimiter timeLimiter;
     private final long streamProcessingTimeout;
     private final String fingerprint;
     private final Provider<Stream> defaultStreamProvider;
 
     private final List<Rule> rulesList;
+    // Index of the stream of each rule in the streams list, used for batch matching.
+    private final int[] ruleStreamIndexes;
+    @Nullable
+    private final CompiledStreamMatcher compiledMatcher;
     private final Counter cannotRemoveDefaultMeter;
 
     public interface Factory {
-        StreamRouterEngine create(List<Stream> streams, ExecutorService executorService);
+        StreamRouterEngine create(List<Stream> streams);
     }
 
     @Inject
     public StreamRouterEngine(@Assisted List<Stream> streams,
-                              @Assisted ExecutorService executorService,
                               StreamFaultManager streamFaultManager,
                               StreamMetrics streamMetrics,
                               @DefaultStream Provider<Stream> defaultStreamProvider,
-                              MetricRegistry metricRegistry) {
+                              MetricRegistry metricRegistry,
+                              @Named("stream_router_engine") StreamRouterEngineMode engineMode) {
         this.streams = streams;
         this.streamFaultManager = streamFaultManager;
         this.streamMetrics = streamMetrics;
-        this.timeLimiter = SimpleTimeLimiter.create(executorService);
         this.streamProcessingTimeout = streamFaultManager.getStreamProcessingTimeout();
         this.fingerprint = new StreamListFingerprint(streams).getFingerprint();
         this.defaultStreamProvider = defaultStreamProvider;
@@ -150,6 +156,18 @@ public class StreamRouterEngine {
         this.rulesList.addAll(smallerRules);
         this.rulesList.addAll(containsRules);
         this.rulesList.addAll(regexRules);
+
+        final Map<Stream, Integer> streamIndexes = new IdentityHashMap<>(streams.size());
+        for (int i = 0; i < streams.size(); i++) {
+            streamIndexes.putIfAbsent(streams.get(i), i);
+        }
+        this.ruleStreamIndexes = rulesList.stream().mapToInt(rule -> streamIndexes.get(rule.getStream())).toArray();
+
+        if (engineMode == StreamRouterEngineMode.COMPILED) {
+            this.compiledMatcher = new CompiledStreamMatcher(streams, rulesList, streamProcessingTimeout);
+        } else {
+            this.compiledMatcher = null;
+        }
     }
 
     /**
@@ -177,6 +195,133 @@ public class StreamRouterEngine {
      * @return the list of matching streams
      */
     public List<Stream> match(Message message) {
+        final Collection<Stream> result = compiledMatcher != null ? compiledMatcher.match(message) : matchRules(message);
+        removeFromDefaultStream(message, result);
+        return ImmutableList.copyOf(result);
+    }
+
+    /**
+     * Returns the matching streams for every message of the given batch.
+     * <p>
+     * The linear engine evaluates each rule for all messages of the batch before moving on to the next rule, so
+     * the rule execution timer is only started once per rule and batch. The compiled engine already evaluates each
+     * field only once per message and matches the messages one by one.
+     *
+     * @param messages the messages
+     * @return the lists of matching streams, in the iteration order of the messages
+     */
+    public List<List<Stream>> matchBatch(Messages messages) {
+        final List<Message> batch = new ArrayList<>();
+        messages.forEach(batch::add);
+
+        final List<List<Stream>> results = new ArrayList<>(batch.size());
+        if (compiledMatcher != null) {
+            for (final Message message : batch) {
+                results.add(match(message));
+            }
+            return results;
+        }
+
+        final BitSet[] matched = matchRules(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            final Message message = batch.get(i);
+            final List<Stream> result = new ArrayList<>(matched[i].cardinality());
+            for (int index = matched[i].nextSetBit(0); index >= 0; index = matched[i].nextSetBit(index + 1)) {
+                result.add(streams.get(index));
+            }
+            removeFromDefaultStream(message, result);
+            results.add(ImmutableList.copyOf(result));
+        }
+        return results;
+    }
+
+    private void removeFromDefaultStream(Message message, Collection<Stream> result) {
+        final Stream defaultStream = defaultStreamProvider.get();
+        boolean alreadyRemovedDefaultStream = false;
+        for (Stream stream : result) {
+            if (stream.getRemoveMatchesFromDefaultStream()) {
+                if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
+                    alreadyRemovedDefaultStream = true;
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Successfully removed default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
+                    }
+                } else {
+                    // A previously executed message processor (or Illuminate) has likely already removed the
+                    // default stream from the message. Now, the message has matched a stream in the Graylog
+                    // MessageFilterChain, and the matching stream is also set to remove the default stream.
+                    // This is usually from user-defined stream rules, and is generally not a problem.
+                    cannotRemoveDefaultMeter.inc();
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Couldn't remove default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Column-wise variant of {@link #matchRules(Message)} which evaluates one rule for the whole batch at a time.
+     *
+     * @return the indexes of the matched streams per message
+     */
+    private BitSet[] matchRules(List<Message> batch) {
+        final BitSet[] matched = new BitSet[batch.size()];
+        // Streams which can't change their result anymore, like the blacklist for single messages.
+        final BitSet[] decided = new BitSet[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            matched[i] = new BitSet(streams.size());
+            decided[i] = new BitSet(streams.size());
+        }
+
+        for (int r = 0; r < rulesList.size(); r++) {
+            final Rule rule = rulesList.get(r);
+            final int streamIndex = ruleStreamIndexes[r];
+            final StreamRule streamRule = rule.getStreamRule();
+            final StreamRuleType streamRuleType = streamRule.getType();
+            final boolean isAnd = rule.getMatchingType() == Stream.MatchingType.AND;
+            final boolean needsFieldPresence = !ruleTypesNotNeedingFieldPresence.contains(streamRuleType);
+            final boolean isRegex = streamRuleType == StreamRuleType.REGEX;
+
+            // Regular expressions are timed together with their timeout per message.
+            final Timer.Context timerContext = isRegex ? null : rule.getExecutionTimer().time();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (decided[i].get(streamIndex)) {
+                        continue;
+                    }
+                    final Message message = batch.get(i);
+                    final boolean ruleMatched;
+                    if (needsFieldPresence && !message.hasField(streamRule.getField())) {
+                        ruleMatched = false;
+                    } else if (isRegex) {
+                        ruleMatched = rule.matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS) != null;
+                    } else {
+                        ruleMatched = rule.matchWithoutTimer(message) != null;
+                    }
+
+                    if (!ruleMatched) {
+                        if (isAnd) {
+                            matched[i].clear(streamIndex);
+                            decided[i].set(streamIndex);
+                        }
+                    } else {
+                        matched[i].set(streamIndex);
+                        if (!isAnd) {
+                            decided[i].set(streamIndex);
+                        }
+                    }
+                }
+            } finally {
+                if (timerContext != null) {
+                    timerContext.stop();
+                }
+            }
+        }
+
+        return matched;
+    }
+
+    private Set<Stream> matchRules(Message message) {
         final Set<Stream> result = Sets.newHashSet();
         final Set<String> blackList = Sets.newHashSet();
 
@@ -221,29 +366,7 @@ public class StreamRouterEngine {
             }
         }
 
-        final Stream defaultStream = defaultStreamProvider.get();
-        boolean alreadyRemovedDefaultStream = false;
-        for (Stream stream : result) {
-            if (stream.getRemoveMatchesFromDefaultStream()) {
-                if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
-                    alreadyRemovedDefaultStream = true;
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Successfully removed default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
-                    }
-                } else {
-                    // A previously executed message processor (or Illuminate) has likely already removed the
-                    // default stream from the message. Now, the message has matched a stream in the Graylog
-                    // MessageFilterChain, and the matching stream is also set to remove the default stream.
-                    // This is usually from user-defined stream rules, and is generally not a problem.
-                    cannotRemoveDefaultMeter.inc();
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Couldn't remove default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
-                    }
-                }
-            }
-        }
-
-        return ImmutableList.copyOf(result);
+        return result;
     }
 
     /**
@@ -275,13 +398,14 @@ public class StreamRouterEngine {
         return matches;
     }
 
-    private class Rule {
+    class Rule {
         private final Stream stream;
         private final StreamRule rule;
         private final String streamId;
         private final String streamRuleId;
         private final StreamRuleMatcher matcher;
         private final Stream.MatchingType matchingType;
+        private final Timer executionTimer;
 
         public Rule(Stream stream, StreamRule rule, Stream.MatchingType matchingType) throws InvalidStreamRuleTypeException {
             this.stream = stream;
@@ -290,6 +414,7 @@ public class StreamRouterEngine {
             this.streamRuleId = rule.getId();
             this.matchingType = matchingType;
             this.matcher = StreamRuleMatcherFactory.build(rule.getType());
+            this.executionTimer = streamMetrics.getExecutionTimer(streamId, streamRuleId);
         }
 
         public Stream.MatchingType getMatchingType() {
@@ -299,54 +424,73 @@ public class StreamRouterEngine {
         @Nullable
         public Stream match(Message message) {
             // TODO Add missing message recordings!
-            try (final Timer.Context ignored = streamMetrics.getExecutionTimer(streamId, streamRuleId).time()) {
+            try (final Timer.Context ignored = executionTimer.time()) {
+                return matchWithoutTimer(message);
+            }
+        }
+
+        /**
+         * Same as {@link #match(Message)} but without updating the execution timer, for callers which time a
+         * whole batch of messages.
+         */
+        @Nullable
+        Stream matchWithoutTimer(Message message) {
+            try {
                 if (matcher.match(message, rule)) {
                     return stream;
                 } else {
                     return null;
                 }
             } catch (Exception e) {
-                streamMetrics.markExceptionMeter(streamId);
-                final String error = f("Error matching stream rule <%s> %s <%s/%s> for stream %s",
-                        streamRuleId, rule.getDescription(), rule.getType(), rule.getValue(), stream.getTitle());
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(error + ": " + e.getMessage(), e);
-                }
-                message.addProcessingError(new Message.ProcessingError(
-                        ProcessingFailureCause.StreamMatchException, error, ExceptionUtils.getRootCauseMessage(e)));
+                recordMatchException(message, e);
                 return null;
             }
         }
 
         @Nullable
-        private Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
+        Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
+            return matchWithTimeOut(message, deadlineNanos -> matcher.match(message, rule, deadlineNanos) ? stream : null, timeout, unit);
+        }
+
+        /**
+         * Runs the given match call in the current thread with a deadline and the same failure handling as
+         * {@link #matchWithTimeOut(Message, long, TimeUnit)}. The match call gets the deadline as
+         * {@link System#nanoTime()} value and is expected to throw an {@link UncheckedTimeoutException} once it
+         * has been exceeded.
+         */
+        @Nullable
+        Stream matchWithTimeOut(final Message message, LongFunction<Stream> matchCall, long timeout, TimeUnit unit) {
             Stream matchedStream = null;
-            try (final Timer.Context ignored = streamMetrics.getExecutionTimer(streamId, streamRuleId).time()) {
-                matchedStream = timeLimiter.callWithTimeout(new Callable<Stream>() {
-                    @Override
-                    @Nullable
-                    public Stream call() throws Exception {
-                        return match(message);
-                    }
-                }, timeout, unit);
+            try (final Timer.Context ignored = executionTimer.time()) {
+                matchedStream = matchCall.apply(LongMath.saturatedAdd(System.nanoTime(), unit.toNanos(timeout)));
             } catch (UncheckedTimeoutException e) {
                 streamFaultManager.registerFailure(stream);
             } catch (Exception e) {
-                streamMetrics.markExceptionMeter(streamId);
-                final String error = f("Error matching stream rule <%s> %s <%s/%s> for stream %s",
-                        streamRuleId, rule.getDescription(), rule.getType(), rule.getValue(), stream.getTitle());
-                LOG.warn(error, e);
-                message.addProcessingError(new Message.ProcessingError(
-                        ProcessingFailureCause.StreamMatchException, error, ExceptionUtils.getRootCauseMessage(e)));
+                recordMatchException(message, e);
             }
 
             return matchedStream;
         }
 
+        private void recordMatchException(Message message, Exception e) {
+            streamMetrics.markExceptionMeter(streamId);
+            final String error = f("Error matching stream rule <%s> %s <%s/%s> for stream %s",
+                    streamRuleId, rule.getDescription(), rule.getType(), rule.getValue(), stream.getTitle());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(error + ": " + e.getMessage(), e);
+            }
+            message.addProcessingError(new Message.ProcessingError(
+                    ProcessingFailureCause.StreamMatchException, error, ExceptionUtils.getRootCauseMessage(e)));
+        }
+
         public StreamRule getStreamRule() {
             return rule;
         }
 
+        Timer getExecutionTimer() {
+            return executionTimer;
+        }
+
         public Stream getStream() {
             return stream;
         }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.github.joschi.jadconfig.ParameterException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Selects how {@link StreamRouterEngine} evaluates stream rules.
+ */
+public enum StreamRouterEngineMode {
+    /**
+     * Evaluates every stream rule on its own, one after the other.
+     */
+    LINEAR,
+    /**
+     * Groups stream rules by field and evaluates each field once per message, see {@link CompiledStreamMatcher}.
+     */
+    COMPILED;
+
+    @Override
+    public String toString() {
+        return super.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<StreamRouterEngineMode> {
+        @Override
+        public StreamRouterEngineMode convertFrom(String value) {
+            try {
+                return StreamRouterEngineMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse stream router engine <" + value + ">. Valid engines are: " +
+                        Arrays.stream(StreamRouterEngineMode.values()).map(StreamRouterEngineMode::toString)
+                                .collect(Collectors.toList()) + ".");
+            }
+        }
+
+        @Override
+        public String convertTo(StreamRouterEngineMode value) {
+            return value.toString();
+        }
+    }
+}
@@ -44,12 +44,17 @@ public class RegexMatcher implements StreamRuleMatcher {
 
     @Override
     public boolean match(Message msg, StreamRule rule) {
+        return match(msg, rule, InterruptibleCharSequence.NO_DEADLINE);
+    }
+
+    @Override
+    public boolean match(Message msg, StreamRule rule, long deadlineNanos) {
         if (msg.getField(rule.getField()) == null)
             return rule.getInverted();
 
         try {
             final Pattern pattern = patternCache.get(rule.getValue());
-            final CharSequence charSequence = new InterruptibleCharSequence(msg.getField(rule.getField()).toString());
+            final CharSequence charSequence = new InterruptibleCharSequence(msg.getField(rule.getField()).toString(), deadlineNanos);
             return rule.getInverted() ^ pattern.matcher(charSequence).find();
         } catch (ExecutionException e) {
             LOG.error("Unable to get pattern from regex cache: ", e);
@@ -27,4 +27,15 @@ public interface StreamRuleMatcher {
 
     boolean match(Message msg, StreamRule rule);
 
+    /**
+     * Matches like {@link #match(Message, StreamRule)} but gives up once the given deadline has passed.
+     * Matchers which cannot take long can ignore the deadline, which is what the default implementation does.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} after which matching should be aborted
+     * @throws com.google.common.util.concurrent.UncheckedTimeoutException if the deadline has been exceeded
+     */
+    default boolean match(Message msg, StreamRule rule, long deadlineNanos) {
+        return match(msg, rule);
+    }
+
 }
\ No newline at end of file
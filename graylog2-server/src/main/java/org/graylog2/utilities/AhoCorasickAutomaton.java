@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable Aho-Corasick automaton which finds all occurrences of a set of literal patterns in a single pass
+ * over the input text.
+ * <p>
+ * Patterns are identified by their index in the list given to {@link #AhoCorasickAutomaton(List)}. The automaton
+ * is safe to share between threads.
+ */
+public class AhoCorasickAutomaton {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final int patternCount;
+    // Sorted transition labels and their target states, per state.
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] failure;
+    // Patterns ending in a state and the next state on the failure chain which has own patterns.
+    private final int[][] outputs;
+    private final int[] outputLink;
+
+    public AhoCorasickAutomaton(List<String> patterns) {
+        requireNonNull(patterns, "patterns");
+        this.patternCount = patterns.size();
+
+        final List<Map<Character, Integer>> trie = new ArrayList<>();
+        final List<List<Integer>> ownOutputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ownOutputs.add(new ArrayList<>());
+
+        for (int i = 0; i < patterns.size(); i++) {
+            final String pattern = requireNonNull(patterns.get(i), "pattern");
+            int state = ROOT;
+            for (int j = 0; j < pattern.length(); j++) {
+                final Character c = pattern.charAt(j);
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ownOutputs.add(new ArrayList<>());
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            ownOutputs.get(state).add(i);
+        }
+
+        final int states = trie.size();
+        this.labels = new char[states][];
+        this.targets = new int[states][];
+        this.failure = new int[states];
+        this.outputs = new int[states][];
+        this.outputLink = new int[states];
+
+        for (int state = 0; state < states; state++) {
+            final Map<Character, Integer> children = trie.get(state);
+            final char[] stateLabels = new char[children.size()];
+            final int[] stateTargets = new int[children.size()];
+            int k = 0;
+            // TreeMap iterates in ascending key order, so the labels end up sorted for the binary search.
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                stateLabels[k] = child.getKey();
+                stateTargets[k] = child.getValue();
+                k++;
+            }
+            labels[state] = stateLabels;
+            targets[state] = stateTargets;
+            outputs[state] = ownOutputs.get(state).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Breadth-first traversal so the failure state of a node is always resolved before its children.
+        failure[ROOT] = ROOT;
+        outputLink[ROOT] = NONE;
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[ROOT]) {
+            failure[child] = ROOT;
+            outputLink[child] = outputs[ROOT].length > 0 ? ROOT : NONE;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int k = 0; k < labels[state].length; k++) {
+                final char c = labels[state][k];
+                final int child = targets[state][k];
+                int fallback = failure[state];
+                while (fallback != ROOT && transition(fallback, c) == NONE) {
+                    fallback = failure[fallback];
+                }
+                final int candidate = transition(fallback, c);
+                failure[child] = candidate == NONE ? ROOT : candidate;
+                outputLink[child] = outputs[failure[child]].length > 0 ? failure[child] : outputLink[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of patterns this automaton was built from.
+     *
+     * @return the number of patterns
+     */
+    public int patternCount() {
+        return patternCount;
+    }
+
+    /**
+     * Scans the given text once and sets the bit of every pattern which occurs in it.
+     *
+     * @param text  the text to scan
+     * @param found receives the indices of all patterns found in the text
+     */
+    public void findAll(CharSequence text, BitSet found) {
+        int state = ROOT;
+        collect(state, found);
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = transition(state, c);
+            while (next == NONE && state != ROOT) {
+                state = failure[state];
+                next = transition(state, c);
+            }
+            state = next == NONE ? ROOT : next;
+            collect(state, found);
+        }
+    }
+
+    /**
+     * Returns the indices of all patterns which occur in the given text.
+     *
+     * @param text the text to scan
+     * @return a new bit set with the indices of the found patterns
+     */
+    public BitSet findAll(CharSequence text) {
+        final BitSet found = new BitSet(patternCount);
+        findAll(text, found);
+        return found;
+    }
+
+    private void collect(int state, BitSet found) {
+        int current = state;
+        while (current != NONE) {
+            for (int pattern : outputs[current]) {
+                found.set(pattern);
+            }
+            current = outputLink[current];
+        }
+    }
+
+    private int transition(int state, char c) {
+        final int idx = Arrays.binarySearch(labels[state], c);
+        return idx < 0 ? NONE : targets[state][idx];
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import com.github.joschi.jadconfig.ParameterException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Selects which threads {@link BlockingCallExecutor} uses to run blocking calls.
+ */
+public enum BlockingCallExecutionMode {
+    /**
+     * Runs blocking calls on a pool of platform threads which grows with the number of concurrent calls.
+     */
+    PLATFORM,
+    /**
+     * Runs every blocking call on its own virtual thread. Requires a Java runtime with virtual thread support and
+     * falls back to {@link #PLATFORM} otherwise.
+     */
+    VIRTUAL;
+
+    @Override
+    public String toString() {
+        return super.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<BlockingCallExecutionMode> {
+        @Override
+        public BlockingCallExecutionMode convertFrom(String value) {
+            try {
+                return BlockingCallExecutionMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse blocking call execution mode <" + value + ">. Valid modes are: " +
+                        Arrays.stream(BlockingCallExecutionMode.values()).map(BlockingCallExecutionMode::toString)
+                                .collect(Collectors.toList()) + ".");
+            }
+        }
+
+        @Override
+        public String convertTo(BlockingCallExecutionMode value) {
+            return value.toString();
+        }
+    }
+}
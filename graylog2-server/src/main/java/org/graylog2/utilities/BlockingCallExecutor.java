@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jdk.jfr.consumer.RecordingStream;
+import org.graylog2.plugin.Tools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Runs blocking calls, e.g. requests of lookup data adapters or writes of stream outputs, outside of the threads of
+ * the processing buffers.
+ * <p>
+ * Call sites get a {@link Bounded bounded executor} which limits the number of their concurrent calls, further calls
+ * are queued without blocking the submitting thread. Calls which don't fit into the queue anymore are rejected with a
+ * {@link RejectedExecutionException}, or wait for space with {@link Bounded#executeWaiting(Runnable)}. This way a slow endpoint only delays its own calls instead of occupying a small,
+ * shared thread pool. Depending on the {@link BlockingCallExecutionMode}, the calls run on virtual
+ * threads or on a pool of platform threads which grows with the number of concurrent calls.
+ * <p>
+ * The number of calls in flight and waiting is reported per bounded executor and in total, rejected calls per bounded
+ * executor. With virtual threads, calls which block their carrier thread for a while, e.g. in a {@code synchronized}
+ * block of a client library, are reported as pinned.
+ */
+@Singleton
+public class BlockingCallExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockingCallExecutor.class);
+    private static final String VIRTUAL_THREAD_PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final Duration PINNED_THRESHOLD = Duration.ofMillis(20);
+
+    private final ExecutorService executorService;
+    private final BlockingCallExecutionMode mode;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, Bounded> boundedExecutors = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    @Nullable
+    private final RecordingStream pinnedEvents;
+
+    @Inject
+    public BlockingCallExecutor(@Named("blocking_call_execution") BlockingCallExecutionMode mode,
+                                MetricRegistry metricRegistry) {
+        final ExecutorService virtualThreadExecutor = mode == BlockingCallExecutionMode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            this.executorService = virtualThreadExecutor;
+            this.mode = BlockingCallExecutionMode.VIRTUAL;
+        } else {
+            if (mode == BlockingCallExecutionMode.VIRTUAL) {
+                LOG.warn("Virtual threads are not supported by this Java runtime, running blocking calls on platform threads.");
+            }
+            this.executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("blocking-call-%d")
+                    .setDaemon(true)
+                    .setUncaughtExceptionHandler(new Tools.LogUncaughtExceptionHandler(LOG))
+                    .build());
+            this.mode = BlockingCallExecutionMode.PLATFORM;
+        }
+        this.metricRegistry = metricRegistry;
+        metricRegistry.register(name(BlockingCallExecutor.class, "in-flight"), (Gauge<Integer>) inFlight::get);
+        this.pinnedEvents = this.mode == BlockingCallExecutionMode.VIRTUAL
+                ? startPinnedEvents(metricRegistry.meter(name(BlockingCallExecutor.class, "pinned")))
+                : null;
+    }
+
+    @Nullable
+    private static RecordingStream startPinnedEvents(Meter pinned) {
+        try {
+            final RecordingStream recordingStream = new RecordingStream();
+            recordingStream.enable(VIRTUAL_THREAD_PINNED_EVENT).withThreshold(PINNED_THRESHOLD);
+            recordingStream.onEvent(VIRTUAL_THREAD_PINNED_EVENT, event -> pinned.mark());
+            recordingStream.startAsync();
+            return recordingStream;
+        } catch (Exception e) {
+            LOG.warn("Couldn't record virtual threads which are pinned to their carrier thread", e);
+            return null;
+        }
+    }
+
+    // Looked up reflectively because the server is built for a Java release without virtual threads.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (Throwable e) {
+            LOG.debug("Couldn't create virtual thread executor", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the mode which is effectively used, see {@link BlockingCallExecutionMode#VIRTUAL}.
+     */
+    public BlockingCallExecutionMode mode() {
+        return mode;
+    }
+
+    /**
+     * Returns the bounded executor with the given name, creating it if necessary. The name is used as the metrics
+     * prefix of the executor.
+     *
+     * @param name           unique name of the call site
+     * @param maxConcurrency maximum number of concurrently running calls, only used when the executor is created
+     * @param maxQueued      maximum number of waiting calls, only used when the executor is created
+     */
+    public Bounded bounded(String name, int maxConcurrency, int maxQueued) {
+        return boundedExecutors.computeIfAbsent(name, n -> {
+            final Bounded bounded = new Bounded(maxConcurrency, maxQueued);
+            removeMetrics(n);
+            metricRegistry.register(name(n, "in-flight"), (Gauge<Integer>) bounded::inFlight);
+            metricRegistry.register(name(n, "queued"), (Gauge<Integer>) bounded::queued);
+            metricRegistry.register(name(n, "rejected"), bounded.rejected);
+            return bounded;
+        });
+    }
+
+    /**
+     * Removes the bounded executor with the given name and its metrics. Calls which have already been submitted are
+     * still run.
+     */
+    public void remove(String name) {
+        if (boundedExecutors.remove(name) != null) {
+            removeMetrics(name);
+        }
+    }
+
+    private void removeMetrics(String name) {
+        metricRegistry.remove(name(name, "in-flight"));
+        metricRegistry.remove(name(name, "queued"));
+        metricRegistry.remove(name(name, "rejected"));
+    }
+
+    /**
+     * Stops the threads which run the blocking calls. Running calls are interrupted, waiting and further calls are
+     * not run anymore.
+     *
+     * @param timeout how long to wait for the running calls to finish
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        if (pinnedEvents != null) {
+            pinnedEvents.close();
+        }
+        executorService.shutdownNow();
+        if (!executorService.awaitTermination(timeout, unit)) {
+            LOG.warn("{} blocking calls didn't finish within {} {}", inFlight.get(), timeout, unit);
+        }
+    }
+
+    @VisibleForTesting
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Executor which runs at most a fixed number of calls at the same time and queues a limited number of the others.
+     */
+    public class Bounded implements Executor {
+        private final int maxConcurrency;
+        private final BlockingQueue<Runnable> queue;
+        private final AtomicInteger running = new AtomicInteger();
+        private final Meter rejected = new Meter();
+
+        private Bounded(int maxConcurrency, int maxQueued) {
+            if (maxConcurrency < 1) {
+                throw new IllegalArgumentException("Maximum concurrency must be positive");
+            }
+            if (maxQueued < 1) {
+                throw new IllegalArgumentException("Maximum number of queued calls must be positive");
+            }
+            this.maxConcurrency = maxConcurrency;
+            this.queue = new LinkedBlockingQueue<>(maxQueued);
+        }
+
+        /**
+         * Runs the given call once the concurrency limit allows it.
+         *
+         * @throws RejectedExecutionException if the queue is full or the executor has been shut down
+         */
+        @Override
+        public void execute(Runnable command) {
+            if (executorService.isShutdown()) {
+                throw new RejectedExecutionException("Blocking call executor has been shut down");
+            }
+            if (!queue.offer(command)) {
+                rejected.mark();
+                throw new RejectedExecutionException("Too many queued calls (" + queue.size() + ")");
+            }
+            startQueued();
+        }
+
+        /**
+         * Runs the given call once the concurrency limit allows it. Waits for space if the queue is full, so slow calls
+         * exert back pressure on the submitting thread instead of being rejected.
+         *
+         * @throws RejectedExecutionException if the executor has been shut down
+         * @throws InterruptedException       if the thread has been interrupted while waiting for space in the queue
+         */
+        public void executeWaiting(Runnable command) throws InterruptedException {
+            if (executorService.isShutdown()) {
+                throw new RejectedExecutionException("Blocking call executor has been shut down");
+            }
+            queue.put(command);
+            startQueued();
+        }
+
+        public int inFlight() {
+            return running.get();
+        }
+
+        public int queued() {
+            return queue.size();
+        }
+
+        private void startQueued() {
+            while (true) {
+                final int current = running.get();
+                if (current >= maxConcurrency || queue.isEmpty()) {
+                    return;
+                }
+                if (!running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                final Runnable command = queue.poll();
+                if (command == null) {
+                    // Another thread took the last call, check again for calls which have been added in the meantime
+                    running.decrementAndGet();
+                    continue;
+                }
+                inFlight.incrementAndGet();
+                try {
+                    executorService.execute(() -> {
+                        try {
+                            command.run();
+                        } finally {
+                            finished();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    inFlight.decrementAndGet();
+                    running.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+
+        private void finished() {
+            inFlight.decrementAndGet();
+            running.decrementAndGet();
+            try {
+                startQueued();
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Not running {} queued blocking calls because the executor has been shut down", queue.size());
+            }
+        }
+    }
+}
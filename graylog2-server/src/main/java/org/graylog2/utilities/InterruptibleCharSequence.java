@@ -16,12 +16,38 @@
  */
 package org.graylog2.utilities;
 
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * {@link CharSequence} wrapper which lets long running regular expression matches be aborted, either by
+ * interrupting the matching thread or by an optional deadline which is checked in the matching thread itself.
+ */
 public class InterruptibleCharSequence implements CharSequence {
+    /**
+     * Marker for sequences without a deadline.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // Number of character accesses between two deadline checks, must be a power of two.
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
     private CharSequence inner;
+    private final long deadlineNanos;
+    private int accesses = 0;
 
     public InterruptibleCharSequence(CharSequence inner) {
+        this(inner, NO_DEADLINE);
+    }
+
+    /**
+     * @param inner         the wrapped character sequence
+     * @param deadlineNanos the {@link System#nanoTime()} after which accessing the sequence throws an
+     *                      {@link UncheckedTimeoutException}, or {@link #NO_DEADLINE}
+     */
+    public InterruptibleCharSequence(CharSequence inner, long deadlineNanos) {
         super();
         this.inner = inner;
+        this.deadlineNanos = deadlineNanos;
     }
 
     @Override
@@ -29,6 +55,10 @@ public class InterruptibleCharSequence implements CharSequence {
         if (Thread.interrupted()) { // clears flag if set
             throw new RuntimeException(new InterruptedException());
         }
+        if (deadlineNanos != NO_DEADLINE && (++accesses & (DEADLINE_CHECK_INTERVAL - 1)) == 0
+                && System.nanoTime() - deadlineNanos > 0) {
+            throw new UncheckedTimeoutException("Deadline for accessing character sequence exceeded");
+        }
         return inner.charAt(index);
     }
 
@@ -39,7 +69,7 @@ public class InterruptibleCharSequence implements CharSequence {
 
     @Override
     public CharSequence subSequence(int start, int end) {
-        return new InterruptibleCharSequence(inner.subSequence(start, end));
+        return new InterruptibleCharSequence(inner.subSequence(start, end), deadlineNanos);
     }
 
     @Override
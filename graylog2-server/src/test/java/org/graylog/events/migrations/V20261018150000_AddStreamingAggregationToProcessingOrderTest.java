@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.migrations;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import org.graylog.events.processor.streaming.StreamingAggregationMessageProcessor;
+import org.graylog.events.processor.streaming.StreamingAggregationService;
+import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.messageprocessors.MessageFilterChainProcessor;
+import org.graylog2.messageprocessors.MessageProcessorsConfig;
+import org.graylog2.messageprocessors.OrderedMessageProcessors;
+import org.graylog2.messageprocessors.StreamMatcherFilterProcessor;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamRouter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class V20261018150000_AddStreamingAggregationToProcessingOrderTest {
+    private static final String FILTER_CHAIN = MessageFilterChainProcessor.class.getCanonicalName();
+    private static final String STREAM_MATCHER = StreamMatcherFilterProcessor.class.getCanonicalName();
+    private static final String PIPELINE = PipelineInterpreter.class.getCanonicalName();
+    private static final String STREAMING_AGGREGATION = StreamingAggregationMessageProcessor.class.getCanonicalName();
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ClusterConfigService clusterConfigService;
+
+    private V20261018150000_AddStreamingAggregationToProcessingOrder migration;
+
+    @Before
+    public void setUp() {
+        when(clusterConfigService.getOrDefault(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        migration = new V20261018150000_AddStreamingAggregationToProcessingOrder(clusterConfigService, Set.of(
+                new MessageFilterChainProcessor.Descriptor(),
+                new StreamMatcherFilterProcessor.Descriptor(),
+                new PipelineInterpreter.Descriptor(),
+                new StreamingAggregationMessageProcessor.Descriptor()));
+    }
+
+    private MessageProcessorsConfig migratedConfig() {
+        final ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        verify(clusterConfigService, times(2)).write(captor.capture());
+        assertThat(captor.getAllValues().get(1)).isEqualTo(new V20261018150000_AddStreamingAggregationToProcessingOrder.MigrationCompleted());
+        return (MessageProcessorsConfig) captor.getAllValues().get(0);
+    }
+
+    @Test
+    public void appendsProcessorToStoredOrder() {
+        when(clusterConfigService.getOrDefault(any(), any())).thenReturn(MessageProcessorsConfig.create(
+                List.of(PIPELINE, FILTER_CHAIN, STREAM_MATCHER), Set.of(FILTER_CHAIN)));
+
+        migration.upgrade();
+
+        final MessageProcessorsConfig config = migratedConfig();
+        assertThat(config.processorOrder()).containsExactly(PIPELINE, FILTER_CHAIN, STREAM_MATCHER, STREAMING_AGGREGATION);
+        assertThat(config.disabledProcessors()).containsExactly(FILTER_CHAIN);
+    }
+
+    @Test
+    public void movesProcessorOrderedByClassNameToTheEnd() {
+        when(clusterConfigService.getOrDefault(any(), any())).thenReturn(MessageProcessorsConfig.create(
+                List.of(STREAMING_AGGREGATION, FILTER_CHAIN, STREAM_MATCHER, PIPELINE)));
+
+        migration.upgrade();
+
+        assertThat(migratedConfig().processorOrder()).containsExactly(FILTER_CHAIN, STREAM_MATCHER, PIPELINE, STREAMING_AGGREGATION);
+    }
+
+    @Test
+    public void putsProcessorLastWithoutStoredOrder() {
+        migration.upgrade();
+
+        final List<String> order = migratedConfig().processorOrder();
+        assertThat(order).hasSize(4);
+        assertThat(order.get(3)).isEqualTo(STREAMING_AGGREGATION);
+    }
+
+    @Test
+    public void doesNotRunAgainIfMigrationHadCompletedBefore() {
+        when(clusterConfigService.get(V20261018150000_AddStreamingAggregationToProcessingOrder.MigrationCompleted.class))
+                .thenReturn(new V20261018150000_AddStreamingAggregationToProcessingOrder.MigrationCompleted());
+
+        migration.upgrade();
+
+        verify(clusterConfigService, never()).write(any());
+    }
+
+    @Test
+    public void processorSeesRoutedStreams() {
+        migration.upgrade();
+        when(clusterConfigService.get(MessageProcessorsConfig.class)).thenReturn(migratedConfig());
+
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-1");
+        when(stream.getIndexSet()).thenReturn(mock(IndexSet.class));
+        final StreamRouter streamRouter = mock(StreamRouter.class);
+        when(streamRouter.route(any(Message.class))).thenReturn(List.of(stream));
+
+        final List<Set<String>> seenStreamIds = new ArrayList<>();
+        final StreamingAggregationService streamingAggregationService = mock(StreamingAggregationService.class);
+        doAnswer(invocation -> {
+            for (Message message : invocation.<Messages>getArgument(0)) {
+                seenStreamIds.add(Set.copyOf(message.getStreamIds()));
+            }
+            return null;
+        }).when(streamingAggregationService).process(any());
+
+        final OrderedMessageProcessors processors = new OrderedMessageProcessors(Set.<MessageProcessor>of(
+                new StreamingAggregationMessageProcessor(streamingAggregationService),
+                new StreamMatcherFilterProcessor(new MetricRegistry(), mock(ServerStatus.class, Answers.RETURNS_DEEP_STUBS), streamRouter)),
+                clusterConfigService, mock(EventBus.class));
+
+        Messages messages = new TestMessageFactory().createMessage("test", "source", DateTime.now(DateTimeZone.UTC));
+        for (MessageProcessor processor : processors) {
+            messages = processor.process(messages);
+        }
+
+        assertThat(seenStreamIds).containsExactly(Set.of("stream-1"));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.filter.StreamFilter;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.timeranges.DerivedTimeRange;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregationSearchCoalescerTest {
+    private static final AggregationSearch.User USER = new AggregationSearch.User("admin", DateTimeZone.UTC);
+    private static final AbsoluteRange TIMERANGE = AbsoluteRange.create(
+            new DateTime(2024, 1, 1, 0, 0, DateTimeZone.UTC), new DateTime(2024, 1, 1, 0, 5, DateTimeZone.UTC));
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final List<Search> executedSearches = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void runsConcurrentSearchesAsSingleSearch() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(500, metricRegistry);
+
+        final Future<Map<String, QueryResult>> first = executor.submit(() -> coalescer.execute(search("source:a", TIMERANGE), USER, this::run));
+        final Future<Map<String, QueryResult>> second = executor.submit(() -> coalescer.execute(search("source:b", TIMERANGE), USER, this::run));
+
+        assertPivotResults(first.get(10, TimeUnit.SECONDS), "source:a");
+        assertPivotResults(second.get(10, TimeUnit.SECONDS), "source:b");
+
+        assertThat(executedSearches).hasSize(1);
+        final Query coalesced = executedSearches.get(0).queries().iterator().next();
+        assertThat(coalesced.searchTypes()).hasSize(4);
+        assertThat(coalesced.searchTypes()).extracting(searchType -> searchType.query().orElseThrow().queryString())
+                .containsOnly("source:a", "source:b");
+        assertThat(coalesced.searchTypes()).extracting(searchType -> searchType.timerange().orElseThrow())
+                .containsOnly(DerivedTimeRange.of(TIMERANGE));
+        assertThat(metricRegistry.histogram(MetricRegistry.name(AggregationSearchCoalescer.class, "batch-size")).getSnapshot().getMax())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void runsSearchesSeparatelyIfSharedSearchFails() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(500, metricRegistry);
+        final AggregationSearchCoalescer.SearchRunner runner = search -> {
+            if (search.queries().size() == 1) {
+                throw new EventProcessorException("Shared search failed", false, "event-definition");
+            }
+            return run(search);
+        };
+
+        final Future<Map<String, QueryResult>> first = executor.submit(() -> coalescer.execute(search("source:a", TIMERANGE), USER, runner));
+        final Future<Map<String, QueryResult>> second = executor.submit(() -> coalescer.execute(search("source:b", TIMERANGE), USER, runner));
+
+        assertPivotResults(first.get(10, TimeUnit.SECONDS), "source:a");
+        assertPivotResults(second.get(10, TimeUnit.SECONDS), "source:b");
+        assertThat(executedSearches).hasSize(2);
+        assertThat(metricRegistry.meter(MetricRegistry.name(AggregationSearchCoalescer.class, "fallbacks")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void combinesSearchesOfDifferentTimeRanges() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(500, metricRegistry);
+        // e.g. a definition which searches the last 5 minutes and another one which searches the last 10 minutes
+        final AbsoluteRange otherRange = AbsoluteRange.create(TIMERANGE.getFrom().minusMinutes(5), TIMERANGE.getTo().plusSeconds(7));
+
+        final Future<Map<String, QueryResult>> first = executor.submit(() -> coalescer.execute(search("source:a", TIMERANGE), USER, this::run));
+        final Future<Map<String, QueryResult>> second = executor.submit(() -> coalescer.execute(search("source:b", otherRange), USER, this::run));
+
+        assertPivotResults(first.get(10, TimeUnit.SECONDS), "source:a");
+        assertPivotResults(second.get(10, TimeUnit.SECONDS), "source:b");
+
+        assertThat(executedSearches).hasSize(1);
+        final Query coalesced = executedSearches.get(0).queries().iterator().next();
+        assertThat(coalesced.timerange()).isEqualTo(AbsoluteRange.create(otherRange.getFrom(), otherRange.getTo()));
+        assertThat(coalesced.searchTypes()).allSatisfy(searchType -> assertThat(searchType.timerange()).hasValue(
+                DerivedTimeRange.of(searchType.query().orElseThrow().queryString().equals("source:a") ? TIMERANGE : otherRange)));
+    }
+
+    @Test
+    public void doesNotCombineSearchesOfDifferentStreams() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(200, metricRegistry);
+
+        final Future<Map<String, QueryResult>> first = executor.submit(() -> coalescer.execute(search("source:a", TIMERANGE, "stream-1"), USER, this::run));
+        final Future<Map<String, QueryResult>> second = executor.submit(() -> coalescer.execute(search("source:b", TIMERANGE, "stream-2"), USER, this::run));
+
+        assertPivotResults(first.get(10, TimeUnit.SECONDS), "source:a");
+        assertPivotResults(second.get(10, TimeUnit.SECONDS), "source:b");
+        assertThat(executedSearches).hasSize(2)
+                .allSatisfy(search -> assertThat(search.queries()).hasSize(2));
+    }
+
+    @Test
+    public void runsSearchRightAwayIfDisabled() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(0, metricRegistry);
+        final Search search = search("source:a", TIMERANGE);
+
+        assertPivotResults(coalescer.execute(search, USER, this::run), "source:a");
+        assertThat(executedSearches).containsExactly(search);
+    }
+
+    private static Search search(String queryString, AbsoluteRange timerange) {
+        return search(queryString, timerange, "stream-1");
+    }
+
+    private static Search search(String queryString, AbsoluteRange timerange, String streamId) {
+        return Search.builder()
+                .queries(ImmutableSet.of(
+                        query("query-1", "pivot-1", queryString, timerange, streamId),
+                        query("streams-query-1", "streams-pivot-1", queryString, timerange, streamId)))
+                .build();
+    }
+
+    private static Query query(String id, String pivotId, String queryString, AbsoluteRange timerange, String streamId) {
+        return Query.builder()
+                .id(id)
+                .query(ElasticsearchQueryString.of(queryString))
+                .filter(StreamFilter.ofId(streamId))
+                .timerange(timerange)
+                .searchTypes(ImmutableSet.of(Pivot.builder()
+                        .id(pivotId)
+                        .rowGroups(Values.builder().field("source").limit(10).build())
+                        .series(Count.builder().build())
+                        .rollup(true)
+                        .build()))
+                .build();
+    }
+
+    // Returns a pivot result for every search type whose name is the query string the search type was run with
+    private Map<String, QueryResult> run(Search search) {
+        executedSearches.add(search);
+        return search.queries().stream().collect(Collectors.toMap(Query::id, query -> QueryResult.builder()
+                .query(query)
+                .searchTypes(query.searchTypes().stream().collect(Collectors.toMap(SearchType::id, searchType -> PivotResult.builder()
+                        .id(searchType.id())
+                        .name(searchType.query().orElse(query.query()).queryString())
+                        .total(1)
+                        .effectiveTimerange(TIMERANGE)
+                        .build())))
+                .build()));
+    }
+
+    private static void assertPivotResults(Map<String, QueryResult> results, String queryString) {
+        assertThat(results).containsOnlyKeys("query-1", "streams-query-1");
+        assertThat(results.get("query-1").searchTypes()).containsOnlyKeys("pivot-1");
+        assertThat(results.get("streams-query-1").searchTypes()).containsOnlyKeys("streams-pivot-1");
+        results.forEach((queryId, result) -> result.searchTypes().forEach((id, searchTypeResult) -> {
+            assertThat(searchTypeResult.id()).isEqualTo(id);
+            assertThat(searchTypeResult.name()).hasValue(queryString);
+        }));
+    }
+}
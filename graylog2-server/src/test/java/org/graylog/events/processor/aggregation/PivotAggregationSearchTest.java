@@ -16,6 +16,7 @@
  */
 package org.graylog.events.processor.aggregation;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import org.assertj.core.api.Assertions;
@@ -107,7 +108,8 @@ public class PivotAggregationSearchTest {
                 moreSearch,
                 permittedStreams,
                 notificationService,
-                new QueryStringDecorators(Optional.empty())
+                new QueryStringDecorators(Optional.empty()),
+                new AggregationSearchCoalescer(0, new MetricRegistry())
         );
 
         final String toString = timerange.getTo().toString();
@@ -208,7 +210,8 @@ public class PivotAggregationSearchTest {
                 moreSearch,
                 permittedStreams,
                 notificationService,
-                new QueryStringDecorators(Optional.empty())
+                new QueryStringDecorators(Optional.empty()),
+                new AggregationSearchCoalescer(0, new MetricRegistry())
         );
 
         final PivotResult pivotResult = PivotResult.builder()
@@ -287,7 +290,8 @@ public class PivotAggregationSearchTest {
                 moreSearch,
                 permittedStreams,
                 notificationService,
-                new QueryStringDecorators(Optional.empty())
+                new QueryStringDecorators(Optional.empty()),
+                new AggregationSearchCoalescer(0, new MetricRegistry())
         );
 
         final PivotResult pivotResult = PivotResult.builder()
@@ -353,7 +357,8 @@ public class PivotAggregationSearchTest {
                 moreSearch,
                 permittedStreams,
                 notificationService,
-                new QueryStringDecorators(Optional.empty())
+                new QueryStringDecorators(Optional.empty()),
+                new AggregationSearchCoalescer(0, new MetricRegistry())
         );
 
         final PivotResult pivotResult = PivotResult.builder()
@@ -497,7 +502,8 @@ public class PivotAggregationSearchTest {
                     } else {
                         throw new IllegalArgumentException("Unexpected query decoration request!");
                     }
-                }))
+                })),
+                new AggregationSearchCoalescer(0, new MetricRegistry())
         );
         final Query query = pivotAggregationSearch.getAggregationQuery(parameters, WINDOW_LENGTH, WINDOW_LENGTH);
         Assertions.assertThat(query.query().queryString()).isEqualTo("source:example.org");
@@ -542,7 +548,8 @@ public class PivotAggregationSearchTest {
                 moreSearch,
                 new PermittedStreams(() -> Stream.of("00001"), (categories) -> Stream.of()),
                 notificationService,
-                new QueryStringDecorators(Optional.empty())
+                new QueryStringDecorators(Optional.empty()),
+                new AggregationSearchCoalescer(0, new MetricRegistry())
         );
         final Query query = pivotAggregationSearch.getAggregationQuery(parameters, WINDOW_LENGTH, WINDOW_LENGTH);
         Assertions.assertThatCollection(query.searchTypes()).contains(
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class HyperLogLogTest {
+    @Test
+    public void countsSmallCardinalitiesExactly() {
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 50; i++) {
+            hyperLogLog.add("user-" + i);
+            hyperLogLog.add("user-" + i);
+        }
+
+        assertThat(hyperLogLog.estimate()).isEqualTo(50);
+    }
+
+    @Test
+    public void estimatesLargeCardinalities() {
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 100_000; i++) {
+            hyperLogLog.add(i);
+        }
+
+        assertThat(hyperLogLog.estimate()).isCloseTo(100_000L, within(10_000L));
+    }
+
+    @Test
+    public void mergesSketches() {
+        final HyperLogLog first = new HyperLogLog();
+        final HyperLogLog second = new HyperLogLog();
+        final HyperLogLog sparse = new HyperLogLog();
+        for (int i = 0; i < 20_000; i++) {
+            first.add(i);
+            second.add(i + 10_000);
+        }
+        sparse.add("sparse");
+
+        first.merge(second);
+        first.merge(sparse);
+
+        assertThat(first.estimate()).isCloseTo(30_001L, within(3_000L));
+    }
+
+    @Test
+    public void mergesSparseIntoSparseSketches() {
+        final HyperLogLog first = new HyperLogLog();
+        final HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 40; i++) {
+            first.add(i);
+            second.add(i + 20);
+        }
+
+        first.merge(second);
+
+        assertThat(first.estimate()).isEqualTo(60);
+    }
+
+    @Test
+    public void roundTripsThroughBytes() {
+        final HyperLogLog sparse = new HyperLogLog();
+        final HyperLogLog dense = new HyperLogLog();
+        for (int i = 0; i < 10; i++) {
+            sparse.add(i);
+        }
+        for (int i = 0; i < 5_000; i++) {
+            dense.add(i);
+        }
+
+        assertThat(HyperLogLog.fromBytes(sparse.toBytes()).estimate()).isEqualTo(sparse.estimate());
+        assertThat(HyperLogLog.fromBytes(dense.toBytes()).estimate()).isEqualTo(dense.estimate());
+        assertThat(HyperLogLog.fromBytes(new HyperLogLog().toBytes()).estimate()).isZero();
+    }
+}
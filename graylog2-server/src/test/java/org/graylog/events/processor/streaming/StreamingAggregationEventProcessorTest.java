@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.event.EventFactory;
+import org.graylog.events.notifications.EventNotificationSettings;
+import org.graylog.events.processor.DBEventProcessorStateService;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorPreconditionException;
+import org.graylog.events.processor.EventStreamService;
+import org.graylog.events.search.MoreSearch;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class StreamingAggregationEventProcessorTest {
+    private final StreamingAggregationService streamingAggregationService = mock(StreamingAggregationService.class);
+    private final DBEventProcessorStateService stateService = mock(DBEventProcessorStateService.class);
+
+    @Test
+    public void createEventsFailsIfMessagesHaveNotBeenCounted() {
+        final DateTime to = new DateTime(2024, 1, 1, 0, 1, 0, DateTimeZone.UTC);
+        final DateTime from = to.minusMinutes(1);
+        when(streamingAggregationService.hasCountedMessagesUpTo(anyString(), eq(to))).thenReturn(false);
+
+        final StreamingAggregationEventProcessor eventProcessor = new StreamingAggregationEventProcessor(eventDefinition(),
+                streamingAggregationService, stateService, mock(EventStreamService.class), mock(MoreSearch.class),
+                new TestMessageFactory());
+        final StreamingAggregationEventProcessorParameters parameters = StreamingAggregationEventProcessorParameters.builder()
+                .timerange(AbsoluteRange.create(from, to))
+                .build();
+
+        assertThatThrownBy(() -> eventProcessor.createEvents(mock(EventFactory.class), parameters, events -> {}))
+                .isInstanceOf(EventProcessorPreconditionException.class)
+                .hasMessageContaining("Test Streaming Aggregation")
+                .hasMessageContaining("haven't been counted by all nodes");
+
+        verify(streamingAggregationService, never()).aggregate(anyString(), any(), anyLong(), anyLong());
+        verifyNoInteractions(stateService);
+    }
+
+    private EventDefinitionDto eventDefinition() {
+        return EventDefinitionDto.builder()
+                .id("def-1")
+                .title("Test Streaming Aggregation")
+                .description("A test streaming aggregation")
+                .priority(1)
+                .alert(false)
+                .notificationSettings(EventNotificationSettings.withGracePeriod(60000))
+                .config(StreamingAggregationEventProcessorConfig.builder()
+                        .streams(ImmutableSet.of("stream-1"))
+                        .groupBy(List.of("username"))
+                        .series(List.of(Count.builder().build()))
+                        .windowMs(60_000)
+                        .executeEveryMs(60_000)
+                        .build())
+                .keySpec(ImmutableList.of())
+                .build();
+    }
+}
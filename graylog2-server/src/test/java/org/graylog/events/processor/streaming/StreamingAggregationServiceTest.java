@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.JobSchedulerTestClock;
+import org.graylog.events.notifications.EventNotificationSettings;
+import org.graylog.events.processor.DBEventDefinitionService;
+import org.graylog.events.processor.EventDefinition;
+import org.graylog.events.processor.EventDefinitionConfiguration;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StreamingAggregationServiceTest {
+    private static final String DEFINITION_ID = "def-1";
+    // The end of an evaluated window, aligned to the buckets
+    private static final DateTime TO = new DateTime(2024, 1, 1, 0, 1, 0, DateTimeZone.UTC);
+    private static final DateTime FROM = TO.minusMinutes(1);
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+
+    private final StreamingAggregationEventProcessorConfig config = StreamingAggregationEventProcessorConfig.builder()
+            .streams(ImmutableSet.of("stream-1"))
+            .groupBy(List.of("username"))
+            .series(List.of(Count.builder().build()))
+            .windowMs(60_000)
+            .executeEveryMs(60_000)
+            .build();
+
+    private final Map<String, StreamingAggregationWatermark> watermarks = new HashMap<>();
+
+    private DBStreamingAggregationCheckpointService checkpointService;
+    private ProcessingStatusRecorder processingStatusRecorder;
+    private JobSchedulerTestClock clock;
+    private StreamingAggregationService service;
+
+    @Before
+    public void setUp() {
+        final DBEventDefinitionService eventDefinitionService = mock(DBEventDefinitionService.class);
+        when(eventDefinitionService.streamAll()).thenAnswer(invocation -> java.util.stream.Stream.of(eventDefinition()));
+
+        checkpointService = mock(DBStreamingAggregationCheckpointService.class);
+        when(checkpointService.streamByEventDefinitionAndNode(anyString(), anyString()))
+                .thenAnswer(invocation -> java.util.stream.Stream.empty());
+        when(checkpointService.streamByEventDefinition(anyString(), anyLong(), anyLong()))
+                .thenAnswer(invocation -> java.util.stream.Stream.empty());
+        doAnswer(invocation -> {
+            final StreamingAggregationWatermark watermark = invocation.getArgument(0);
+            watermarks.put(watermark.id(), watermark);
+            return null;
+        }).when(checkpointService).saveWatermark(any());
+        when(checkpointService.streamWatermarksUpdatedSince(anyString(), any())).thenAnswer(invocation -> {
+            final String eventDefinitionId = invocation.getArgument(0);
+            final DateTime since = invocation.getArgument(1);
+            return watermarks.values().stream()
+                    .filter(watermark -> watermark.eventDefinitionId().equals(eventDefinitionId))
+                    .filter(watermark -> !watermark.updatedAt().isBefore(since));
+        });
+
+        processingStatusRecorder = mock(ProcessingStatusRecorder.class);
+        clock = new JobSchedulerTestClock(TO.plusSeconds(1));
+
+        service = new StreamingAggregationService(eventDefinitionService, checkpointService, new SimpleNodeId("node-1"),
+                clock, processingStatusRecorder, new EventDefinitionConfiguration());
+        service.refresh();
+    }
+
+    private EventDefinitionDto eventDefinition() {
+        return EventDefinitionDto.builder()
+                .id(DEFINITION_ID)
+                .title("Test Streaming Aggregation")
+                .description("A test streaming aggregation")
+                .priority(1)
+                .alert(false)
+                .state(EventDefinition.State.ENABLED)
+                .notificationSettings(EventNotificationSettings.withGracePeriod(60000))
+                .config(config)
+                .keySpec(ImmutableList.of())
+                .build();
+    }
+
+    private Message message(DateTime timestamp, String username) {
+        final Message message = messageFactory.createMessage("test", "source", timestamp);
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-1");
+        when(stream.getIndexSet()).thenReturn(mock(IndexSet.class));
+        message.addStream(stream);
+        message.addField("username", username);
+        return message;
+    }
+
+    private void busyUpTo(DateTime postProcessingReceiveTime) {
+        when(processingStatusRecorder.getJournalInfoUncommittedEntries()).thenReturn(10L);
+        when(processingStatusRecorder.getProcessBufferUsage()).thenReturn(1L);
+        when(processingStatusRecorder.getPostProcessingReceiveTime()).thenReturn(postProcessingReceiveTime);
+    }
+
+    @Test
+    public void countsMessageArrivingInLastBucketBeforeEvaluation() {
+        service.process(message(FROM.plusSeconds(10), "jane"));
+        // The journal still holds messages received before the end of the window
+        busyUpTo(TO.minusSeconds(2));
+        service.checkpoint();
+
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isFalse();
+
+        // The last bucket of the window receives a message after the first checkpoint
+        service.process(message(TO.minusSeconds(1), "jane"));
+        busyUpTo(TO.plusMillis(500));
+        clock.plus(5, TimeUnit.SECONDS);
+        service.checkpoint();
+
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isTrue();
+        assertThat(service.aggregate(DEFINITION_ID, config, FROM.getMillis(), TO.getMillis()).get(List.of("jane")).value(0))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void idleNodeCountedAllMessages() {
+        when(processingStatusRecorder.getJournalInfoUncommittedEntries()).thenReturn(0L);
+        when(processingStatusRecorder.getProcessBufferUsage()).thenReturn(0L);
+        when(processingStatusRecorder.getPostProcessingReceiveTime()).thenReturn(TO.minusMinutes(10));
+
+        service.checkpoint();
+
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isTrue();
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO.plusSeconds(2))).isFalse();
+    }
+
+    @Test
+    public void waitsForLaggingNodes() {
+        busyUpTo(TO.plusSeconds(1));
+        service.checkpoint();
+        watermarks.put("node-2", new StreamingAggregationWatermark("node-2", "node-2", DEFINITION_ID, TO.minusSeconds(3), clock.nowUTC()));
+
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isFalse();
+
+        // Nodes which stopped checkpointing aren't waited for
+        clock.plus(20, TimeUnit.SECONDS);
+        service.checkpoint();
+
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isTrue();
+    }
+
+    @Test
+    public void doesNotAdvanceWatermarkIfBucketsCouldNotBeWritten() {
+        service.process(message(TO.minusSeconds(1), "jane"));
+        busyUpTo(TO.plusSeconds(1));
+        doThrow(new RuntimeException("Boom")).when(checkpointService).save(any());
+
+        service.checkpoint();
+
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isFalse();
+    }
+
+    @Test
+    public void waitsOnlyForWatermarksOfTheSameEventDefinition() {
+        busyUpTo(TO.plusSeconds(1));
+        service.checkpoint();
+        watermarks.put("node-2", new StreamingAggregationWatermark("node-2", "node-2", "def-2", TO.minusSeconds(3), clock.nowUTC()));
+
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isTrue();
+        assertThat(service.hasCountedMessagesUpTo("def-2", TO)).isFalse();
+    }
+
+    @Test
+    public void spreadsGroupsOfABucketOverCheckpointChunks() {
+        final List<StreamingAggregationCheckpoint> saved = new ArrayList<>();
+        doAnswer(invocation -> saved.add(invocation.getArgument(0))).when(checkpointService).save(any());
+        for (int i = 0; i < 100; i++) {
+            service.process(message(TO.minusSeconds(1), "user-" + i));
+        }
+        busyUpTo(TO.plusSeconds(1));
+
+        service.checkpoint();
+
+        assertThat(saved).hasSizeGreaterThan(1);
+        assertThat(saved).extracting(StreamingAggregationCheckpoint::chunk).doesNotHaveDuplicates();
+        assertThat(saved).flatExtracting(StreamingAggregationCheckpoint::groups).hasSize(100);
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isTrue();
+    }
+
+    @Test
+    public void requiresWatermarks() {
+        assertThat(service.hasCountedMessagesUpTo(DEFINITION_ID, TO)).isFalse();
+    }
+}
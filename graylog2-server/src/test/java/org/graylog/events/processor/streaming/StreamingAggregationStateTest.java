@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.streaming;
+
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Cardinality;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StreamingAggregationStateTest {
+    private static final long WINDOW_MS = 60_000;
+    // A tenth of the window
+    private static final long BUCKET_MS = 6_000;
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+
+    private final StreamingAggregationEventProcessorConfig config = StreamingAggregationEventProcessorConfig.builder()
+            .streams(ImmutableSet.of("stream-1"))
+            .groupBy(List.of("username"))
+            .series(List.of(
+                    Count.builder().build(),
+                    Sum.builder().field("bytes").build(),
+                    Max.builder().field("bytes").build(),
+                    Cardinality.builder().field("source_ip").build()))
+            .windowMs(WINDOW_MS)
+            .executeEveryMs(10_000)
+            .build();
+
+    private Message message(long timestamp, String streamId, String username, int bytes, String sourceIp) {
+        final Message message = messageFactory.createMessage("test", "source", new DateTime(timestamp, DateTimeZone.UTC));
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn(streamId);
+        when(stream.getIndexSet()).thenReturn(mock(IndexSet.class));
+        message.addStream(stream);
+        if (username != null) {
+            message.addField("username", username);
+        }
+        message.addField("bytes", bytes);
+        message.addField("source_ip", sourceIp);
+        return message;
+    }
+
+    @Test
+    public void aggregatesGroupsOverBuckets() {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config);
+
+        state.add(message(1_000, "stream-1", "jane", 10, "10.0.0.1"));
+        state.add(message(7_000, "stream-1", "jane", 30, "10.0.0.2"));
+        state.add(message(8_000, "stream-1", "jane", 5, "10.0.0.1"));
+        state.add(message(8_000, "stream-1", "john", 1, "10.0.0.3"));
+
+        final Map<List<String>, AggregationBucket> result = state.aggregate(0, WINDOW_MS);
+
+        assertThat(result).containsOnlyKeys(List.of("jane"), List.of("john"));
+        final AggregationBucket jane = result.get(List.of("jane"));
+        assertThat(jane.value(0)).isEqualTo(3);
+        assertThat(jane.value(1)).isEqualTo(45);
+        assertThat(jane.value(2)).isEqualTo(30);
+        assertThat(jane.value(3)).isEqualTo(2);
+        assertThat(result.get(List.of("john")).value(0)).isEqualTo(1);
+    }
+
+    @Test
+    public void mergesMessagesAddedByConcurrentThreads() throws Exception {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config.toBuilder().groupBy(List.of()).build());
+        final Message message = message(1_000, "stream-1", "jane", 1, "10.0.0.1");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        state.add(message);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final AggregationBucket bucket = state.bucket(0).get(List.of());
+        assertThat(bucket.value(0)).isEqualTo(4000);
+        assertThat(bucket.value(1)).isEqualTo(4000);
+        assertThat(bucket.value(3)).isEqualTo(1);
+    }
+
+    @Test
+    public void onlyMergesBucketsStartingInRange() {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config);
+
+        state.add(message(1_000, "stream-1", "jane", 10, "10.0.0.1"));
+        state.add(message(BUCKET_MS + 1_000, "stream-1", "jane", 20, "10.0.0.1"));
+
+        assertThat(state.aggregate(BUCKET_MS, 2 * BUCKET_MS).get(List.of("jane")).value(1)).isEqualTo(20);
+        assertThat(state.aggregate(2 * BUCKET_MS, 3 * BUCKET_MS)).isEmpty();
+    }
+
+    @Test
+    public void ignoresMessagesOfOtherStreamsAndWithoutGroupValues() {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config);
+
+        state.add(message(1_000, "stream-2", "jane", 10, "10.0.0.1"));
+        state.add(message(1_000, "stream-1", null, 10, "10.0.0.1"));
+
+        assertThat(state.aggregate(0, WINDOW_MS)).isEmpty();
+        assertThat(state.takeChangedBuckets()).isEmpty();
+    }
+
+    @Test
+    public void tracksChangedBuckets() {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config);
+
+        state.add(message(1_000, "stream-1", "jane", 10, "10.0.0.1"));
+        state.add(message(BUCKET_MS + 1_000, "stream-1", "jane", 10, "10.0.0.1"));
+
+        assertThat(state.takeChangedBuckets()).containsExactly(0L, BUCKET_MS);
+        assertThat(state.takeChangedBuckets()).isEmpty();
+    }
+
+    @Test
+    public void restoresBucketsFromCheckpoints() {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config);
+        state.add(message(1_000, "stream-1", "jane", 10, "10.0.0.1"));
+
+        final AggregationBucket checkpoint = state.bucket(0).get(List.of("jane"));
+        final AggregationBucket restored = AggregationBucket.fromRaw(state.series(), checkpoint.rawValues(), checkpoint.rawSketches());
+
+        final StreamingAggregationState other = new StreamingAggregationState("def-1", config);
+        other.restore(List.of("jane"), 0, restored);
+        other.add(message(2_000, "stream-1", "jane", 5, "10.0.0.2"));
+
+        final AggregationBucket jane = other.aggregate(0, WINDOW_MS).get(List.of("jane"));
+        assertThat(jane.value(0)).isEqualTo(2);
+        assertThat(jane.value(1)).isEqualTo(15);
+        assertThat(jane.value(2)).isEqualTo(10);
+        assertThat(jane.value(3)).isEqualTo(2);
+    }
+
+    @Test
+    public void expiresOldBucketsAndIgnoresLateMessages() {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config);
+        state.add(message(1_000, "stream-1", "jane", 10, "10.0.0.1"));
+
+        state.expire(1_000 + state.retentionMs() + BUCKET_MS);
+        state.add(message(2_000, "stream-1", "jane", 10, "10.0.0.1"));
+
+        assertThat(state.aggregate(0, Long.MAX_VALUE)).isEmpty();
+    }
+
+    @Test
+    public void signatureChangesWithAggregatedData() {
+        final StreamingAggregationState state = new StreamingAggregationState("def-1", config);
+
+        assertThat(new StreamingAggregationState("def-1", config.toBuilder().executeEveryMs(30_000).build()).signature())
+                .isEqualTo(state.signature());
+        assertThat(new StreamingAggregationState("def-1", config.toBuilder().groupBy(List.of("source")).build()).signature())
+                .isNotEqualTo(state.signature());
+        assertThat(new StreamingAggregationState("def-1", config.toBuilder().windowMs(120_000).build()).signature())
+                .isNotEqualTo(state.signature());
+    }
+}
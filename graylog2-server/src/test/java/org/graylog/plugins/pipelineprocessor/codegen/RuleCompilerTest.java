@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.codegen;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.FunctionEvaluationException;
+import org.graylog.plugins.pipelineprocessor.ast.functions.AbstractFunction;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Concat;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Lowercase;
+import org.graylog.plugins.pipelineprocessor.functions.strings.RegexMatch;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RuleCompilerTest {
+    private static final String RULE = """
+            rule "compiled"
+            when
+              (has_field("source") && to_string($message.source) == "fw01") || to_long($message.level, 0) > 3
+            then
+              let lower = lowercase(to_string($message.message));
+              set_field("lowercased", lower);
+              set_field("is_match", regex("^h(.)llo", to_string($message.message)).matches);
+              set_field("combined", concat(lower, to_string($message.level)));
+              set_field("negated", !(to_long($message.level, 0) >= 5));
+            end
+            """;
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private final PipelineRuleParser parser = new PipelineRuleParser(new FunctionRegistry(Map.of(
+            HasField.NAME, new HasField(),
+            SetField.NAME, new SetField(),
+            StringConversion.NAME, new StringConversion(),
+            LongConversion.NAME, new LongConversion(),
+            Lowercase.NAME, new Lowercase(),
+            RegexMatch.NAME, new RegexMatch(),
+            Concat.NAME, new Concat(),
+            "fail", new FailingFunction())));
+    private final RuleCompiler compiler = new RuleCompiler();
+
+    @Test
+    void compiledRuleBehavesLikeInterpretedRule() {
+        final Rule rule = parser.parseRule(RULE, false);
+        final GeneratedRule generatedRule = compiler.compile(rule);
+        assertThat(generatedRule).isNotNull();
+
+        final List<Map<String, Object>> inputs = List.of(
+                Map.of("source", "fw01"),
+                Map.of("source", "fw02", "level", 2L),
+                Map.of("source", "fw02", "level", 7L),
+                Map.of("level", 4L, "message", "HALLO world"));
+
+        for (Map<String, Object> fields : inputs) {
+            final Message interpreted = newMessage(fields);
+            final EvaluationContext interpretedContext = new EvaluationContext(interpreted);
+            final boolean interpretedMatch = rule.when().evaluateBool(interpretedContext);
+            if (interpretedMatch) {
+                for (Statement statement : rule.then()) {
+                    statement.evaluate(interpretedContext);
+                }
+            }
+
+            final Message compiled = newMessage(fields);
+            final EvaluationContext compiledContext = new EvaluationContext(compiled);
+            assertThat(generatedRule.when(compiledContext)).as("condition for %s", fields).isEqualTo(interpretedMatch);
+            if (interpretedMatch) {
+                assertThat(generatedRule.then(compiledContext)).isTrue();
+            }
+
+            assertThat(compiled.getFields()).as("fields for %s", fields)
+                    .usingRecursiveComparison()
+                    .ignoringFields(Message.FIELD_ID)
+                    .isEqualTo(interpreted.getFields());
+            assertThat(compiledContext.hasEvaluationErrors()).isFalse();
+        }
+    }
+
+    @Test
+    void stopsAtFirstFailingStatement() {
+        final Rule rule = parser.parseRule("""
+                rule "failing"
+                when true
+                then
+                  set_field("before", true);
+                  fail();
+                  set_field("after", true);
+                end
+                """, false);
+        final GeneratedRule generatedRule = compiler.compile(rule);
+        assertThat(generatedRule).isNotNull();
+
+        final Message message = newMessage(Map.of());
+        final EvaluationContext context = new EvaluationContext(message);
+
+        assertThat(generatedRule.when(context)).isTrue();
+        assertThat(generatedRule.then(context)).isFalse();
+        assertThat(message.hasField("before")).isTrue();
+        assertThat(message.hasField("after")).isFalse();
+        assertThat(context.evaluationErrors())
+                .extracting(Object::toString)
+                .containsExactly("In call to function 'fail' at 5:2 an exception was thrown: boom");
+    }
+
+    @Test
+    void conditionErrorsAreWrappedLikeInInterpreter() {
+        final Rule rule = parser.parseRule("""
+                rule "failing condition"
+                when fail()
+                then
+                end
+                """, false);
+        final GeneratedRule generatedRule = compiler.compile(rule);
+        assertThat(generatedRule).isNotNull();
+
+        final EvaluationContext context = new EvaluationContext(newMessage(Map.of()));
+        assertThatThrownBy(() -> generatedRule.when(context))
+                .isInstanceOf(FunctionEvaluationException.class)
+                .hasRootCauseMessage("boom");
+    }
+
+    @Test
+    void compilesAlwaysFalseRule() {
+        final GeneratedRule generatedRule = compiler.compile(Rule.alwaysFalse("unresolved"));
+
+        assertThat(generatedRule).isNotNull();
+        assertThat(generatedRule.when(new EvaluationContext(newMessage(Map.of())))).isFalse();
+    }
+
+    private Message newMessage(Map<String, Object> fields) {
+        final Message message = messageFactory.createMessage("hello test", "source", new DateTime(2024, 1, 1, 0, 0, DateTimeZone.UTC));
+        message.addFields(fields);
+        return message;
+    }
+
+    private static class FailingFunction extends AbstractFunction<Boolean> {
+        @Override
+        public Boolean evaluate(FunctionArgs args, EvaluationContext context) {
+            throw new IllegalStateException("boom");
+        }
+
+        @Override
+        public FunctionDescriptor<Boolean> descriptor() {
+            return FunctionDescriptor.<Boolean>builder()
+                    .name("fail")
+                    .returnType(Boolean.class)
+                    .params(ImmutableList.of())
+                    .build();
+        }
+    }
+}
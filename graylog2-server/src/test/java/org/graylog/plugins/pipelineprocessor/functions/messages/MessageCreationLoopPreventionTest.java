@@ -37,6 +37,7 @@ import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion
 import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
 import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
 import org.graylog.plugins.pipelineprocessor.processors.ConfigurationStateUpdater;
+import org.graylog.plugins.pipelineprocessor.processors.LookupPrefetcher;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineResolver;
 import org.graylog.plugins.pipelineprocessor.rest.PipelineConnections;
@@ -145,7 +146,8 @@ class MessageCreationLoopPreventionTest extends BaseParserTest {
         this.pipelineInterpreter = new PipelineInterpreter(
                 messageQueueAcknowledger,
                 new MetricRegistry(),
-                stateUpdater);
+                stateUpdater,
+                LookupPrefetcher.disabled());
     }
 
     // make sure a naive call to clone_message() will not cause a loop
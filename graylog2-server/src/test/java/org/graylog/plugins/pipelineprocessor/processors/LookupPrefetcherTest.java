@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupHasValue;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupValue;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog2.lookup.LookupTable;
+import org.graylog2.lookup.LookupTableService;
+import org.graylog2.lookup.caches.NullCache;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.lookup.LookupCache;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LookupPrefetcherTest {
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private final LookupTableService lookupTableService = mock(LookupTableService.class);
+    private final LookupTableService.Builder builder = mock(LookupTableService.Builder.class);
+    private final LookupTableService.Function function = mock(LookupTableService.Function.class);
+    private final LookupTable lookupTable = mock(LookupTable.class);
+    private PipelineRuleParser parser;
+
+    @BeforeEach
+    void setUp() {
+        when(lookupTableService.newBuilder()).thenReturn(builder);
+        when(builder.lookupTable(anyString())).thenReturn(builder);
+        when(builder.build()).thenReturn(function);
+        when(function.getTable()).thenReturn(lookupTable);
+        when(function.getAll(anyCollection())).thenReturn(Map.of("key", CompletableFuture.completedFuture(LookupResult.empty())));
+        when(lookupTable.cache()).thenReturn(mock(LookupCache.class));
+
+        parser = new PipelineRuleParser(new FunctionRegistry(Map.of(
+                LookupValue.NAME, new LookupValue(lookupTableService),
+                LookupHasValue.NAME, new LookupHasValue(lookupTableService),
+                SetField.NAME, new SetField(),
+                StringConversion.NAME, new StringConversion())));
+    }
+
+    @Test
+    void collectsLookupsWithMessageKeys() {
+        final Pipeline pipeline = pipeline(
+                "rule \"a\" when lookup_has_value(\"geo\", $message.src_ip) then " +
+                        "set_field(\"country\", lookup_value(\"geo\", to_string($message.src_ip))); " +
+                        "let country = lookup_value(\"geo\", $message.src_ip); end",
+                "rule \"b\" when true then " +
+                        "let key = to_string($message.dst_ip); " +
+                        "set_field(\"a\", lookup_value(\"geo\", key)); " +
+                        "set_field(\"b\", lookup_value(\"geo\", \"constant\")); " +
+                        "set_field(\"c\", lookup_value(\"assets\", $message.dst_ip)); end");
+
+        assertThat(LookupPrefetcher.collectLookupCalls(List.of(pipeline)))
+                .extracting(call -> call.tableName() + ":" + call.keyExpression())
+                .containsExactly("geo:$message.src_ip", "geo:to_string(value: $message.src_ip)", "assets:$message.dst_ip");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void looksUpDistinctKeysOfBatch() {
+        final LookupPrefetcher prefetcher = new LookupPrefetcher(lookupTableService, true, Duration.seconds(1));
+        final PipelineInterpreter.State state = state(pipeline(
+                "rule \"a\" when lookup_has_value(\"geo\", $message.src_ip) then end"));
+
+        prefetcher.prefetch(List.of(
+                message(Map.of("src_ip", "10.0.0.1")),
+                message(Map.of("src_ip", "10.0.0.2")),
+                message(Map.of("src_ip", "10.0.0.1")),
+                message(Map.of())), state);
+
+        final ArgumentCaptor<Collection<Object>> keys = ArgumentCaptor.forClass(Collection.class);
+        verify(function).getAll(keys.capture());
+        assertThat(keys.getValue()).containsExactly("10.0.0.1", "10.0.0.2");
+    }
+
+    @Test
+    void skipsTablesWithoutCache() {
+        final LookupPrefetcher prefetcher = new LookupPrefetcher(lookupTableService, true, Duration.seconds(1));
+        when(lookupTable.cache()).thenReturn(mock(NullCache.class));
+
+        prefetcher.prefetch(List.of(message(Map.of("src_ip", "10.0.0.1"))),
+                state(pipeline("rule \"a\" when lookup_has_value(\"geo\", $message.src_ip) then end")));
+
+        verify(function, never()).getAll(any());
+    }
+
+    @Test
+    void doesNothingIfDisabled() {
+        final LookupPrefetcher prefetcher = new LookupPrefetcher(lookupTableService, false, Duration.seconds(1));
+
+        prefetcher.prefetch(List.of(message(Map.of("src_ip", "10.0.0.1"))),
+                state(pipeline("rule \"a\" when lookup_has_value(\"geo\", $message.src_ip) then end")));
+
+        verify(function, never()).getAll(any());
+    }
+
+    private Pipeline pipeline(String... rules) {
+        final Stage stage = Stage.builder().stage(0).match(Stage.Match.EITHER).ruleReferences(List.of()).build();
+        stage.setRules(Stream.of(rules).map(rule -> parser.parseRule(rule, false)).collect(Collectors.toList()));
+        return Pipeline.builder().id("pipeline").name("pipeline").stages(ImmutableSortedSet.of(stage)).build();
+    }
+
+    private static PipelineInterpreter.State state(Pipeline pipeline) {
+        return new PipelineInterpreter.State(ImmutableMap.of(pipeline.id(), pipeline), ImmutableSetMultimap.of(),
+                null, new MetricRegistry(), 1, true);
+    }
+
+    private Message message(Map<String, Object> fields) {
+        final Message message = messageFactory.createMessage("test", "localhost", DateTime.now(DateTimeZone.UTC));
+        message.addFields(fields);
+        return message;
+    }
+}
@@ -423,7 +423,8 @@ public class PipelineInterpreterTest {
         return new PipelineInterpreter(
                 messageQueueAcknowledger,
                 metricRegistry,
-                stateUpdater);
+                stateUpdater,
+                LookupPrefetcher.disabled());
     }
 
     @Test
@@ -479,7 +480,8 @@ public class PipelineInterpreterTest {
         final PipelineInterpreter interpreter = new PipelineInterpreter(
                 mock(MessageQueueAcknowledger.class),
                 metricRegistry,
-                stateUpdater);
+                stateUpdater,
+                LookupPrefetcher.disabled());
 
         interpreter.process(messageInDefaultStream("", ""));
 
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StageRuleIndexTest {
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private final PipelineRuleParser parser = new PipelineRuleParser(new FunctionRegistry(Map.of(
+            HasField.NAME, new HasField(),
+            StringConversion.NAME, new StringConversion())));
+
+    @Test
+    void selectsRulesByGuard() {
+        final StageRuleIndex index = StageRuleIndex.create(rules(
+                "$message.source == \"fw01\"",
+                "to_string($message.source) == \"fw02\" && has_field(\"action\")",
+                "has_field(\"action\") && $message.level == 3",
+                "has_field(\"action\")",
+                "\"fw01\" == to_string($message.source)",
+                "true"));
+
+        assertThat(index).isNotNull();
+        assertThat(index.candidates(context(Map.of("source", "fw01"))).stream().toArray()).containsExactly(0, 4, 5);
+        assertThat(index.candidates(context(Map.of("source", "fw02", "action", "allow"))).stream().toArray()).containsExactly(1, 2, 3, 5);
+        assertThat(index.candidates(context(Map.of("action", "deny", "level", 3L))).stream().toArray()).containsExactly(2, 3, 5);
+        // only the leftmost conjunct is used as guard
+        assertThat(index.candidates(context(Map.of("action", "deny", "level", 3))).stream().toArray()).containsExactly(2, 3, 5);
+        assertThat(index.candidates(context(Map.of())).stream().toArray()).containsExactly(5);
+    }
+
+    @Test
+    void ignoresConditionsWhichAreNoGuards() {
+        final StageRuleIndex index = StageRuleIndex.create(rules(
+                "$message.source == \"fw01\" || has_field(\"action\")",
+                "$message.source != \"fw01\"",
+                "!has_field(\"action\")",
+                "has_field(\"action\", $message)",
+                "$message.source == \"fw01\""));
+
+        assertThat(index).isNotNull();
+        assertThat(index.candidates(context(Map.of())).stream().toArray()).containsExactly(0, 1, 2, 3);
+        assertThat(index.candidates(context(Map.of("source", "fw01"))).stream().toArray()).containsExactly(0, 1, 2, 3, 4);
+    }
+
+    @Test
+    void returnsNullWithoutGuards() {
+        assertThat(StageRuleIndex.create(rules("true", "$message.source != \"fw01\""))).isNull();
+    }
+
+    private List<Rule> rules(String... conditions) {
+        return Stream.of(conditions)
+                .map(condition -> parser.parseRule("rule \"test\" when " + condition + " then end", false))
+                .collect(Collectors.toList());
+    }
+
+    private EvaluationContext context(Map<String, Object> fields) {
+        final Message message = messageFactory.createMessage("test", "localhost", DateTime.now(DateTimeZone.UTC));
+        message.addFields(fields);
+        // the message always has a "source" field, remove it unless the test sets it
+        if (!fields.containsKey(Message.FIELD_SOURCE)) {
+            message.removeField(Message.FIELD_SOURCE);
+        }
+        return new EvaluationContext(message);
+    }
+}
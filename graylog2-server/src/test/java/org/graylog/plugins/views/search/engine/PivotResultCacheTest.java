@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.AutoInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Average;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PivotResultCacheTest {
+    private static final DateTime T0 = new DateTime(2024, 1, 1, 0, 0, DateTimeZone.UTC);
+    private static final String PIVOT_ID = "pivot";
+    private static final String HEAD_ID = PIVOT_ID + PivotResultCache.HEAD_ID_SUFFIX;
+
+    private final AtomicReference<DateTime> boundary = new AtomicReference<>();
+    private SearchJob searchJob;
+    private PivotResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        searchJob = mock(SearchJob.class);
+        when(searchJob.getSearch()).thenReturn(Search.builder().build());
+        cache = new PivotResultCache(true, 100, () -> Optional.ofNullable(boundary.get()), new MetricRegistry());
+    }
+
+    @Test
+    void onlySearchesBucketsWhichAreNotCached() {
+        final Pivot pivot = pivot(true, Count.builder().build());
+
+        // first run searches everything and caches the buckets from 01:00 to 04:00
+        boundary.set(hours(4));
+        final PivotResultCache.Plan first = cache.plan(searchJob, query(pivot, minutes(30), minutes(330)));
+        assertThat(timeRange(first, PIVOT_ID)).isEqualTo(range(minutes(30), minutes(330)));
+        assertThat(first.query().searchTypes()).hasSize(1);
+
+        final PivotResult firstResult = merge(first, Map.of(PIVOT_ID, result(PIVOT_ID, 21, row(0, 1), row(1, 2), row(2, 3), row(3, 4), row(4, 5), row(5, 6))));
+        assertThat(keys(firstResult)).containsExactly(key(0), key(1), key(2), key(3), key(4), key(5), "");
+        assertThat(firstResult.total()).isEqualTo(21);
+        assertThat(rollup(firstResult)).isEqualTo(21L);
+
+        // an hour later, only the partial bucket at the start and everything after the cached buckets is searched
+        boundary.set(hours(5));
+        final PivotResultCache.Plan second = cache.plan(searchJob, query(pivot, minutes(90), minutes(390)));
+        assertThat(second.query().searchTypes()).extracting(SearchType::id).containsExactlyInAnyOrder(PIVOT_ID, HEAD_ID);
+        assertThat(timeRange(second, PIVOT_ID)).isEqualTo(range(hours(4), minutes(390)));
+        assertThat(timeRange(second, HEAD_ID)).isEqualTo(range(minutes(90), hours(2)));
+
+        final PivotResult secondResult = merge(second, Map.of(
+                PIVOT_ID, result(PIVOT_ID, 18, row(4, 5), row(5, 10), row(6, 3)),
+                HEAD_ID, result(HEAD_ID, 1, row(1, 1))));
+        assertThat(keys(secondResult)).containsExactly(key(1), key(2), key(3), key(4), key(5), key(6), "");
+        assertThat(secondResult.total()).isEqualTo(1 + 3 + 4 + 18);
+        assertThat(rollup(secondResult)).isEqualTo(26L);
+        assertThat(secondResult.effectiveTimerange()).isEqualTo(range(minutes(90), minutes(390)));
+
+        // the bucket from 04:00 has been frozen by the second run
+        final PivotResultCache.Plan third = cache.plan(searchJob, query(pivot, minutes(90), minutes(390)));
+        assertThat(timeRange(third, PIVOT_ID)).isEqualTo(range(hours(5), minutes(390)));
+    }
+
+    @Test
+    void addsEmptyBucketsBetweenCachedAndSearchedBuckets() {
+        final Pivot pivot = pivot(true, Count.builder().build(), Sum.builder().field("bytes").build());
+
+        // the buckets from 03:00 have no messages, so the search doesn't return them
+        boundary.set(hours(5));
+        merge(cache.plan(searchJob, query(pivot, hours(1), hours(6))), Map.of(PIVOT_ID, result(PIVOT_ID, 3, row(1, 1), row(2, 2))));
+
+        final PivotResult result = merge(cache.plan(searchJob, query(pivot, hours(1), hours(7))),
+                Map.of(PIVOT_ID, result(PIVOT_ID, 4, row(6, 4))));
+        assertThat(keys(result)).containsExactly(key(1), key(2), key(3), key(4), key(5), key(6), "");
+        assertThat(result.total()).isEqualTo(7);
+        assertThat(rollup(result)).isEqualTo(7L);
+        assertThat(result.rows().get(2).source()).isEqualTo("leaf");
+        assertThat(result.rows().get(2).values()).extracting(PivotResult.Value::key, PivotResult.Value::value)
+                .containsExactly(tuple(ImmutableList.of("count()"), 0L), tuple(ImmutableList.of("sum(bytes)"), 0.0));
+    }
+
+    @Test
+    void countsBucketsOfPivotsWithoutCount() {
+        final Pivot pivot = pivot(false, Sum.builder().field("bytes").build());
+        boundary.set(hours(4));
+
+        final PivotResultCache.Plan plan = cache.plan(searchJob, query(pivot, hours(1), hours(5)));
+        assertThat(((Pivot) searchType(plan, PIVOT_ID)).series()).extracting(SeriesSpec::id)
+                .containsExactly("sum(bytes)", PivotResultCache.COUNT_SERIES_ID);
+
+        final PivotResult result = merge(plan, Map.of(PIVOT_ID, result(PIVOT_ID, 10, row(1, 4), row(2, 6))));
+        assertThat(result.rows()).flatExtracting(PivotResult.Row::values)
+                .extracting(PivotResult.Value::key)
+                .contains(ImmutableList.of("sum(bytes)"))
+                .doesNotContain(ImmutableList.of(PivotResultCache.COUNT_SERIES_ID));
+        assertThat(result.rows()).extracting(PivotResult.Row::source).containsOnly("leaf");
+    }
+
+    @Test
+    void doesNotCacheBucketsAfterInvalidation() {
+        final Pivot pivot = pivot(true, Count.builder().build());
+        boundary.set(hours(4));
+        merge(cache.plan(searchJob, query(pivot, hours(1), hours(5))), Map.of(PIVOT_ID, result(PIVOT_ID, 3, row(1, 1), row(2, 1), row(3, 1))));
+
+        cache.invalidateAll();
+
+        final PivotResultCache.Plan plan = cache.plan(searchJob, query(pivot, hours(1), hours(5)));
+        assertThat(timeRange(plan, PIVOT_ID)).isEqualTo(range(hours(1), hours(5)));
+        assertThat(plan.query().searchTypes()).hasSize(1);
+    }
+
+    @Test
+    void leavesQueriesWithoutFrozenBucketsUnchanged() {
+        final Query query = query(pivot(true, Count.builder().build()), hours(1), hours(5));
+
+        boundary.set(null);
+        assertThat(cache.plan(searchJob, query).query()).isSameAs(query);
+
+        boundary.set(minutes(90));
+        assertThat(cache.plan(searchJob, query).query()).isSameAs(query);
+
+        final PivotResultCache disabled = new PivotResultCache(false, 100, () -> Optional.of(hours(4)), new MetricRegistry());
+        assertThat(disabled.plan(searchJob, query).query()).isSameAs(query);
+    }
+
+    @Test
+    void onlyCachesPivotsGroupedByFixedTimeInterval() {
+        final Pivot pivot = pivot(true, Count.builder().build());
+        assertThat(PivotResultCache.fixedInterval(pivot)).hasValue(Duration.standardHours(1).getMillis());
+        assertThat(PivotResultCache.fixedInterval(pivot.toBuilder()
+                .rowGroups(Time.builder().field("timestamp").interval(TimeUnitInterval.Builder.builder().timeunit("15m").build()).build())
+                .build())).hasValue(Duration.standardMinutes(15).getMillis());
+
+        assertThat(PivotResultCache.fixedInterval(pivot.toBuilder()
+                .rowGroups(Time.builder().field("timestamp").interval(AutoInterval.create()).build())
+                .build())).isEmpty();
+        assertThat(PivotResultCache.fixedInterval(pivot.toBuilder()
+                .rowGroups(Time.builder().field("timestamp").interval(TimeUnitInterval.Builder.builder().timeunit("1M").build()).build())
+                .build())).isEmpty();
+        assertThat(PivotResultCache.fixedInterval(pivot.toBuilder()
+                .columnGroups(Values.builder().field("source").build())
+                .build())).isEmpty();
+        assertThat(PivotResultCache.fixedInterval(pivot.toBuilder()
+                .series(Average.builder().field("took_ms").build())
+                .build())).isEmpty();
+        assertThat(PivotResultCache.fixedInterval(pivot.toBuilder()
+                .rollup(false)
+                .series(Average.builder().field("took_ms").build())
+                .build())).hasValue(Duration.standardHours(1).getMillis());
+    }
+
+    private static Pivot pivot(boolean rollup, SeriesSpec... series) {
+        return Pivot.builder()
+                .id(PIVOT_ID)
+                .rowGroups(Time.builder().field("timestamp").interval(TimeUnitInterval.Builder.builder().timeunit("1h").build()).build())
+                .series(series)
+                .rollup(rollup)
+                .build();
+    }
+
+    private static Query query(Pivot pivot, DateTime from, DateTime to) {
+        return Query.builder()
+                .id("query")
+                .query(ElasticsearchQueryString.of("source:example.org"))
+                .timerange(range(from, to))
+                .searchTypes(ImmutableSet.of(pivot))
+                .build();
+    }
+
+    private static SearchType searchType(PivotResultCache.Plan plan, String id) {
+        return plan.query().searchTypes().stream()
+                .filter(searchType -> searchType.id().equals(id))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static TimeRange timeRange(PivotResultCache.Plan plan, String id) {
+        return plan.query().effectiveTimeRange(searchType(plan, id));
+    }
+
+    private static PivotResult merge(PivotResultCache.Plan plan, Map<String, SearchType.Result> results) {
+        final QueryResult merged = plan.merge(QueryResult.builder().query(plan.query()).searchTypes(results).build());
+        assertThat(merged.searchTypes()).containsOnlyKeys(PIVOT_ID);
+        return (PivotResult) merged.searchTypes().get(PIVOT_ID);
+    }
+
+    private static PivotResult result(String id, long total, PivotResult.Row... rows) {
+        return PivotResult.builder()
+                .id(id)
+                .rows(ImmutableList.copyOf(rows))
+                .total(total)
+                .effectiveTimerange(range(T0, T0))
+                .build();
+    }
+
+    // A bucket with the given document count, for both the count of the pivot and the one added by the cache
+    private static PivotResult.Row row(int hour, long count) {
+        return PivotResult.Row.builder()
+                .key(ImmutableList.of(key(hour)))
+                .source("leaf")
+                .values(ImmutableList.of(
+                        PivotResult.Value.create(List.of("count()"), count, true, "row-leaf"),
+                        PivotResult.Value.create(List.of("sum(bytes)"), count * 100.0, true, "row-leaf"),
+                        PivotResult.Value.create(List.of(PivotResultCache.COUNT_SERIES_ID), count, true, "row-leaf")))
+                .build();
+    }
+
+    private static String key(int hour) {
+        return hours(hour).toString();
+    }
+
+    private static List<String> keys(PivotResult result) {
+        return result.rows().stream().map(row -> String.join(",", row.key())).collect(Collectors.toList());
+    }
+
+    private static Object rollup(PivotResult result) {
+        final PivotResult.Row row = result.rows().get(result.rows().size() - 1);
+        assertThat(row.source()).isEqualTo("non-leaf");
+        return row.values().stream()
+                .filter(value -> value.key().equals(List.of("count()")))
+                .findFirst()
+                .map(PivotResult.Value::value)
+                .orElseThrow();
+    }
+
+    private static AbsoluteRange range(DateTime from, DateTime to) {
+        return AbsoluteRange.create(from, to);
+    }
+
+    private static DateTime hours(int hours) {
+        return T0.plusHours(hours);
+    }
+
+    private static DateTime minutes(int minutes) {
+        return T0.plusMinutes(minutes);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryExecutorTest {
+    private MetricRegistry metricRegistry;
+    private QueryExecutor queryExecutor;
+    private CountDownLatch running;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        queryExecutor = new QueryExecutor(1, 3, metricRegistry);
+        running = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @Test
+    void runsQueriesOfUsersInTurn() throws Exception {
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final CompletableFuture<String> blocking = blockExecutor();
+
+        queryExecutor.submit("alice", () -> executed.add("alice-1"));
+        queryExecutor.submit("alice", () -> executed.add("alice-2"));
+        final CompletableFuture<Boolean> last = queryExecutor.submit("bob", () -> executed.add("bob-1"));
+
+        assertThat(queryExecutor.queueSize()).isEqualTo(3);
+        assertThat(metricRegistry.getGauges().get("org.graylog.plugins.views.search.engine.QueryExecutor.queue-size").getValue())
+                .isEqualTo(3);
+
+        release.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        last.get(10, TimeUnit.SECONDS);
+
+        assertThat(executed).containsExactly("alice-1", "bob-1", "alice-2");
+        assertThat(queryExecutor.queueSize()).isZero();
+        assertThat(metricRegistry.timer("org.graylog.plugins.views.search.engine.QueryExecutor.run-time").getCount()).isEqualTo(4);
+        assertThat(metricRegistry.timer("org.graylog.plugins.views.search.engine.QueryExecutor.wait-time").getCount()).isEqualTo(4);
+    }
+
+    @Test
+    void rejectsQueriesWhenQueueIsFull() throws Exception {
+        blockExecutor();
+
+        for (int i = 0; i < 3; i++) {
+            queryExecutor.submit("alice", () -> "result");
+        }
+        final CompletableFuture<String> rejected = queryExecutor.submit("bob", () -> "result");
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThat(rejected.handle((result, throwable) -> throwable).get()).isInstanceOf(RejectedExecutionException.class);
+        assertThat(metricRegistry.meter("org.graylog.plugins.views.search.engine.QueryExecutor.rejected").getCount()).isEqualTo(1);
+
+        release.countDown();
+    }
+
+    @Test
+    void doesNotRejectQueriesWithoutQueueLimit() throws Exception {
+        final CompletableFuture<String> blocking = blockExecutor();
+
+        for (int i = 0; i < 3; i++) {
+            queryExecutor.submit("alice", () -> "result");
+        }
+        final CompletableFuture<String> eventSearch = queryExecutor.submit("admin", () -> "event", false);
+
+        assertThat(eventSearch).isNotCompletedExceptionally();
+        assertThat(queryExecutor.queueSize()).isEqualTo(4);
+
+        release.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        assertThat(eventSearch.get(10, TimeUnit.SECONDS)).isEqualTo("event");
+    }
+
+    @Test
+    void cancelledQueriesAreRemovedFromQueue() throws Exception {
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final CompletableFuture<String> blocking = blockExecutor();
+
+        final CompletableFuture<Boolean> cancelled = queryExecutor.submit("alice", () -> executed.add("alice-1"));
+        final CompletableFuture<Boolean> other = queryExecutor.submit("bob", () -> executed.add("bob-1"));
+
+        cancelled.cancel(true);
+
+        assertThat(queryExecutor.queueSize()).isEqualTo(1);
+
+        release.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        other.get(10, TimeUnit.SECONDS);
+
+        assertThat(executed).containsExactly("bob-1");
+    }
+
+    @Test
+    void failingQueriesCompleteExceptionally() throws Exception {
+        final CompletableFuture<String> failing = queryExecutor.submit("alice", () -> {
+            throw new IllegalStateException("failure");
+        });
+
+        assertThat(failing.handle((result, throwable) -> throwable).get(10, TimeUnit.SECONDS))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("failure");
+    }
+
+    private CompletableFuture<String> blockExecutor() throws InterruptedException {
+        final CompletableFuture<String> blocking = queryExecutor.submit("blocker", () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+        assertThat(running.await(10, TimeUnit.SECONDS)).isTrue();
+        return blocking;
+    }
+}
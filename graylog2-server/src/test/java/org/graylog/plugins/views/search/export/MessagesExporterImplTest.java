@@ -16,18 +16,27 @@
  */
 package org.graylog.plugins.views.search.export;
 
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.ArgumentCaptor;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.graylog.plugins.views.search.export.LinkedHashSetUtil.linkedHashSetOf;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -36,12 +45,14 @@ class MessagesExporterImplTest {
     private ExportBackend backend;
     private DecoratingMessagesExporter sut;
     private ChunkDecorator chunkDecorator;
+    private ExportExecutor exportExecutor;
 
     @BeforeEach
     void setUp() {
         backend = mock(ExportBackend.class);
         chunkDecorator = mock(ChunkDecorator.class);
-        sut = new DecoratingMessagesExporter(backend, chunkDecorator);
+        exportExecutor = new ExportExecutor(1, 1, 2, new MetricRegistry());
+        sut = new DecoratingMessagesExporter(() -> backend, chunkDecorator, exportExecutor, 1);
     }
 
     @Test
@@ -58,20 +69,99 @@ class MessagesExporterImplTest {
         assertThat(results).containsExactly(decoratedChunk);
     }
 
-    private ArrayList<SimpleMessageChunk> exportWithStubbedSingleChunkFromBackend(ExportMessagesCommand command, SimpleMessageChunk chunkFromBackend) {
-        @SuppressWarnings("unchecked")
-        ArgumentCaptor<Consumer<SimpleMessageChunk>> captor = ArgumentCaptor.forClass(Consumer.class);
+    @Test
+    void doesNotSplitTimeRangeByDefault() {
+        ExportMessagesCommand command = ExportMessagesCommand.withDefaults();
 
-        doNothing().when(backend).run(eq(command), captor.capture());
+        assertThat(sut.slicesOf(command)).containsExactly(command);
+    }
 
-        ArrayList<SimpleMessageChunk> results = new ArrayList<>();
+    @Test
+    void splitsTimeRangeIntoAdjacentSlices() {
+        sut = new DecoratingMessagesExporter(() -> backend, chunkDecorator, exportExecutor, 3);
+        ExportMessagesCommand command = ExportMessagesCommand.builder()
+                .timeRange(AbsoluteRange.create(time(0), time(10_000)))
+                .build();
+
+        List<ExportMessagesCommand> slices = sut.slicesOf(command);
+
+        assertThat(slices).extracting(ExportMessagesCommand::timeRange).containsExactly(
+                AbsoluteRange.create(time(0), time(3_333)),
+                AbsoluteRange.create(time(3_333), time(6_666)),
+                AbsoluteRange.create(time(6_666), time(10_000)));
+    }
 
+    @Test
+    void doesNotSplitTimeRangeIfLimitIsSet() {
+        sut = new DecoratingMessagesExporter(() -> backend, chunkDecorator, exportExecutor, 3);
+        ExportMessagesCommand command = ExportMessagesCommand.builder().limit(100).build();
+
+        assertThat(sut.slicesOf(command)).containsExactly(command);
+    }
+
+    @Test
+    void writesSingleFirstAndLastChunkForSlicedExport() {
+        sut = new DecoratingMessagesExporter(() -> backend, chunkDecorator, exportExecutor, 2);
+        ExportMessagesCommand command = ExportMessagesCommand.builder()
+                .timeRange(AbsoluteRange.create(time(0), time(10_000)))
+                .build();
+        when(chunkDecorator.decorate(any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        doAnswer(invocation -> {
+            Consumer<SimpleMessageChunk> consumer = invocation.getArgument(1);
+            consumer.accept(chunk(SimpleMessageChunk.ChunkOrder.FIRST, "a"));
+            consumer.accept(chunk(SimpleMessageChunk.ChunkOrder.INTERMEDIATE, "b"));
+            consumer.accept(chunk(SimpleMessageChunk.ChunkOrder.LAST));
+            return null;
+        }).when(backend).run(any(), any());
+
+        ArrayList<SimpleMessageChunk> results = new ArrayList<>();
         sut.export(command, results::add);
 
-        Consumer<SimpleMessageChunk> forwarderFromBackend = captor.getValue();
+        assertThat(results).extracting(SimpleMessageChunk::chunkOrder).containsExactly(
+                SimpleMessageChunk.ChunkOrder.FIRST,
+                SimpleMessageChunk.ChunkOrder.INTERMEDIATE,
+                SimpleMessageChunk.ChunkOrder.INTERMEDIATE,
+                SimpleMessageChunk.ChunkOrder.INTERMEDIATE,
+                SimpleMessageChunk.ChunkOrder.LAST);
+        assertThat(results).extracting(SimpleMessageChunk::size).containsExactly(1, 1, 1, 1, 0);
+    }
+
+    @Test
+    void rethrowsExceptionOfBackend() {
+        doThrow(new ExportException("boom")).when(backend).run(any(), any());
+
+        assertThatThrownBy(() -> sut.export(ExportMessagesCommand.withDefaults(), chunk -> {}))
+                .isInstanceOf(ExportException.class)
+                .hasMessage("boom");
+    }
+
+    private ArrayList<SimpleMessageChunk> exportWithStubbedSingleChunkFromBackend(ExportMessagesCommand command, SimpleMessageChunk chunkFromBackend) {
+        doAnswer(invocation -> {
+            Consumer<SimpleMessageChunk> forwarderFromBackend = invocation.getArgument(1);
+            forwarderFromBackend.accept(chunkFromBackend);
+            return null;
+        }).when(backend).run(eq(command), any());
 
-        forwarderFromBackend.accept(chunkFromBackend);
+        ArrayList<SimpleMessageChunk> results = new ArrayList<>();
+
+        sut.export(command, results::add);
 
         return results;
     }
+
+    private static SimpleMessageChunk chunk(SimpleMessageChunk.ChunkOrder chunkOrder, String... messages) {
+        final LinkedHashSet<SimpleMessage> simpleMessages = new LinkedHashSet<>();
+        for (String message : messages) {
+            simpleMessages.add(SimpleMessage.from("index", new LinkedHashMap<>(Map.of("message", message))));
+        }
+        return SimpleMessageChunk.builder()
+                .fieldsInOrder(linkedHashSetOf("message"))
+                .messages(simpleMessages)
+                .chunkOrder(chunkOrder)
+                .build();
+    }
+
+    private static DateTime time(long millis) {
+        return new DateTime(millis, DateTimeZone.UTC);
+    }
 }
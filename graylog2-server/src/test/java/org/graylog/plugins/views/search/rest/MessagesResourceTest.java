@@ -24,6 +24,7 @@ import org.graylog.plugins.views.search.SearchExecutionGuard;
 import org.graylog.plugins.views.search.errors.PermissionException;
 import org.graylog.plugins.views.search.export.AuditContext;
 import org.graylog.plugins.views.search.export.CommandFactory;
+import org.graylog.plugins.views.search.export.ExportExecutor;
 import org.graylog.plugins.views.search.export.ExportJobService;
 import org.graylog.plugins.views.search.export.ExportMessagesCommand;
 import org.graylog.plugins.views.search.export.MessagesExporter;
@@ -91,7 +92,7 @@ public class MessagesResourceTest {
 
     class MessagesTestResource extends MessagesResource {
         public MessagesTestResource(MessagesExporter exporter, CommandFactory commandFactory, SearchDomain searchDomain, SearchExecutionGuard executionGuard, PermittedStreams permittedStreams, ObjectMapper objectMapper, EventBus eventBus, QueryValidationService validationService) {
-            super(exporter, commandFactory, searchDomain, executionGuard, eventBus, mock(ExportJobService.class), validationService, categories -> Stream.of());
+            super(exporter, commandFactory, searchDomain, executionGuard, eventBus, mock(ExportJobService.class), validationService, categories -> Stream.of(), mock(ExportExecutor.class));
         }
 
         @Nullable
@@ -575,6 +575,105 @@ public class DBJobTriggerServiceTest {
     }
 
 
+    @Test
+    public void nextRunnableTriggers() {
+        // No triggers yet
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10, Map.of())).isEmpty();
+
+        final JobTriggerDto trigger1 = createIntervalTrigger("event-processor-execution-v1", 11);
+        final JobTriggerDto trigger2 = createIntervalTrigger("event-processor-execution-v1", 10);
+        final JobTriggerDto trigger3 = createIntervalTrigger("event-processor-execution-v1", 12);
+        final JobTriggerDto trigger4 = createIntervalTrigger("event-processor-execution-v1", 30);
+
+        // The next time of all triggers is in the future
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10, Map.of())).isEmpty();
+
+        clock.plus(20, TimeUnit.SECONDS);
+
+        // Only two triggers get locked because we asked for two, the ones with the oldest next time
+        final List<JobTriggerDto> locked = dbJobTriggerService.nextRunnableTriggers(2, Map.of());
+        assertThat(locked).extracting(JobTriggerDto::id).containsExactly(trigger2.id(), trigger1.id());
+        assertThat(locked).allSatisfy(t -> {
+            assertThat(t.status()).isEqualTo(JobTriggerStatus.RUNNING);
+            assertThat(t.triggeredAt()).isPresent().get().isEqualTo(clock.nowUTC());
+            assertThat(t.lock().owner()).isEqualTo(NODE_ID);
+            assertThat(t.lock().lastLockTime()).isEqualTo(clock.nowUTC());
+            assertThat(t.lock().token()).isNotBlank().isEqualTo(locked.get(0).lock().token());
+        });
+
+        // Already locked triggers are not returned again, trigger4 is not due yet
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10, Map.of()))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(trigger3.id());
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10, Map.of())).isEmpty();
+
+        clock.plus(20, TimeUnit.SECONDS);
+
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10, Map.of()))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(trigger4.id());
+    }
+
+    @Test
+    public void nextRunnableTriggersHonorsConcurrencyLimits() {
+        final JobTriggerDto limited1 = createIntervalTrigger("limited", 1);
+        final JobTriggerDto limited2 = createIntervalTrigger("limited", 2);
+        final JobTriggerDto limited3 = createIntervalTrigger("limited", 3);
+        final JobTriggerDto unlimited = createIntervalTrigger("unlimited", 4);
+
+        clock.plus(10, TimeUnit.SECONDS);
+
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10, Map.of("limited", 2)))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(limited1.id(), limited2.id(), unlimited.id());
+
+        // The trigger above the limit has not been locked
+        assertThat(dbJobTriggerService.get(limited3.id())).get().satisfies(trigger -> {
+            assertThat(trigger.status()).isEqualTo(JobTriggerStatus.RUNNABLE);
+            assertThat(trigger.lock().owner()).isNull();
+        });
+    }
+
+    @Test
+    public void releaseTriggers() {
+        final JobTriggerDto trigger1 = createIntervalTrigger("event-processor-execution-v1", 1);
+        final JobTriggerDto trigger2 = createIntervalTrigger("event-processor-execution-v1", 2);
+        final JobTriggerDto notLocked = createIntervalTrigger("event-processor-execution-v1", 60);
+
+        clock.plus(10, TimeUnit.SECONDS);
+
+        final List<JobTriggerDto> locked = dbJobTriggerService.nextRunnableTriggers(10, Map.of());
+        assertThat(locked).hasSize(2);
+
+        final DateTime nextTime = clock.nowUTC().plusSeconds(30);
+        final List<JobTriggerDto> toRelease = List.of(locked.get(0), locked.get(1), notLocked);
+        assertThat(dbJobTriggerService.releaseTriggers(toRelease, t -> JobTriggerUpdate.withNextTime(nextTime))).isEqualTo(2);
+
+        for (String id : List.of(trigger1.id(), trigger2.id())) {
+            assertThat(dbJobTriggerService.get(id)).get().satisfies(trigger -> {
+                assertThat(trigger.lock().owner()).isNull();
+                assertThat(trigger.lock().token()).isNull();
+                assertThat(trigger.status()).isEqualTo(JobTriggerStatus.RUNNABLE);
+                assertThat(trigger.nextTime()).isEqualTo(nextTime);
+            });
+        }
+
+        // Releasing them again doesn't do anything
+        assertThat(dbJobTriggerService.releaseTriggers(toRelease, t -> JobTriggerUpdate.withNextTime(nextTime))).isZero();
+    }
+
+    private JobTriggerDto createIntervalTrigger(String jobDefinitionType, int nextTimeOffsetSeconds) {
+        return dbJobTriggerService.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId("abc-123")
+                .jobDefinitionType(jobDefinitionType)
+                .nextTime(clock.nowUTC().plusSeconds(nextTimeOffsetSeconds))
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+    }
+
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
     private void assertNextTrigger(Optional<JobTriggerDto> trigger, JobTriggerDto expected) {
         assertThat(trigger)
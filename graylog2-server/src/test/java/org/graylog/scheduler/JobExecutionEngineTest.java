@@ -18,17 +18,29 @@ package org.graylog.scheduler;
 
 import com.codahale.metrics.MetricRegistry;
 import org.graylog.scheduler.eventbus.JobSchedulerEventBus;
+import org.graylog.scheduler.schedule.IntervalJobSchedule;
 import org.graylog.scheduler.worker.JobWorkerPool;
 import org.graylog2.cluster.lock.RefreshingLockService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -67,4 +79,71 @@ class JobExecutionEngineTest {
 
         verify(jobTriggerService, times(1)).updateLockedJobTriggers();
     }
+
+    @Test
+    void executeLocksTriggersForAllFreeSlots() {
+        final JobExecutionEngine underTest = newEngine();
+        final JobTriggerDto trigger1 = trigger("trigger-1");
+        final JobTriggerDto trigger2 = trigger("trigger-2");
+
+        given(workerPool.hasFreeSlots()).willReturn(true);
+        given(workerPool.freeSlots()).willReturn(3);
+        given(jobTriggerService.nextRunnableTriggers(eq(3), anyMap())).willReturn(List.of(trigger1, trigger2));
+        given(workerPool.execute(any())).willReturn(true);
+
+        assertThat(underTest.execute()).isTrue();
+
+        verify(workerPool, times(2)).execute(any());
+        verify(jobTriggerService, never()).releaseTriggers(any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void executeReleasesDeniedTriggersInBulk() {
+        final JobExecutionEngine underTest = newEngine();
+        final JobTriggerDto trigger1 = trigger("trigger-1");
+        final JobTriggerDto trigger2 = trigger("trigger-2");
+
+        given(workerPool.hasFreeSlots()).willReturn(true);
+        given(workerPool.freeSlots()).willReturn(2);
+        given(jobTriggerService.nextRunnableTriggers(eq(2), anyMap())).willReturn(List.of(trigger1, trigger2));
+        // The second slot has been taken in the meantime
+        given(workerPool.execute(any())).willReturn(true, false);
+
+        assertThat(underTest.execute()).isTrue();
+
+        final ArgumentCaptor<List<JobTriggerDto>> released = ArgumentCaptor.forClass(List.class);
+        final ArgumentCaptor<Function<JobTriggerDto, JobTriggerUpdate>> update = ArgumentCaptor.forClass(Function.class);
+        verify(jobTriggerService).releaseTriggers(released.capture(), update.capture());
+        assertThat(released.getValue()).containsExactly(trigger2);
+        assertThat(update.getValue().apply(trigger2)).isEqualTo(JobTriggerUpdate.withNextTime(trigger2.nextTime()));
+    }
+
+    @Test
+    void executeWithoutRunnableTriggers() {
+        final JobExecutionEngine underTest = newEngine();
+
+        given(workerPool.hasFreeSlots()).willReturn(true);
+        given(workerPool.freeSlots()).willReturn(5);
+        given(jobTriggerService.nextRunnableTriggers(eq(5), anyMap())).willReturn(List.of());
+
+        assertThat(underTest.execute()).isFalse();
+
+        verify(workerPool, never()).execute(any());
+    }
+
+    private JobExecutionEngine newEngine() {
+        return new JobExecutionEngine(jobTriggerService, jobDefinitionService, eventBus, scheduleStrategies, jobTriggerUpdatesFactory,
+                refreshingLockServiceFactory, jobFactory, workerPool, jobSchedulerConfig, metricRegistry);
+    }
+
+    private JobTriggerDto trigger(String id) {
+        return JobTriggerDto.builder()
+                .id(id)
+                .jobDefinitionId("job-definition")
+                .jobDefinitionType("event-processor-execution-v1")
+                .nextTime(DateTime.now(DateTimeZone.UTC))
+                .schedule(IntervalJobSchedule.builder().interval(1).unit(TimeUnit.MINUTES).build())
+                .build();
+    }
 }
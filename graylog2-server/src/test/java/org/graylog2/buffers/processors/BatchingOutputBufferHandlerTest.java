@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.buffers.processors;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class BatchingOutputBufferHandlerTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private OutputBufferProcessor processor;
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+
+    @Test
+    public void writesBatchAtEndOfBatch() throws Exception {
+        final BatchingOutputBufferHandler handler = new BatchingOutputBufferHandler(processor, 0, 1, 10);
+        final Message message1 = messageFactory.createMessage("1", "source", Tools.nowUTC());
+        final Message message2 = messageFactory.createMessage("2", "source", Tools.nowUTC());
+        final MessageEvent event1 = event(message1);
+
+        handler.onEvent(event1, 0, false);
+        verify(processor, never()).onBatch(anyList());
+        assertThat(event1.getMessage()).isNull();
+
+        handler.onEvent(event(message2), 1, true);
+        verify(processor).onBatch(List.of(message1, message2));
+    }
+
+    @Test
+    public void writesBatchWhenMaximumSizeIsReached() throws Exception {
+        final BatchingOutputBufferHandler handler = new BatchingOutputBufferHandler(processor, 0, 1, 2);
+        final Message message1 = messageFactory.createMessage("1", "source", Tools.nowUTC());
+        final Message message2 = messageFactory.createMessage("2", "source", Tools.nowUTC());
+        final Message message3 = messageFactory.createMessage("3", "source", Tools.nowUTC());
+
+        handler.onEvent(event(message1), 0, false);
+        handler.onEvent(event(message2), 1, false);
+        verify(processor).onBatch(List.of(message1, message2));
+
+        handler.onEvent(event(message3), 2, true);
+        verify(processor).onBatch(List.of(message3));
+    }
+
+    @Test
+    public void onlyHandlesOwnPartitionButFlushesAtEndOfBatch() throws Exception {
+        final BatchingOutputBufferHandler handler = new BatchingOutputBufferHandler(processor, 1, 2, 10);
+        final Message message1 = messageFactory.createMessage("1", "source", Tools.nowUTC());
+        final Message message2 = messageFactory.createMessage("2", "source", Tools.nowUTC());
+        final MessageEvent foreignEvent = event(message2);
+
+        handler.onEvent(event(message1), 1, false);
+        // The last event of the batch belongs to the other partition.
+        handler.onEvent(foreignEvent, 2, true);
+
+        verify(processor).onBatch(List.of(message1));
+        assertThat(foreignEvent.getMessage()).isEqualTo(message2);
+    }
+
+    @Test
+    public void skipsNullMessagesAndEmptyBatches() throws Exception {
+        final BatchingOutputBufferHandler handler = new BatchingOutputBufferHandler(processor, 0, 1, 10);
+
+        handler.onEvent(new MessageEvent(), 0, true);
+
+        verify(processor, never()).onBatch(anyList());
+    }
+
+    @Test
+    public void rejectsInvalidBatchSize() {
+        assertThatThrownBy(() -> new BatchingOutputBufferHandler(processor, 0, 1, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static MessageEvent event(Message message) {
+        final MessageEvent event = new MessageEvent();
+        event.setMessage(message);
+        return event;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.Configuration;
+import org.graylog2.outputs.OutputRouter;
+import org.graylog2.plugin.GlobalMetricNames;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.graylog2.utilities.BlockingCallExecutionMode;
+import org.graylog2.utilities.BlockingCallExecutor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OutputBufferProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ServerStatus serverStatus;
+    @Mock
+    private OutputRouter outputRouter;
+    @Mock
+    private MessageOutput defaultOutput;
+    @Mock
+    private MessageOutput streamOutput1;
+    @Mock
+    private MessageOutput streamOutput2;
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private MetricRegistry metricRegistry;
+    private OutputBufferProcessor processor;
+
+    @Before
+    public void setUp() {
+        when(serverStatus.getDetailedMessageRecordingStrategy()).thenReturn(ServerStatus.MessageDetailRecordingStrategy.NEVER);
+        when(defaultOutput.isRunning()).thenReturn(true);
+        when(streamOutput1.isRunning()).thenReturn(true);
+        when(streamOutput2.isRunning()).thenReturn(true);
+
+        metricRegistry = new MetricRegistry();
+        processor = new OutputBufferProcessor(new Configuration(), metricRegistry, serverStatus, outputRouter, defaultOutput, 0);
+    }
+
+    @Test
+    public void writesSingleMessageToAllOutputs() throws Exception {
+        final Message message = message("1");
+        when(outputRouter.getStreamOutputsForMessage(message)).thenReturn(Set.of(streamOutput1));
+        final MessageEvent event = new MessageEvent();
+        event.setMessage(message);
+
+        processor.onEvent(event);
+
+        verify(defaultOutput).write(message);
+        verify(streamOutput1).write(message);
+        verify(streamOutput2, never()).write(any(Message.class));
+        assertThat(event.getMessage()).isNull();
+        assertThat(metricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer("org.graylog2.buffers.processors.OutputBufferProcessor.processTime").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.timer("org.graylog2.buffers.processors.OutputBufferProcessor.batchProcessTime").getCount()).isZero();
+    }
+
+    @Test
+    public void writesOneBatchPerOutput() throws Exception {
+        final Message message1 = message("1");
+        final Message message2 = message("2");
+        final Message message3 = message("3");
+        when(outputRouter.getStreamOutputsForMessage(message1)).thenReturn(Set.of(streamOutput1, streamOutput2));
+        when(outputRouter.getStreamOutputsForMessage(message2)).thenReturn(Set.of());
+        when(outputRouter.getStreamOutputsForMessage(message3)).thenReturn(Set.of(streamOutput1));
+
+        processor.onBatch(List.of(message1, message2, message3));
+
+        verify(defaultOutput).write(List.of(message1, message2, message3));
+        verify(streamOutput1).write(List.of(message1, message3));
+        verify(streamOutput2).write(List.of(message1));
+        verify(defaultOutput, never()).write(any(Message.class));
+        verify(streamOutput1, never()).write(any(Message.class));
+        assertThat(metricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT).getCount()).isEqualTo(3);
+        // One value per message and output, like for single messages
+        assertThat(metricRegistry.timer("org.graylog2.buffers.processors.OutputBufferProcessor.processTime").getCount()).isEqualTo(6);
+        assertThat(metricRegistry.timer("org.graylog2.buffers.processors.OutputBufferProcessor.batchProcessTime").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void failingOrStoppedStreamOutputDoesNotAffectOtherOutputs() throws Exception {
+        final Message message = message("1");
+        when(outputRouter.getStreamOutputsForMessage(message)).thenReturn(Set.of(streamOutput1, streamOutput2));
+        doThrow(new IllegalStateException("Boom")).when(streamOutput1).write(anyList());
+        when(streamOutput2.isRunning()).thenReturn(false);
+
+        processor.onBatch(List.of(message));
+
+        verify(defaultOutput).write(List.of(message));
+        verify(streamOutput2, never()).write(anyList());
+        assertThat(metricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void writesStreamOutputsOnSharedPoolByDefault() throws Exception {
+        final Message message = message("1");
+        when(outputRouter.getStreamOutputsForMessage(message)).thenReturn(Set.of(streamOutput1));
+
+        processor.onBatch(List.of(message));
+
+        verify(streamOutput1).write(List.of(message));
+        verify(outputRouter, never()).getExecutorForStreamOutput(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void writesIsolatedStreamOutputsOnTheirOwnExecutor() throws Exception {
+        final Configuration configuration = spy(new Configuration());
+        when(configuration.isOutputBufferProcessorIsolateStreamOutputs()).thenReturn(true);
+        processor = new OutputBufferProcessor(configuration, metricRegistry, serverStatus, outputRouter, defaultOutput, 0);
+
+        final BlockingCallExecutor blockingCallExecutor = new BlockingCallExecutor(BlockingCallExecutionMode.PLATFORM, metricRegistry);
+        final BlockingCallExecutor.Bounded streamOutputExecutor = blockingCallExecutor.bounded("stream-output-1", 1, 10);
+        when(outputRouter.getExecutorForStreamOutput(eq(streamOutput1), anyInt(), anyInt())).thenReturn(Optional.of(streamOutputExecutor));
+        final Message message = message("1");
+        when(outputRouter.getStreamOutputsForMessage(message)).thenReturn(Set.of(streamOutput1));
+
+        processor.onBatch(List.of(message));
+
+        verify(defaultOutput).write(List.of(message));
+        verify(streamOutput1).write(List.of(message));
+        verify(outputRouter, never()).getExecutorForStreamOutput(eq(defaultOutput), anyInt(), anyInt());
+        assertThat(metricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT).getCount()).isEqualTo(1);
+    }
+
+    private Message message(String text) {
+        return messageFactory.createMessage(text, "source", Tools.nowUTC());
+    }
+}
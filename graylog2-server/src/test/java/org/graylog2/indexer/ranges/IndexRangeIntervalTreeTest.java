@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexRangeIntervalTreeTest {
+    @Test
+    public void findReturnsOverlappingRanges() {
+        final IndexRange range1 = range("graylog_1", 100L, 200L);
+        final IndexRange range2 = range("graylog_2", 200L, 300L);
+        final IndexRange range3 = range("graylog_3", 300L, 400L);
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(List.of(range3, range1, range2));
+
+        assertThat(tree.find(0L, 99L)).isEmpty();
+        assertThat(tree.find(150L, 160L)).containsExactly(range1);
+        assertThat(tree.find(200L, 200L)).containsExactly(range1, range2);
+        assertThat(tree.find(250L, 1000L)).containsExactly(range2, range3);
+        assertThat(tree.find(401L, 1000L)).isEmpty();
+    }
+
+    @Test
+    public void findAlwaysReturnsUnknownRanges() {
+        final IndexRange known = range("graylog_1", 100L, 200L);
+        final IndexRange unknown = range("graylog_2", 0L, 0L);
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(List.of(known, unknown));
+
+        assertThat(tree.find(1000L, 2000L)).containsExactly(unknown);
+        assertThat(tree.find(100L, 100L)).containsExactly(unknown, known);
+    }
+
+    @Test
+    public void findMatchesLinearScan() {
+        final Random random = new Random(42L);
+        final List<IndexRange> ranges = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final long begin = 1 + random.nextInt(100_000);
+            ranges.add(range("graylog_" + i, begin, begin + random.nextInt(random.nextBoolean() ? 100 : 10_000)));
+        }
+        ranges.add(range("graylog_unknown", 0L, 0L));
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(ranges);
+
+        for (int i = 0; i < 1000; i++) {
+            final long begin = random.nextInt(110_000);
+            final long end = begin + random.nextInt(5_000);
+            final List<IndexRange> expected = ranges.stream()
+                    .filter(range -> (range.begin().getMillis() <= end && range.end().getMillis() >= begin)
+                            || (range.begin().getMillis() <= 0L && range.end().getMillis() >= 0L))
+                    .sorted(IndexRange.COMPARATOR)
+                    .collect(Collectors.toList());
+
+            assertThat(tree.find(begin, end)).containsExactlyElementsOf(expected);
+        }
+    }
+
+    private static IndexRange range(String indexName, long begin, long end) {
+        return MongoIndexRange.create(indexName, new DateTime(begin, DateTimeZone.UTC), new DateTime(end, DateTimeZone.UTC),
+                DateTime.now(DateTimeZone.UTC), 0);
+    }
+}
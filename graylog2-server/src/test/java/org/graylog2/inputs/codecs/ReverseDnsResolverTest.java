@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.lookup.adapters.dnslookup.PtrDnsAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReverseDnsResolverTest {
+    private static final String RESOLVER = "org.graylog2.inputs.codecs.ReverseDnsResolver";
+
+    private final List<String> queries = new ArrayList<>();
+    private final List<CompletableFuture<PtrDnsAnswer>> answers = new ArrayList<>();
+    private final AtomicLong time = new AtomicLong();
+    private MetricRegistry metricRegistry;
+    private ReverseDnsResolver resolver;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        resolver = new ReverseDnsResolver(() -> ipAddress -> {
+            queries.add(ipAddress);
+            final CompletableFuture<PtrDnsAnswer> answer = new CompletableFuture<>();
+            answers.add(answer);
+            return answer;
+        }, 50, 2, 100, TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(5), false, metricRegistry, time::get);
+    }
+
+    @Test
+    public void cachesHostNameForRecordTtl() throws Exception {
+        final InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        // The first message doesn't wait for the DNS server longer than the timeout
+        assertThat(resolver.resolve(address)).isEqualTo("10.0.0.1");
+        answers.get(0).complete(answer("host.example.com.", 60));
+
+        assertThat(resolver.resolve(address)).isEqualTo("host.example.com");
+        assertThat(queries).containsExactly("10.0.0.1");
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        resolver.resolve(address);
+
+        assertThat(queries).containsExactly("10.0.0.1", "10.0.0.1");
+        assertThat(metricRegistry.meter(RESOLVER + ".hits").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(RESOLVER + ".misses").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.meter(RESOLVER + ".timeouts").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.timer(RESOLVER + ".lookupTime").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void returnsHostNameOfCompletedLookupRightAway() throws Exception {
+        resolver = new ReverseDnsResolver(() -> ipAddress -> CompletableFuture.completedFuture(answer("host.example.com", 60)),
+                50, 2, 100, TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(5), false, new MetricRegistry(), time::get);
+
+        assertThat(resolver.resolve(InetAddress.getByName("10.0.0.1"))).isEqualTo("host.example.com");
+    }
+
+    @Test
+    public void cachesFailedLookups() throws Exception {
+        final InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        resolver.resolve(address);
+        answers.get(0).completeExceptionally(new IllegalStateException("DNS server unreachable"));
+
+        assertThat(resolver.resolve(address)).isEqualTo("10.0.0.1");
+        assertThat(queries).hasSize(1);
+        assertThat(metricRegistry.meter(RESOLVER + ".failures").getCount()).isEqualTo(1);
+
+        time.addAndGet(TimeUnit.MINUTES.toNanos(6));
+        resolver.resolve(address);
+
+        assertThat(queries).hasSize(2);
+    }
+
+    @Test
+    public void stopsLookupClientOnShutdown() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger stopped = new AtomicInteger();
+        resolver = new ReverseDnsResolver(() -> {
+            created.incrementAndGet();
+            return new ReverseDnsResolver.PtrLookup() {
+                @Override
+                public CompletableFuture<PtrDnsAnswer> lookup(String ipAddress) {
+                    return CompletableFuture.completedFuture(answer("host.example.com", 60));
+                }
+
+                @Override
+                public void stop() {
+                    stopped.incrementAndGet();
+                }
+            };
+        }, 50, 2, 100, TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(5), false, new MetricRegistry(), time::get);
+        resolver.startAsync().awaitRunning();
+
+        resolver.resolve(InetAddress.getByName("10.0.0.1"));
+        resolver.resolve(InetAddress.getByName("10.0.0.2"));
+        resolver.stopAsync().awaitTerminated();
+
+        assertThat(created.get()).isEqualTo(1);
+        assertThat(stopped.get()).isEqualTo(1);
+        // No new client is started after the shutdown
+        resolver.resolve(InetAddress.getByName("10.0.0.3"));
+        assertThat(created.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotStartLookupClientOnShutdown() {
+        final AtomicInteger created = new AtomicInteger();
+        resolver = new ReverseDnsResolver(() -> {
+            created.incrementAndGet();
+            return ipAddress -> new CompletableFuture<>();
+        }, 50, 2, 100, TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(5), false, new MetricRegistry(), time::get);
+
+        resolver.startAsync().awaitRunning();
+        resolver.stopAsync().awaitTerminated();
+
+        assertThat(created.get()).isZero();
+    }
+
+    @Test
+    public void usesOnlyForwardConfirmedHostNames() throws Exception {
+        final List<String> forwardQueries = new ArrayList<>();
+        metricRegistry = new MetricRegistry();
+        resolver = new ReverseDnsResolver(() -> new ReverseDnsResolver.PtrLookup() {
+            @Override
+            public CompletableFuture<PtrDnsAnswer> lookup(String ipAddress) {
+                return CompletableFuture.completedFuture(answer(ipAddress.equals("10.0.0.1") ? "host.example.com." : "spoofed.example.com.", 60));
+            }
+
+            @Override
+            public CompletableFuture<List<String>> forwardLookup(String hostName, boolean ipv6) {
+                forwardQueries.add(hostName);
+                return CompletableFuture.completedFuture(List.of("10.0.0.1"));
+            }
+        }, 50, 2, 100, TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(5), true, metricRegistry, time::get);
+
+        assertThat(resolver.resolve(InetAddress.getByName("10.0.0.1"))).isEqualTo("host.example.com");
+        assertThat(resolver.resolve(InetAddress.getByName("10.0.0.2"))).isEqualTo("10.0.0.2");
+        assertThat(forwardQueries).containsExactly("host.example.com", "spoofed.example.com");
+        assertThat(metricRegistry.meter(RESOLVER + ".unconfirmed").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void sharesRunningLookups() throws Exception {
+        final InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        resolver.resolve(address);
+        resolver.resolve(address);
+
+        assertThat(queries).containsExactly("10.0.0.1");
+    }
+
+    @Test
+    public void skipsLookupsAboveInFlightLimit() throws Exception {
+        resolver.resolve(InetAddress.getByName("10.0.0.1"));
+        resolver.resolve(InetAddress.getByName("10.0.0.2"));
+
+        assertThat(resolver.resolve(InetAddress.getByName("10.0.0.3"))).isEqualTo("10.0.0.3");
+        assertThat(queries).containsExactly("10.0.0.1", "10.0.0.2");
+        assertThat(metricRegistry.meter(RESOLVER + ".skipped").getCount()).isEqualTo(1);
+
+        answers.get(0).complete(null);
+        resolver.resolve(InetAddress.getByName("10.0.0.3"));
+
+        assertThat(queries).containsExactly("10.0.0.1", "10.0.0.2", "10.0.0.3");
+    }
+
+    private static PtrDnsAnswer answer(String hostName, long ttl) {
+        return PtrDnsAnswer.builder().fullDomain(hostName).domain("example.com").dnsTTL(ttl).build();
+    }
+}
@@ -65,13 +65,15 @@ public class StructuredSyslogTest {
     private MetricRegistry metricRegistry;
     @Mock
     private Timer mockedTimer;
+    @Mock
+    private ReverseDnsResolver reverseDnsResolver;
 
     private final MessageFactory messageFactory = new TestMessageFactory();
 
     @Before
     public void setUp() {
         when(metricRegistry.timer(any(String.class))).thenReturn(mockedTimer);
-        syslogCodec = new SyslogCodec(configuration, metricRegistry, messageFactory);
+        syslogCodec = new SyslogCodec(configuration, metricRegistry, messageFactory, reverseDnsResolver);
     }
 
     private StructuredSyslogServerEvent newEvent(String message) {
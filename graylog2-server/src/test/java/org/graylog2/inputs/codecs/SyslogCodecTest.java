@@ -36,6 +36,7 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
@@ -68,6 +69,8 @@ public class SyslogCodecTest {
     private MetricRegistry metricRegistry;
     @Mock
     private Timer mockedTimer;
+    @Mock
+    private ReverseDnsResolver reverseDnsResolver;
 
     private SyslogCodec codec;
     private final MessageFactory messageFactory = new TestMessageFactory();
@@ -77,7 +80,7 @@ public class SyslogCodecTest {
         when(metricRegistry.timer(any(String.class))).thenReturn(mockedTimer);
         when(mockedTimer.time()).thenReturn(mock(Timer.Context.class));
 
-        codec = new SyslogCodec(configuration, metricRegistry, messageFactory);
+        codec = new SyslogCodec(configuration, metricRegistry, messageFactory, reverseDnsResolver);
     }
 
     @Test
@@ -120,7 +123,7 @@ public class SyslogCodecTest {
     public void testDecodeStructuredIssue845WithExpandStructuredData() throws Exception {
         when(configuration.getBoolean(SyslogCodec.CK_EXPAND_STRUCTURED_DATA)).thenReturn(true);
 
-        final SyslogCodec codec = new SyslogCodec(configuration, metricRegistry, messageFactory);
+        final SyslogCodec codec = new SyslogCodec(configuration, metricRegistry, messageFactory, reverseDnsResolver);
         final Message message = codec.decode(buildRawMessage(STRUCTURED_ISSUE_845));
 
         assertNotNull(message);
@@ -456,7 +459,7 @@ public class SyslogCodecTest {
     public void testDefaultTimezoneConfig() {
         when(configuration.getString("timezone")).thenReturn("MST");
 
-        SyslogCodec codec = new SyslogCodec(configuration, metricRegistry, messageFactory);
+        SyslogCodec codec = new SyslogCodec(configuration, metricRegistry, messageFactory, reverseDnsResolver);
         final Message msgWithoutTimezone = codec.decode(buildRawMessage(UNSTRUCTURED));
         final Message msgWithUTCTimezone = codec.decode(buildRawMessage(STRUCTURED));
         final Message msgWithTimezoneOffset = codec.decode(buildRawMessage(STRUCTURED_ISSUE_845_EMPTY));
@@ -470,7 +473,7 @@ public class SyslogCodecTest {
     public void testDefaultTimezoneConfigNotConfiguredStillUsesSystemTime() {
         when(configuration.getString("timezone")).thenReturn(DropdownField.NOT_CONFIGURED);
 
-        SyslogCodec codec = new SyslogCodec(configuration, metricRegistry, messageFactory);
+        SyslogCodec codec = new SyslogCodec(configuration, metricRegistry, messageFactory, reverseDnsResolver);
         final Message msgWithoutTimezone = codec.decode(buildRawMessage(UNSTRUCTURED));
         final Message msgWithUTCTimezone = codec.decode(buildRawMessage(STRUCTURED));
         final Message msgWithTimezoneOffset = codec.decode(buildRawMessage(STRUCTURED_ISSUE_845_EMPTY));
@@ -480,6 +483,16 @@ public class SyslogCodecTest {
         assertEquals(new DateTime("2015-01-11T16:35:21.335797", DateTimeZone.forOffsetHours(1)).toDate(), ((DateTime) msgWithTimezoneOffset.getField("timestamp")).toDate());
     }
 
+    @Test
+    public void testForceRdnsUsesResolvedHostName() throws Exception {
+        when(configuration.getBoolean(SyslogCodec.CK_FORCE_RDNS)).thenReturn(true);
+        when(reverseDnsResolver.resolve(InetAddress.getByName("127.0.0.1"))).thenReturn("sender.example.com");
+
+        final Message message = codec.decode(buildRawMessage(UNSTRUCTURED));
+
+        assertEquals("sender.example.com", message.getField("source"));
+    }
+
     private RawMessage buildRawMessage(String message) {
         return new RawMessage(message.getBytes(StandardCharsets.UTF_8), new InetSocketAddress("127.0.0.1", 5140));
     }
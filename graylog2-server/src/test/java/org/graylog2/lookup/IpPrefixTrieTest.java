@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import com.google.common.net.InetAddresses;
+import org.graylog2.utilities.IpSubnet;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IpPrefixTrieTest {
+    @Test
+    public void emptyTrieMatchesNothing() {
+        final IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().build();
+
+        assertThat(trie.isEmpty()).isTrue();
+        assertThat(trie.longestPrefixMatch(ip("10.0.0.1"))).isNull();
+        assertThat(trie.longestPrefixMatch(ip("2001:db8::1"))).isNull();
+    }
+
+    @Test
+    public void returnsLongestMatchingPrefix() {
+        final IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .put(ip("192.168.0.0"), 16, "site")
+                .put(ip("192.168.102.0"), 24, "HR")
+                .put(ip("192.168.102.16"), 28, "HR Subnet 2")
+                .put(ip("8.8.8.8"), 32, "Google DNS")
+                .build();
+
+        assertThat(trie.size()).isEqualTo(4);
+        assertThat(trie.longestPrefixMatch(ip("192.168.1.1"))).isEqualTo("site");
+        assertThat(trie.longestPrefixMatch(ip("192.168.102.8"))).isEqualTo("HR");
+        assertThat(trie.longestPrefixMatch(ip("192.168.102.20"))).isEqualTo("HR Subnet 2");
+        assertThat(trie.longestPrefixMatch(ip("192.168.102.32"))).isEqualTo("HR");
+        assertThat(trie.longestPrefixMatch(ip("8.8.8.8"))).isEqualTo("Google DNS");
+        assertThat(trie.longestPrefixMatch(ip("8.8.8.9"))).isNull();
+        assertThat(trie.longestPrefixMatch(ip("192.169.0.1"))).isNull();
+    }
+
+    @Test
+    public void ignoresHostBitsAndKeepsFirstValueOfDuplicatePrefixes() {
+        final IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .put(ip("10.1.2.3"), 8, "first")
+                .put(ip("10.0.0.0"), 8, "second")
+                .build();
+
+        assertThat(trie.size()).isEqualTo(1);
+        assertThat(trie.longestPrefixMatch(ip("10.200.0.1"))).isEqualTo("first");
+    }
+
+    @Test
+    public void separatesAddressFamilies() {
+        final IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .put(ip("0.0.0.0"), 0, "any IPv4")
+                .put(ip("2002:0:0:1234::"), 64, "IPv6 Range")
+                .put(ip("2001:db7::"), 128, "Single IPv6")
+                .build();
+
+        assertThat(trie.longestPrefixMatch(ip("172.16.0.1"))).isEqualTo("any IPv4");
+        assertThat(trie.longestPrefixMatch(ip("2002:0000:0000:1234:abcd:1234:4321:dcba"))).isEqualTo("IPv6 Range");
+        assertThat(trie.longestPrefixMatch(ip("2001:db7::"))).isEqualTo("Single IPv6");
+        assertThat(trie.longestPrefixMatch(ip("2001:db7::1"))).isNull();
+        assertThat(trie.longestPrefixMatch(ip("::1"))).isNull();
+    }
+
+    @Test
+    public void rejectsInvalidPrefixLengths() {
+        final IpPrefixTrie.Builder<String> builder = IpPrefixTrie.builder();
+
+        assertThatThrownBy(() -> builder.put(ip("10.0.0.0"), 33, "foo")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.put(ip("10.0.0.0"), -1, "foo")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.put(ip("2001:db8::"), 129, "foo")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void matchesLinearScanOverRandomPrefixes() throws Exception {
+        final Random random = new Random(1337);
+        for (boolean ipv6 : new boolean[]{false, true}) {
+            final List<IpSubnet> subnets = new ArrayList<>();
+            final IpPrefixTrie.Builder<IpSubnet> builder = IpPrefixTrie.builder();
+            for (int i = 0; i < 500; i++) {
+                final InetAddress network = randomAddress(random, ipv6);
+                final int prefixLength = random.nextInt(ipv6 ? 129 : 33);
+                final IpSubnet subnet = new IpSubnet(network.getHostAddress() + "/" + prefixLength);
+                subnets.add(subnet);
+                builder.put(network, prefixLength, subnet);
+            }
+            final IpPrefixTrie<IpSubnet> trie = builder.build();
+
+            for (int i = 0; i < 2000; i++) {
+                // Derive most addresses from a known network, so that the deep prefixes get matches as well.
+                final InetAddress address = i % 2 == 0 ? randomAddress(random, ipv6) : nearby(random, subnets.get(random.nextInt(subnets.size())));
+                IpSubnet expected = null;
+                for (IpSubnet subnet : subnets) {
+                    if (subnet.contains(address) && (expected == null || expected.getPrefixLength() < subnet.getPrefixLength())) {
+                        expected = subnet;
+                    }
+                }
+                final IpSubnet actual = trie.longestPrefixMatch(address);
+                assertThat(actual == null ? null : actual.getPrefixLength())
+                        .as("Longest prefix for %s", address.getHostAddress())
+                        .isEqualTo(expected == null ? null : expected.getPrefixLength());
+                if (actual != null) {
+                    assertThat(actual.contains(address)).isTrue();
+                }
+            }
+        }
+    }
+
+    private static InetAddress nearby(Random random, IpSubnet subnet) throws UnknownHostException {
+        final byte[] bytes = ip(subnet.getNetworkAddress()).getAddress();
+        bytes[bytes.length - 1] ^= (byte) random.nextInt(4);
+        return InetAddress.getByAddress(bytes);
+    }
+
+    private static InetAddress randomAddress(Random random, boolean ipv6) throws UnknownHostException {
+        final byte[] bytes = new byte[ipv6 ? 16 : 4];
+        random.nextBytes(bytes);
+        if (ipv6) {
+            // Avoid IPv4 mapped addresses which would be converted into IPv4 addresses.
+            bytes[0] = (byte) 0x20;
+        }
+        return InetAddress.getByAddress(bytes);
+    }
+
+    private static InetAddress ip(String address) {
+        return InetAddresses.forString(address);
+    }
+}
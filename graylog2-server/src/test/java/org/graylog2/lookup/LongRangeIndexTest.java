@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LongRangeIndexTest {
+    @Test
+    public void emptyIndexMatchesNothing() {
+        final LongRangeIndex<String> index = LongRangeIndex.<String>builder().build();
+
+        assertThat(index.isEmpty()).isTrue();
+        assertThat(index.get(0)).isNull();
+        assertThat(index.get(Long.MIN_VALUE)).isNull();
+        assertThat(index.get(Long.MAX_VALUE)).isNull();
+    }
+
+    @Test
+    public void findsContainingRange() {
+        final LongRangeIndex<String> index = LongRangeIndex.<String>builder()
+                .add(100, 199, "a")
+                .add(10, 19, "b")
+                .add(300, 300, "c")
+                .build();
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.get(9)).isNull();
+        assertThat(index.get(10)).isEqualTo("b");
+        assertThat(index.get(19)).isEqualTo("b");
+        assertThat(index.get(20)).isNull();
+        assertThat(index.get(100)).isEqualTo("a");
+        assertThat(index.get(150)).isEqualTo("a");
+        assertThat(index.get(199)).isEqualTo("a");
+        assertThat(index.get(299)).isNull();
+        assertThat(index.get(300)).isEqualTo("c");
+        assertThat(index.get(301)).isNull();
+    }
+
+    @Test
+    public void earlierRangesTakePrecedenceOnOverlaps() {
+        final LongRangeIndex<String> index = LongRangeIndex.<String>builder()
+                .add(10, 20, "first")
+                .add(30, 40, "second")
+                .add(0, 50, "wide")
+                .add(15, 35, "hidden")
+                .build();
+
+        assertThat(index.get(0)).isEqualTo("wide");
+        assertThat(index.get(9)).isEqualTo("wide");
+        assertThat(index.get(10)).isEqualTo("first");
+        assertThat(index.get(20)).isEqualTo("first");
+        assertThat(index.get(25)).isEqualTo("wide");
+        assertThat(index.get(35)).isEqualTo("second");
+        assertThat(index.get(41)).isEqualTo("wide");
+        assertThat(index.get(50)).isEqualTo("wide");
+        assertThat(index.get(51)).isNull();
+    }
+
+    @Test
+    public void mergesAdjacentRangesWithEqualValues() {
+        final LongRangeIndex<String> index = LongRangeIndex.<String>builder()
+                .add(0, 9, "a")
+                .add(10, 19, "a")
+                .add(20, 29, "b")
+                .add(31, 40, "b")
+                .build();
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.get(15)).isEqualTo("a");
+        assertThat(index.get(30)).isNull();
+    }
+
+    @Test
+    public void rejectsInvalidRanges() {
+        final LongRangeIndex.Builder<String> builder = LongRangeIndex.builder();
+
+        assertThatThrownBy(() -> builder.add(10, 9, "foo")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add(1, 2, null)).isInstanceOf(NullPointerException.class);
+    }
+
+    @Test
+    public void matchesLinearScanOverRandomRanges() {
+        final Random random = new Random(1337);
+        final List<long[]> ranges = new ArrayList<>();
+        final LongRangeIndex.Builder<Integer> builder = LongRangeIndex.builder();
+        for (int i = 0; i < 500; i++) {
+            final long start = random.nextInt(100_000);
+            final long end = start + random.nextInt(random.nextBoolean() ? 10 : 1_000);
+            ranges.add(new long[]{start, end});
+            builder.add(start, end, i);
+        }
+        final LongRangeIndex<Integer> index = builder.build();
+
+        for (long key = -10; key < 102_000; key++) {
+            Integer expected = null;
+            for (int i = 0; i < ranges.size(); i++) {
+                if (ranges.get(i)[0] <= key && key <= ranges.get(i)[1]) {
+                    expected = i;
+                    break;
+                }
+            }
+            assertThat(index.get(key)).as("Value for key %d", key).isEqualTo(expected);
+        }
+    }
+}
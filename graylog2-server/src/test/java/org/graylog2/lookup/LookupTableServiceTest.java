@@ -16,7 +16,13 @@
  */
 package org.graylog2.lookup;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.lookup.LookupDataAdapter;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.utilities.BlockingCallExecutionMode;
+import org.graylog2.utilities.BlockingCallExecutor;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -26,8 +32,16 @@ import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 import java.util.Arrays;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -172,4 +186,77 @@ public class LookupTableServiceTest {
         verify(table, times(1)).assignTtl("key", 500L);
         verify(table, never()).clearKey(null);
     }
+
+    @Test
+    public void functionGetAll() {
+        when(service.lookupAsync(table, "found")).thenReturn(CompletableFuture.completedFuture(LookupResult.single("value")));
+        when(service.lookupAsync(table, "missing")).thenReturn(CompletableFuture.completedFuture(null));
+        when(service.lookupAsync(table, "failing")).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("boom")));
+
+        final Map<Object, CompletableFuture<LookupResult>> results = function.getAll(Arrays.asList("found", "missing", null, "failing", "found"));
+
+        assertThat(results).containsOnlyKeys("found", "missing", "failing");
+        assertThat(results.get("found").join().singleValue()).isEqualTo("value");
+        assertThat(results.get("missing").join().isEmpty()).isTrue();
+        assertThat(results.get("failing").join().hasError()).isTrue();
+        verify(service, times(1)).lookupAsync(table, "found");
+    }
+
+    @Test
+    public void concurrentAsyncLookupsShareDataAdapterCall() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final LookupTableService lookupTableService = new LookupTableService(mock(LookupTableConfigService.class),
+                Map.of(), Map.of(), Map.of(), Map.of(), scheduler,
+                new BlockingCallExecutor(BlockingCallExecutionMode.PLATFORM, new MetricRegistry()), 2, new EventBus());
+        final LookupDataAdapter dataAdapter = mock(LookupDataAdapter.class);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        when(dataAdapter.id()).thenReturn("adapter-id");
+        when(dataAdapter.name()).thenReturn("adapter");
+        when(table.name()).thenReturn("table");
+        when(table.dataAdapter()).thenReturn(dataAdapter);
+        when(table.lookup("key")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return LookupResult.single("value");
+        });
+
+        try {
+            final CompletableFuture<LookupResult> first = lookupTableService.lookupAsync(table, "key");
+            assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+            final CompletableFuture<LookupResult> second = lookupTableService.lookupAsync(table, "key");
+
+            assertThat(second).isSameAs(first);
+            assertThat(first).isNotDone();
+
+            release.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS).singleValue()).isEqualTo("value");
+            verify(table, times(1)).lookup("key");
+        } finally {
+            release.countDown();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cachedKeysAreResolvedInCallingThread() {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final LookupTableService lookupTableService = new LookupTableService(mock(LookupTableConfigService.class),
+                Map.of(), Map.of(), Map.of(), Map.of(), scheduler,
+                new BlockingCallExecutor(BlockingCallExecutionMode.PLATFORM, new MetricRegistry()), 1, new EventBus());
+
+        when(table.isCached("key")).thenReturn(true);
+        when(table.lookup("key")).thenReturn(LookupResult.single("value"));
+
+        try {
+            final CompletableFuture<LookupResult> result = lookupTableService.lookupAsync(table, "key");
+
+            assertThat(result).isDone();
+            assertThat(result.join().singleValue()).isEqualTo("value");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
 }
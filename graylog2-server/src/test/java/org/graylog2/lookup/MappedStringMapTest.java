@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedStringMapTest {
+    private static final String[] PARTS = {"a", "host", "ä", "€", "😀", "", "10.0.0.", "-", "ÿ"};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void emptyMapContainsNothing() throws Exception {
+        final MappedStringMap map = MappedStringMap.builder(file()).build();
+
+        assertThat(map.size()).isZero();
+        assertThat(map.get("")).isNull();
+        assertThat(map.get("foo")).isNull();
+    }
+
+    @Test
+    public void returnsSameValuesAsHashMap() throws Exception {
+        final Random random = new Random(42);
+        final Map<String, String> expected = new LinkedHashMap<>();
+        while (expected.size() < 5000) {
+            expected.put(randomString(random), randomString(random));
+        }
+
+        // Small segments, so many entries are moved to the next segment
+        final MappedStringMap.Builder builder = MappedStringMap.builder(file(), 8);
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue());
+        }
+        final MappedStringMap map = builder.build();
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key)).as("Value of <%s>", key).isEqualTo(value));
+        for (int i = 0; i < 5000; i++) {
+            final String key = randomString(random);
+            assertThat(map.get(key)).as("Value of <%s>", key).isEqualTo(expected.get(key));
+        }
+    }
+
+    @Test
+    public void comparesKeysLikeStringEncoding() throws Exception {
+        final MappedStringMap map = MappedStringMap.builder(file())
+                .put("😀", "emoji")
+                .put("a\uD800b", "unpaired surrogate")
+                .build();
+
+        assertThat(map.get("😀")).isEqualTo("emoji");
+        assertThat(map.get("\uD83D")).isNull();
+        assertThat(map.get("a\uD800b")).isEqualTo("unpaired surrogate");
+        assertThat(map.get("a?b")).isNull();
+    }
+
+    @Test
+    public void rejectsDuplicateKeys() throws Exception {
+        final Path file = file();
+        final MappedStringMap.Builder builder = MappedStringMap.builder(file)
+                .put("foo", "1")
+                .put("bar", "2")
+                .put("foo", "3");
+
+        assertThatThrownBy(builder::build)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("foo");
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    public void rejectsEntriesLargerThanSegment() throws Exception {
+        final MappedStringMap.Builder builder = MappedStringMap.builder(file(), 6);
+
+        assertThatThrownBy(() -> builder.put("key", "a value which doesn't fit into 64 bytes together with its key"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void opensExistingFileAndDeletesItOnClose() throws Exception {
+        final Path file = file();
+        MappedStringMap.builder(file).put("foo", "23").put("bar", "42").build();
+
+        final MappedStringMap map = MappedStringMap.open(file);
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("bar")).isEqualTo("42");
+
+        map.close();
+
+        assertThat(file).doesNotExist();
+        assertThat(map.get("foo")).isEqualTo("23");
+    }
+
+    @Test
+    public void discardsUnbuiltData() throws Exception {
+        final Path file = file();
+        try (final MappedStringMap.Builder builder = MappedStringMap.builder(file)) {
+            builder.put("foo", "23");
+        }
+
+        assertThat(Files.exists(file)).isFalse();
+    }
+
+    private Path file() {
+        return temporaryFolder.getRoot().toPath().resolve("map-" + System.nanoTime());
+    }
+
+    private static String randomString(Random random) {
+        final StringBuilder sb = new StringBuilder();
+        final int parts = random.nextInt(4);
+        for (int i = 0; i < parts; i++) {
+            sb.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return sb.append(random.nextInt(2000)).toString();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.messageprocessors;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamRouter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamMatcherFilterProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ServerStatus serverStatus;
+    @Mock
+    private StreamRouter streamRouter;
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private MetricRegistry metricRegistry;
+    private StreamMatcherFilterProcessor processor;
+
+    @Before
+    public void setUp() {
+        when(serverStatus.getDetailedMessageRecordingStrategy()).thenReturn(ServerStatus.MessageDetailRecordingStrategy.NEVER);
+        metricRegistry = new MetricRegistry();
+        processor = new StreamMatcherFilterProcessor(metricRegistry, serverStatus, streamRouter);
+    }
+
+    @Test
+    public void routesSingleMessage() {
+        final Stream stream = stream("stream-1");
+        final Message message = message("1");
+        when(streamRouter.route(message)).thenReturn(List.of(stream));
+
+        final Messages result = processor.process(message);
+
+        assertThat(result).containsExactly(message);
+        assertThat(message.getStreams()).containsExactly(stream);
+        verify(streamRouter, never()).route(any(Messages.class));
+        assertThat(metricRegistry.timer("org.graylog2.filters.StreamMatcherFilter.executionTime").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void routesBatchOfMessages() {
+        final Stream stream1 = stream("stream-1");
+        final Stream stream2 = stream("stream-2");
+        final Message message1 = message("1");
+        final Message message2 = message("2");
+        final Message message3 = message("3");
+        final MessageCollection messages = new MessageCollection(List.of(message1, message2, message3));
+        when(streamRouter.route(messages)).thenReturn(List.of(List.of(stream1), List.of(), List.of(stream1, stream2)));
+
+        processor.process(messages);
+
+        assertThat(message1.getStreams()).containsExactly(stream1);
+        assertThat(message2.getStreams()).isEmpty();
+        assertThat(message3.getStreams()).containsExactlyInAnyOrder(stream1, stream2);
+        verify(streamRouter, never()).route(any(Message.class));
+        assertThat(metricRegistry.timer("org.graylog2.filters.StreamMatcherFilter.executionTime").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void skipsFilteredOutMessage() {
+        final Message message = message("1");
+        message.setFilterOut(true);
+
+        processor.process(message);
+
+        verify(streamRouter, never()).route(any(Message.class));
+    }
+
+    private Message message(String text) {
+        return messageFactory.createMessage(text, "source", Tools.nowUTC());
+    }
+
+    private Stream stream(String id) {
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn(id);
+        when(stream.getIndexSet()).thenReturn(mock(IndexSet.class));
+        return stream;
+    }
+}
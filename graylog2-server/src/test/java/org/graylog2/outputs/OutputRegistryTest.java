@@ -16,6 +16,7 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -32,6 +33,8 @@ import org.graylog2.streams.OutputService;
 import org.graylog2.streams.StreamImpl;
 import org.graylog2.streams.StreamService;
 import org.graylog2.streams.events.StreamsChangedEvent;
+import org.graylog2.utilities.BlockingCallExecutionMode;
+import org.graylog2.utilities.BlockingCallExecutor;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -73,12 +76,15 @@ public class OutputRegistryTest {
     @Mock
     private StreamService streamService;
 
+    private MetricRegistry metricRegistry;
     private OutputRegistry registry;
 
     @Before
     public void setUp() throws Exception {
+        metricRegistry = new MetricRegistry();
         registry = new OutputRegistry(messageOutput, outputService, messageOutputFactory, null,
-                null, eventBus, streamService, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
+                null, eventBus, streamService, new BlockingCallExecutor(BlockingCallExecutionMode.PLATFORM, metricRegistry),
+                FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
     }
 
     @Test
@@ -177,6 +183,40 @@ public class OutputRegistryTest {
         assertThat(registry.getRunningMessageOutputs()).containsOnlyKeys("output-1", "output-2", "output-3");
     }
 
+    @Test
+    public void testExecutorsPerRunningOutput() throws Exception {
+        final Output output1 = output("output-1");
+        final Output output2 = output("output-2");
+        final MessageOutput messageOutput1 = mock(MessageOutput.class);
+        final MessageOutput messageOutput2 = mock(MessageOutput.class);
+        final MessageOutput result1 = loadIntoRegistry(output1, messageOutput1);
+        final MessageOutput result2 = loadIntoRegistry(output2, messageOutput2);
+
+        final BlockingCallExecutor.Bounded executor1 = registry.getExecutorForOutput(result1, 1, 10).orElseThrow();
+        final BlockingCallExecutor.Bounded executor2 = registry.getExecutorForOutput(result2, 1, 10).orElseThrow();
+
+        assertThat(executor1).isNotSameAs(executor2);
+        assertThat(registry.getExecutorForOutput(result1, 1, 10)).containsSame(executor1);
+        assertThat(registry.getExecutorForOutput(messageOutput, 1, 10)).isEmpty();
+
+        registry.handleOutputChanged(OutputChangedEvent.create("output-1"));
+
+        assertThat(registry.getExecutorForOutput(result1, 1, 10)).isEmpty();
+        assertThat(metricRegistry.getGauges()).doesNotContainKey("org.graylog2.outputs.OutputRegistry.stream-outputs.output-1.queued");
+        assertThat(metricRegistry.getGauges()).containsKey("org.graylog2.outputs.OutputRegistry.stream-outputs.output-2.queued");
+    }
+
+    private MessageOutput loadIntoRegistry(Output output, MessageOutput messageOutput) throws Exception {
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-for-" + output.getId());
+        when(stream.getOutputs()).thenReturn(Set.of(output));
+        when(streamService.load("stream-for-" + output.getId())).thenReturn(stream);
+        when(outputService.load(eq(output.getId()))).thenReturn(output);
+        when(messageOutputFactory.fromStreamOutput(eq(output), eq(stream), any(Configuration.class)))
+                .thenReturn(messageOutput);
+        return registry.getOutputForIdAndStream(output.getId(), stream);
+    }
+
     private void loadIntoRegistry(Output... outputs) throws Exception {
         for (final Output output : outputs) {
             Stream stream = mock(Stream.class);
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MessageFieldsTest {
+    @Test
+    public void storesWellKnownAndCustomFields() {
+        final MessageFields fields = new MessageFields();
+
+        assertThat(fields.put(Message.FIELD_MESSAGE, "hello")).isNull();
+        assertThat(fields.put("custom", 42L)).isNull();
+        assertThat(fields.put(Message.FIELD_MESSAGE, "world")).isEqualTo("hello");
+
+        assertThat(fields).hasSize(2)
+                .containsEntry(Message.FIELD_MESSAGE, "world")
+                .containsEntry("custom", 42L);
+        assertThat(fields.keySet()).containsExactly(Message.FIELD_MESSAGE, "custom");
+        assertThat(fields.get("missing")).isNull();
+        assertThat(fields.containsKey("missing")).isFalse();
+    }
+
+    @Test
+    public void keepsFieldsWithNullValues() {
+        final MessageFields fields = new MessageFields();
+
+        fields.put(Message.FIELD_SOURCE, null);
+        fields.put("custom", null);
+
+        assertThat(fields).hasSize(2);
+        assertThat(fields.containsKey(Message.FIELD_SOURCE)).isTrue();
+        assertThat(fields.containsKey("custom")).isTrue();
+        assertThat(fields.get("custom")).isNull();
+        assertThat(fields.remove(Message.FIELD_SOURCE)).isNull();
+        assertThat(fields.containsKey(Message.FIELD_SOURCE)).isFalse();
+    }
+
+    @Test
+    public void removesFieldsAndKeepsInsertionOrder() {
+        final MessageFields fields = new MessageFields();
+        for (int i = 0; i < 5; i++) {
+            fields.put("field_" + i, i);
+        }
+
+        assertThat(fields.remove("field_1")).isEqualTo(1);
+        assertThat(fields.remove("field_1")).isNull();
+
+        assertThat(fields.keySet()).containsExactly("field_0", "field_2", "field_3", "field_4");
+    }
+
+    @Test
+    public void iteratorsFailOnConcurrentModification() {
+        final MessageFields fields = new MessageFields();
+        fields.put("a", 1);
+        fields.put("b", 2);
+
+        assertThatThrownBy(() -> {
+            for (String key : fields.keySet()) {
+                fields.put(key + "_copy", 0);
+            }
+        }).isInstanceOf(ConcurrentModificationException.class);
+    }
+
+    @Test
+    public void behavesLikeHashMap() {
+        final Random random = new Random(1337);
+        final String[] wellKnown = {Message.FIELD_ID, Message.FIELD_MESSAGE, Message.FIELD_SOURCE,
+                Message.FIELD_TIMESTAMP, Message.FIELD_GL2_SOURCE_INPUT, Message.FIELD_GL2_REMOTE_IP};
+        final MessageFields fields = new MessageFields();
+        final Map<String, Object> expected = new HashMap<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            // Grow and shrink the number of custom fields so the index is built and dropped again.
+            final int range = (i / 2_000) % 2 == 0 ? 10 : 200;
+            final String key = random.nextInt(8) == 0
+                    ? wellKnown[random.nextInt(wellKnown.length)]
+                    : "field_" + random.nextInt(range);
+            final int operation = random.nextInt(10);
+            if (operation < 6) {
+                final Object value = random.nextInt(20) == 0 ? null : random.nextInt();
+                assertThat(fields.put(key, value)).isEqualTo(expected.put(key, value));
+            } else if (operation < 9) {
+                assertThat(fields.remove(key)).isEqualTo(expected.remove(key));
+            } else {
+                assertThat(fields.containsKey(key)).isEqualTo(expected.containsKey(key));
+            }
+            assertThat(fields.get(key)).isEqualTo(expected.get(key));
+            assertThat(fields.size()).isEqualTo(expected.size());
+        }
+
+        assertThat(fields).isEqualTo(expected);
+        assertThat(fields.hashCode()).isEqualTo(expected.hashCode());
+        final Map<String, Object> visited = new HashMap<>();
+        fields.forEach(visited::put);
+        assertThat(visited).isEqualTo(expected);
+
+        fields.clear();
+        assertThat(fields).isEmpty();
+        assertThat(fields.get("field_1")).isNull();
+    }
+}
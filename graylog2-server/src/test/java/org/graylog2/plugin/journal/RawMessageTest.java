@@ -20,12 +20,19 @@ import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.system.SimpleNodeId;
 import org.junit.Test;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class RawMessageTest {
     @Test
@@ -45,4 +52,84 @@ public class RawMessageTest {
         assertEquals("inputid", decodedMsg.getSourceNodes().get(0).inputId);
         assertEquals("5ca1ab1e-0000-4000-a000-000000000000", decodedMsg.getSourceNodes().get(0).nodeId);
     }
+
+    @Test
+    public void encodeWithCodecConfigReference() throws IOException {
+        final Configuration codecConfig = new Configuration(Map.of("bind_address", "0.0.0.0", "port", 5140));
+        final InMemoryCodecConfigRegistry registry = new InMemoryCodecConfigRegistry();
+        final RawMessage rawMessage = rawMessage(codecConfig);
+
+        final byte[] encoded = rawMessage.encode(registry);
+        final JournalMessages.JournalMessage journalMessage = JournalMessages.JournalMessage.parseFrom(encoded);
+
+        assertEquals(RawMessage.CODEC_CONFIG_REFERENCE_VERSION, journalMessage.getVersion());
+        assertFalse(journalMessage.getCodec().hasConfig());
+        assertEquals(1, journalMessage.getCodec().getConfigId());
+        assertTrue(encoded.length < rawMessage(codecConfig).encode().length);
+
+        final RawMessage decodedMsg = RawMessage.decode(encoded, 1, registry);
+        assertNotNull(decodedMsg);
+        assertEquals("raw", decodedMsg.getCodecName());
+        assertSame(codecConfig, decodedMsg.getCodecConfig());
+        assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
+
+        // Referenced configurations can't be resolved without the registry
+        assertNull(RawMessage.decode(encoded, 1));
+        assertNull(RawMessage.decode(encoded, 1, new InMemoryCodecConfigRegistry()));
+    }
+
+    @Test
+    public void decodeEmbeddedCodecConfigWithRegistry() {
+        final Configuration codecConfig = new Configuration(Map.of("port", 5140));
+
+        final byte[] encoded = rawMessage(codecConfig).encode();
+        final RawMessage decodedMsg = RawMessage.decode(encoded, 1, new InMemoryCodecConfigRegistry());
+
+        assertNotNull(decodedMsg);
+        assertEquals(RawMessage.CURRENT_VERSION, decodedMsg.getVersion());
+        assertEquals(5140, decodedMsg.getCodecConfig().getInt("port"));
+    }
+
+    @Test
+    public void embedCodecConfigIfRegistrationFails() throws IOException {
+        final Configuration codecConfig = new Configuration(Map.of("port", 5140));
+        final CodecConfigRegistry registry = new InMemoryCodecConfigRegistry() {
+            @Override
+            public int register(Configuration config) {
+                return NO_ID;
+            }
+        };
+
+        final byte[] encoded = rawMessage(codecConfig).encode(registry);
+        final JournalMessages.JournalMessage journalMessage = JournalMessages.JournalMessage.parseFrom(encoded);
+
+        assertEquals(RawMessage.CURRENT_VERSION, journalMessage.getVersion());
+        assertFalse(journalMessage.getCodec().hasConfigId());
+        assertEquals(codecConfig.serializeToJson(), journalMessage.getCodec().getConfig());
+    }
+
+    private static RawMessage rawMessage(Configuration codecConfig) {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.addSourceNode("inputid", new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(codecConfig);
+        return rawMessage;
+    }
+
+    private static class InMemoryCodecConfigRegistry implements CodecConfigRegistry {
+        private final Map<Integer, Configuration> configs = new HashMap<>();
+
+        @Override
+        public int register(Configuration codecConfig) {
+            final int id = configs.size() + 1;
+            configs.put(id, codecConfig);
+            return id;
+        }
+
+        @Nullable
+        @Override
+        public Configuration resolve(int id) {
+            return configs.get(id);
+        }
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.IOState;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.graylog2.shared.journal.NoopJournal;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DecodingProcessorTest {
+    private static final String INPUT_ID = "5f0c0aa00000000000000000";
+    private static final String CODEC_NAME = "test";
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private final List<Configuration> createdCodecs = new ArrayList<>();
+    private EventBus eventBus;
+    private MetricRegistry metricRegistry;
+    private DecodingProcessor processor;
+
+    @Before
+    public void setUp() {
+        final ServerStatus serverStatus = mock(ServerStatus.class);
+        when(serverStatus.getDetailedMessageRecordingStrategy()).thenReturn(ServerStatus.MessageDetailRecordingStrategy.NEVER);
+        eventBus = new EventBus();
+        metricRegistry = new MetricRegistry();
+
+        final Codec.Factory<Codec> codecFactory = mock(Codec.Factory.class);
+        when(codecFactory.create(any())).thenAnswer(invocation -> {
+            final Configuration configuration = invocation.getArgument(0);
+            createdCodecs.add(configuration);
+            final Codec codec = mock(Codec.class);
+            when(codec.getConfiguration()).thenReturn(configuration);
+            when(codec.decode(any())).thenAnswer(decode -> {
+                final RawMessage raw = decode.getArgument(0);
+                return messageFactory.createMessage(new String(raw.getPayload(), StandardCharsets.UTF_8), "source", Tools.nowUTC());
+            });
+            return codec;
+        });
+
+        processor = new DecodingProcessor(Map.of(CODEC_NAME, codecFactory), serverStatus, metricRegistry, new NoopJournal(),
+                mock(MessageQueueAcknowledger.class), eventBus, metricRegistry.timer("decodeTime"), metricRegistry.timer("parseTime"));
+    }
+
+    @Test
+    public void reusesCodecForSameInputAndConfiguration() throws Exception {
+        final Message first = decode(INPUT_ID, Map.of("foo", "bar"), "first");
+        final Message second = decode(INPUT_ID, Map.of("foo", "bar"), "second");
+
+        assertThat(first.getMessage()).isEqualTo("first");
+        assertThat(first.getSourceInputId()).isEqualTo(INPUT_ID);
+        assertThat(second.getMessage()).isEqualTo("second");
+        assertThat(createdCodecs).hasSize(1);
+        assertThat(metricRegistry.getMeters((name, metric) -> name.endsWith(INPUT_ID + ".processedMessages")).values())
+                .singleElement()
+                .satisfies(meter -> assertThat(meter.getCount()).isEqualTo(2));
+    }
+
+    @Test
+    public void createsNewCodecWhenConfigurationChanges() throws Exception {
+        decode(INPUT_ID, Map.of("foo", "bar"), "first");
+        decode(INPUT_ID, Map.of("foo", "baz"), "second");
+        decode(INPUT_ID, Map.of("foo", "baz"), "third");
+
+        assertThat(createdCodecs).hasSize(2);
+        assertThat(createdCodecs.get(1).getString("foo")).isEqualTo("baz");
+    }
+
+    @Test
+    public void usesSeparateCodecsPerInput() throws Exception {
+        decode(INPUT_ID, Map.of("foo", "bar"), "first");
+        decode("5f0c0aa00000000000000001", Map.of("foo", "bar"), "second");
+        decode(INPUT_ID, Map.of("foo", "bar"), "third");
+
+        assertThat(createdCodecs).hasSize(2);
+    }
+
+    @Test
+    public void createsNewCodecWhenInputStateChanges() throws Exception {
+        decode(INPUT_ID, Map.of("foo", "bar"), "first");
+
+        final MessageInput input = mock(MessageInput.class);
+        when(input.getId()).thenReturn(INPUT_ID);
+        new IOState<>(eventBus, input, IOState.Type.RUNNING).setState(IOState.Type.STOPPED);
+
+        decode(INPUT_ID, Map.of("foo", "bar"), "second");
+
+        assertThat(createdCodecs).hasSize(2);
+    }
+
+    @Test
+    public void skipsMessagesWithUnknownCodec() throws Exception {
+        final RawMessage raw = rawMessage(INPUT_ID, Map.of(), "first");
+        raw.setCodecName("unknown");
+        final MessageEvent event = new MessageEvent();
+        event.setRaw(raw);
+
+        processor.onEvent(event, 0, true);
+
+        assertThat(event.getMessage()).isNull();
+        assertThat(createdCodecs).isEmpty();
+    }
+
+    private Message decode(String inputId, Map<String, Object> config, String payload) throws Exception {
+        final MessageEvent event = new MessageEvent();
+        event.setRaw(rawMessage(inputId, config, payload));
+        processor.onEvent(event, 0, true);
+        return event.getMessage();
+    }
+
+    private RawMessage rawMessage(String inputId, Map<String, Object> config, String payload) {
+        final RawMessage raw = new RawMessage(payload.getBytes(StandardCharsets.UTF_8));
+        raw.setCodecName(CODEC_NAME);
+        raw.setCodecConfig(new Configuration(ImmutableMap.copyOf(config)));
+        raw.addSourceNode(inputId, new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+        return raw;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.CodecConfigRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JournalCodecConfigRegistryTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path journalDir;
+
+    @Before
+    public void setUp() throws Exception {
+        journalDir = temporaryFolder.newFolder("journal").toPath();
+    }
+
+    @Test
+    public void registersEqualConfigurationsOnce() {
+        final JournalCodecConfigRegistry registry = new JournalCodecConfigRegistry(journalDir);
+        final Configuration config = new Configuration(Map.of("port", 5140));
+
+        final int id = registry.register(config);
+
+        assertThat(id).isNotEqualTo(CodecConfigRegistry.NO_ID);
+        assertThat(registry.register(config)).isEqualTo(id);
+        assertThat(registry.register(new Configuration(Map.of("port", 5140)))).isEqualTo(id);
+        assertThat(registry.register(new Configuration(Map.of("port", 5141)))).isNotEqualTo(id);
+        assertThat(registry.register(Configuration.EMPTY_CONFIGURATION)).isNotEqualTo(CodecConfigRegistry.NO_ID);
+        assertThat(registry.resolve(id).getInt("port")).isEqualTo(5140);
+        assertThat(registry.resolve(42)).isNull();
+    }
+
+    @Test
+    public void loadsRegisteredConfigurations() {
+        final JournalCodecConfigRegistry registry = new JournalCodecConfigRegistry(journalDir);
+        final int first = registry.register(new Configuration(Map.of("port", 5140)));
+        final int second = registry.register(new Configuration(Map.of("port", 5141, "bind_address", "0.0.0.0")));
+        final int empty = registry.register(Configuration.EMPTY_CONFIGURATION);
+
+        final JournalCodecConfigRegistry reloaded = new JournalCodecConfigRegistry(journalDir);
+
+        assertThat(reloaded.resolve(first).getInt("port")).isEqualTo(5140);
+        assertThat(reloaded.resolve(second).getString("bind_address")).isEqualTo("0.0.0.0");
+        assertThat(reloaded.resolve(empty).getSource()).isEmpty();
+        assertThat(reloaded.register(new Configuration(Map.of("port", 5140)))).isEqualTo(first);
+        assertThat(reloaded.register(new Configuration(Map.of("port", 5142))))
+                .isNotIn(first, second, empty, CodecConfigRegistry.NO_ID);
+    }
+
+    @Test
+    public void ignoresIncompleteEntries() throws Exception {
+        final JournalCodecConfigRegistry registry = new JournalCodecConfigRegistry(journalDir);
+        final int first = registry.register(new Configuration(Map.of("port", 5140)));
+        Files.writeString(journalDir.resolve(JournalCodecConfigRegistry.FILE_NAME), "garbage", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+
+        final JournalCodecConfigRegistry reloaded = new JournalCodecConfigRegistry(journalDir);
+        final int second = reloaded.register(new Configuration(Map.of("port", 5141)));
+
+        final JournalCodecConfigRegistry reloadedAgain = new JournalCodecConfigRegistry(journalDir);
+        assertThat(reloadedAgain.resolve(first).getInt("port")).isEqualTo(5140);
+        assertThat(reloadedAgain.resolve(second).getInt("port")).isEqualTo(5141);
+    }
+}
@@ -122,6 +122,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -147,6 +148,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -163,6 +165,86 @@ public class LocalKafkaJournalTest {
         assertEquals("message1", new String(firstMessage.getPayload(), UTF_8));
     }
 
+    @Test
+    public void writeAndReadCompressed() throws Exception {
+        for (JournalCompression compression : new JournalCompression[]{JournalCompression.SNAPPY, JournalCompression.GZIP}) {
+            final MetricRegistry metricRegistry = new MetricRegistry();
+            final LocalKafkaJournal journal = newCompressedJournal(temporaryFolder.newFolder().toPath(), compression, metricRegistry);
+
+            // large enough for more than one compressed message set per write
+            final List<Journal.Entry> entries = Lists.newArrayList();
+            for (int i = 0; i < 20_000; i++) {
+                entries.add(journal.createEntry(("id" + i).getBytes(UTF_8), ("<13>Oct 18 10:00:00 host app: message " + i).getBytes(UTF_8)));
+            }
+            assertThat(journal.write(entries.subList(0, 15_000))).isEqualTo(14_999L);
+            assertThat(journal.write(entries.subList(15_000, 20_000))).isEqualTo(19_999L);
+
+            // reads start and end within compressed message sets
+            final List<Journal.JournalReadEntry> firstRead = journal.read(10, 7);
+            assertThat(firstRead).extracting(Journal.JournalReadEntry::getOffset).containsExactly(10L, 11L, 12L, 13L, 14L, 15L, 16L);
+            assertThat(new String(firstRead.get(0).getPayload(), UTF_8)).isEqualTo("<13>Oct 18 10:00:00 host app: message 10");
+
+            long nextOffset = 0L;
+            while (nextOffset < 20_000L) {
+                final List<Journal.JournalReadEntry> read = journal.read(nextOffset, 1_000);
+                assertThat(read).isNotEmpty().hasSizeLessThanOrEqualTo(1_000);
+                for (Journal.JournalReadEntry entry : read) {
+                    assertThat(entry.getOffset()).isEqualTo(nextOffset);
+                    assertThat(new String(entry.getPayload(), UTF_8)).isEqualTo("<13>Oct 18 10:00:00 host app: message " + nextOffset);
+                    nextOffset++;
+                }
+            }
+            assertThat(journal.read(20_000L, 10)).isEmpty();
+
+            final Double ratio = (Double) metricRegistry.getGauges().get(LocalKafkaJournal.class.getName() + ".compressionRatio").getValue();
+            assertThat(ratio).as("compression ratio of %s", compression).isGreaterThan(2.0d);
+            assertThat(metricRegistry.getTimers().get(LocalKafkaJournal.class.getName() + ".compressTime").getCount()).isGreaterThan(1L);
+            assertThat(metricRegistry.getTimers().get(LocalKafkaJournal.class.getName() + ".decompressTime").getCount()).isGreaterThan(1L);
+
+            journal.stopAsync().awaitTerminated();
+        }
+    }
+
+    @Test
+    public void readsUncompressedAndCompressedMessages() throws Exception {
+        final Path directory = journalDirectory.toPath();
+        final LocalKafkaJournal uncompressed = newCompressedJournal(directory, JournalCompression.NONE, new MetricRegistry());
+        for (int i = 0; i < 10; i++) {
+            uncompressed.write(("id" + i).getBytes(UTF_8), ("message " + i).getBytes(UTF_8));
+        }
+        uncompressed.stopAsync().awaitTerminated();
+
+        final LocalKafkaJournal compressed = newCompressedJournal(directory, JournalCompression.SNAPPY, new MetricRegistry());
+        final List<Journal.Entry> entries = Lists.newArrayList();
+        for (int i = 10; i < 20; i++) {
+            entries.add(compressed.createEntry(("id" + i).getBytes(UTF_8), ("message " + i).getBytes(UTF_8)));
+        }
+        compressed.write(entries);
+
+        final List<Journal.JournalReadEntry> read = compressed.read(5, 10);
+        assertThat(read).extracting(Journal.JournalReadEntry::getOffset).containsExactly(5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L, 14L);
+        assertThat(read).extracting(entry -> new String(entry.getPayload(), UTF_8)).contains("message 9", "message 10");
+
+        compressed.stopAsync().awaitTerminated();
+    }
+
+    private LocalKafkaJournal newCompressedJournal(Path directory, JournalCompression compression, MetricRegistry metricRegistry) {
+        final LocalKafkaJournal journal = new LocalKafkaJournal(directory,
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                compression,
+                metricRegistry,
+                serverStatus);
+        journal.startAsync().awaitRunning();
+        return journal;
+    }
+
     private int createBulkChunks(LocalKafkaJournal journal, Size segmentSize, int bulkCount) {
         // Magic numbers deduced by magic…
         int bulkSize = Ints.saturatedCast(segmentSize.toBytes() / (2L * 16L));
@@ -203,6 +285,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -235,6 +318,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -275,6 +359,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -304,6 +389,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
         final File messageJournalDir = new File(journalDirectory, "messagejournal-0");
@@ -340,6 +426,7 @@ public class LocalKafkaJournalTest {
                     1_000_000,
                     Duration.standardMinutes(1),
                     100,
+                    JournalCompression.NONE,
                     new MetricRegistry(),
                     serverStatus);
             final File messageJournalDir = new File(journalDirectory, "messagejournal-0");
@@ -394,6 +481,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
         final File messageJournalDir = new File(journalDirectory, "messagejournal-0");
@@ -445,6 +533,7 @@ public class LocalKafkaJournalTest {
                     1_000_000,
                     Duration.standardMinutes(1),
                     100,
+                    JournalCompression.NONE,
                     new MetricRegistry(),
                     serverStatus);
             fail("Expected exception");
@@ -472,6 +561,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardSeconds(1L),
                 90,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -495,6 +585,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardSeconds(1L),
                 90,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -515,6 +606,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -559,6 +651,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 100,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
@@ -591,6 +684,7 @@ public class LocalKafkaJournalTest {
                 1_000_000,
                 Duration.standardMinutes(1),
                 LocalKafkaJournal.THRESHOLD_THROTTLING_DISABLED,
+                JournalCompression.NONE,
                 new MetricRegistry(),
                 serverStatus);
 
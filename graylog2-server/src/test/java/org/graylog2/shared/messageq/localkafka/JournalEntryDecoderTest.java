@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.messageq.localkafka;
+
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.graylog2.shared.journal.Journal;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournalEntryDecoderTest {
+    @Test
+    void decodesInCallingThreadWithSingleThread() throws Exception {
+        try (final JournalEntryDecoder decoder = new JournalEntryDecoder(1, null)) {
+            assertDecodedInOrder(decoder.decode(entries(1000)), 1000);
+        }
+    }
+
+    @Test
+    void decodesLargeBatchesInParallelAndKeepsOrder() throws Exception {
+        try (final JournalEntryDecoder decoder = new JournalEntryDecoder(4, null)) {
+            for (int size : new int[]{0, 1, JournalEntryDecoder.MIN_ENTRIES_PER_THREAD * 2 - 1, 1000, 1001}) {
+                assertDecodedInOrder(decoder.decode(entries(size)), size);
+            }
+        }
+    }
+
+    @Test
+    void returnsNullForInvalidEntries() throws Exception {
+        final List<Journal.JournalReadEntry> entries = entries(500);
+        entries.set(123, new Journal.JournalReadEntry(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff}, 123));
+
+        try (final JournalEntryDecoder decoder = new JournalEntryDecoder(4, null)) {
+            final RawMessage[] decoded = decoder.decode(entries);
+
+            assertThat(decoded).hasSize(500);
+            assertThat(decoded[123]).isNull();
+            assertThat(decoded[122].getMessageQueueId()).isEqualTo(122L);
+            assertThat(decoded[124].getMessageQueueId()).isEqualTo(124L);
+        }
+    }
+
+    private static void assertDecodedInOrder(RawMessage[] decoded, int size) {
+        assertThat(decoded).hasSize(size);
+        for (int i = 0; i < size; i++) {
+            assertThat(decoded[i].getMessageQueueId()).isEqualTo((long) i);
+            assertThat(new String(decoded[i].getPayload(), StandardCharsets.UTF_8)).isEqualTo("message-" + i);
+        }
+    }
+
+    private static List<Journal.JournalReadEntry> entries(int size) {
+        final List<Journal.JournalReadEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final RawMessage rawMessage = new RawMessage(("message-" + i).getBytes(StandardCharsets.UTF_8));
+            rawMessage.addSourceNode("inputid", new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+            rawMessage.setCodecName("raw");
+            rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+            entries.add(new Journal.JournalReadEntry(rawMessage.encode(), i));
+        }
+        return entries;
+    }
+}
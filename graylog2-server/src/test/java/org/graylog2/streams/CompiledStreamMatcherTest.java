@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.streams.matchers.StreamRuleMock;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class CompiledStreamMatcherTest {
+    private static final String[] FIELDS = {"source", "facility", "level", "gl2_source_input", "action"};
+    private static final String[] VALUES = {"fw01", "FW01", " fw01 ", "fw02", "kern", "1", "5", "10", "abc", "allow", "deny", "a", "", "^fw", "fw0[12]", "ow"};
+    private static final StreamRuleType[] TYPES = {
+            StreamRuleType.EXACT, StreamRuleType.REGEX, StreamRuleType.GREATER, StreamRuleType.SMALLER,
+            StreamRuleType.PRESENCE, StreamRuleType.CONTAINS, StreamRuleType.ALWAYS_MATCH, StreamRuleType.MATCH_INPUT
+    };
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private StreamFaultManager streamFaultManager;
+    @Mock
+    private Stream defaultStream;
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+
+    @Before
+    public void setUp() {
+        when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(250L);
+    }
+
+    @Test
+    public void matchesSameStreamsAsLinearEngine() {
+        final Random random = new Random(1234L);
+
+        for (int round = 0; round < 10; round++) {
+            final List<Stream> streams = randomStreams(random, 60);
+            final StreamRouterEngine linear = newEngine(streams, StreamRouterEngineMode.LINEAR);
+            final StreamRouterEngine compiled = newEngine(streams, StreamRouterEngineMode.COMPILED);
+
+            for (int i = 0; i < 100; i++) {
+                final Map<String, Object> fields = randomFields(random);
+
+                assertThat(compiled.match(newMessage(fields)))
+                        .as("Streams matching %s", fields)
+                        .containsExactlyInAnyOrderElementsOf(linear.match(newMessage(fields)));
+            }
+        }
+    }
+
+    @Test
+    public void ruleWithoutValueIsEvaluatedLikeInLinearEngine() {
+        final StreamMock stream = new StreamMock(ImmutableMap.of("_id", new ObjectId(), "title", "test", "matching_type", Stream.MatchingType.OR));
+        stream.setStreamRules(List.of(rule(stream, StreamRuleType.CONTAINS, "source", null, false)));
+
+        final StreamRouterEngine engine = newEngine(List.of(stream), StreamRouterEngineMode.COMPILED);
+        final Message message = newMessage(Map.of("source", "fw01"));
+
+        assertThat(engine.match(message)).isEmpty();
+        assertThat(message.processingErrors()).hasSize(1);
+    }
+
+    private StreamRouterEngine newEngine(List<Stream> streams, StreamRouterEngineMode mode) {
+        return new StreamRouterEngine(streams, streamFaultManager, new StreamMetrics(new MetricRegistry()),
+                () -> defaultStream, new MetricRegistry(), mode);
+    }
+
+    private Message newMessage(Map<String, Object> fields) {
+        final Message message = messageFactory.createMessage("test message", "localhost", new DateTime(DateTimeZone.UTC));
+        message.addFields(fields);
+        return message;
+    }
+
+    private static List<Stream> randomStreams(Random random, int count) {
+        final List<Stream> streams = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Stream.MatchingType matchingType = random.nextBoolean() ? Stream.MatchingType.AND : Stream.MatchingType.OR;
+            final StreamMock stream = new StreamMock(ImmutableMap.of("_id", new ObjectId(), "title", "stream-" + i, "matching_type", matchingType));
+            final List<StreamRule> rules = new ArrayList<>();
+            final int ruleCount = random.nextInt(5);
+            for (int r = 0; r < ruleCount; r++) {
+                rules.add(rule(stream,
+                        TYPES[random.nextInt(TYPES.length)],
+                        FIELDS[random.nextInt(FIELDS.length)],
+                        VALUES[random.nextInt(VALUES.length)],
+                        random.nextInt(4) == 0));
+            }
+            stream.setStreamRules(rules);
+            streams.add(stream);
+        }
+        return streams;
+    }
+
+    private static Map<String, Object> randomFields(Random random) {
+        final Map<String, Object> fields = new HashMap<>();
+        for (String field : FIELDS) {
+            switch (random.nextInt(5)) {
+                case 0 -> {
+                    // field is missing
+                }
+                case 1 -> fields.put(field, random.nextInt(12));
+                case 2 -> fields.put(field, random.nextDouble() * 12);
+                default -> fields.put(field, VALUES[random.nextInt(VALUES.length)] + (random.nextBoolean() ? "" : VALUES[random.nextInt(VALUES.length)]));
+            }
+        }
+        return fields;
+    }
+
+    private static StreamRule rule(Stream stream, StreamRuleType type, String field, String value, boolean inverted) {
+        final Map<String, Object> rule = new HashMap<>();
+        rule.put("_id", new ObjectId());
+        rule.put("type", type.toInteger());
+        rule.put("field", field);
+        rule.put("value", value);
+        rule.put("inverted", inverted);
+        rule.put("stream_id", stream.getId());
+        return new StreamRuleMock(rule);
+    }
+}
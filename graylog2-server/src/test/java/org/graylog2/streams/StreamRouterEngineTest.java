@@ -22,26 +22,29 @@ import com.google.common.collect.Lists;
 import jakarta.inject.Provider;
 import org.bson.types.ObjectId;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
 import org.graylog2.plugin.MessageFactory;
 import org.graylog2.plugin.TestMessageFactory;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.streams.StreamRule;
 import org.graylog2.plugin.streams.StreamRuleType;
-import org.graylog2.shared.SuppressForbidden;
 import org.graylog2.streams.matchers.StreamRuleMock;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -50,12 +53,22 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+@RunWith(Parameterized.class)
 public class StreamRouterEngineTest {
     @Rule
     public final MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<StreamRouterEngineMode> engineModes() {
+        return Arrays.asList(StreamRouterEngineMode.values());
+    }
+
+    @Parameterized.Parameter
+    public StreamRouterEngineMode engineMode;
+
     @Mock
     private StreamFaultManager streamFaultManager;
     @Mock
@@ -72,10 +85,9 @@ public class StreamRouterEngineTest {
         when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(250L);
     }
 
-    @SuppressForbidden("Executors#newSingleThreadExecutor() is okay for tests")
     private StreamRouterEngine newEngine(List<Stream> streams) {
-        return new StreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics,
-                defaultStreamProvider, new MetricRegistry());
+        return new StreamRouterEngine(streams, streamFaultManager, streamMetrics,
+                defaultStreamProvider, new MetricRegistry(), engineMode);
     }
 
     @Test
@@ -308,6 +320,30 @@ public class StreamRouterEngineTest {
         assertEquals(Lists.newArrayList(stream), engine.match(message));
     }
 
+    @Test
+    public void testRegexMatchTimeout() throws Exception {
+        final StreamMock stream = getStreamMock("test");
+        final StreamRuleMock rule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield",
+                "value", "^(a+)+\\1$",
+                "type", StreamRuleType.REGEX.toInteger(),
+                "stream_id", stream.getId()
+        ));
+
+        stream.setStreamRules(Lists.newArrayList(rule));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream));
+        final Message message = getMessage();
+
+        // Catastrophic backtracking which would not finish without the timeout.
+        message.addField("testfield", "a".repeat(64) + "!");
+
+        assertThat(engine.match(message)).isEmpty();
+        verify(streamFaultManager).registerFailure(stream);
+        assertThat(message.processingErrors()).isEmpty();
+    }
+
     @Test
     public void testMultipleRulesMatch() throws Exception {
         final StreamMock stream = getStreamMock("test");
@@ -768,6 +804,96 @@ public class StreamRouterEngineTest {
                 Lists.newArrayList(stream), engine.match(message2));
     }
 
+    @Test
+    public void testMatchBatch() throws Exception {
+        final StreamMock stream1 = getStreamMock("test1");
+        final StreamMock stream2 = getStreamMock("test2", Stream.MatchingType.OR);
+
+        final StreamRuleMock rule1 = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield1",
+                "type", StreamRuleType.PRESENCE.toInteger(),
+                "stream_id", stream1.getId()
+        ));
+        final StreamRuleMock rule2 = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield2",
+                "value", "^test",
+                "type", StreamRuleType.REGEX.toInteger(),
+                "stream_id", stream1.getId()
+        ));
+        final StreamRuleMock rule3 = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield3",
+                "value", "testvalue3",
+                "type", StreamRuleType.EXACT.toInteger(),
+                "stream_id", stream2.getId()
+        ));
+        final StreamRuleMock rule4 = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield1",
+                "value", "other",
+                "type", StreamRuleType.CONTAINS.toInteger(),
+                "stream_id", stream2.getId()
+        ));
+
+        stream1.setStreamRules(Lists.newArrayList(rule1, rule2));
+        stream2.setStreamRules(Lists.newArrayList(rule3, rule4));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream1, stream2));
+
+        final Message message1 = getMessage();
+        final Message message2 = getMessage();
+        message2.addField("testfield1", "testvalue");
+        message2.addField("testfield2", "testvalue2");
+        final Message message3 = getMessage();
+        message3.addField("testfield1", "another value");
+        message3.addField("testfield2", "no match");
+        final Message message4 = getMessage();
+        message4.addField("testfield1", "testvalue");
+        message4.addField("testfield2", "testvalue2");
+        message4.addField("testfield3", "testvalue3");
+        final List<Message> messages = Lists.newArrayList(message1, message2, message3, message4);
+
+        final List<List<Stream>> batchResult = engine.matchBatch(new MessageCollection(messages));
+
+        assertThat(batchResult).hasSize(4);
+        assertThat(batchResult.get(0)).isEmpty();
+        assertThat(batchResult.get(1)).containsExactly(stream1);
+        assertThat(batchResult.get(2)).containsExactly(stream2);
+        assertThat(batchResult.get(3)).containsExactlyInAnyOrder(stream1, stream2);
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(batchResult.get(i)).containsExactlyInAnyOrderElementsOf(engine.match(messages.get(i)));
+        }
+    }
+
+    @Test
+    public void testMatchBatchRemovesFromDefaultStream() throws Exception {
+        final StreamMock stream = getStreamMock("test");
+        final StreamRuleMock rule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield",
+                "type", StreamRuleType.PRESENCE.toInteger(),
+                "stream_id", stream.getId()
+        ));
+        stream.setRemoveMatchesFromDefaultStream(true);
+        stream.setStreamRules(Collections.singletonList(rule));
+
+        final StreamRouterEngine engine = newEngine(Collections.singletonList(stream));
+        final Message message1 = getMessage();
+        message1.addStream(defaultStream);
+        final Message message2 = getMessage();
+        message2.addStream(defaultStream);
+        message2.addField("testfield", "testvalue");
+
+        final List<List<Stream>> batchResult = engine.matchBatch(new MessageCollection(List.of(message1, message2)));
+
+        assertThat(batchResult.get(0)).isEmpty();
+        assertThat(batchResult.get(1)).containsExactly(stream);
+        assertThat(message1.getStreams()).containsExactly(defaultStream);
+        assertThat(message2.getStreams()).doesNotContain(defaultStream);
+    }
+
     private StreamMock getStreamMock(String title) {
         return getStreamMock(title, Stream.MatchingType.AND);
     }
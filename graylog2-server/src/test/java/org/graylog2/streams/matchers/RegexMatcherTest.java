@@ -16,15 +16,18 @@
  */
 package org.graylog2.streams.matchers;
 
+import com.google.common.util.concurrent.UncheckedTimeoutException;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.streams.StreamRule;
 import org.graylog2.plugin.streams.StreamRuleType;
 import org.junit.Test;
 
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 public class RegexMatcherTest extends MatcherTest {
@@ -158,6 +161,30 @@ public class RegexMatcherTest extends MatcherTest {
         assertTrue(matcher.match(msg, rule));
     }
 
+    @Test
+    public void testDeadlineExceeded() {
+        StreamRule rule = getSampleRule();
+        rule.setValue("^(a+)+\\1$");
+
+        Message msg = getSampleMessage();
+        msg.addField("something", "a".repeat(64) + "!");
+
+        StreamRuleMatcher matcher = getMatcher(rule);
+        assertThrows(UncheckedTimeoutException.class, () -> matcher.match(msg, rule, System.nanoTime()));
+    }
+
+    @Test
+    public void testMatchBeforeDeadline() {
+        StreamRule rule = getSampleRule();
+        rule.setValue("^foo");
+
+        Message msg = getSampleMessage();
+        msg.addField("something", "foobar");
+
+        StreamRuleMatcher matcher = getMatcher(rule);
+        assertTrue(matcher.match(msg, rule, System.nanoTime() + TimeUnit.SECONDS.toNanos(10)));
+    }
+
     @Override
     protected StreamRule getSampleRule() {
         StreamRule rule = super.getSampleRule();
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AhoCorasickAutomatonTest {
+    @Test
+    public void findsOverlappingPatterns() {
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(List.of("he", "she", "his", "hers"));
+
+        assertThat(automaton.findAll("ushers").stream().toArray()).containsExactly(0, 1, 3);
+        assertThat(automaton.findAll("this").stream().toArray()).containsExactly(2);
+        assertThat(automaton.findAll("nothing").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void findsPatternsWhichAreSuffixesOfOtherPatterns() {
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(List.of("abcd", "bc", "c", "xbcy"));
+
+        assertThat(automaton.findAll("abcx").stream().toArray()).containsExactly(1, 2);
+        assertThat(automaton.findAll("xbcy").stream().toArray()).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    public void emptyPatternIsAlwaysFound() {
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(List.of("", "foo"));
+
+        assertThat(automaton.findAll("").stream().toArray()).containsExactly(0);
+        assertThat(automaton.findAll("a foo").stream().toArray()).containsExactly(0, 1);
+    }
+
+    @Test
+    public void matchesStringContainsForRandomInput() {
+        final Random random = new Random(42L);
+        for (int round = 0; round < 200; round++) {
+            final List<String> patterns = random.ints(1 + random.nextInt(20), 0, Integer.MAX_VALUE)
+                    .mapToObj(i -> randomString(random, 1 + random.nextInt(4)))
+                    .toList();
+            final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(patterns);
+            final String text = randomString(random, random.nextInt(40));
+
+            final BitSet expected = new BitSet();
+            for (int i = 0; i < patterns.size(); i++) {
+                if (text.contains(patterns.get(i))) {
+                    expected.set(i);
+                }
+            }
+
+            assertThat(automaton.findAll(text)).as("patterns %s in <%s>", patterns, text).isEqualTo(expected);
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+}
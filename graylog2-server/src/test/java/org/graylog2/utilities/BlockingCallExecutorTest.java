@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+public class BlockingCallExecutorTest {
+    private MetricRegistry metricRegistry;
+    private BlockingCallExecutor blockingCallExecutor;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        blockingCallExecutor = new BlockingCallExecutor(BlockingCallExecutionMode.PLATFORM, metricRegistry);
+    }
+
+    @Test
+    public void limitsConcurrentCalls() throws Exception {
+        final BlockingCallExecutor.Bounded bounded = blockingCallExecutor.bounded("test", 2, 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(5);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            bounded.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> bounded.inFlight() == 2);
+        assertThat(bounded.queued()).isEqualTo(3);
+        assertThat(gauge("test.in-flight")).isEqualTo(2);
+        assertThat(gauge("test.queued")).isEqualTo(3);
+        assertThat(gauge("org.graylog2.utilities.BlockingCallExecutor.in-flight")).isEqualTo(2);
+
+        release.countDown();
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(2);
+        await().atMost(10, TimeUnit.SECONDS).until(() -> blockingCallExecutor.inFlight() == 0);
+        assertThat(bounded.queued()).isZero();
+    }
+
+    @Test
+    public void reportsPinnedVirtualThreadsOnlyInVirtualMode() throws Exception {
+        assertThat(metricRegistry.getMeters()).doesNotContainKey("org.graylog2.utilities.BlockingCallExecutor.pinned");
+
+        final MetricRegistry virtualMetricRegistry = new MetricRegistry();
+        final BlockingCallExecutor virtual = new BlockingCallExecutor(BlockingCallExecutionMode.VIRTUAL, virtualMetricRegistry);
+        try {
+            assertThat(virtualMetricRegistry.getMeters().containsKey("org.graylog2.utilities.BlockingCallExecutor.pinned"))
+                    .isEqualTo(virtual.mode() == BlockingCallExecutionMode.VIRTUAL);
+        } finally {
+            virtual.shutdown(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void failingCallsDontBlockQueuedCalls() throws Exception {
+        final BlockingCallExecutor.Bounded bounded = blockingCallExecutor.bounded("test", 1, 100);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        bounded.execute(() -> {
+            throw new IllegalStateException("failure");
+        });
+        bounded.execute(done::countDown);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void boundedExecutorsAreSharedByName() {
+        final BlockingCallExecutor.Bounded bounded = blockingCallExecutor.bounded("test", 1, 100);
+
+        assertThat(blockingCallExecutor.bounded("test", 5, 100)).isSameAs(bounded);
+
+        blockingCallExecutor.remove("test");
+
+        assertThat(metricRegistry.getGauges()).doesNotContainKeys("test.in-flight", "test.queued");
+        assertThat(metricRegistry.getMeters()).doesNotContainKey("test.rejected");
+        assertThat(blockingCallExecutor.bounded("test", 1, 100)).isNotSameAs(bounded);
+    }
+
+    @Test
+    public void rejectsCallsWhenQueueIsFull() throws Exception {
+        final BlockingCallExecutor.Bounded bounded = blockingCallExecutor.bounded("test", 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final Runnable call = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        };
+
+        bounded.execute(call);
+        bounded.execute(call);
+
+        assertThatThrownBy(() -> bounded.execute(call)).isInstanceOf(RejectedExecutionException.class);
+        assertThat(metricRegistry.getMeters().get("test.rejected").getCount()).isEqualTo(1);
+
+        release.countDown();
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void waitsForSpaceWhenQueueIsFull() throws Exception {
+        final BlockingCallExecutor.Bounded bounded = blockingCallExecutor.bounded("test", 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final Runnable call = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        };
+
+        bounded.executeWaiting(call);
+        bounded.executeWaiting(call);
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final Thread submitter = new Thread(() -> {
+            try {
+                bounded.executeWaiting(call);
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+
+        assertThat(submitted.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(metricRegistry.getMeters().get("test.rejected").getCount()).isZero();
+
+        release.countDown();
+
+        assertThat(submitted.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void rejectsCallsAfterShutdown() throws Exception {
+        final BlockingCallExecutor.Bounded bounded = blockingCallExecutor.bounded("test", 1, 100);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        bounded.execute(() -> {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+
+        blockingCallExecutor.shutdown(10, TimeUnit.SECONDS);
+
+        assertThat(interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThatThrownBy(() -> bounded.execute(() -> {})).isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    public void rejectsInvalidLimits() {
+        assertThatThrownBy(() -> blockingCallExecutor.bounded("test", 0, 100))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> blockingCallExecutor.bounded("other", 1, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void convertsModes() {
+        final BlockingCallExecutionMode.Converter converter = new BlockingCallExecutionMode.Converter();
+
+        assertThat(converter.convertFrom(" Virtual ")).isEqualTo(BlockingCallExecutionMode.VIRTUAL);
+        assertThat(converter.convertTo(BlockingCallExecutionMode.PLATFORM)).isEqualTo("platform");
+        assertThatThrownBy(() -> converter.convertFrom("carrier"))
+                .hasMessageContaining("platform, virtual");
+    }
+
+    private Object gauge(String name) {
+        final Gauge<?> gauge = metricRegistry.getGauges().get(name);
+        return gauge.getValue();
+    }
+}
@@ -107,6 +107,14 @@ const CSVFileAdapterFieldSet = ({ config, handleFormEvent, validationState, vali
            onChange={handleFormEvent}
            help="Enable if the keys in the lookup table are in CIDR notation and lookups will be done with IPs"
            wrapperClassName="col-md-offset-3 col-md-9" />
+    <Input type="checkbox"
+           id="off_heap_storage"
+           name="off_heap_storage"
+           label="Off-heap storage"
+           checked={config.off_heap_storage}
+           onChange={handleFormEvent}
+           help="Enable to keep the data of large CSV files in a memory-mapped file instead of the Java heap. Not used for CIDR lookups."
+           wrapperClassName="col-md-offset-3 col-md-9" />
   </fieldset>
 );
 
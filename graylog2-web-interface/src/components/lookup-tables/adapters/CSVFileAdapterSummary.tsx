@@ -43,6 +43,8 @@ const CSVFileAdapterSummary = ({ dataAdapter }: Props) => {
       <dd>{config.case_insensitive_lookup ? 'yes' : 'no'}</dd>
       <dt>CIDR lookup</dt>
       <dd>{config.cidr_lookup ? 'yes' : 'no'}</dd>
+      <dt>Off-heap storage</dt>
+      <dd>{config.off_heap_storage ? 'yes' : 'no'}</dd>
     </dl>
   );
 };
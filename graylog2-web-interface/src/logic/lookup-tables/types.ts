@@ -50,6 +50,7 @@ export type LookupTableDataAdapterConfig = {
   check_interval?: number,
   case_insensitive_lookup?: boolean,
   cidr_lookup?: boolean,
+  off_heap_storage?: boolean,
 };
 
 export type LookupTableAdapter = GenericEntityType & {